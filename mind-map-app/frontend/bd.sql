@@ -18,9 +18,72 @@ CREATE TABLE IF NOT EXISTS mapas_mentales (
     id INT NOT NULL AUTO_INCREMENT,
     usuario_id INT NOT NULL,
     titulo VARCHAR(255) NOT NULL,
-    datos_json JSON NOT NULL,
+    -- Con -Dmapas.compresion=true el documento se guarda en datos_comprimidos (formato COMPRESS()) y datos_json queda NULL
+    datos_json JSON NULL,
+    datos_comprimidos LONGBLOB NULL,
+    nodes_count INT NOT NULL DEFAULT 0,
+    edges_count INT NOT NULL DEFAULT 0,
+    size_bytes BIGINT NOT NULL DEFAULT 0,
+    version INT NOT NULL DEFAULT 1,
     fecha_creacion DATETIME DEFAULT CURRENT_TIMESTAMP,
     ultima_modificacion DATETIME DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
     PRIMARY KEY (id),
+    KEY idx_usuario_modificacion (usuario_id, ultima_modificacion, id, version),
     FOREIGN KEY (usuario_id) REFERENCES usuarios(id)
-);
\ No newline at end of file
+);
+
+-- Modelo normalizado opcional (-Dmapas.normalizado=true): una fila por nodo y arista
+CREATE TABLE IF NOT EXISTS map_nodes (
+    mapa_id INT NOT NULL,
+    node_id VARCHAR(191) NOT NULL,
+    orden INT NOT NULL,
+    type VARCHAR(64),
+    pos_x DOUBLE NOT NULL DEFAULT 0,
+    pos_y DOUBLE NOT NULL DEFAULT 0,
+    label VARCHAR(255),
+    data JSON,
+    extra JSON,
+    PRIMARY KEY (mapa_id, node_id),
+    KEY idx_nodes_orden (mapa_id, orden),
+    FOREIGN KEY (mapa_id) REFERENCES mapas_mentales(id) ON DELETE CASCADE
+);
+
+CREATE TABLE IF NOT EXISTS map_edges (
+    mapa_id INT NOT NULL,
+    edge_id VARCHAR(191) NOT NULL,
+    orden INT NOT NULL,
+    source VARCHAR(191),
+    target VARCHAR(191),
+    type VARCHAR(64),
+    label VARCHAR(255),
+    data JSON,
+    extra JSON,
+    PRIMARY KEY (mapa_id, edge_id),
+    KEY idx_edges_orden (mapa_id, orden),
+    FOREIGN KEY (mapa_id) REFERENCES mapas_mentales(id) ON DELETE CASCADE
+);
+-- Para rellenarlas con los mapas existentes: api.MigracionNormalizada
+
+-- Migración para bases existentes: columnas de resumen para el listado
+-- ALTER TABLE mapas_mentales
+--     ADD COLUMN nodes_count INT NOT NULL DEFAULT 0,
+--     ADD COLUMN edges_count INT NOT NULL DEFAULT 0,
+--     ADD COLUMN size_bytes BIGINT NOT NULL DEFAULT 0;
+-- UPDATE mapas_mentales SET
+--     nodes_count = COALESCE(JSON_LENGTH(datos_json, '$.nodes'), 0),
+--     edges_count = COALESCE(JSON_LENGTH(datos_json, '$.edges'), 0),
+--     size_bytes = LENGTH(datos_json);
+
+-- Migración para bases existentes: versión para ETags
+-- ALTER TABLE mapas_mentales ADD COLUMN version INT NOT NULL DEFAULT 1;
+
+-- Migración para bases existentes: índice de la paginación por cursor
+-- CREATE INDEX idx_usuario_modificacion ON mapas_mentales (usuario_id, ultima_modificacion, id, version);
+
+-- Migración para bases existentes: almacenamiento comprimido de datos_json
+-- ALTER TABLE mapas_mentales
+--     MODIFY datos_json JSON NULL,
+--     ADD COLUMN datos_comprimidos LONGBLOB NULL AFTER datos_json;
+-- Comprimir los mapas existentes (el formato de COMPRESS() es el que usa api.MapCompression):
+-- UPDATE mapas_mentales SET datos_comprimidos = COMPRESS(datos_json), datos_json = NULL
+--     WHERE datos_comprimidos IS NULL;
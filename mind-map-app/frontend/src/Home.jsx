@@ -122,14 +122,15 @@ const Home = () => {
             
             if (parsedDiagram.id) {
               try {
-                const response = await api.get(`/mindmaps/${parsedDiagram.id}`);
+                const response = await api.get(`/mindmaps/${parsedDiagram.id}`, { params: { json: 'raw' } });
                 if (response.status === 200) {
+                  const savedData = response.data.datos_json;
                   setIsEditing(true);
                   setCurrentDiagramId(parsedDiagram.id);
                   setTitle(response.data.titulo);
                   setLastSavedData({
-                    nodes: JSON.parse(response.data.datos_json).nodes,
-                    edges: JSON.parse(response.data.datos_json).edges
+                    nodes: savedData.nodes,
+                    edges: savedData.edges
                   });
                 }
               } catch (error) {
@@ -11,19 +11,6 @@ const DiagramCatalog = () => {
   const [deleteStatus, setDeleteStatus] = useState({ id: null, deleting: false });
   const navigate = useNavigate();
 
-  const parseDiagramData = (jsonString) => {
-    try {
-      const data = JSON.parse(jsonString);
-      return {
-        nodesCount: data.nodes?.length || 0,
-        edgesCount: data.edges?.length || 0,
-      };
-    } catch (e) {
-      console.error('Error parsing diagram JSON:', e);
-      return { nodesCount: 0, edgesCount: 0 };
-    }
-  };
-
   const handleNewDiagram = () => {
     // Limpiar cualquier diagrama guardado en localStorage
     localStorage.removeItem('currentEditingDiagram');
@@ -31,13 +18,15 @@ const DiagramCatalog = () => {
     navigate('/');
   };
 
-  const handleEdit = (diagram) => {
+  const handleEdit = async (diagram) => {
     try {
+      // El catálogo solo trae el resumen; el documento completo se pide al editar
+      const response = await api.get(`/mindmaps/${diagram.id}`, { params: { json: 'raw' } });
       localStorage.setItem('currentEditingDiagram', JSON.stringify({
         id: diagram.id,
         titulo: diagram.name,
-        datos_json: diagram.rawData.datos_json,
-        ultima_modificacion: diagram.rawData.ultima_modificacion,
+        datos_json: JSON.stringify(response.data.datos_json),
+        ultima_modificacion: response.data.ultima_modificacion,
         usuario_id: diagram.rawData.usuario_id
       }));
       navigate('/');
@@ -59,6 +48,7 @@ const DiagramCatalog = () => {
         }
 
         const response = await api.get('/mindmaps/all', {
+          params: { fields: 'summary' },
           headers: {
             'Authorization': `Bearer ${token}`
           }
@@ -69,8 +59,6 @@ const DiagramCatalog = () => {
         }
 
         const formattedDiagrams = response.data.mapas.map(diagram => {
-          const { nodesCount, edgesCount } = parseDiagramData(diagram.datos_json);
-          
           return {
             id: diagram.id,
             name: diagram.titulo,
@@ -81,8 +69,8 @@ const DiagramCatalog = () => {
               hour: '2-digit',
               minute: '2-digit'
             }),
-            nodes: nodesCount,
-            edges: edgesCount,
+            nodes: diagram.nodes_count || 0,
+            edges: diagram.edges_count || 0,
             thumbnail: ['db-model', 'sales-system', 'social-network'][Math.abs(diagram.titulo.hashCode()) % 3],
             rawData: diagram
           };
@@ -0,0 +1,280 @@
+package api;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import org.h2.api.AggregateFunction;
+import org.json.JSONObject;
+
+/**
+ * Utilidades compartidas por los benchmarks: documentos React Flow sintéticos y
+ * peticiones/respuestas de servlet en memoria (proxies sin contenedor).
+ */
+final class BenchSupport {
+
+    private BenchSupport() {
+    }
+
+    /**
+     * Genera un datos_json con la forma de React Flow de aproximadamente targetBytes.
+     * @param targetBytes Tamaño aproximado en bytes.
+     * @param seed Semilla para que el documento sea reproducible.
+     */
+    static String mindMap(int targetBytes, long seed) {
+        Random random = new Random(seed);
+        StringBuilder nodes = new StringBuilder(targetBytes);
+        StringBuilder edges = new StringBuilder(targetBytes / 4);
+        int i = 0;
+        while (nodes.length() + edges.length() < targetBytes - 64) {
+            if (i > 0) {
+                nodes.append(',');
+            }
+            nodes.append("{\"id\":\"n").append(i)
+                .append("\",\"type\":\"custom\",\"position\":{\"x\":").append(random.nextInt(20000) - 10000)
+                .append(",\"y\":").append(random.nextInt(20000) - 10000)
+                .append("},\"data\":{\"label\":\"Idea ").append(i).append(' ').append(Long.toHexString(random.nextLong()))
+                .append("\",\"color\":\"#").append(Integer.toHexString(0x100000 + random.nextInt(0xEFFFFF)))
+                .append("\"},\"width\":150,\"height\":40}");
+            if (i > 0) {
+                if (edges.length() > 0) {
+                    edges.append(',');
+                }
+                edges.append("{\"id\":\"e").append(i).append("\",\"source\":\"n").append(random.nextInt(i))
+                    .append("\",\"target\":\"n").append(i).append("\",\"type\":\"smoothstep\"}");
+            }
+            i++;
+        }
+        return "{\"nodes\":[" + nodes + "],\"edges\":[" + edges + "],\"viewport\":{\"x\":0,\"y\":0,\"zoom\":1}}";
+    }
+
+    /**
+     * Apunta DB a una base H2 en memoria en modo MySQL y crea el esquema de frontend/bd.sql.
+     * Debe llamarse antes de crear la instancia de DB. datos_json se declara LONGTEXT porque
+     * el tipo JSON de H2 no acepta texto JSON enlazado con setString como MySQL. H2 no
+     * trae CRC32 ni BIT_XOR, así que se registran aquí con la semántica de MySQL.
+     * @param name Nombre de la base (cada benchmark usa la suya).
+     */
+    static void useEmbeddedDb(String name) throws SQLException {
+        String url = "jdbc:h2:mem:" + name + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+        System.setProperty("db.url", url);
+        System.setProperty("db.driver", "org.h2.Driver");
+        System.setProperty("db.user", "sa");
+        System.setProperty("db.password", "");
+        try (Connection conn = DriverManager.getConnection(url, "sa", "");
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS usuarios ("
+                + "id INT NOT NULL AUTO_INCREMENT PRIMARY KEY, nombre VARCHAR(100) NOT NULL, "
+                + "email VARCHAR(100) NOT NULL UNIQUE, password_hash VARCHAR(255) NOT NULL, "
+                + "fecha_registro DATETIME DEFAULT CURRENT_TIMESTAMP)");
+            stmt.execute("CREATE TABLE IF NOT EXISTS mapas_mentales ("
+                + "id INT NOT NULL AUTO_INCREMENT PRIMARY KEY, usuario_id INT NOT NULL, titulo VARCHAR(255) NOT NULL, "
+                + "datos_json LONGTEXT NULL, datos_comprimidos LONGBLOB NULL, "
+                + "nodes_count INT NOT NULL DEFAULT 0, edges_count INT NOT NULL DEFAULT 0, "
+                + "size_bytes BIGINT NOT NULL DEFAULT 0, version INT NOT NULL DEFAULT 1, "
+                + "fecha_creacion DATETIME DEFAULT CURRENT_TIMESTAMP, "
+                + "ultima_modificacion DATETIME DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP, "
+                + "FOREIGN KEY (usuario_id) REFERENCES usuarios(id))");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_usuario_modificacion "
+                + "ON mapas_mentales (usuario_id, ultima_modificacion, id, version)");
+            stmt.execute("CREATE ALIAS IF NOT EXISTS CRC32 FOR \"api.BenchSupport$MysqlFunctions.crc32\"");
+            stmt.execute("CREATE AGGREGATE IF NOT EXISTS BIT_XOR FOR \"api.BenchSupport$MysqlFunctions$BitXor\"");
+        }
+    }
+
+    /**
+     * Funciones de MySQL que faltan en H2. Es pública porque H2 las invoca por reflexión.
+     */
+    public static final class MysqlFunctions {
+
+        private MysqlFunctions() {
+        }
+
+        /**
+         * CRC32(): suma de control de los bytes UTF-8, sin signo.
+         */
+        public static Long crc32(String value) {
+            if (value == null) {
+                return null;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(value.getBytes(StandardCharsets.UTF_8));
+            return crc.getValue();
+        }
+
+        /**
+         * BIT_XOR(): como en MySQL, NULL se ignora y sin filas el resultado es 0.
+         */
+        public static final class BitXor implements AggregateFunction {
+            private long value;
+
+            @Override
+            public int getType(int[] inputTypes) {
+                return Types.BIGINT;
+            }
+
+            @Override
+            public void add(Object value) {
+                if (value != null) {
+                    this.value ^= ((Number) value).longValue();
+                }
+            }
+
+            @Override
+            public Object getResult() {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Cuerpo de POST /api/mindmaps con el documento como string, como lo envía el frontend.
+     */
+    static String createBody(String titulo, String datosJson) {
+        return new JSONObject().put("titulo", titulo).put("datos_json", datosJson).toString();
+    }
+
+    /**
+     * Petición en memoria. Cada llamada a getReader()/getInputStream() relee el cuerpo desde el principio.
+     */
+    static HttpServletRequest request(String method, byte[] body, Cookie[] cookies) {
+        Map<String, Object> attributes = new HashMap<>();
+        return (HttpServletRequest) Proxy.newProxyInstance(BenchSupport.class.getClassLoader(),
+            new Class<?>[]{HttpServletRequest.class}, (proxy, m, args) -> {
+                switch (m.getName()) {
+                    case "getMethod":
+                        return method;
+                    case "getContentLength":
+                        return body.length;
+                    case "getContentLengthLong":
+                        return (long) body.length;
+                    case "getContentType":
+                        return "application/json";
+                    case "getCharacterEncoding":
+                        return "UTF-8";
+                    case "getCookies":
+                        return cookies;
+                    case "getInputStream":
+                        return inputStream(body);
+                    case "getReader":
+                        return new BufferedReader(new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8));
+                    case "getAttribute":
+                        return attributes.get((String) args[0]);
+                    case "setAttribute":
+                        attributes.put((String) args[0], args[1]);
+                        return null;
+                    default:
+                        return defaultValue(m.getReturnType());
+                }
+            });
+    }
+
+    /**
+     * Respuesta que descarta el cuerpo y solo cuenta los bytes escritos.
+     */
+    static HttpServletResponse response(long[] written) {
+        int[] status = {200};
+        return (HttpServletResponse) Proxy.newProxyInstance(BenchSupport.class.getClassLoader(),
+            new Class<?>[]{HttpServletResponse.class}, (proxy, m, args) -> {
+                switch (m.getName()) {
+                    case "getWriter":
+                        return new PrintWriter(new OutputStreamWriter(outputStream(written), StandardCharsets.UTF_8));
+                    case "getOutputStream":
+                        return outputStream(written);
+                    case "setStatus":
+                        status[0] = (int) args[0];
+                        return null;
+                    case "getStatus":
+                        return status[0];
+                    case "getCharacterEncoding":
+                        return "UTF-8";
+                    default:
+                        return defaultValue(m.getReturnType());
+                }
+            });
+    }
+
+    private static ServletInputStream inputStream(byte[] body) {
+        ByteArrayInputStream in = new ByteArrayInputStream(body);
+        return new ServletInputStream() {
+            @Override
+            public int read() {
+                return in.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                return in.read(b, off, len);
+            }
+
+            @Override
+            public boolean isFinished() {
+                return in.available() == 0;
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setReadListener(ReadListener readListener) {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private static ServletOutputStream outputStream(long[] written) {
+        return new ServletOutputStream() {
+            @Override
+            public void write(int b) {
+                written[0]++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                written[0] += len;
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,65 @@
+package api;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Materialización de filas de mapas_mentales en DB (ResultSet a MindMapRecord/MindMapSummary)
+ * contra H2 en modo MySQL.
+ * La caché de mapas se desactiva para que cada llamada lea de la base.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g", "-Dmapcache.maxBytes=0"})
+public class DbRowBenchmark {
+    // Se retiene para que JUL no descarte el nivel configurado
+    private static final Logger API_LOGGER = Logger.getLogger("api");
+
+    @Param({"10", "200"})
+    public int rows;
+
+    @Param({"1024", "102400"})
+    public int size;
+
+    private DB db;
+    private int usuarioId;
+    private int mapaId;
+
+    @Setup
+    public void setup() throws Exception {
+        API_LOGGER.setLevel(Level.WARNING);
+        BenchSupport.useEmbeddedDb("rows_" + rows + "_" + size);
+        db = new DB();
+        db.registrarUsuario("Bench", "bench@example.com", "x");
+        usuarioId = (int) db.obtenerCredenciales("bench@example.com").get("id");
+        for (int i = 0; i < rows; i++) {
+            mapaId = db.guardarMapaMental(usuarioId, "Mapa " + i, BenchSupport.mindMap(size, i));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        db.closeConnection();
+    }
+
+    @Benchmark
+    public MindMapRecord obtenerMapa() throws Exception {
+        return db.obtenerMapa(mapaId, usuarioId);
+    }
+
+    @Benchmark
+    public List<MindMapRecord> obtenerMapasPorUsuario() throws Exception {
+        return db.obtenerMapasPorUsuario(usuarioId);
+    }
+
+    @Benchmark
+    public List<MindMapSummary> obtenerResumenMapasPorUsuario() throws Exception {
+        return db.obtenerResumenMapasPorUsuario(usuarioId);
+    }
+}
@@ -0,0 +1,50 @@
+package api;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletResponse;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Lectura y escritura de cuerpos JSON en HttpUtils con mapas de 1 KB a 10 MB.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class HttpUtilsBenchmark {
+
+    @Param({"1024", "102400", "1048576", "10485760"})
+    public int size;
+
+    private byte[] body;
+    private JSONObject parsed;
+    private final long[] written = new long[1];
+
+    @Setup
+    public void setup() {
+        String datosJson = BenchSupport.mindMap(size, 42);
+        body = BenchSupport.createBody("Benchmark", datosJson).getBytes(StandardCharsets.UTF_8);
+        parsed = new JSONObject().put("id", 1).put("titulo", "Benchmark").put("datos_json", datosJson);
+    }
+
+    @Benchmark
+    public JSONObject parseJsonRequest() throws Exception {
+        return HttpUtils.parseJsonRequest(BenchSupport.request("POST", body, null));
+    }
+
+    @Benchmark
+    public MapRequest parseMapRequest() throws Exception {
+        return HttpUtils.parseMapRequest(BenchSupport.request("POST", body, null));
+    }
+
+    @Benchmark
+    public long sendJsonResponse() throws Exception {
+        HttpServletResponse response = BenchSupport.response(written);
+        HttpUtils.sendJsonResponse(response, parsed, HttpServletResponse.SC_OK);
+        return written[0];
+    }
+}
@@ -0,0 +1,50 @@
+package api;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Emisión y verificación de JWT en AuthServlet. verifyCached mide el caso normal
+ * (token ya en TokenCache); verifyUncached desactiva la caché para medir firma y claims.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtBenchmark {
+
+    private Map<String, Object> usuario;
+    private HttpServletRequest request;
+
+    @Setup
+    public void setup() {
+        usuario = new HashMap<>();
+        usuario.put("id", 42);
+        usuario.put("nombre", "Bench");
+        usuario.put("email", "bench@example.com");
+        Cookie[] cookies = {new Cookie("jwt", AuthServlet.generateJWT(usuario))};
+        request = BenchSupport.request("GET", new byte[0], cookies);
+    }
+
+    @Benchmark
+    public String generate() {
+        return AuthServlet.generateJWT(usuario);
+    }
+
+    @Benchmark
+    public boolean verifyCached() {
+        return AuthServlet.verifyRequest(request);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Djwt.cache.maxEntries=0")
+    public boolean verifyUncached() {
+        return AuthServlet.verifyRequest(request);
+    }
+}
@@ -0,0 +1,472 @@
+package api;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.Filter;
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.tomcat.util.descriptor.web.FilterDef;
+import org.apache.tomcat.util.descriptor.web.FilterMap;
+import org.json.JSONObject;
+
+/**
+ * Prueba de carga de extremo a extremo: arranca los servlets y filtros de la API
+ * en un Tomcat embebido contra H2 en memoria y lanza usuarios virtuales con una
+ * mezcla de login, listado, apertura, autoguardado y borrado de mapas (y, si se
+ * incluye en la mezcla, búsqueda de texto).
+ *
+ * Todo corre en la misma máquina y en loopback. Configuración con -Dloadtest.*:
+ * users, seconds, warmupSeconds, mapsPerUser, mix ("op=peso,..."), sizes
+ * ("bytes:peso,..."), listPath, gzip y port. Al terminar imprime, por operación,
+ * peticiones, errores, throughput y latencias p50/p99/p999/max.
+ *
+ *   mvn -Pbenchmarks test-compile exec:exec@loadtest -Dloadtest.args="-Dloadtest.users=50"
+ */
+public class LoadTest {
+    // Se retiene para que JUL no descarte el nivel configurado
+    private static final Logger API_LOGGER = Logger.getLogger("api");
+
+    private static final int USERS = Integer.getInteger("loadtest.users", 20);
+    private static final int SECONDS = Integer.getInteger("loadtest.seconds", 60);
+    private static final int WARMUP_SECONDS = Integer.getInteger("loadtest.warmupSeconds", 10);
+    private static final int MAPS_PER_USER = Integer.getInteger("loadtest.mapsPerUser", 20);
+    private static final String MIX = System.getProperty("loadtest.mix", "login=5,list=20,open=40,save=30,delete=5");
+    private static final String SIZES = System.getProperty("loadtest.sizes", "2048:50,32768:35,262144:12,2097152:3");
+    private static final String LIST_PATH = System.getProperty("loadtest.listPath", "/api/mindmaps/all");
+    private static final boolean GZIP = Boolean.getBoolean("loadtest.gzip");
+    private static final int PORT = Integer.getInteger("loadtest.port", 0);
+
+    private static final String PASSWORD = "loadtest-password";
+    private static final int VARIANTS = 4;
+
+    enum Op { LOGIN, LIST, OPEN, SAVE, DELETE, SEARCH, CREATE }
+
+    private final String base;
+    private final Weighted<Op> mix;
+    private final Weighted<String[]> documents;
+
+    LoadTest(String base) {
+        this.base = base;
+        this.mix = parseMix(MIX);
+        this.documents = buildDocuments(SIZES);
+    }
+
+    public static void main(String[] args) throws Exception {
+        // La prueba mide la aplicación, no el limitador ni la consola
+        if (System.getProperty("ratelimit.enabled") == null) {
+            System.setProperty("ratelimit.enabled", "false");
+        }
+        API_LOGGER.setLevel(Level.parse(System.getProperty("loadtest.logLevel", "WARNING")));
+        BenchSupport.useEmbeddedDb("loadtest");
+
+        File baseDir = Files.createTempDirectory("mindmap-loadtest").toFile();
+        Tomcat tomcat = startTomcat(baseDir);
+        try {
+            String base = "http://127.0.0.1:" + tomcat.getConnector().getLocalPort();
+            System.out.printf(Locale.ROOT, "Tomcat en %s, %d usuarios, %d s (+%d s de calentamiento), mezcla %s, tamaños %s%n",
+                base, USERS, SECONDS, WARMUP_SECONDS, MIX, SIZES);
+            new LoadTest(base).run();
+        } finally {
+            tomcat.stop();
+            tomcat.destroy();
+        }
+    }
+
+    private static Tomcat startTomcat(File baseDir) throws Exception {
+        Tomcat tomcat = new Tomcat();
+        tomcat.setBaseDir(baseDir.getAbsolutePath());
+        tomcat.setPort(PORT);
+        tomcat.getConnector();
+
+        // Mismo orden que WEB-INF/web.xml
+        Context context = tomcat.addContext("", baseDir.getAbsolutePath());
+        context.addApplicationListener(DBInitializer.class.getName());
+        addFilter(context, "CorsFilter", new CorsFilter(), "/*");
+        addFilter(context, "MetricsFilter", new MetricsFilter(), "/api/*");
+        addFilter(context, "RateLimitFilter", new RateLimitFilter(), "/api/*");
+        addFilter(context, "CompressionFilter", new CompressionFilter(), "/api/*");
+        Tomcat.addServlet(context, "AuthServlet", new AuthServlet()).setAsyncSupported(true);
+        context.addServletMappingDecoded("/api/auth/*", "AuthServlet");
+        Tomcat.addServlet(context, "MindMapServlet", new MindMapServlet()).setAsyncSupported(true);
+        context.addServletMappingDecoded("/api/mindmaps/*", "MindMapServlet");
+        Tomcat.addServlet(context, "MetricsServlet", new MetricsServlet());
+        context.addServletMappingDecoded("/api/metrics", "MetricsServlet");
+
+        tomcat.start();
+        return tomcat;
+    }
+
+    private static void addFilter(Context context, String name, Filter filter, String pattern) {
+        FilterDef def = new FilterDef();
+        def.setFilterName(name);
+        def.setFilter(filter);
+        def.setAsyncSupported("true");
+        context.addFilterDef(def);
+        FilterMap map = new FilterMap();
+        map.setFilterName(name);
+        map.addURLPattern(pattern);
+        context.addFilterMap(map);
+    }
+
+    // ============ EJECUCIÓN ============
+
+    private void run() throws Exception {
+        VirtualUser[] users = new VirtualUser[USERS];
+        for (int i = 0; i < USERS; i++) {
+            users[i] = new VirtualUser(i);
+            users[i].setUp();
+        }
+        System.out.printf(Locale.ROOT, "Datos iniciales: %d usuarios x %d mapas%n", USERS, MAPS_PER_USER);
+
+        long start = System.nanoTime();
+        long measureFrom = start + WARMUP_SECONDS * 1_000_000_000L;
+        long end = measureFrom + SECONDS * 1_000_000_000L;
+        CountDownLatch done = new CountDownLatch(USERS);
+        for (VirtualUser user : users) {
+            Thread thread = new Thread(() -> {
+                try {
+                    user.loop(measureFrom, end);
+                } finally {
+                    done.countDown();
+                }
+            }, "vu-" + user.index);
+            thread.start();
+        }
+        done.await();
+        report(users, (end - measureFrom) / 1e9);
+    }
+
+    private void report(VirtualUser[] users, double seconds) {
+        System.out.printf(Locale.ROOT, "%n%-8s %10s %8s %10s %10s %10s %10s %10s%n",
+            "op", "requests", "errors", "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms");
+        long total = 0;
+        for (Op op : Op.values()) {
+            LongList merged = new LongList();
+            long errors = 0;
+            for (VirtualUser user : users) {
+                merged.addAll(user.latencies[op.ordinal()]);
+                errors += user.errors[op.ordinal()];
+            }
+            if (merged.size == 0 && errors == 0) {
+                continue;
+            }
+            long[] sorted = merged.sorted();
+            total += sorted.length;
+            System.out.printf(Locale.ROOT, "%-8s %10d %8d %10.1f %10.2f %10.2f %10.2f %10.2f%n",
+                op.name().toLowerCase(Locale.ROOT), sorted.length, errors, sorted.length / seconds,
+                millis(percentile(sorted, 0.50)), millis(percentile(sorted, 0.99)),
+                millis(percentile(sorted, 0.999)), millis(sorted.length > 0 ? sorted[sorted.length - 1] : 0));
+        }
+        System.out.printf(Locale.ROOT, "%-8s %10d %8s %10.1f%n", "total", total, "", total / seconds);
+    }
+
+    private static long percentile(long[] sorted, double q) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(q * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    /**
+     * Usuario virtual: un hilo con su propia sesión, sus mapas y sus contadores.
+     */
+    private final class VirtualUser {
+        private final int index;
+        private final Random random;
+        private final String email;
+        private final List<Integer> mapas = new ArrayList<>();
+        private final LongList[] latencies = new LongList[Op.values().length];
+        private final long[] errors = new long[Op.values().length];
+        private String cookie;
+        private boolean measuring;
+
+        VirtualUser(int index) {
+            this.index = index;
+            this.random = new Random(index);
+            this.email = "loadtest" + index + "@example.com";
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] = new LongList();
+            }
+        }
+
+        void setUp() throws IOException {
+            Response registro = send(Op.LOGIN, "POST", "/api/auth/register",
+                new JSONObject().put("nombre", "Usuario " + index).put("email", email).put("password", PASSWORD).toString());
+            if (registro.status != 200 && registro.status != 201) {
+                throw new IllegalStateException("Register failed for " + email + ": HTTP " + registro.status);
+            }
+            for (int i = 0; i < MAPS_PER_USER; i++) {
+                create();
+            }
+        }
+
+        void loop(long measureFrom, long end) {
+            long now;
+            while ((now = System.nanoTime()) < end) {
+                measuring = now >= measureFrom;
+                try {
+                    step(mix.pick(random));
+                } catch (IOException e) {
+                    // El error ya se contó en send(); el usuario sigue con la siguiente operación
+                }
+            }
+        }
+
+        private void step(Op op) throws IOException {
+            switch (op) {
+                case LOGIN:
+                    send(Op.LOGIN, "POST", "/api/auth/login",
+                        new JSONObject().put("email", email).put("password", PASSWORD).toString());
+                    break;
+                case LIST:
+                    send(Op.LIST, "GET", LIST_PATH, null);
+                    break;
+                case OPEN:
+                    if (!mapas.isEmpty()) {
+                        send(Op.OPEN, "GET", "/api/mindmaps/" + randomMap(), null);
+                    }
+                    break;
+                case SAVE:
+                    if (!mapas.isEmpty()) {
+                        int id = randomMap();
+                        send(Op.SAVE, "PUT", "/api/mindmaps", "{\"id\":" + id + "," + titleAndDocument(id));
+                    }
+                    break;
+                case DELETE:
+                    if (!mapas.isEmpty()) {
+                        int id = mapas.remove(random.nextInt(mapas.size()));
+                        send(Op.DELETE, "DELETE", "/api/mindmaps/" + id, null);
+                        // Se repone para que la colección mantenga su tamaño
+                        create();
+                    }
+                    break;
+                case SEARCH:
+                    // Las etiquetas de BenchSupport.mindMap son "Idea <n> <hex>"
+                    send(Op.SEARCH, "GET", "/api/mindmaps/search?q=idea+" + random.nextInt(200), null);
+                    break;
+                default:
+                    create();
+            }
+        }
+
+        private void create() throws IOException {
+            Response response = send(Op.CREATE, "POST", "/api/mindmaps", "{" + titleAndDocument(mapas.size()));
+            if (response.status == 200 || response.status == 201) {
+                mapas.add(new JSONObject(response.body).getInt("id"));
+            }
+        }
+
+        private int randomMap() {
+            return mapas.get(random.nextInt(mapas.size()));
+        }
+
+        private String titleAndDocument(int n) {
+            String[] variants = documents.pick(random);
+            return "\"titulo\":\"Mapa " + index + "-" + n + "\",\"datos_json\":" + variants[random.nextInt(variants.length)] + "}";
+        }
+
+        private Response send(Op op, String method, String path, String body) throws IOException {
+            long start = System.nanoTime();
+            Response response;
+            try {
+                response = execute(method, path, body);
+            } catch (IOException e) {
+                if (measuring) {
+                    errors[op.ordinal()]++;
+                }
+                throw e;
+            }
+            long elapsed = System.nanoTime() - start;
+            if (measuring) {
+                latencies[op.ordinal()].add(elapsed);
+                if (response.status >= 400) {
+                    errors[op.ordinal()]++;
+                }
+            }
+            if (response.cookie != null) {
+                cookie = response.cookie;
+            }
+            return response;
+        }
+
+        private Response execute(String method, String path, String body) throws IOException {
+            HttpURLConnection conn = (HttpURLConnection) new URL(base + path).openConnection();
+            conn.setRequestMethod(method);
+            conn.setConnectTimeout(5000);
+            conn.setReadTimeout(60000);
+            if (cookie != null) {
+                conn.setRequestProperty("Cookie", "jwt=" + cookie);
+            }
+            if (GZIP) {
+                conn.setRequestProperty("Accept-Encoding", "gzip");
+            }
+            if (body != null) {
+                byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+                conn.setDoOutput(true);
+                conn.setFixedLengthStreamingMode(bytes.length);
+                conn.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
+                try (OutputStream out = conn.getOutputStream()) {
+                    out.write(bytes);
+                }
+            }
+            int status = conn.getResponseCode();
+            // Leer el cuerpo entero permite reutilizar la conexión (keep-alive)
+            InputStream in = status >= 400 ? conn.getErrorStream() : conn.getInputStream();
+            byte[] payload = readAll(in);
+            String cookieValue = null;
+            List<String> setCookies = conn.getHeaderFields().get("Set-Cookie");
+            if (setCookies != null) {
+                for (String header : setCookies) {
+                    if (header.startsWith("jwt=")) {
+                        int end = header.indexOf(';');
+                        cookieValue = header.substring(4, end >= 0 ? end : header.length());
+                    }
+                }
+            }
+            return new Response(status, new String(payload, StandardCharsets.UTF_8), cookieValue);
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        if (in == null) {
+            return new byte[0];
+        }
+        try (InputStream input = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[16384];
+            int n;
+            while ((n = input.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static final class Response {
+        final int status;
+        final String body;
+        final String cookie;
+
+        Response(int status, String body, String cookie) {
+            this.status = status;
+            this.body = body;
+            this.cookie = cookie;
+        }
+    }
+
+    // ============ CONFIGURACIÓN ============
+
+    private static Weighted<Op> parseMix(String spec) {
+        Weighted<Op> weighted = new Weighted<>();
+        for (Map.Entry<String, Integer> entry : parseWeights(spec, "=").entrySet()) {
+            weighted.add(Op.valueOf(entry.getKey().toUpperCase(Locale.ROOT)), entry.getValue());
+        }
+        return weighted;
+    }
+
+    /**
+     * Documentos ya serializados como string JSON (listos para "datos_json": ...), varias
+     * variantes por tamaño para que no todos los autoguardados sean idénticos.
+     */
+    private static Weighted<String[]> buildDocuments(String spec) {
+        Weighted<String[]> weighted = new Weighted<>();
+        for (Map.Entry<String, Integer> entry : parseWeights(spec, ":").entrySet()) {
+            int size = Integer.parseInt(entry.getKey());
+            String[] variants = new String[VARIANTS];
+            for (int i = 0; i < VARIANTS; i++) {
+                variants[i] = JSONObject.quote(BenchSupport.mindMap(size, size * 31L + i));
+            }
+            weighted.add(variants, entry.getValue());
+        }
+        return weighted;
+    }
+
+    private static Map<String, Integer> parseWeights(String spec, String separator) {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        for (String part : spec.split(",")) {
+            String[] pair = part.trim().split(separator);
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Invalid weight '" + part + "' in " + spec);
+            }
+            weights.put(pair[0].trim(), Integer.parseInt(pair[1].trim()));
+        }
+        return weights;
+    }
+
+    /**
+     * Elección aleatoria ponderada.
+     */
+    private static final class Weighted<T> {
+        private final List<T> values = new ArrayList<>();
+        private final List<Integer> cumulative = new ArrayList<>();
+        private int total;
+
+        void add(T value, int weight) {
+            if (weight <= 0) {
+                return;
+            }
+            total += weight;
+            values.add(value);
+            cumulative.add(total);
+        }
+
+        T pick(Random random) {
+            int r = random.nextInt(total);
+            for (int i = 0; i < values.size(); i++) {
+                if (r < cumulative.get(i)) {
+                    return values.get(i);
+                }
+            }
+            return values.get(values.size() - 1);
+        }
+    }
+
+    /**
+     * Lista de long sin boxing para las latencias de cada hilo.
+     */
+    private static final class LongList {
+        private long[] data = new long[1024];
+        private int size;
+
+        void add(long value) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = value;
+        }
+
+        void addAll(LongList other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.data[i]);
+            }
+        }
+
+        long[] sorted() {
+            long[] copy = Arrays.copyOf(data, size);
+            Arrays.sort(copy);
+            return copy;
+        }
+    }
+}
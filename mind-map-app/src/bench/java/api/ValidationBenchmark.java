@@ -0,0 +1,38 @@
+package api;
+
+import java.util.concurrent.TimeUnit;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Validación de datos_json en MindMapServlet.doPost/doPut (JsonScanner), comparada
+ * con construir el DOM completo de org.json como se hacía antes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class ValidationBenchmark {
+
+    @Param({"1024", "102400", "1048576", "10485760"})
+    public int size;
+
+    private String datosJson;
+
+    @Setup
+    public void setup() {
+        datosJson = BenchSupport.mindMap(size, 7);
+    }
+
+    @Benchmark
+    public JsonScanner.Summary jsonScanner() {
+        return JsonScanner.scan(datosJson);
+    }
+
+    @Benchmark
+    public JSONObject jsonObjectBaseline() {
+        return new JSONObject(datosJson);
+    }
+}
@@ -0,0 +1,229 @@
+package api;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.ErrorManager;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import org.json.JSONObject;
+
+/**
+ * Handler de java.util.logging que no escribe en el hilo que registra.
+ *
+ * publish() solo deja el LogRecord en una cola circular acotada; un hilo de
+ * fondo la vacía por lotes, formatea (incluido el MessageFormat de los
+ * parámetros) y escribe en el handler real. Si la cola está llena el registro
+ * se descarta y se cuenta: un destino lento nunca bloquea una petición. Los
+ * descartes se avisan en una línea cuando el escritor se pone al día.
+ */
+public class AsyncLogHandler extends Handler {
+    private static final Logger LOGGER = Logger.getLogger(AsyncLogHandler.class.getName());
+
+    // Configuración (sobrescribible con -Dlog.async.*)
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("log.async", "true"));
+    private static final int CAPACITY = Integer.getInteger("log.async.capacity", 8192);
+    private static final int BATCH = 256;
+
+    // JUL guarda los loggers con referencias débiles: se retiene el del paquete mientras esté instalado
+    private static Logger installedOn;
+    private static AsyncLogHandler installed;
+
+    // Hilo que registró el mensaje que se está escribiendo; solo lo fija el hilo escritor
+    private static final ThreadLocal<Long> ORIGIN_THREAD = new ThreadLocal<>();
+
+    private final Handler delegate;
+    private final ArrayBlockingQueue<Entry> queue;
+    private final Thread writer;
+    // Descartes desde el último aviso y desde el arranque
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong droppedTotal = new AtomicLong();
+    private volatile boolean running = true;
+
+    /**
+     * @param delegate Handler que escribe realmente (se usa solo desde el hilo de fondo).
+     * @param capacity Registros que caben en la cola.
+     */
+    public AsyncLogHandler(Handler delegate, int capacity) {
+        this.delegate = delegate;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.writer = new Thread(this::drain, "async-log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Redirige los logs del paquete api a un AsyncLogHandler con salida JSON por consola.
+     * Con -Dlog.async=false se dejan los handlers del contenedor.
+     */
+    public static synchronized void install() {
+        if (!ENABLED || installed != null) {
+            return;
+        }
+        ConsoleHandler console = new ConsoleHandler();
+        console.setLevel(Level.ALL);
+        console.setFormatter(new StructuredFormatter());
+        try {
+            console.setEncoding("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 siempre está disponible
+        }
+        installed = new AsyncLogHandler(console, CAPACITY);
+        installedOn = Logger.getLogger("api");
+        installedOn.addHandler(installed);
+        installedOn.setUseParentHandlers(false);
+        LOGGER.log(Level.INFO, "📝 Log asíncrono activo (capacidad {0})", CAPACITY);
+    }
+
+    /**
+     * Restaura los handlers del contenedor y vacía lo pendiente.
+     */
+    public static synchronized void uninstall() {
+        if (installed == null) {
+            return;
+        }
+        installedOn.removeHandler(installed);
+        installedOn.setUseParentHandlers(true);
+        installed.close();
+        installed = null;
+        installedOn = null;
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (!running || !isLoggable(record)) {
+            return;
+        }
+        if (!queue.offer(new Entry(record, Thread.currentThread().getId()))) {
+            dropped.incrementAndGet();
+            droppedTotal.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void flush() {
+        // La escritura es asíncrona: el hilo de fondo hace flush tras cada lote
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        writer.interrupt();
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(2));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        delegate.close();
+    }
+
+    /**
+     * @return Handler instalado por {@link #install()}, o null.
+     */
+    public static synchronized AsyncLogHandler getInstalled() {
+        return installed;
+    }
+
+    public long getDroppedTotal() {
+        return droppedTotal.get();
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    private void drain() {
+        List<Entry> batch = new ArrayList<>(BATCH);
+        while (running || !queue.isEmpty()) {
+            try {
+                Entry first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, BATCH - 1);
+            } catch (InterruptedException e) {
+                // close(): se vacía lo que quede y se termina
+                queue.drainTo(batch);
+                running = false;
+            }
+            for (Entry entry : batch) {
+                ORIGIN_THREAD.set(entry.threadId);
+                try {
+                    write(entry.record);
+                } finally {
+                    ORIGIN_THREAD.remove();
+                }
+            }
+            batch.clear();
+            long lost = dropped.getAndSet(0);
+            if (lost > 0) {
+                LogRecord aviso = new LogRecord(Level.WARNING, "⚠️ Log asíncrono saturado: " + lost + " registros descartados");
+                aviso.setLoggerName(LOGGER.getName());
+                write(aviso);
+            }
+            delegate.flush();
+        }
+    }
+
+    private void write(LogRecord record) {
+        try {
+            delegate.publish(record);
+        } catch (RuntimeException e) {
+            // Un fallo del destino no debe matar el hilo escritor
+            reportError(null, e, ErrorManager.WRITE_FAILURE);
+        }
+    }
+
+    /**
+     * Registro en cola junto con el id del hilo que lo publicó, que se toma en
+     * publish() porque el formato se aplica después en el hilo escritor.
+     */
+    private static final class Entry {
+        final LogRecord record;
+        final long threadId;
+
+        Entry(LogRecord record, long threadId) {
+            this.record = record;
+            this.threadId = threadId;
+        }
+    }
+
+    /**
+     * Una línea JSON por registro: ts, level, logger, thread, msg y error.
+     * Fuera del AsyncLogHandler el formato se aplica en el hilo que registra.
+     */
+    public static class StructuredFormatter extends Formatter {
+        @Override
+        public String format(LogRecord record) {
+            JSONObject line = new JSONObject()
+                .put("ts", Instant.ofEpochMilli(record.getMillis()).toString())
+                .put("level", record.getLevel().getName())
+                .put("logger", record.getLoggerName())
+                .put("thread", threadId())
+                .put("msg", formatMessage(record));
+            Throwable thrown = record.getThrown();
+            if (thrown != null) {
+                StringWriter stack = new StringWriter();
+                thrown.printStackTrace(new PrintWriter(stack));
+                line.put("error", thrown.toString()).put("stack", stack.toString());
+            }
+            return line.toString() + System.lineSeparator();
+        }
+
+        private static long threadId() {
+            Long origin = ORIGIN_THREAD.get();
+            return origin != null ? origin : Thread.currentThread().getId();
+        }
+    }
+}
@@ -0,0 +1,546 @@
+package api;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Respuesta de una petición asíncrona que atiende una tarea en un ejecutor.
+ *
+ * Solo un camino escribe en la respuesta y completa el AsyncContext: la tarea,
+ * si empieza antes de que venza el timeout, o el contenedor (timeout, error o
+ * ejecución rechazada), que responde 503 si la tarea aún no había empezado.
+ *
+ * La tarea trabaja sobre {@link #request()} y {@link #response()}, envoltorios
+ * cuyas escrituras pasan por un cerrojo (el writer las agrupa antes en bloques). Si el timeout o un error de conexión
+ * llegan con la tarea en marcha, el contenedor no la espera: la abandona (corta
+ * los envoltorios, de modo que la tarea solo recibe excepciones, y la
+ * interrumpe) y responde él mismo. Como mucho espera a que acabe la escritura
+ * en curso; Tomcat reutiliza los objetos de la petición, y una escritura tardía
+ * sobre ellos acabaría en la respuesta de otro cliente.
+ *
+ * Si la tarea falla con parte del cuerpo ya enviado, {@link #fail(Throwable)}
+ * redespacha la petición al servlet, que lanza el error con
+ * {@link #rethrowAbort(ServletRequest)}; el contenedor corta entonces la conexión
+ * en lugar de terminar con un 200 y un cuerpo truncado.
+ */
+final class AsyncResponse implements AsyncListener {
+    private static final Logger LOGGER = Logger.getLogger(AsyncResponse.class.getName());
+    private static final String ABORT_ATTRIBUTE = AsyncResponse.class.getName() + ".abort";
+    private static final int WRITER_BUFFER_CHARS = 8192;
+
+    private final AsyncContext async;
+    private final HttpServletResponse response;
+    private final String busyMessage;
+    private final int retryAfterSeconds;
+    private final GuardedRequest guardedRequest;
+    private final GuardedResponse guardedResponse;
+
+    // Protege el estado y cada escritura de la tarea en la respuesta
+    private final Object lock = new Object();
+    private boolean claimed;
+    private boolean done;
+    private boolean abandoned;
+    private Thread worker;
+
+    private AsyncResponse(AsyncContext async, HttpServletRequest request, HttpServletResponse response,
+                          String busyMessage, int retryAfterSeconds) {
+        this.async = async;
+        this.response = response;
+        this.busyMessage = busyMessage;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.guardedRequest = new GuardedRequest(request);
+        this.guardedResponse = new GuardedResponse(response);
+    }
+
+    /**
+     * Pasa la petición a modo asíncrono y registra el listener.
+     * @param timeoutMillis Timeout del contenedor; 0 para no limitarlo.
+     * @param busyMessage Mensaje del 503 si la tarea no llega a empezar.
+     * @param retryAfterSeconds Valor de Retry-After del 503.
+     */
+    static AsyncResponse start(HttpServletRequest request, HttpServletResponse response, long timeoutMillis,
+                               String busyMessage, int retryAfterSeconds) {
+        AsyncContext async = request.startAsync(request, response);
+        AsyncResponse asyncResponse = new AsyncResponse(async, request, response, busyMessage, retryAfterSeconds);
+        async.setTimeout(timeoutMillis);
+        async.addListener(asyncResponse);
+        return asyncResponse;
+    }
+
+    /** @return La petición que debe usar la tarea. */
+    HttpServletRequest request() {
+        return guardedRequest;
+    }
+
+    /** @return La respuesta que debe usar la tarea. */
+    HttpServletResponse response() {
+        return guardedResponse;
+    }
+
+    /**
+     * La tarea lo llama, desde su hilo, antes de tocar la respuesta.
+     * @return false si el contenedor ya respondió y la tarea no debe ejecutarse.
+     */
+    boolean claim() {
+        synchronized (lock) {
+            if (claimed) {
+                return false;
+            }
+            claimed = true;
+            worker = Thread.currentThread();
+            return true;
+        }
+    }
+
+    /**
+     * Cierra la respuesta y completa la petición. Solo debe llamarlo quien la reclamó;
+     * si la tarea fue abandonada no hace nada.
+     */
+    void finish() {
+        guardedResponse.drain();
+        synchronized (lock) {
+            if (!markDone()) {
+                return;
+            }
+            close();
+        }
+    }
+
+    /**
+     * Termina la petición tras un error de la tarea, que debe haber reclamado la
+     * respuesta: 500 si aún no se envió nada; si no, corta la conexión. Si la
+     * tarea fue abandonada no hace nada.
+     * @param error Causa del fallo.
+     */
+    void fail(Throwable error) {
+        synchronized (lock) {
+            if (!markDone()) {
+                return;
+            }
+            if (!response.isCommitted()) {
+                try {
+                    HttpUtils.sendErrorResponse(response, "Internal server error",
+                                              HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Could not send error response: {0}", e.getMessage());
+                }
+                close();
+            } else {
+                abort(error);
+            }
+        }
+    }
+
+    /**
+     * Los servlets que usan esta clase lo llaman al inicio de service(). Relanza el
+     * error de una respuesta abortada por {@link #fail(Throwable)} para que el
+     * contenedor, con la respuesta ya confirmada, cierre la conexión.
+     * @throws ServletException Si la petición viene de un redespacho por error.
+     */
+    static void rethrowAbort(ServletRequest request) throws ServletException {
+        Object error = request.getAttribute(ABORT_ATTRIBUTE);
+        if (error != null) {
+            request.removeAttribute(ABORT_ATTRIBUTE);
+            throw new ServletException("Response aborted after commit", (Throwable) error);
+        }
+    }
+
+    /**
+     * Responde 503 con Retry-After y completa, si la tarea no ha reclamado la respuesta.
+     * @return false si la respuesta ya pertenece a la tarea.
+     */
+    boolean rejectBusy() {
+        synchronized (lock) {
+            if (claimed) {
+                return false;
+            }
+            claimed = true;
+            done = true;
+            sendUnavailable(busyMessage);
+            close();
+            return true;
+        }
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+        synchronized (lock) {
+            if (!claimed) {
+                rejectBusy();
+            } else if (abandon()) {
+                LOGGER.log(Level.WARNING, "Async request timed out while running; abandoning it");
+                if (!response.isCommitted()) {
+                    sendUnavailable("Request timed out");
+                    close();
+                } else {
+                    abort(new IOException("Request timed out"));
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+        // Conexión rota: no hay nada que escribir, solo completar
+        synchronized (lock) {
+            if (!claimed) {
+                claimed = true;
+                done = true;
+                complete();
+            } else if (abandon()) {
+                complete();
+            }
+        }
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+        // Nada que hacer
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+        // Nada que hacer
+    }
+
+    // ==================== CIERRE ====================
+
+    /**
+     * Marca la respuesta como terminada por la tarea.
+     * @return false si el contenedor la abandonó antes.
+     */
+    private boolean markDone() {
+        if (done) {
+            if (abandoned && Thread.currentThread() == worker) {
+                // Limpia la interrupción de abandon() antes de devolver el hilo al ejecutor
+                Thread.interrupted();
+            }
+            return false;
+        }
+        done = true;
+        return true;
+    }
+
+    /**
+     * Quita la respuesta a la tarea en marcha: desde aquí sus llamadas fallan.
+     * @return false si la tarea ya había terminado.
+     */
+    private boolean abandon() {
+        if (done) {
+            return false;
+        }
+        done = true;
+        abandoned = true;
+        guardedRequest.setRequest(dead(HttpServletRequest.class));
+        guardedResponse.setResponse(dead(HttpServletResponse.class));
+        worker.interrupt();
+        return true;
+    }
+
+    private void sendUnavailable(String message) {
+        try {
+            response.setHeader("Retry-After", String.valueOf(retryAfterSeconds));
+            HttpUtils.sendErrorResponse(response, message, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Could not send busy response: {0}", e.getMessage());
+        }
+    }
+
+    private void close() {
+        try {
+            HttpUtils.closeResponse(response);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Could not close response: {0}", e.getMessage());
+        }
+        complete();
+    }
+
+    private void complete() {
+        try {
+            async.complete();
+        } catch (IllegalStateException e) {
+            LOGGER.log(Level.WARNING, "Async request already completed: {0}", e.getMessage());
+        }
+    }
+
+    private void abort(Throwable error) {
+        async.getRequest().setAttribute(ABORT_ATTRIBUTE, error);
+        try {
+            async.dispatch();
+        } catch (IllegalStateException e) {
+            LOGGER.log(Level.WARNING, "Async request already completed: {0}", e.getMessage());
+        }
+    }
+
+    // ==================== ENVOLTORIOS DE LA TAREA ====================
+
+    /**
+     * Sustituto de la petición o la respuesta de una tarea abandonada.
+     */
+    private static <T> T dead(Class<T> type) {
+        InvocationHandler handler = (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    default:
+                        return "abandoned " + type.getSimpleName();
+                }
+            }
+            throw new IllegalStateException("Async request abandoned after timeout");
+        };
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    private static final class GuardedRequest extends HttpServletRequestWrapper {
+        GuardedRequest(HttpServletRequest request) {
+            super(request);
+        }
+    }
+
+    /**
+     * Respuesta de la tarea: cada escritura se hace con el cerrojo tomado y falla
+     * si la tarea fue abandonada.
+     */
+    private final class GuardedResponse extends HttpServletResponseWrapper {
+        private ServletOutputStream stream;
+        private GuardedWriter writer;
+
+        GuardedResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            synchronized (lock) {
+                if (stream == null) {
+                    stream = new GuardedOutputStream(super.getOutputStream());
+                }
+                return stream;
+            }
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            synchronized (lock) {
+                if (writer == null) {
+                    writer = new GuardedWriter(super.getWriter());
+                }
+                return writer;
+            }
+        }
+
+        /** Pasa a la respuesta lo que la tarea tenga acumulado en el writer. */
+        void drain() {
+            if (writer != null) {
+                writer.drain();
+            }
+        }
+
+        @Override
+        public void reset() {
+            discard();
+            super.reset();
+        }
+
+        @Override
+        public void resetBuffer() {
+            discard();
+            super.resetBuffer();
+        }
+
+        private void discard() {
+            if (writer != null) {
+                writer.count = 0;
+            }
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            drain();
+            synchronized (lock) {
+                checkActive();
+                super.flushBuffer();
+            }
+        }
+    }
+
+    private void checkActive() throws IOException {
+        if (abandoned) {
+            throw new IOException("Async request abandoned after timeout");
+        }
+    }
+
+    private final class GuardedOutputStream extends ServletOutputStream {
+        private final ServletOutputStream out;
+
+        GuardedOutputStream(ServletOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            synchronized (lock) {
+                checkActive();
+                out.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            synchronized (lock) {
+                checkActive();
+                out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (lock) {
+                checkActive();
+                out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (lock) {
+                checkActive();
+                out.close();
+            }
+        }
+
+        @Override
+        public boolean isReady() {
+            return out.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener listener) {
+            out.setWriteListener(listener);
+        }
+    }
+
+    /**
+     * PrintWriter de la tarea. Acumula los caracteres sin cerrojo (solo lo usa el
+     * hilo de la tarea) y los pasa a la respuesta por bloques con el cerrojo
+     * tomado. Como el de la respuesta, no lanza IOException: tras el abandono
+     * descarta lo escrito y checkError() da true.
+     */
+    private final class GuardedWriter extends PrintWriter {
+        private final PrintWriter out;
+        private final char[] buffer = new char[WRITER_BUFFER_CHARS];
+        private int count;
+        private boolean failed;
+
+        GuardedWriter(PrintWriter out) {
+            super(out);
+            this.out = out;
+        }
+
+        @Override
+        public void write(int c) {
+            if (count == buffer.length) {
+                drain();
+            }
+            buffer[count++] = (char) c;
+        }
+
+        @Override
+        public void write(char[] buf, int off, int len) {
+            if (len > buffer.length - count) {
+                drain();
+                if (len > buffer.length) {
+                    send(buf, off, len);
+                    return;
+                }
+            }
+            System.arraycopy(buf, off, buffer, count, len);
+            count += len;
+        }
+
+        @Override
+        public void write(String s, int off, int len) {
+            if (len > buffer.length - count) {
+                drain();
+                if (len > buffer.length) {
+                    synchronized (lock) {
+                        if (active()) {
+                            out.write(s, off, len);
+                        }
+                    }
+                    return;
+                }
+            }
+            s.getChars(off, off + len, buffer, count);
+            count += len;
+        }
+
+        @Override
+        public void flush() {
+            drain();
+            synchronized (lock) {
+                if (active()) {
+                    out.flush();
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            drain();
+            synchronized (lock) {
+                if (active()) {
+                    out.close();
+                }
+            }
+        }
+
+        @Override
+        public boolean checkError() {
+            synchronized (lock) {
+                return failed || abandoned || out.checkError();
+            }
+        }
+
+        /** Pasa a la respuesta lo acumulado. */
+        void drain() {
+            if (count > 0) {
+                send(buffer, 0, count);
+                count = 0;
+            }
+        }
+
+        private void send(char[] buf, int off, int len) {
+            synchronized (lock) {
+                if (active()) {
+                    out.write(buf, off, len);
+                }
+            }
+        }
+
+        private boolean active() {
+            if (abandoned) {
+                failed = true;
+            }
+            return !failed;
+        }
+    }
+}
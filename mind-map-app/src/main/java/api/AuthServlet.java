@@ -10,18 +10,54 @@ import java.util.Map;
 import java.util.HashMap;
 import org.json.JSONObject;
 import java.util.logging.*;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
-import io.jsonwebtoken.SignatureAlgorithm;
-import io.jsonwebtoken.security.Keys;
-import java.security.Key;
 import java.util.Date;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
-@WebServlet("/api/auth/*")
+@WebServlet(urlPatterns = "/api/auth/*", asyncSupported = true)
 public class AuthServlet extends HttpServlet {
     private static final Logger LOGGER = Logger.getLogger(AuthServlet.class.getName());
-    private static final Key SECRET_KEY = Keys.secretKeyFor(SignatureAlgorithm.HS256);
+    // Claves compartidas entre nodos (-Djwt.keyFile o -Djwt.keystore, ver JwtKeys)
+    private static final JwtKeys KEYS = JwtKeys.load();
     private static final long EXPIRATION_TIME = 86400000; // 24 horas
     
+    // JwtParser es inmutable y seguro entre hilos: se construye una sola vez
+    private static final JwtParser PARSER = Jwts.parserBuilder().setSigningKeyResolver(KEYS.resolver()).build();
+    
+    // Tokens ya verificados (sobrescribible con -Djwt.cache.maxEntries)
+    private static final TokenCache TOKEN_CACHE = new TokenCache(Integer.getInteger("jwt.cache.maxEntries", 10000));
+    
+    // Coste de autenticación por petición
+    private static final AtomicLong AUTH_REQUESTS = new AtomicLong();
+    private static final AtomicLong AUTH_NANOS = new AtomicLong();
+    private static final AtomicLong AUTH_MAX_NANOS = new AtomicLong();
+    
+    // Pool de bcrypt (sobrescribible con -Dauth.hash.* y -Dauth.bcrypt.cost)
+    private static final int HASH_THREADS = Integer.getInteger("auth.hash.threads", Runtime.getRuntime().availableProcessors());
+    private static final int HASH_QUEUE = Integer.getInteger("auth.hash.queue", 64);
+    private static final int BCRYPT_COST = Integer.getInteger("auth.bcrypt.cost", 10);
+    private static final int RETRY_AFTER_SECONDS = Integer.getInteger("auth.hash.retryAfterSeconds", 2);
+    private static final long ASYNC_TIMEOUT_MILLIS = 30000;
+    
+    private transient PasswordHasher hasher;
+    
+    @Override
+    public void init() throws ServletException {
+        hasher = new PasswordHasher(HASH_THREADS, HASH_QUEUE, BCRYPT_COST);
+        getServletContext().setAttribute("passwordHasher", hasher);
+        LOGGER.log(Level.INFO, "Password hasher started ({0} threads, queue {1}, cost {2})",
+            new Object[]{HASH_THREADS, HASH_QUEUE, BCRYPT_COST});
+    }
+    
+    @Override
+    public void destroy() {
+        if (hasher != null) {
+            hasher.shutdown();
+        }
+    }
+    
     @Override
     protected void doOptions(HttpServletRequest request, HttpServletResponse response) {
         response.setHeader("Access-Control-Allow-Origin", "http://localhost:3000");
@@ -31,6 +67,14 @@ public class AuthServlet extends HttpServlet {
         response.setStatus(HttpServletResponse.SC_OK);
     }
 
+    @Override
+    protected void service(HttpServletRequest request, HttpServletResponse response) 
+            throws ServletException, IOException {
+        // Redespacho de una respuesta que falló tras enviar parte del cuerpo
+        AsyncResponse.rethrowAbort(request);
+        super.service(request, response);
+    }
+
     @Override
     protected void doPost(HttpServletRequest request, HttpServletResponse response) 
             throws ServletException, IOException {
@@ -52,10 +96,10 @@ public class AuthServlet extends HttpServlet {
 
             switch (pathInfo) {
                 case "/login":
-                    handleLogin(request, response, db, json);
+                    runWithHasher(request, response, (req, res) -> handleLogin(req, res, db, json));
                     break;
                 case "/register":
-                    handleRegister(request, response, db, json);
+                    runWithHasher(request, response, (req, res) -> handleRegister(req, res, db, json));
                     break;
                 case "/verify":
                     verifyToken(request, response);
@@ -63,12 +107,52 @@ public class AuthServlet extends HttpServlet {
                 default:
                     HttpUtils.sendErrorResponse(response, "Endpoint not found", HttpServletResponse.SC_NOT_FOUND);
             }
+        } catch (HttpUtils.PayloadTooLargeException e) {
+            HttpUtils.sendErrorResponse(response, e.getMessage(), HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
         } catch (Exception e) {
             LOGGER.log(Level.SEVERE, "Error in AuthServlet", e);
             HttpUtils.sendErrorResponse(response, "Internal server error", HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
         }
     }
 
+    private interface AuthTask {
+        void run(HttpServletRequest request, HttpServletResponse response) throws Exception;
+    }
+    
+    /**
+     * Ejecuta login/registro en el pool de bcrypt liberando el hilo de Tomcat.
+     * Si la cola está llena, o vence el timeout antes de que empiece el hash,
+     * responde 503 con Retry-After en vez de esperar.
+     */
+    private void runWithHasher(HttpServletRequest request, HttpServletResponse response, AuthTask task)
+            throws IOException {
+        AsyncResponse async = AsyncResponse.start(request, response, ASYNC_TIMEOUT_MILLIS,
+            "Authentication service busy, try again later", RETRY_AFTER_SECONDS);
+        try {
+            hasher.execute(() -> {
+                if (!async.claim()) {
+                    // Venció el timeout en la cola y ya se respondió 503
+                    return;
+                }
+                Exception error = null;
+                try {
+                    task.run(async.request(), async.response());
+                } catch (Exception e) {
+                    LOGGER.log(Level.SEVERE, "Error in AuthServlet", e);
+                    error = e;
+                } finally {
+                    if (error != null) {
+                        async.fail(error);
+                    } else {
+                        async.finish();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            async.rejectBusy();
+        }
+    }
+
     private void handleLogin(HttpServletRequest request, HttpServletResponse response, 
                            DB db, JSONObject json) throws IOException, SQLException {
         if (!json.has("email") || !json.has("password")) {
@@ -79,11 +163,16 @@ public class AuthServlet extends HttpServlet {
         String email = json.getString("email");
         String password = json.getString("password");
         
-        Map<String, Object> usuario = db.autenticarUsuario(email, password);
-        if (usuario == null) {
+        Map<String, Object> usuario = db.obtenerCredenciales(email);
+        String stored = usuario != null ? (String) usuario.remove("password_hash") : null;
+        if (!hasher.verify(password, stored)) {
             HttpUtils.sendErrorResponse(response, "Invalid credentials", HttpServletResponse.SC_UNAUTHORIZED);
             return;
         }
+        if (hasher.needsRehash(stored)) {
+            // Contraseñas antiguas en claro o con otro coste se migran en el primer login
+            db.actualizarPasswordHash((int) usuario.get("id"), hasher.hash(password));
+        }
         
         String jwt = generateJWT(usuario);
         
@@ -113,13 +202,14 @@ public class AuthServlet extends HttpServlet {
         String email = json.getString("email");
         String password = json.getString("password");
         
-        boolean registrado = db.registrarUsuario(nombre, email, password);
+        boolean registrado = db.registrarUsuario(nombre, email, hasher.hash(password));
         if (!registrado) {
             HttpUtils.sendErrorResponse(response, "Email already registered", HttpServletResponse.SC_CONFLICT);
             return;
         }
 
-        Map<String, Object> usuario = db.autenticarUsuario(email, password);
+        Map<String, Object> usuario = db.obtenerCredenciales(email);
+        usuario.remove("password_hash");
         String jwt = generateJWT(usuario);
         
         Cookie jwtCookie = new Cookie("jwt", jwt);
@@ -146,10 +236,7 @@ public class AuthServlet extends HttpServlet {
         }
         
         try {
-            Jwts.parserBuilder()
-                .setSigningKey(SECRET_KEY)
-                .build()
-                .parseClaimsJws(token);
+            PARSER.parseClaimsJws(token);
             
             response.setStatus(HttpServletResponse.SC_OK);
             response.getWriter().write(new JSONObject().put("valid", true).toString());
@@ -158,7 +245,7 @@ public class AuthServlet extends HttpServlet {
         }
     }
 
-    private String extractToken(HttpServletRequest request) {
+    private static String extractToken(HttpServletRequest request) {
         Cookie[] cookies = request.getCookies();
         if (cookies != null) {
             for (Cookie cookie : cookies) {
@@ -170,33 +257,89 @@ public class AuthServlet extends HttpServlet {
         return null;
     }
 
-    private String generateJWT(Map<String, Object> usuario) {
+    static String generateJWT(Map<String, Object> usuario) {
         return Jwts.builder()
+            .setHeaderParam("kid", KEYS.getActiveKid())
             .setSubject(usuario.get("email").toString())
             .claim("id", usuario.get("id"))
             .claim("nombre", usuario.get("nombre"))
             .setIssuedAt(new Date())
             .setExpiration(new Date(System.currentTimeMillis() + EXPIRATION_TIME))
-            .signWith(SECRET_KEY)
+            .signWith(KEYS.getSigningKey())
             .compact();
     }
     
+    /**
+     * Verifica el JWT de la cookie y deja userId y userEmail como atributos de la petición.
+     * Los tokens ya verificados se sirven desde caché sin recalcular la firma ni decodificar los claims.
+     * @param request Petición HTTP.
+     * @return true si el token es válido y no ha expirado.
+     */
     public static boolean verifyRequest(HttpServletRequest request) {
+        long start = System.nanoTime();
         try {
-            String token = new AuthServlet().extractToken(request);
-            if (token == null) return false;
-            
-            Claims claims = Jwts.parserBuilder()
-                .setSigningKey(SECRET_KEY)
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
+            TokenCache.Entry entry = resolveToken(request);
+            if (entry == null) return false;
                 
-            request.setAttribute("userId", claims.get("id", Integer.class));
-            request.setAttribute("userEmail", claims.getSubject());
+            request.setAttribute("userId", entry.getUserId());
+            request.setAttribute("userEmail", entry.getEmail());
             return true;
         } catch (Exception e) {
             return false;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            AUTH_REQUESTS.incrementAndGet();
+            AUTH_NANOS.addAndGet(elapsed);
+            AUTH_MAX_NANOS.accumulateAndGet(elapsed, Math::max);
         }
     }
-}
\ No newline at end of file
+    
+    /**
+     * Devuelve el ID de usuario del JWT de la petición sin marcarla como autenticada.
+     * Lo usan los filtros que necesitan identificar al usuario antes del servlet.
+     * @param request Petición HTTP.
+     * @return ID del usuario, o null si no hay token válido.
+     */
+    public static Integer peekUserId(HttpServletRequest request) {
+        try {
+            TokenCache.Entry entry = resolveToken(request);
+            return entry != null ? entry.getUserId() : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+    
+    private static TokenCache.Entry resolveToken(HttpServletRequest request) {
+        String token = extractToken(request);
+        if (token == null) return null;
+        
+        String key = TokenCache.key(token);
+        TokenCache.Entry entry = TOKEN_CACHE.get(key);
+        if (entry == null) {
+            Claims claims = PARSER.parseClaimsJws(token).getBody();
+            entry = new TokenCache.Entry(claims.get("id", Integer.class), claims.getSubject(),
+                claims.getExpiration() != null ? claims.getExpiration().getTime() : 0);
+            TOKEN_CACHE.put(key, entry);
+        }
+        return entry;
+    }
+    
+    /**
+     * Obtiene estadísticas de autenticación: coste por petición y uso de la caché de tokens.
+     * @return Mapa con requests, total_nanos, avg_nanos, max_nanos y contadores de caché.
+     */
+    public static Map<String, Object> getAuthStats() {
+        long requests = AUTH_REQUESTS.get();
+        long nanos = AUTH_NANOS.get();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("requests", requests);
+        stats.put("total_nanos", nanos);
+        stats.put("avg_nanos", requests > 0 ? nanos / requests : 0);
+        stats.put("max_nanos", AUTH_MAX_NANOS.get());
+        stats.put("cache_hits", TOKEN_CACHE.getHitCount());
+        stats.put("cache_misses", TOKEN_CACHE.getMissCount());
+        stats.put("cache_evictions", TOKEN_CACHE.getEvictionCount());
+        stats.put("cache_size", TOKEN_CACHE.getSize());
+        return stats;
+    }
+}
@@ -0,0 +1,459 @@
+package api;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Comprime con gzip las respuestas JSON que superan un tamaño mínimo.
+ *
+ * El cuerpo se acumula solo hasta el umbral; a partir de ahí se comprime en
+ * streaming. Las respuestas con ETag se guardan además comprimidas, por URL y
+ * ETag, de modo que un mapa que no ha cambiado no se vuelve a comprimir.
+ *
+ * La caché solo ahorra la compresión: el ETag lo fija el servlet, así que este
+ * sigue leyendo el mapa y serializándolo, y el filtro descarta ese cuerpo al
+ * encontrar la copia comprimida. Lo que evita la lectura es el If-None-Match
+ * del cliente, que el servlet resuelve con un 304 sin cargar datos_json.
+ */
+public class CompressionFilter implements Filter {
+
+    // Configuración (sobrescribible con -Dcompression.*)
+    private static final int MIN_BYTES = Integer.getInteger("compression.minBytes", 1024);
+    private static final long CACHE_MAX_BYTES = Long.getLong("compression.cacheBytes", 32L * 1024 * 1024);
+    private static final int LEVEL = Integer.getInteger("compression.level", 6);
+
+    private final CompressedCache cache = new CompressedCache(CACHE_MAX_BYTES);
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {}
+
+    @Override
+    public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain)
+            throws IOException, ServletException {
+
+        HttpServletRequest request = (HttpServletRequest) servletRequest;
+        HttpServletResponse response = (HttpServletResponse) servletResponse;
+
+        if ("HEAD".equals(request.getMethod()) || "OPTIONS".equals(request.getMethod())) {
+            chain.doFilter(servletRequest, servletResponse);
+            return;
+        }
+        response.addHeader("Vary", "Accept-Encoding");
+        if (!HttpUtils.acceptsEncoding(request, "gzip")) {
+            chain.doFilter(servletRequest, servletResponse);
+            return;
+        }
+
+        String query = request.getQueryString();
+        String url = request.getRequestURI() + (query != null ? "?" + query : "");
+        CompressingResponse wrapper = new CompressingResponse(response, url);
+        chain.doFilter(request, wrapper);
+        // En los servlets asíncronos el cuerpo se cierra al completar la petición
+        if (!request.isAsyncStarted()) {
+            wrapper.finish();
+        }
+    }
+
+    @Override
+    public void destroy() {}
+
+    /**
+     * Respuesta que decide al llegar al umbral si comprime o deja pasar el cuerpo.
+     */
+    private final class CompressingResponse extends HttpServletResponseWrapper {
+        private final HttpServletResponse response;
+        private final String url;
+        private CompressingStream stream;
+        private PrintWriter writer;
+        private long contentLength = -1;
+
+        CompressingResponse(HttpServletResponse response, String url) {
+            super(response);
+            this.response = response;
+            this.url = url;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (writer != null) {
+                throw new IllegalStateException("getWriter() has already been called");
+            }
+            if (stream == null) {
+                stream = new CompressingStream(this);
+            }
+            return stream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                if (stream != null) {
+                    throw new IllegalStateException("getOutputStream() has already been called");
+                }
+                stream = new CompressingStream(this);
+                writer = new PrintWriter(new OutputStreamWriter(stream, getCharacterEncoding()));
+            }
+            return writer;
+        }
+
+        // El Content-Length del servlet solo vale si el cuerpo sale sin comprimir
+        @Override
+        public void setContentLength(int len) {
+            contentLength = len;
+        }
+
+        @Override
+        public void setContentLengthLong(long len) {
+            contentLength = len;
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            if ("Content-Length".equalsIgnoreCase(name)) {
+                contentLength = value != null ? Long.parseLong(value) : -1;
+            } else {
+                super.setHeader(name, value);
+            }
+        }
+
+        // Una vez empezado el cuerpo comprimido ya no se puede reescribir
+        @Override
+        public boolean isCommitted() {
+            return super.isCommitted() || (stream != null && stream.isStarted());
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            } else if (stream != null) {
+                stream.flush();
+            }
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            resetBody();
+        }
+
+        @Override
+        public void resetBuffer() {
+            super.resetBuffer();
+            resetBody();
+        }
+
+        private void resetBody() {
+            if (stream != null) {
+                stream.resetPending();
+            }
+        }
+
+        boolean shouldCompress() {
+            String contentType = getContentType();
+            int status = getStatus();
+            return contentType != null && contentType.startsWith("application/json")
+                && getHeader("Content-Encoding") == null
+                && status != HttpServletResponse.SC_NO_CONTENT && status != HttpServletResponse.SC_NOT_MODIFIED;
+        }
+
+        /** Clave de la caché: solo respuestas 200 con ETag. */
+        String cacheKey() {
+            String etag = getHeader("ETag");
+            return etag != null && getStatus() == HttpServletResponse.SC_OK ? url + "|" + etag : null;
+        }
+
+        void startCompressed() {
+            response.setHeader("Content-Encoding", "gzip");
+            weakenETag();
+            // Con gzip la longitud cambia: se envía con chunked encoding
+            contentLength = -1;
+        }
+
+        void startPlain(int length) {
+            notModified();
+            if (contentLength >= 0) {
+                response.setContentLengthLong(contentLength);
+            } else if (length >= 0) {
+                response.setContentLength(length);
+            }
+        }
+
+        ServletOutputStream rawStream() throws IOException {
+            return response.getOutputStream();
+        }
+
+        void finish() throws IOException {
+            if (writer != null) {
+                writer.close();
+            } else if (stream != null) {
+                stream.close();
+            } else {
+                notModified();
+                if (contentLength >= 0) {
+                    response.setContentLengthLong(contentLength);
+                }
+            }
+        }
+
+        /**
+         * El cuerpo gzip no es idéntico byte a byte al del servlet, así que su ETag
+         * no puede ser fuerte: pasa a débil (W/), que If-None-Match y el If-Match
+         * de los mapas siguen aceptando.
+         */
+        private void weakenETag() {
+            String etag = getHeader("ETag");
+            if (etag != null && !etag.startsWith("W/")) {
+                response.setHeader("ETag", "W/" + etag);
+            }
+        }
+
+        // Un 304 a un cliente que acepta gzip valida la copia comprimida: mismo ETag débil
+        private void notModified() {
+            if (getStatus() == HttpServletResponse.SC_NOT_MODIFIED) {
+                weakenETag();
+            }
+        }
+    }
+
+    /**
+     * Stream que acumula hasta MIN_BYTES y después escribe comprimido (o en claro
+     * si la respuesta no es JSON) directamente en la respuesta original.
+     */
+    private final class CompressingStream extends ServletOutputStream {
+        private final CompressingResponse owner;
+        private ByteArrayOutputStream pending = new ByteArrayOutputStream(MIN_BYTES);
+        private OutputStream target;
+        private TeeOutputStream copy;
+        private String cacheKey;
+        private byte[] cached;
+        private boolean fromCache;
+        private boolean closed;
+
+        CompressingStream(CompressingResponse owner) {
+            this.owner = owner;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (fromCache) {
+                // El cuerpo comprimido ya está en caché: lo que genere el servlet se descarta
+                return;
+            }
+            if (target != null) {
+                target.write(b, off, len);
+                return;
+            }
+            pending.write(b, off, len);
+            if (pending.size() >= MIN_BYTES) {
+                start(false);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (target != null) {
+                target.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            if (target == null && !fromCache) {
+                start(true);
+            }
+            closed = true;
+            if (fromCache) {
+                owner.rawStream().write(cached);
+            } else {
+                target.close();
+                if (copy != null && copy.isComplete()) {
+                    cache.put(cacheKey, copy.toByteArray());
+                }
+            }
+            owner.rawStream().close();
+        }
+
+        boolean isStarted() {
+            return target != null || fromCache;
+        }
+
+        void resetPending() {
+            if (target == null && pending != null) {
+                pending.reset();
+            }
+        }
+
+        /**
+         * Decide la codificación con las cabeceras ya fijadas por el servlet.
+         * @param complete true si el cuerpo está completo en pending (respuesta pequeña).
+         */
+        private void start(boolean complete) throws IOException {
+            byte[] buffered = pending.toByteArray();
+            pending = null;
+            if ((complete && buffered.length < MIN_BYTES) || !owner.shouldCompress()) {
+                owner.startPlain(complete ? buffered.length : -1);
+                target = new PassThroughStream(owner.rawStream());
+                target.write(buffered);
+                return;
+            }
+
+            owner.startCompressed();
+            cacheKey = owner.cacheKey();
+            cached = cache.get(cacheKey);
+            if (cached != null) {
+                fromCache = true;
+                return;
+            }
+            OutputStream raw = new PassThroughStream(owner.rawStream());
+            if (cacheKey != null) {
+                copy = new TeeOutputStream(raw, cache.getMaxEntryBytes());
+                raw = copy;
+            }
+            target = new GZIPOutputStream(raw, 8192, true) {
+                {
+                    def.setLevel(LEVEL);
+                }
+            };
+            target.write(buffered);
+        }
+
+        // Escrituras no bloqueantes: decide el stream de la respuesta original
+        @Override
+        public boolean isReady() {
+            try {
+                return owner.rawStream().isReady();
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            try {
+                owner.rawStream().setWriteListener(writeListener);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Envoltorio que no propaga close(): el cierre de la respuesta lo hace CompressingStream.
+     */
+    private static class PassThroughStream extends OutputStream {
+        private final OutputStream out;
+
+        PassThroughStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Copia los bytes comprimidos para la caché mientras no superen el límite por entrada.
+     */
+    private static final class TeeOutputStream extends PassThroughStream {
+        private final long limit;
+        private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+        TeeOutputStream(OutputStream out, long limit) {
+            super(out);
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            super.write(b, off, len);
+            if (copy != null) {
+                if (copy.size() + len > limit) {
+                    copy = null;
+                } else {
+                    copy.write(b, off, len);
+                }
+            }
+        }
+
+        boolean isComplete() {
+            return copy != null;
+        }
+
+        byte[] toByteArray() {
+            return copy.toByteArray();
+        }
+    }
+
+    /**
+     * Caché LRU de cuerpos ya comprimidos, acotada por bytes.
+     */
+    private static final class CompressedCache {
+        private final long maxBytes;
+        private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(64, 0.75f, true);
+        private long currentBytes;
+
+        CompressedCache(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        long getMaxEntryBytes() {
+            // Un solo cuerpo no puede desplazar más de una octava parte de la caché
+            return maxBytes / 8;
+        }
+
+        synchronized byte[] get(String key) {
+            return key != null ? entries.get(key) : null;
+        }
+
+        synchronized void put(String key, byte[] body) {
+            byte[] old = entries.put(key, body);
+            currentBytes += body.length - (old != null ? old.length : 0);
+            Iterator<byte[]> it = entries.values().iterator();
+            while (currentBytes > maxBytes && it.hasNext()) {
+                currentBytes -= it.next().length;
+                it.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package api;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pool acotado y thread-safe de conexiones JDBC.
+ *
+ * Las conexiones entregadas por {@link #borrow()} son proxies: llamar a
+ * {@code close()} las devuelve al pool en lugar de cerrar el socket, de modo
+ * que el patrón {@code try (Connection conn = db.getConnection())} de DB
+ * sigue siendo válido.
+ */
+public class ConnectionPool {
+    private static final Logger LOGGER = Logger.getLogger(ConnectionPool.class.getName());
+
+    private final String url;
+    private final Properties info;
+    private final int minSize;
+    private final int maxSize;
+    private final long maxIdleMillis;
+    private final long borrowTimeoutMillis;
+    private final int validationTimeoutSeconds;
+
+    // LIFO: las conexiones más recientes se reutilizan primero y las viejas caducan
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Semaphore permits;
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final ScheduledExecutorService evictor;
+    private volatile boolean closed;
+
+    /**
+     * Crea el pool y abre las conexiones mínimas.
+     * @param url URL JDBC.
+     * @param info Propiedades de conexión del driver (user, password y demás).
+     * @param minSize Conexiones que se mantienen abiertas aunque estén ociosas.
+     * @param maxSize Máximo de conexiones abiertas a la vez.
+     * @param maxIdleMillis Tiempo máximo ocioso antes de cerrar una conexión por encima del mínimo.
+     * @param borrowTimeoutMillis Tiempo máximo de espera por una conexión libre.
+     * @param validationTimeoutSeconds Timeout de {@link Connection#isValid(int)} al prestar.
+     * @throws SQLException Si no se pueden abrir las conexiones mínimas.
+     */
+    public ConnectionPool(String url, Properties info, int minSize, int maxSize,
+                          long maxIdleMillis, long borrowTimeoutMillis, int validationTimeoutSeconds) throws SQLException {
+        if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+            throw new IllegalArgumentException("Tamaño de pool inválido: min=" + minSize + ", max=" + maxSize);
+        }
+        this.url = url;
+        this.info = (Properties) info.clone();
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.maxIdleMillis = maxIdleMillis;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.permits = new Semaphore(maxSize, true);
+
+        for (int i = 0; i < minSize; i++) {
+            idle.offerLast(new PooledConnection(openPhysical()));
+        }
+
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-pool-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000L, maxIdleMillis / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Presta una conexión validada del pool, abriendo una nueva si hay cupo.
+     * @return Conexión lista para usar; cerrarla la devuelve al pool.
+     * @throws SQLException Si el pool está cerrado, se agota el timeout o falla la conexión.
+     */
+    public Connection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("El pool de conexiones está cerrado");
+        }
+        waiting.incrementAndGet();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrumpido esperando una conexión", e);
+        } finally {
+            waiting.decrementAndGet();
+        }
+        if (!acquired) {
+            throw new SQLException("Timeout de " + borrowTimeoutMillis + " ms esperando una conexión del pool");
+        }
+
+        try {
+            PooledConnection pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                if (isUsable(pooled.physical)) {
+                    break;
+                }
+                closeQuietly(pooled.physical);
+            }
+            if (pooled == null) {
+                pooled = new PooledConnection(openPhysical());
+            }
+            active.incrementAndGet();
+            return pooled.lease();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Devuelve una conexión física al pool. La llama el proxy al cerrarse.
+     */
+    private void release(PooledConnection pooled) {
+        active.decrementAndGet();
+        try {
+            if (closed || pooled.physical.isClosed()) {
+                closeQuietly(pooled.physical);
+                return;
+            }
+            if (!pooled.physical.getAutoCommit()) {
+                pooled.physical.rollback();
+                pooled.physical.setAutoCommit(true);
+            }
+            pooled.lastUsed = System.currentTimeMillis();
+            idle.offerFirst(pooled);
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "⚠️ Conexión descartada al devolverla al pool: {0}", e.getMessage());
+            closeQuietly(pooled.physical);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Cierra las conexiones ociosas que superan maxIdleMillis, respetando el mínimo.
+     */
+    private void evictIdle() {
+        long limit = System.currentTimeMillis() - maxIdleMillis;
+        PooledConnection oldest;
+        while (idle.size() + active.get() > minSize && (oldest = idle.peekLast()) != null
+                && oldest.lastUsed < limit) {
+            if (idle.removeLastOccurrence(oldest)) {
+                closeQuietly(oldest.physical);
+            }
+        }
+    }
+
+    private boolean isUsable(Connection physical) {
+        try {
+            return !physical.isClosed() && physical.isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private Connection openPhysical() throws SQLException {
+        Connection physical = DriverManager.getConnection(url, info);
+        physical.setAutoCommit(true);
+        physical.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+        return physical;
+    }
+
+    private static void closeQuietly(Connection physical) {
+        try {
+            physical.close();
+        } catch (SQLException e) {
+            LOGGER.log(Level.FINE, "Error al cerrar conexión física", e);
+        }
+    }
+
+    /**
+     * Drena el pool: rechaza nuevos préstamos y cierra las conexiones ociosas.
+     * Las conexiones prestadas se cierran al devolverse.
+     */
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            closeQuietly(pooled.physical);
+        }
+    }
+
+    // ============ MÉTRICAS ============
+
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public int getWaitingCount() {
+        return waiting.get();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Conexión física del pool y fábrica de sus proxies de préstamo.
+     */
+    private final class PooledConnection {
+        final Connection physical;
+        volatile long lastUsed = System.currentTimeMillis();
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        Connection lease() {
+            return (Connection) Proxy.newProxyInstance(
+                ConnectionPool.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                new LeaseHandler(this));
+        }
+    }
+
+    /**
+     * Proxy de un préstamo: close() devuelve la conexión una sola vez y
+     * cualquier uso posterior falla como en una conexión cerrada.
+     */
+    private final class LeaseHandler implements InvocationHandler {
+        private final PooledConnection pooled;
+        private boolean returned;
+
+        LeaseHandler(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!returned) {
+                        returned = true;
+                        release(pooled);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || pooled.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + pooled.physical + "]";
+                default:
+                    if (returned) {
+                        throw new SQLException("La conexión ya fue devuelta al pool");
+                    }
+                    try {
+                        return method.invoke(pooled.physical, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+            }
+        }
+    }
+}
@@ -5,39 +5,95 @@ import java.io.Serializable;
 import java.sql.*;
 import java.util.*;
 import java.util.logging.*;
+import java.util.function.Consumer;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
 
 public class DB implements Serializable {
     private static final Logger LOGGER = Logger.getLogger(DB.class.getName());
     
-    // Configuración de conexión (hardcodeada)
-    private final String url = "jdbc:mysql://localhost:3306/mapas_mentales?useSSL=false&serverTimezone=UTC";
-    private final String driver = "com.mysql.cj.jdbc.Driver";
-    private final String user = "root";
-    private final String passwd = "1234";
+    // Eventos de éxito por petición: se registra una muestra (ver LogSampler)
+    private static final LogSampler EXITOS = new LogSampler(LOGGER);
     
-    private transient Connection con;
+    // Configuración de conexión (sobrescribible con -Ddb.url, -Ddb.driver, -Ddb.user y -Ddb.password)
+    private final String url = System.getProperty("db.url",
+        "jdbc:mysql://localhost:3306/mapas_mentales?useSSL=false&serverTimezone=UTC");
+    private final String driver = System.getProperty("db.driver", "com.mysql.cj.jdbc.Driver");
+    private final String user = System.getProperty("db.user", "root");
+    private final String passwd = System.getProperty("db.password", "1234");
+    
+    // Configuración del pool (sobrescribible con -Ddb.pool.*)
+    private final int poolMinSize = Integer.getInteger("db.pool.minSize", 2);
+    private final int poolMaxSize = Integer.getInteger("db.pool.maxSize", 20);
+    private final long poolMaxIdleMillis = Long.getLong("db.pool.maxIdleMillis", 300000L);
+    private final long poolBorrowTimeoutMillis = Long.getLong("db.pool.borrowTimeoutMillis", 5000L);
+    private final int poolValidationTimeoutSeconds = Integer.getInteger("db.pool.validationTimeoutSeconds", 2);
+    
+    // Mantener también map_nodes / map_edges (-Dmapas.normalizado=true)
+    private final boolean normalizado = Boolean.getBoolean("mapas.normalizado");
+    
+    // Guardar datos_json comprimido en datos_comprimidos (-Dmapas.compresion=true)
+    private final boolean comprimido = Boolean.getBoolean("mapas.compresion");
+    
+    // Documento en SQL de una fila guardada comprimida. Las filas en claro se parchean sobre
+    // datos_json directamente: MySQL solo actualiza en el sitio con datos_json = JSON_SET(datos_json, ...)
+    private static final String DATOS_DESCOMPRIMIDOS =
+        "CAST(CONVERT(UNCOMPRESS(datos_comprimidos) USING utf8mb4) AS JSON)";
+    
+    // Columnas de las lecturas de filas, en el orden que esperan leerMapa() y leerResumen()
+    private static final String COLUMNAS_MAPA =
+        "id, titulo, datos_json, datos_comprimidos, fecha_creacion, ultima_modificacion, version";
+    private static final String COLUMNAS_RESUMEN =
+        "id, titulo, fecha_creacion, ultima_modificacion, nodes_count, edges_count, size_bytes";
+    
+    // Caché de mapas individuales (sobrescribible con -Dmapcache.*)
+    private final long cacheMaxBytes = Long.getLong("mapcache.maxBytes", 64L * 1024 * 1024);
+    private final long cacheTtlMillis = Long.getLong("mapcache.ttlMillis", 600000L);
+    
+    // Índices espaciales de los mapas consultados por ventana (-Dspatial.maxMaps)
+    private final int spatialMaxMaps = Integer.getInteger("spatial.maxMaps", 32);
+    
+    // Filas por consulta al recorrer los mapas de un usuario (-Dmapas.recorrido.tanda)
+    private final int tamanoTanda = Math.max(1, Integer.getInteger("mapas.recorrido.tanda", 100));
+    
+    // Índices de búsqueda de texto por usuario (-Dsearch.maxUsers)
+    private final int searchMaxUsers = Integer.getInteger("search.maxUsers", 256);
+    
+    private transient ConnectionPool pool;
+    private transient MapCache cache;
+    private transient Map<Integer, SpatialIndex> indices;
+    private transient SearchIndex busqueda;
 
     // ============ CONEXIÓN A BD ============
     
     /**
-     * Constructor que inicializa la conexión automáticamente.
+     * Constructor que inicializa el pool de conexiones automáticamente.
      * @throws RuntimeException Si falla la conexión.
      */
     public DB() {
         initializeConnection();
+        this.cache = new MapCache(cacheMaxBytes, cacheTtlMillis);
+        this.indices = Collections.synchronizedMap(new LinkedHashMap<Integer, SpatialIndex>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, SpatialIndex> eldest) {
+                return size() > spatialMaxMaps;
+            }
+        });
+        this.busqueda = new SearchIndex(searchMaxUsers);
     }
 
     /**
-     * Inicializa la conexión a la base de datos.
+     * Inicializa el pool de conexiones a la base de datos.
      * @throws RuntimeException Si el driver no se encuentra o hay error de conexión.
      */
     private void initializeConnection() {
         try {
             Class.forName(driver);
-            this.con = DriverManager.getConnection(url, user, passwd);
-            this.con.setAutoCommit(true);
-            this.con.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
-            LOGGER.log(Level.INFO, "✅ Conexión establecida con éxito a: {0}", url);
+            this.pool = new ConnectionPool(url, propiedadesConexion(), poolMinSize, poolMaxSize,
+                poolMaxIdleMillis, poolBorrowTimeoutMillis, poolValidationTimeoutSeconds);
+            LOGGER.log(Level.INFO, "✅ Pool de conexiones creado ({0}-{1}) para: {2}",
+                new Object[]{poolMinSize, poolMaxSize, url});
         } catch (ClassNotFoundException e) {
             String errorMsg = "❌ Driver JDBC no encontrado: " + e.getMessage();
             LOGGER.log(Level.SEVERE, errorMsg, e);
@@ -50,46 +106,86 @@ public class DB implements Serializable {
     }
 
     /**
-     * Verifica y reestablece la conexión si es necesario.
-     * @throws SQLException Si falla la verificación.
+     * Propiedades del driver. Con MySQL se activa rewriteBatchedStatements aquí y no
+     * en la URL, para que ejecutarLoteMapas envíe cada executeBatch como una sola
+     * sentencia también cuando se configura otra URL con -Ddb.url.
      */
-    private void checkConnection() throws SQLException {
-        try {
-            if (con == null || con.isClosed()) {
-                LOGGER.warning("⚠️ La conexión estaba cerrada. Reconectando...");
-                initializeConnection();
-            }
-        } catch (SQLException e) {
-            String errorMsg = "❌ Error al verificar conexión: " + e.getMessage();
-            LOGGER.log(Level.SEVERE, errorMsg, e);
-            throw new SQLException(errorMsg, e);
+    private Properties propiedadesConexion() {
+        Properties info = new Properties();
+        info.setProperty("user", user);
+        info.setProperty("password", passwd);
+        if (url.startsWith("jdbc:mysql:")) {
+            info.setProperty("rewriteBatchedStatements", "true");
         }
+        return info;
     }
 
     /**
-     * Obtiene la conexión activa verificando primero su estado.
-     * @return Connection activa.
-     * @throws SQLException Si falla la conexión.
+     * Presta una conexión del pool. Cerrarla la devuelve al pool.
+     * @return Connection validada.
+     * @throws SQLException Si el pool está cerrado, se agota la espera o falla la conexión.
      */
     public Connection getConnection() throws SQLException {
-        checkConnection();
-        return con;
+        if (pool == null) {
+            throw new SQLException("❌ El pool de conexiones no está inicializado");
+        }
+        return pool.borrow();
     }
 
     /**
-     * Cierra la conexión con la base de datos.
+     * Drena el pool de conexiones con la base de datos.
      */
     public void closeConnection() {
-        try {
-            if (con != null && !con.isClosed()) {
-                con.close();
-                LOGGER.info("🔌 Conexión cerrada correctamente.");
-            }
-        } catch (SQLException e) {
-            LOGGER.log(Level.SEVERE, "❌ Error al cerrar conexión: {0}", e.getMessage());
+        if (pool != null && !pool.isClosed()) {
+            pool.close();
+            LOGGER.info("🔌 Pool de conexiones drenado correctamente.");
         }
     }
 
+    /**
+     * Métricas actuales del pool de conexiones.
+     * @return Mapa con active, idle, waiting y max.
+     */
+    public Map<String, Object> getPoolStats() {
+        Map<String, Object> stats = new HashMap<>();
+        if (pool != null) {
+            stats.put("active", pool.getActiveCount());
+            stats.put("idle", pool.getIdleCount());
+            stats.put("waiting", pool.getWaitingCount());
+            stats.put("max", pool.getMaxSize());
+        }
+        return stats;
+    }
+
+    /**
+     * Métricas actuales de la caché de mapas.
+     * @return Mapa con hits, misses, evictions, size, bytes y max_bytes.
+     */
+    public Map<String, Object> getCacheStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("hits", cache.getHitCount());
+        stats.put("misses", cache.getMissCount());
+        stats.put("evictions", cache.getEvictionCount());
+        stats.put("size", cache.getSize());
+        stats.put("bytes", cache.getBytes());
+        stats.put("max_bytes", cache.getMaxBytes());
+        return stats;
+    }
+
+    /**
+     * Métricas actuales del índice de búsqueda.
+     * @return Mapa con queries, builds, evictions, stale y users.
+     */
+    public Map<String, Object> getSearchStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("queries", busqueda.getQueryCount());
+        stats.put("builds", busqueda.getBuildCount());
+        stats.put("evictions", busqueda.getEvictionCount());
+        stats.put("stale", busqueda.getStaleCount());
+        stats.put("users", busqueda.getUserCount());
+        return stats;
+    }
+
     // ============ MÉTODOS DE USUARIO ============
 
     /**
@@ -103,6 +199,7 @@ public class DB implements Serializable {
     public boolean registrarUsuario(String nombre, String email, String passwordHash) throws SQLException {
         String sql = "INSERT INTO usuarios (nombre, email, password_hash) VALUES (?, ?, ?)";
         
+        Metrics.Timer timer = Metrics.db("registrarUsuario");
         try (Connection conn = getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             
@@ -117,27 +214,30 @@ public class DB implements Serializable {
             }
             return false;
         } catch (SQLException e) {
+            Metrics.dbError("registrarUsuario");
             LOGGER.log(Level.SEVERE, "❌ Error al registrar usuario - Email: {0}, Error: {1}", 
                 new Object[]{email, e.getMessage()});
             throw e;
+        } finally {
+            timer.stop();
         }
     }
 
     /**
-     * Autentica un usuario con email y contraseña hasheada.
+     * Obtiene los datos de un usuario junto con su hash de contraseña, para
+     * verificarla fuera de la base de datos.
      * @param email Email del usuario.
-     * @param passwordHash Contraseña hasheada.
-     * @return Mapa con datos del usuario (id, nombre, email) o null si falla.
+     * @return Mapa con id, nombre, email y password_hash, o null si no existe.
      * @throws SQLException Si hay error en la consulta SQL.
      */
-    public Map<String, Object> autenticarUsuario(String email, String passwordHash) throws SQLException {
-        String sql = "SELECT id, nombre, email FROM usuarios WHERE email = ? AND password_hash = ?";
+    public Map<String, Object> obtenerCredenciales(String email) throws SQLException {
+        String sql = "SELECT id, nombre, email, password_hash FROM usuarios WHERE email = ?";
         
+        Metrics.Timer timer = Metrics.db("obtenerCredenciales");
         try (Connection conn = getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             
             stmt.setString(1, email);
-            stmt.setString(2, passwordHash);
             
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
@@ -145,19 +245,48 @@ public class DB implements Serializable {
                     usuario.put("id", rs.getInt("id"));
                     usuario.put("nombre", rs.getString("nombre"));
                     usuario.put("email", rs.getString("email"));
-                    LOGGER.log(Level.INFO, "🔑 Usuario autenticado: {0}", email);
+                    usuario.put("password_hash", rs.getString("password_hash"));
                     return usuario;
                 }
             }
         } catch (SQLException e) {
-            LOGGER.log(Level.SEVERE, "❌ Error al autenticar usuario - Email: {0}, Error: {1}", 
+            Metrics.dbError("obtenerCredenciales");
+            LOGGER.log(Level.SEVERE, "❌ Error al obtener credenciales - Email: {0}, Error: {1}", 
                 new Object[]{email, e.getMessage()});
             throw e;
+        } finally {
+            timer.stop();
         }
-        LOGGER.log(Level.WARNING, "⚠️ Autenticación fallida para: {0}", email);
         return null;
     }
 
+    /**
+     * Reemplaza el hash de contraseña de un usuario (migración a bcrypt o cambio de coste).
+     * @param usuarioId ID del usuario.
+     * @param passwordHash Nuevo hash.
+     * @return true si se actualizó.
+     * @throws SQLException Si hay error en la consulta SQL.
+     */
+    public boolean actualizarPasswordHash(int usuarioId, String passwordHash) throws SQLException {
+        String sql = "UPDATE usuarios SET password_hash = ? WHERE id = ?";
+        
+        Metrics.Timer timer = Metrics.db("actualizarPasswordHash");
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            
+            stmt.setString(1, passwordHash);
+            stmt.setInt(2, usuarioId);
+            return stmt.executeUpdate() > 0;
+        } catch (SQLException e) {
+            Metrics.dbError("actualizarPasswordHash");
+            LOGGER.log(Level.SEVERE, "❌ Error al actualizar hash de usuario - ID: {0}, Error: {1}", 
+                new Object[]{usuarioId, e.getMessage()});
+            throw e;
+        } finally {
+            timer.stop();
+        }
+    }
+
     /**
      * Actualiza los datos de un usuario.
      * @param usuarioId ID del usuario.
@@ -169,6 +298,7 @@ public class DB implements Serializable {
     public boolean actualizarUsuario(int usuarioId, String nuevoNombre, String nuevaPassword) throws SQLException {
         String sql = "UPDATE usuarios SET nombre = ?, password_hash = ? WHERE id = ?";
         
+        Metrics.Timer timer = Metrics.db("actualizarUsuario");
         try (Connection conn = getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             
@@ -183,9 +313,12 @@ public class DB implements Serializable {
             }
             return false;
         } catch (SQLException e) {
+            Metrics.dbError("actualizarUsuario");
             LOGGER.log(Level.SEVERE, "❌ Error al actualizar usuario - ID: {0}, Error: {1}", 
                 new Object[]{usuarioId, e.getMessage()});
             throw e;
+        } finally {
+            timer.stop();
         }
     }
 
@@ -198,6 +331,7 @@ public class DB implements Serializable {
     public boolean eliminarUsuario(int usuarioId) throws SQLException {
         String sql = "DELETE FROM usuarios WHERE id = ?";
         
+        Metrics.Timer timer = Metrics.db("eliminarUsuario");
         try (Connection conn = getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             
@@ -205,14 +339,18 @@ public class DB implements Serializable {
             
             int result = stmt.executeUpdate();
             if (result > 0) {
+                busqueda.invalidate(usuarioId);
                 LOGGER.log(Level.INFO, "🗑️ Usuario eliminado - ID: {0}", usuarioId);
                 return true;
             }
             return false;
         } catch (SQLException e) {
+            Metrics.dbError("eliminarUsuario");
             LOGGER.log(Level.SEVERE, "❌ Error al eliminar usuario - ID: {0}, Error: {1}", 
                 new Object[]{usuarioId, e.getMessage()});
             throw e;
+        } finally {
+            timer.stop();
         }
     }
 
@@ -227,29 +365,63 @@ public class DB implements Serializable {
      * @throws SQLException Si hay error en la consulta SQL.
      */
     public int guardarMapaMental(int usuarioId, String titulo, String datosJson) throws SQLException {
-        String sql = "INSERT INTO mapas_mentales (usuario_id, titulo, datos_json) VALUES (?, ?, ?)";
+        return guardarMapaMental(usuarioId, titulo, datosJson, contarElementos(datosJson));
+    }
+
+    /**
+     * Guarda un nuevo mapa mental cuyo JSON ya fue validado con {@link JsonScanner}.
+     * @param usuarioId ID del usuario.
+     * @param titulo Título del mapa.
+     * @param datosJson Datos en formato JSON.
+     * @param resumen Conteo de nodos y aristas obtenido al validar.
+     * @return ID del mapa creado o -1 si falla.
+     * @throws SQLException Si hay error en la consulta SQL.
+     */
+    public int guardarMapaMental(int usuarioId, String titulo, String datosJson, JsonScanner.Summary resumen)
+            throws SQLException {
+        String sql = "INSERT INTO mapas_mentales (usuario_id, titulo, datos_json, datos_comprimidos, nodes_count, edges_count, size_bytes) " +
+                     "VALUES (?, ?, ?, ?, ?, ?, ?)";
+        byte[] comprimidos = comprimir(datosJson);
         
+        Metrics.Timer timer = Metrics.db("guardarMapaMental");
         try (Connection conn = getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             
+            // Blob, filas normalizadas y lectura de fechas y versión en la misma transacción
+            conn.setAutoCommit(false);
             stmt.setInt(1, usuarioId);
             stmt.setString(2, titulo);
-            stmt.setString(3, datosJson);
+            stmt.setString(3, comprimidos == null ? datosJson : null);
+            stmt.setBytes(4, comprimidos);
+            stmt.setInt(5, resumen.getNodesCount());
+            stmt.setInt(6, resumen.getEdgesCount());
+            stmt.setLong(7, tamanoEscrito(datosJson));
             
             stmt.executeUpdate();
             
             try (ResultSet rs = stmt.getGeneratedKeys()) {
                 if (rs.next()) {
                     int idGenerado = rs.getInt(1);
-                    LOGGER.log(Level.INFO, "🗺️ Mapa mental creado - ID: {0}, Usuario: {1}", 
-                        new Object[]{idGenerado, usuarioId});
+                    if (normalizado) {
+                        NormalizedMapStore.sincronizarCompleto(conn, idGenerado, new JSONObject(datosJson));
+                    }
+                    MindMapRecord escrito = leerEscritura(conn, idGenerado, titulo, datosJson, comprimidos);
+                    conn.commit();
+                    cachearEscritura(idGenerado, usuarioId, escrito, titulo, datosJson);
+                    if (EXITOS.sample("mapaCreado")) {
+                        LOGGER.log(Level.INFO, "🗺️ Mapa mental creado - ID: {0}, Usuario: {1}",
+                            new Object[]{idGenerado, usuarioId});
+                    }
                     return idGenerado;
                 }
             }
         } catch (SQLException e) {
+            Metrics.dbError("guardarMapaMental");
             LOGGER.log(Level.SEVERE, "❌ Error al guardar mapa mental - Usuario: {0}, Error: {1}", 
                 new Object[]{usuarioId, e.getMessage()});
             throw e;
+        } finally {
+            timer.stop();
         }
         return -1;
     }
@@ -264,29 +436,343 @@ public class DB implements Serializable {
      * @throws SQLException Si hay error en la consulta SQL.
      */
     public boolean actualizarMapaMental(int mapaId, int usuarioId, String titulo, String datosJson) throws SQLException {
-        String sql = "UPDATE mapas_mentales SET titulo = ?, datos_json = ?, ultima_modificacion = CURRENT_TIMESTAMP WHERE id = ? AND usuario_id = ?";
+        return actualizarMapaMental(mapaId, usuarioId, titulo, datosJson, contarElementos(datosJson));
+    }
+
+    /**
+     * Actualiza un mapa mental cuyo JSON ya fue validado con {@link JsonScanner}.
+     * @param mapaId ID del mapa.
+     * @param usuarioId ID del usuario.
+     * @param titulo Nuevo título.
+     * @param datosJson Nuevos datos en JSON.
+     * @param resumen Conteo de nodos y aristas obtenido al validar.
+     * @return true si se actualizó, false si no.
+     * @throws SQLException Si hay error en la consulta SQL.
+     */
+    public boolean actualizarMapaMental(int mapaId, int usuarioId, String titulo, String datosJson,
+                                        JsonScanner.Summary resumen) throws SQLException {
+        String sql = "UPDATE mapas_mentales SET titulo = ?, datos_json = ?, datos_comprimidos = ?, nodes_count = ?, " +
+                     "edges_count = ?, size_bytes = ?, version = version + 1, ultima_modificacion = CURRENT_TIMESTAMP " +
+                     "WHERE id = ? AND usuario_id = ?";
+        byte[] comprimidos = comprimir(datosJson);
         
+        Metrics.Timer timer = Metrics.db("actualizarMapaMental");
         try (Connection conn = getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             
+            // La versión se relee antes del commit, con la fila aún bloqueada por el UPDATE
+            conn.setAutoCommit(false);
             stmt.setString(1, titulo);
-            stmt.setString(2, datosJson);
-            stmt.setInt(3, mapaId);
-            stmt.setInt(4, usuarioId);
+            stmt.setString(2, comprimidos == null ? datosJson : null);
+            stmt.setBytes(3, comprimidos);
+            stmt.setInt(4, resumen.getNodesCount());
+            stmt.setInt(5, resumen.getEdgesCount());
+            stmt.setLong(6, tamanoEscrito(datosJson));
+            stmt.setInt(7, mapaId);
+            stmt.setInt(8, usuarioId);
             
             int result = stmt.executeUpdate();
             if (result > 0) {
-                LOGGER.log(Level.INFO, "🔄 Mapa actualizado - ID: {0}", mapaId);
+                if (normalizado) {
+                    NormalizedMapStore.sincronizarCompleto(conn, mapaId, new JSONObject(datosJson));
+                }
+                MindMapRecord escrito = leerEscritura(conn, mapaId, titulo, datosJson, comprimidos);
+                conn.commit();
+                cachearEscritura(mapaId, usuarioId, escrito, titulo, datosJson);
+                if (EXITOS.sample("mapaActualizado")) {
+                    LOGGER.log(Level.INFO, "🔄 Mapa actualizado - ID: {0}", mapaId);
+                }
                 return true;
             }
             return false;
         } catch (SQLException e) {
+            Metrics.dbError("actualizarMapaMental");
+            cache.invalidate(mapaId);
             LOGGER.log(Level.SEVERE, "❌ Error al actualizar mapa - ID: {0}, Error: {1}", 
                 new Object[]{mapaId, e.getMessage()});
             throw e;
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Aplica un parche parcial a datos_json con control de concurrencia optimista.
+     * El documento se lee con FOR UPDATE en la misma transacción que lo modifica,
+     * así que los índices de las rutas JSON que calcula el parche corresponden
+     * siempre al documento guardado y no a una copia de la caché. MySQL recibe
+     * la expresión JSON del parche: los cambios con JSON_SET/JSON_REPLACE/JSON_REMOVE
+     * pueden aplicarse en el sitio, pero añadir nodos o aristas (JSON_ARRAY_APPEND,
+     * JSON_ARRAY_INSERT) reescribe la columna completa. Con la compresión activa
+     * se reescribe siempre el documento completo comprimido.
+     * @param mapaId ID del mapa.
+     * @param usuarioId ID del usuario.
+     * @param versionEsperada Versión sobre la que se pidió el cambio, o -1 para aplicarlo sobre la actual.
+     * @param cambio Operaciones a aplicar sobre el parche; pueden lanzar IllegalArgumentException.
+     * @return Mapa escrito, con la versión y la fecha leídas antes del commit, o null si
+     *         el mapa no existe o cambió de versión.
+     * @throws SQLException Si hay error en la consulta SQL.
+     * @throws IllegalArgumentException Si el parche no es válido para el documento actual.
+     */
+    public MindMapRecord aplicarParcheMapa(int mapaId, int usuarioId, int versionEsperada, Consumer<MapPatch> cambio)
+            throws SQLException {
+        String bloqueo = "SELECT " + COLUMNAS_MAPA + " FROM mapas_mentales WHERE id = ? AND usuario_id = ? FOR UPDATE";
+        
+        Metrics.Timer timer = Metrics.db("aplicarParcheMapa");
+        try (Connection conn = getConnection()) {
+            
+            // Lectura, escritura y relectura de la versión con la fila bloqueada
+            conn.setAutoCommit(false);
+            MindMapRecord guardado;
+            try (PreparedStatement stmt = conn.prepareStatement(bloqueo)) {
+                stmt.setInt(1, mapaId);
+                stmt.setInt(2, usuarioId);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    guardado = rs.next() ? leerMapa(rs) : null;
+                }
+            }
+            if (guardado == null || (versionEsperada >= 0 && guardado.getVersion() != versionEsperada)) {
+                conn.rollback();
+                cache.invalidate(mapaId);
+                LOGGER.log(Level.WARNING, "⚠️ Conflicto de versión al parchear mapa - ID: {0}", mapaId);
+                return null;
+            }
+            MindMapRecord actual = guardado.descomprimir();
+            MapPatch parche = new MapPatch(actual.getDatosJson());
+            cambio.accept(parche);
+            
+            String documento = parche.getDocument();
+            byte[] comprimidos = comprimir(documento);
+            String expresion = guardado.getDatosComprimidos() != null
+                ? parche.getSqlExpression(DATOS_DESCOMPRIMIDOS) : parche.getSqlExpression();
+            String datos = comprimidos != null
+                ? "datos_json = NULL, datos_comprimidos = ?"
+                : "datos_json = " + expresion + ", datos_comprimidos = NULL";
+            String sql = "UPDATE mapas_mentales SET " + datos + ", " +
+                         "nodes_count = ?, edges_count = ?, size_bytes = ?, version = version + 1, " +
+                         "ultima_modificacion = CURRENT_TIMESTAMP WHERE id = ? AND usuario_id = ?";
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                int i = 1;
+                if (comprimidos != null) {
+                    stmt.setBytes(i++, comprimidos);
+                } else {
+                    for (String param : parche.getSqlParams()) {
+                        stmt.setString(i++, param);
+                    }
+                }
+                stmt.setInt(i++, parche.getNodesCount());
+                stmt.setInt(i++, parche.getEdgesCount());
+                stmt.setLong(i++, tamanoEscrito(documento));
+                stmt.setInt(i++, mapaId);
+                stmt.setInt(i, usuarioId);
+                stmt.executeUpdate();
+            }
+            if (normalizado) {
+                if (parche.isTouchedByPath()) {
+                    NormalizedMapStore.sincronizarCompleto(conn, mapaId, parche.getDocumentObject());
+                } else {
+                    NormalizedMapStore.sincronizarParcial(conn, mapaId, parche.getDocumentObject(),
+                        parche.getTouchedNodes(), parche.getTouchedEdges());
+                }
+            }
+            MindMapRecord escrito = leerEscritura(conn, mapaId, actual.getTitulo(), documento, comprimidos);
+            conn.commit();
+            cachearEscritura(mapaId, usuarioId, escrito, actual.getTitulo(), documento);
+            if (EXITOS.sample("parcheAplicado")) {
+                LOGGER.log(Level.INFO, "🩹 Parche aplicado - Mapa: {0}, Versión: {1}",
+                    new Object[]{mapaId, actual.getVersion() + 1});
+            }
+            if (escrito == null) {
+                // Con la fila bloqueada la versión escrita es la siguiente; solo falta la hora exacta
+                escrito = new MindMapRecord(mapaId, actual.getTitulo(), documento, comprimidos,
+                    actual.getFechaCreacion(), System.currentTimeMillis(), actual.getVersion() + 1);
+            }
+            return escrito;
+        } catch (SQLException e) {
+            Metrics.dbError("aplicarParcheMapa");
+            cache.invalidate(mapaId);
+            LOGGER.log(Level.SEVERE, "❌ Error al parchear mapa - ID: {0}, Error: {1}", 
+                new Object[]{mapaId, e.getMessage()});
+            throw e;
+        } finally {
+            timer.stop();
         }
     }
 
+    // ============ NODOS Y ARISTAS INDIVIDUALES ============
+
+    /**
+     * Obtiene un nodo de un mapa sin cargar el documento cuando el modelo normalizado está activo.
+     * @param mapaId ID del mapa.
+     * @param usuarioId ID del usuario.
+     * @param nodeId ID del nodo.
+     * @return Nodo o null si el mapa o el nodo no existen.
+     * @throws SQLException Si hay error en la consulta SQL.
+     */
+    public JSONObject obtenerNodo(int mapaId, int usuarioId, String nodeId) throws SQLException {
+        return obtenerElemento(mapaId, usuarioId, "nodes", nodeId);
+    }
+
+    /**
+     * Obtiene una arista de un mapa sin cargar el documento cuando el modelo normalizado está activo.
+     * @param mapaId ID del mapa.
+     * @param usuarioId ID del usuario.
+     * @param edgeId ID de la arista.
+     * @return Arista o null si el mapa o la arista no existen.
+     * @throws SQLException Si hay error en la consulta SQL.
+     */
+    public JSONObject obtenerArista(int mapaId, int usuarioId, String edgeId) throws SQLException {
+        return obtenerElemento(mapaId, usuarioId, "edges", edgeId);
+    }
+
+    private JSONObject obtenerElemento(int mapaId, int usuarioId, String coleccion, String id) throws SQLException {
+        if (!normalizado) {
+            MindMapRecord mapa = obtenerMapa(mapaId, usuarioId);
+            if (mapa == null) {
+                return null;
+            }
+            JSONArray elementos = new JSONObject(mapa.getDatosJson()).optJSONArray(coleccion);
+            for (int i = 0; elementos != null && i < elementos.length(); i++) {
+                JSONObject elemento = elementos.optJSONObject(i);
+                if (elemento != null && id.equals(elemento.optString("id", null))) {
+                    return elemento;
+                }
+            }
+            return null;
+        }
+        if (obtenerVersionMapa(mapaId, usuarioId) == null) {
+            return null;
+        }
+        Metrics.Timer timer = Metrics.db("obtenerElemento");
+        try (Connection conn = getConnection()) {
+            return coleccion.equals("nodes")
+                ? NormalizedMapStore.leerNodo(conn, mapaId, id)
+                : NormalizedMapStore.leerArista(conn, mapaId, id);
+        } catch (SQLException e) {
+            Metrics.dbError("obtenerElemento");
+            LOGGER.log(Level.SEVERE, "❌ Error al obtener elemento {0} del mapa {1}: {2}", 
+                new Object[]{id, mapaId, e.getMessage()});
+            throw e;
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Inserta o reemplaza un nodo. Actualiza datos_json de forma parcial y, si está
+     * activo, la fila de map_nodes en la misma transacción.
+     * @param mapaId ID del mapa.
+     * @param usuarioId ID del usuario.
+     * @param nodo Nodo con id.
+     * @return true si se guardó, false si el mapa no existe o cambió entretanto.
+     * @throws SQLException Si hay error en la consulta SQL.
+     */
+    public boolean guardarNodo(int mapaId, int usuarioId, JSONObject nodo) throws SQLException {
+        return modificarElemento(mapaId, usuarioId, parche -> parche.putElement("nodes", nodo));
+    }
+
+    /**
+     * Elimina un nodo y las aristas que lo tocan.
+     * @return true si se eliminó, false si el mapa no existe o cambió entretanto.
+     * @throws SQLException Si hay error en la consulta SQL.
+     */
+    public boolean eliminarNodo(int mapaId, int usuarioId, String nodeId) throws SQLException {
+        return modificarElemento(mapaId, usuarioId, parche -> parche.removeElement("nodes", nodeId));
+    }
+
+    /**
+     * Inserta o reemplaza una arista.
+     * @return true si se guardó, false si el mapa no existe o cambió entretanto.
+     * @throws SQLException Si hay error en la consulta SQL.
+     */
+    public boolean guardarArista(int mapaId, int usuarioId, JSONObject arista) throws SQLException {
+        return modificarElemento(mapaId, usuarioId, parche -> parche.putElement("edges", arista));
+    }
+
+    /**
+     * Elimina una arista.
+     * @return true si se eliminó, false si el mapa no existe o cambió entretanto.
+     * @throws SQLException Si hay error en la consulta SQL.
+     */
+    public boolean eliminarArista(int mapaId, int usuarioId, String edgeId) throws SQLException {
+        return modificarElemento(mapaId, usuarioId, parche -> parche.removeElement("edges", edgeId));
+    }
+
+    private boolean modificarElemento(int mapaId, int usuarioId, Consumer<MapPatch> cambio)
+            throws SQLException {
+        return aplicarParcheMapa(mapaId, usuarioId, -1, cambio) != null;
+    }
+
+    /**
+     * Reconstruye datos_json a partir de map_nodes y map_edges, escribiéndolo en streaming.
+     * No es una copia exacta del documento guardado: solo contiene nodes y edges
+     * (viewport y el resto de campos de primer nivel no se normalizan) y omite los
+     * elementos sin id, que no tienen fila; un nodo sin position sale con
+     * {x: 0, y: 0}. El resto de campos de cada elemento se conserva con su valor
+     * original (ids numéricos, posiciones con otros campos...), aunque el orden de
+     * las claves puede cambiar.
+     * @param mapaId ID del mapa.
+     * @param usuarioId ID del usuario.
+     * @param out Destino del documento.
+     * @return true si el mapa existe.
+     * @throws SQLException Si hay error en la consulta SQL.
+     * @throws IOException Si falla la escritura.
+     */
+    public boolean reensamblarMapa(int mapaId, int usuarioId, JsonStreamWriter out) throws SQLException, IOException {
+        if (obtenerVersionMapa(mapaId, usuarioId) == null) {
+            return false;
+        }
+        Metrics.Timer timer = Metrics.db("reensamblarMapa");
+        try (Connection conn = getConnection()) {
+            NormalizedMapStore.escribirDocumento(conn, mapaId, out);
+            return true;
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Convierte todos los blobs existentes al modelo normalizado, un mapa por transacción.
+     * @return Número de mapas migrados.
+     * @throws SQLException Si hay error en la consulta SQL.
+     */
+    public int migrarANormalizado() throws SQLException {
+        int migrados = 0;
+        String sql = "SELECT id, datos_json, datos_comprimidos FROM mapas_mentales ORDER BY id";
+        
+        // Una conexión lee en streaming y otra escribe: Connector/J no admite
+        // otras sentencias en la conexión mientras hay un ResultSet en streaming
+        Metrics.Timer timer = Metrics.db("migrarANormalizado");
+        try (Connection lectura = getConnection();
+             Connection escritura = getConnection();
+             PreparedStatement stmt = lectura.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            
+            activarStreaming(stmt);
+            escritura.setAutoCommit(false);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    int mapaId = rs.getInt("id");
+                    try {
+                        NormalizedMapStore.sincronizarCompleto(escritura, mapaId, new JSONObject(MapCompression.read(rs)));
+                        escritura.commit();
+                        migrados++;
+                    } catch (JSONException e) {
+                        escritura.rollback();
+                        LOGGER.log(Level.WARNING, "⚠️ Mapa {0} con JSON inválido, no migrado", mapaId);
+                    }
+                }
+            }
+            LOGGER.log(Level.INFO, "🧱 Migrados {0} mapas al modelo normalizado", migrados);
+        } catch (SQLException e) {
+            Metrics.dbError("migrarANormalizado");
+            LOGGER.log(Level.SEVERE, "❌ Error en la migración al modelo normalizado: {0}", e.getMessage());
+            throw e;
+        } finally {
+            timer.stop();
+        }
+        return migrados;
+    }
+
     /**
      * Elimina un mapa mental.
      * @param mapaId ID del mapa.
@@ -297,6 +783,7 @@ public class DB implements Serializable {
     public boolean eliminarMapaMental(int mapaId, int usuarioId) throws SQLException {
         String sql = "DELETE FROM mapas_mentales WHERE id = ? AND usuario_id = ?";
         
+        Metrics.Timer timer = Metrics.db("eliminarMapaMental");
         try (Connection conn = getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             
@@ -305,65 +792,487 @@ public class DB implements Serializable {
             
             int result = stmt.executeUpdate();
             if (result > 0) {
+                cache.invalidate(mapaId);
+                indices.remove(mapaId);
+                busqueda.remove(usuarioId, mapaId);
                 LOGGER.log(Level.INFO, "🗑️ Mapa eliminado - ID: {0}", mapaId);
                 return true;
             }
             return false;
         } catch (SQLException e) {
+            Metrics.dbError("eliminarMapaMental");
             LOGGER.log(Level.SEVERE, "❌ Error al eliminar mapa - ID: {0}, Error: {1}", 
                 new Object[]{mapaId, e.getMessage()});
             throw e;
+        } finally {
+            timer.stop();
         }
     }
 
+    /**
+     * Ejecuta un lote de altas, modificaciones y bajas de mapas en una sola transacción,
+     * con un executeBatch por tipo de operación (se aplican en ese orden: altas,
+     * modificaciones, bajas). Agruparlas no cambia el resultado porque MapBatch
+     * rechaza dos operaciones sobre el mismo mapa. Las operaciones sobre mapas ajenos
+     * o inexistentes, o que no afectan a ninguna fila, se marcan con 404 sin abortar
+     * el lote; un error SQL revierte el lote completo.
+     * @param usuarioId ID del usuario.
+     * @param lote Operaciones validadas; cada una recibe su resultado.
+     * @throws SQLException Si hay error en la consulta SQL.
+     */
+    public void ejecutarLoteMapas(int usuarioId, MapBatch lote) throws SQLException {
+        List<MapBatch.Operation> altas = lote.pending(MapBatch.Type.CREATE);
+        List<MapBatch.Operation> cambios = lote.pending(MapBatch.Type.UPDATE);
+        List<MapBatch.Operation> bajas = lote.pending(MapBatch.Type.DELETE);
+        
+        Metrics.Timer timer = Metrics.db("ejecutarLoteMapas");
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            
+            // Bloquear y comprobar la propiedad de los mapas a modificar o borrar
+            Map<Integer, Integer> propios = mapasPropios(conn, usuarioId, cambios, bajas);
+            for (List<MapBatch.Operation> ops : Arrays.asList(cambios, bajas)) {
+                for (Iterator<MapBatch.Operation> it = ops.iterator(); it.hasNext(); ) {
+                    MapBatch.Operation op = it.next();
+                    if (!propios.containsKey(op.getMapaId())) {
+                        op.fail("Map not found or not owned by user", 404);
+                        it.remove();
+                    }
+                }
+            }
+            
+            if (!altas.isEmpty()) {
+                String sql = "INSERT INTO mapas_mentales (usuario_id, titulo, datos_json, datos_comprimidos, nodes_count, " +
+                             "edges_count, size_bytes) VALUES (?, ?, ?, ?, ?, ?, ?)";
+                try (PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                    for (MapBatch.Operation op : altas) {
+                        byte[] comprimidos = comprimir(op.getDatosJson());
+                        stmt.setInt(1, usuarioId);
+                        stmt.setString(2, op.getTitulo());
+                        stmt.setString(3, comprimidos == null ? op.getDatosJson() : null);
+                        stmt.setBytes(4, comprimidos);
+                        stmt.setInt(5, op.getResumen().getNodesCount());
+                        stmt.setInt(6, op.getResumen().getEdgesCount());
+                        stmt.setLong(7, tamanoEscrito(op.getDatosJson()));
+                        stmt.addBatch();
+                    }
+                    for (int filas : stmt.executeBatch()) {
+                        if (filas == 0) {
+                            throw new SQLException("Batch insert did not insert every map");
+                        }
+                    }
+                    try (ResultSet rs = stmt.getGeneratedKeys()) {
+                        for (MapBatch.Operation op : altas) {
+                            if (!rs.next()) {
+                                throw new SQLException("Missing generated key for batch insert");
+                            }
+                            op.succeed(rs.getInt(1), 201);
+                        }
+                    }
+                }
+            }
+            
+            if (!cambios.isEmpty()) {
+                String sql = "UPDATE mapas_mentales SET titulo = ?, datos_json = ?, datos_comprimidos = ?, nodes_count = ?, " +
+                             "edges_count = ?, size_bytes = ?, version = version + 1, ultima_modificacion = CURRENT_TIMESTAMP " +
+                             "WHERE id = ? AND usuario_id = ?";
+                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                    for (MapBatch.Operation op : cambios) {
+                        byte[] comprimidos = comprimir(op.getDatosJson());
+                        stmt.setString(1, op.getTitulo());
+                        stmt.setString(2, comprimidos == null ? op.getDatosJson() : null);
+                        stmt.setBytes(3, comprimidos);
+                        stmt.setInt(4, op.getResumen().getNodesCount());
+                        stmt.setInt(5, op.getResumen().getEdgesCount());
+                        stmt.setLong(6, tamanoEscrito(op.getDatosJson()));
+                        stmt.setInt(7, op.getMapaId());
+                        stmt.setInt(8, usuarioId);
+                        stmt.addBatch();
+                    }
+                    descartarSinFilas(stmt.executeBatch(), cambios);
+                }
+                for (MapBatch.Operation op : cambios) {
+                    op.succeed(op.getMapaId(), 200);
+                }
+            }
+            
+            if (normalizado) {
+                for (List<MapBatch.Operation> ops : Arrays.asList(altas, cambios)) {
+                    for (MapBatch.Operation op : ops) {
+                        NormalizedMapStore.sincronizarCompleto(conn, op.getMapaId(), new JSONObject(op.getDatosJson()));
+                    }
+                }
+            }
+            
+            if (!bajas.isEmpty()) {
+                String sql = "DELETE FROM mapas_mentales WHERE id = ? AND usuario_id = ?";
+                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                    for (MapBatch.Operation op : bajas) {
+                        stmt.setInt(1, op.getMapaId());
+                        stmt.setInt(2, usuarioId);
+                        stmt.addBatch();
+                    }
+                    descartarSinFilas(stmt.executeBatch(), bajas);
+                }
+                for (MapBatch.Operation op : bajas) {
+                    op.succeed(op.getMapaId(), 200);
+                }
+            }
+            
+            conn.commit();
+            for (List<MapBatch.Operation> ops : Arrays.asList(cambios, bajas)) {
+                for (MapBatch.Operation op : ops) {
+                    cache.invalidate(op.getMapaId());
+                    indices.remove(op.getMapaId());
+                }
+            }
+            // Las altas nacen con version 1; los cambios dejan la versión bloqueada más uno
+            for (MapBatch.Operation op : altas) {
+                busqueda.update(usuarioId, op.getMapaId(), 1, op.getTitulo(), op.getDatosJson());
+            }
+            for (MapBatch.Operation op : cambios) {
+                busqueda.update(usuarioId, op.getMapaId(), propios.get(op.getMapaId()) + 1,
+                    op.getTitulo(), op.getDatosJson());
+            }
+            for (MapBatch.Operation op : bajas) {
+                busqueda.remove(usuarioId, op.getMapaId());
+            }
+            if (EXITOS.sample("loteEjecutado")) {
+                LOGGER.log(Level.INFO, "📦 Lote de mapas ejecutado - Usuario: {0}, Altas: {1}, Cambios: {2}, Bajas: {3}",
+                    new Object[]{usuarioId, altas.size(), cambios.size(), bajas.size()});
+            }
+        } catch (SQLException e) {
+            Metrics.dbError("ejecutarLoteMapas");
+            LOGGER.log(Level.SEVERE, "❌ Error al ejecutar lote de mapas - Usuario: {0}, Error: {1}", 
+                new Object[]{usuarioId, e.getMessage()});
+            throw e;
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Marca con 404 y quita de la lista las operaciones que no afectaron a ninguna fila.
+     * @param filas Resultado de executeBatch, en el orden de ops.
+     * @param ops Operaciones del batch.
+     * @throws SQLException Si el driver no devuelve un resultado por operación.
+     */
+    private static void descartarSinFilas(int[] filas, List<MapBatch.Operation> ops) throws SQLException {
+        if (filas.length != ops.size()) {
+            throw new SQLException("Batch returned " + filas.length + " update counts for " + ops.size() + " operations");
+        }
+        int i = 0;
+        for (Iterator<MapBatch.Operation> it = ops.iterator(); it.hasNext(); i++) {
+            MapBatch.Operation op = it.next();
+            // SUCCESS_NO_INFO (-2) cuenta como aplicada
+            if (filas[i] == 0) {
+                op.fail("Map not found or not owned by user", 404);
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Bloquea con FOR UPDATE las filas del usuario a modificar o borrar y lee su
+     * versión. Como quedan bloqueadas hasta el commit, la versión que deja el
+     * UPDATE del lote es exactamente la leída más uno.
+     * @return Versión actual de cada mapa propio, por ID; los ajenos o inexistentes no aparecen.
+     */
+    private static Map<Integer, Integer> mapasPropios(Connection conn, int usuarioId, List<MapBatch.Operation> cambios,
+            List<MapBatch.Operation> bajas) throws SQLException {
+        Set<Integer> ids = new HashSet<>();
+        for (MapBatch.Operation op : cambios) {
+            ids.add(op.getMapaId());
+        }
+        for (MapBatch.Operation op : bajas) {
+            ids.add(op.getMapaId());
+        }
+        Map<Integer, Integer> propios = new HashMap<>();
+        if (ids.isEmpty()) {
+            return propios;
+        }
+        StringBuilder sql = new StringBuilder("SELECT id, version FROM mapas_mentales WHERE usuario_id = ? AND id IN (");
+        for (int i = 0; i < ids.size(); i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(") FOR UPDATE");
+        try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+            int param = 1;
+            stmt.setInt(param++, usuarioId);
+            for (int id : ids) {
+                stmt.setInt(param++, id);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    propios.put(rs.getInt(1), rs.getInt(2));
+                }
+            }
+        }
+        return propios;
+    }
+
     /**
      * Obtiene todos los mapas de un usuario ordenados por fecha de modificación.
      * @param usuarioId ID del usuario.
-     * @return Lista de mapas (id, titulo, datos_json, fechas).
+     * @return Lista de mapas con datos_json en texto.
+     * @throws SQLException Si hay error en la consulta SQL.
+     */
+    public List<MindMapRecord> obtenerMapasPorUsuario(int usuarioId) throws SQLException {
+        return obtenerMapasPorUsuario(usuarioId, null, 0, 0);
+    }
+
+    /**
+     * Obtiene una página de mapas de un usuario con paginación por cursor (keyset).
+     * @param usuarioId ID del usuario.
+     * @param cursorFecha ultima_modificacion del último mapa de la página anterior, o null para la primera.
+     * @param cursorId ID del último mapa de la página anterior.
+     * @param limite Máximo de filas a devolver; 0 para todas.
+     * @return Lista de mapas con datos_json en texto.
      * @throws SQLException Si hay error en la consulta SQL.
      */
-    public List<Map<String, Object>> obtenerMapasPorUsuario(int usuarioId) throws SQLException {
-        List<Map<String, Object>> mapas = new ArrayList<>();
-        String sql = "SELECT id, titulo, datos_json, fecha_creacion, ultima_modificacion " +
-                     "FROM mapas_mentales WHERE usuario_id = ? ORDER BY ultima_modificacion DESC";
+    public List<MindMapRecord> obtenerMapasPorUsuario(int usuarioId, Timestamp cursorFecha, int cursorId, int limite)
+            throws SQLException {
+        List<MindMapRecord> mapas = new ArrayList<>();
+        String sql = sqlPaginaMapas(COLUMNAS_MAPA, cursorFecha, limite);
         
+        Metrics.Timer timer = Metrics.db("obtenerMapasPorUsuario");
         try (Connection conn = getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             
-            stmt.setInt(1, usuarioId);
+            bindPaginaMapas(stmt, usuarioId, cursorFecha, cursorId, limite);
             
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
-                    Map<String, Object> mapa = new HashMap<>();
-                    mapa.put("id", rs.getInt("id"));
-                    mapa.put("titulo", rs.getString("titulo"));
-                    mapa.put("datos_json", rs.getString("datos_json"));
-                    mapa.put("fecha_creacion", rs.getTimestamp("fecha_creacion"));
-                    mapa.put("ultima_modificacion", rs.getTimestamp("ultima_modificacion"));
-                    mapas.add(mapa);
+                    mapas.add(leerMapa(rs).descomprimir());
                 }
             }
-            LOGGER.log(Level.INFO, "📂 Obtenidos {0} mapas para usuario ID: {1}", 
-                new Object[]{mapas.size(), usuarioId});
+            if (EXITOS.sample("mapasObtenidos")) {
+                LOGGER.log(Level.INFO, "📂 Obtenidos {0} mapas para usuario ID: {1}",
+                    new Object[]{mapas.size(), usuarioId});
+            }
         } catch (SQLException e) {
+            Metrics.dbError("obtenerMapasPorUsuario");
             LOGGER.log(Level.SEVERE, "❌ Error al obtener mapas - Usuario: {0}, Error: {1}", 
                 new Object[]{usuarioId, e.getMessage()});
             throw e;
+        } finally {
+            timer.stop();
+        }
+        return mapas;
+    }
+
+    /**
+     * Obtiene el resumen de los mapas de un usuario sin leer la columna datos_json.
+     * @param usuarioId ID del usuario.
+     * @return Lista de resúmenes (id, titulo, fechas, nodes_count, edges_count, size_bytes).
+     * @throws SQLException Si hay error en la consulta SQL.
+     */
+    public List<MindMapSummary> obtenerResumenMapasPorUsuario(int usuarioId) throws SQLException {
+        return obtenerResumenMapasPorUsuario(usuarioId, null, 0, 0);
+    }
+
+    /**
+     * Obtiene una página de resúmenes de mapas con paginación por cursor (keyset).
+     * @param usuarioId ID del usuario.
+     * @param cursorFecha ultima_modificacion del último mapa de la página anterior, o null para la primera.
+     * @param cursorId ID del último mapa de la página anterior.
+     * @param limite Máximo de filas a devolver; 0 para todas.
+     * @return Lista de resúmenes (id, titulo, fechas, nodes_count, edges_count, size_bytes).
+     * @throws SQLException Si hay error en la consulta SQL.
+     */
+    public List<MindMapSummary> obtenerResumenMapasPorUsuario(int usuarioId, Timestamp cursorFecha, int cursorId,
+                                                              int limite) throws SQLException {
+        List<MindMapSummary> mapas = new ArrayList<>();
+        String sql = sqlPaginaMapas(COLUMNAS_RESUMEN, cursorFecha, limite);
+        
+        Metrics.Timer timer = Metrics.db("obtenerResumenMapasPorUsuario");
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            
+            bindPaginaMapas(stmt, usuarioId, cursorFecha, cursorId, limite);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    mapas.add(leerResumen(rs));
+                }
+            }
+            if (EXITOS.sample("resumenesObtenidos")) {
+                LOGGER.log(Level.INFO, "📂 Obtenidos {0} resúmenes de mapas para usuario ID: {1}",
+                    new Object[]{mapas.size(), usuarioId});
+            }
+        } catch (SQLException e) {
+            Metrics.dbError("obtenerResumenMapasPorUsuario");
+            LOGGER.log(Level.SEVERE, "❌ Error al obtener resúmenes - Usuario: {0}, Error: {1}", 
+                new Object[]{usuarioId, e.getMessage()});
+            throw e;
+        } finally {
+            timer.stop();
         }
         return mapas;
     }
 
+    /**
+     * Recorre los mapas de un usuario sin acumular el listado en memoria.
+     * Las filas se leen por tandas de la misma paginación por clave (-Dmapas.recorrido.tanda,
+     * 100 por defecto) y la conexión vuelve al pool antes de pasar cada tanda al handler:
+     * un cliente que lee despacio ocupa el hilo que le escribe, pero no una conexión.
+     * Al no ser una sola consulta, un mapa que se modifica durante el recorrido
+     * pasa delante del cursor y no aparece, igual que entre dos páginas.
+     * @param usuarioId ID del usuario.
+     * @param resumen true para recibir {@link MindMapSummary} (sin datos_json) en lugar de {@link MindMapRecord}.
+     * @param cursorFecha ultima_modificacion del último mapa de la página anterior, o null para la primera.
+     * @param cursorId ID del último mapa de la página anterior.
+     * @param limite Máximo de filas a recorrer; 0 para todas.
+     * @param handler Receptor de cada fila.
+     * @return Número de filas recorridas.
+     * @throws SQLException Si hay error en la consulta SQL.
+     * @throws IOException Si el handler falla al escribir.
+     */
+    public int recorrerMapasPorUsuario(int usuarioId, boolean resumen, Timestamp cursorFecha, int cursorId, int limite,
+                                       RowHandler handler) throws SQLException, IOException {
+        int filas = 0;
+        while (true) {
+            int tanda = limite > 0 ? Math.min(tamanoTanda, limite - filas) : tamanoTanda;
+            List<MindMapRow> leidas = leerTanda(usuarioId, resumen, cursorFecha, cursorId, tanda);
+            for (MindMapRow fila : leidas) {
+                handler.handle(fila);
+            }
+            filas += leidas.size();
+            if (leidas.size() < tanda || (limite > 0 && filas >= limite)) {
+                break;
+            }
+            MindMapRow ultima = leidas.get(leidas.size() - 1);
+            cursorFecha = new Timestamp(ultima.getUltimaModificacion());
+            cursorId = ultima.getId();
+        }
+        if (EXITOS.sample("mapasRecorridos")) {
+            LOGGER.log(Level.INFO, "📂 Recorridos {0} mapas para usuario ID: {1}",
+                new Object[]{filas, usuarioId});
+        }
+        return filas;
+    }
+
+    /**
+     * Lee una tanda de {@link #recorrerMapasPorUsuario} y devuelve la conexión al pool.
+     */
+    private List<MindMapRow> leerTanda(int usuarioId, boolean resumen, Timestamp cursorFecha, int cursorId,
+                                       int tanda) throws SQLException {
+        String sql = sqlPaginaMapas(resumen ? COLUMNAS_RESUMEN : COLUMNAS_MAPA, cursorFecha, tanda);
+        List<MindMapRow> filas = new ArrayList<>(tanda);
+        
+        Metrics.Timer timer = Metrics.db("recorrerMapasPorUsuario");
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            
+            bindPaginaMapas(stmt, usuarioId, cursorFecha, cursorId, tanda);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    filas.add(resumen ? leerResumen(rs) : leerMapa(rs));
+                }
+            }
+        } catch (SQLException e) {
+            Metrics.dbError("recorrerMapasPorUsuario");
+            LOGGER.log(Level.SEVERE, "❌ Error al recorrer mapas - Usuario: {0}, Error: {1}", 
+                new Object[]{usuarioId, e.getMessage()});
+            throw e;
+        } finally {
+            timer.stop();
+        }
+        return filas;
+    }
+
+    /**
+     * Receptor de filas para los recorridos fila a fila.
+     */
+    public interface RowHandler {
+        void handle(MindMapRow fila) throws SQLException, IOException;
+    }
+
+    /**
+     * Lee una fila seleccionada con COLUMNAS_MAPA por posición, tal como está guardada.
+     */
+    private static MindMapRecord leerMapa(ResultSet rs) throws SQLException {
+        return new MindMapRecord(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getBytes(4),
+            millis(rs.getTimestamp(5)), millis(rs.getTimestamp(6)), rs.getInt(7));
+    }
+
+    /**
+     * Lee una fila seleccionada con COLUMNAS_RESUMEN por posición.
+     */
+    private static MindMapSummary leerResumen(ResultSet rs) throws SQLException {
+        return new MindMapSummary(rs.getInt(1), rs.getString(2), millis(rs.getTimestamp(3)),
+            millis(rs.getTimestamp(4)), rs.getInt(5), rs.getInt(6), rs.getLong(7));
+    }
+
+    private static long millis(Timestamp fecha) {
+        return fecha != null ? fecha.getTime() : 0L;
+    }
+
+    /**
+     * Construye la consulta de listado. El orden (ultima_modificacion, id) coincide con
+     * el índice idx_usuario_modificacion, así que cualquier página cuesta lo mismo que la primera.
+     */
+    private static String sqlPaginaMapas(String columnas, Timestamp cursorFecha, int limite) {
+        StringBuilder sql = new StringBuilder("SELECT ").append(columnas)
+            .append(" FROM mapas_mentales WHERE usuario_id = ?");
+        if (cursorFecha != null) {
+            sql.append(" AND (ultima_modificacion < ? OR (ultima_modificacion = ? AND id < ?))");
+        }
+        sql.append(" ORDER BY ultima_modificacion DESC, id DESC");
+        if (limite > 0) {
+            sql.append(" LIMIT ?");
+        }
+        return sql.toString();
+    }
+
+    private static void bindPaginaMapas(PreparedStatement stmt, int usuarioId, Timestamp cursorFecha, int cursorId,
+                                        int limite) throws SQLException {
+        int i = 1;
+        stmt.setInt(i++, usuarioId);
+        if (cursorFecha != null) {
+            stmt.setTimestamp(i++, cursorFecha);
+            stmt.setTimestamp(i++, cursorFecha);
+            stmt.setInt(i++, cursorId);
+        }
+        if (limite > 0) {
+            stmt.setInt(i, limite);
+        }
+    }
+
     /**
      * Obtiene un mapa específico de un usuario.
      * @param mapaId ID del mapa.
      * @param usuarioId ID del usuario.
-     * @return Mapa con datos (id, titulo, datos_json, fechas) o null si no existe.
+     * @return Mapa con datos_json en texto, o null si no existe.
+     * @throws SQLException Si hay error en la consulta SQL.
+     */
+    public MindMapRecord obtenerMapa(int mapaId, int usuarioId) throws SQLException {
+        MindMapRecord cacheado = cache.get(mapaId, usuarioId);
+        if (cacheado != null) {
+            return cacheado;
+        }
+        // La caché guarda la forma comprimida; solo el llamador recibe el texto
+        MindMapRecord mapa = cargarMapa(mapaId, usuarioId);
+        return mapa != null ? mapa.descomprimir() : null;
+    }
+
+    /**
+     * Obtiene un mapa tal como está guardado, sin descomprimirlo.
+     * @param mapaId ID del mapa.
+     * @param usuarioId ID del usuario.
+     * @return Mapa con datos_comprimidos (formato {@link MapCompression}) o datos_json; null si no existe.
      * @throws SQLException Si hay error en la consulta SQL.
      */
-    public Map<String, Object> obtenerMapa(int mapaId, int usuarioId) throws SQLException {
-        String sql = "SELECT id, titulo, datos_json, fecha_creacion, ultima_modificacion " +
-                     "FROM mapas_mentales WHERE id = ? AND usuario_id = ?";
+    public MindMapRecord obtenerMapaGuardado(int mapaId, int usuarioId) throws SQLException {
+        MindMapRecord cacheado = cache.getStored(mapaId, usuarioId);
+        return cacheado != null ? cacheado : cargarMapa(mapaId, usuarioId);
+    }
+
+    private MindMapRecord cargarMapa(int mapaId, int usuarioId) throws SQLException {
+        String sql = "SELECT " + COLUMNAS_MAPA + " FROM mapas_mentales WHERE id = ? AND usuario_id = ?";
         
+        Metrics.Timer timer = Metrics.db("cargarMapa");
         try (Connection conn = getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             
@@ -372,23 +1281,291 @@ public class DB implements Serializable {
             
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
-                    Map<String, Object> mapa = new HashMap<>();
-                    mapa.put("id", rs.getInt("id"));
-                    mapa.put("titulo", rs.getString("titulo"));
-                    mapa.put("datos_json", rs.getString("datos_json"));
-                    mapa.put("fecha_creacion", rs.getTimestamp("fecha_creacion"));
-                    mapa.put("ultima_modificacion", rs.getTimestamp("ultima_modificacion"));
-                    LOGGER.log(Level.INFO, "📄 Mapa obtenido - ID: {0}", mapaId);
+                    MindMapRecord mapa = leerMapa(rs);
+                    if (mapa.getDatosComprimidos() != null) {
+                        Metrics.recordPayload("read", mapa.getDatosComprimidos().length);
+                    } else if (mapa.getDatosJson() != null) {
+                        Metrics.recordPayload("read", utf8Length(mapa.getDatosJson()));
+                    }
+                    cache.put(usuarioId, mapa);
+                    if (EXITOS.sample("mapaObtenido")) {
+                        LOGGER.log(Level.INFO, "📄 Mapa obtenido - ID: {0}", mapaId);
+                    }
                     return mapa;
                 }
             }
         } catch (SQLException e) {
+            Metrics.dbError("cargarMapa");
             LOGGER.log(Level.SEVERE, "❌ Error al obtener mapa - ID: {0}, Error: {1}", 
                 new Object[]{mapaId, e.getMessage()});
             throw e;
+        } finally {
+            timer.stop();
         }
         LOGGER.log(Level.WARNING, "⚠️ Mapa no encontrado - ID: {0}", mapaId);
         return null;
     }
 
-}
\ No newline at end of file
+    /**
+     * Obtiene la versión y la fecha de modificación de un mapa sin leer datos_json.
+     * Sirve para responder peticiones condicionales (ETag / Last-Modified).
+     * @param mapaId ID del mapa.
+     * @param usuarioId ID del usuario.
+     * @return Registro con id, version y ultima_modificacion (el resto de campos solo si
+     *         estaba en caché), o null si no existe.
+     * @throws SQLException Si hay error en la consulta SQL.
+     */
+    public MindMapRecord obtenerVersionMapa(int mapaId, int usuarioId) throws SQLException {
+        MindMapRecord cacheado = cache.getStored(mapaId, usuarioId);
+        if (cacheado != null) {
+            return cacheado;
+        }
+        
+        String sql = "SELECT version, ultima_modificacion FROM mapas_mentales WHERE id = ? AND usuario_id = ?";
+        
+        Metrics.Timer timer = Metrics.db("obtenerVersionMapa");
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            
+            stmt.setInt(1, mapaId);
+            stmt.setInt(2, usuarioId);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return new MindMapRecord(mapaId, null, null, null, 0L, millis(rs.getTimestamp(2)), rs.getInt(1));
+                }
+            }
+        } catch (SQLException e) {
+            Metrics.dbError("obtenerVersionMapa");
+            LOGGER.log(Level.SEVERE, "❌ Error al obtener versión de mapa - ID: {0}, Error: {1}", 
+                new Object[]{mapaId, e.getMessage()});
+            throw e;
+        } finally {
+            timer.stop();
+        }
+        return null;
+    }
+
+    /**
+     * Obtiene el índice espacial de un mapa, construyéndolo desde datos_json si
+     * no existe o corresponde a otra versión.
+     * @param mapaId ID del mapa.
+     * @param usuarioId ID del usuario.
+     * @return Índice de la versión actual o null si el mapa no existe o no es JSON válido.
+     * @throws SQLException Si hay error en la consulta SQL.
+     */
+    public SpatialIndex obtenerIndiceEspacial(int mapaId, int usuarioId) throws SQLException {
+        // La consulta de versión hace además el control de propiedad
+        MindMapRecord version = obtenerVersionMapa(mapaId, usuarioId);
+        if (version == null) {
+            return null;
+        }
+        SpatialIndex indice = indices.get(mapaId);
+        if (indice != null && indice.getVersion() == version.getVersion()) {
+            return indice;
+        }
+        MindMapRecord mapa = obtenerMapa(mapaId, usuarioId);
+        if (mapa == null) {
+            return null;
+        }
+        indice = indexar(mapaId, mapa.getDatosJson(), mapa.getVersion());
+        if (indice != null) {
+            if (EXITOS.sample("indiceConstruido")) {
+                LOGGER.log(Level.INFO, "🗺️ Índice espacial construido - Mapa: {0}, Nodos: {1}",
+                    new Object[]{mapaId, indice.getNodeCount()});
+            }
+        }
+        return indice;
+    }
+
+    /**
+     * Busca mapas del usuario por texto en títulos y etiquetas de nodo. La primera
+     * búsqueda de un usuario construye su índice recorriendo sus mapas; las
+     * siguientes consultan el índice en memoria tras comprobar con
+     * obtenerEstadoColeccion que sigue al día (otro nodo puede haber escrito).
+     * @param usuarioId ID del usuario.
+     * @param consulta Texto a buscar.
+     * @param limite Máximo de mapas a devolver.
+     * @param maxNodos Máximo de IDs de nodo por mapa.
+     * @return Mapas ordenados por relevancia y total de coincidencias.
+     * @throws SQLException Si hay error al construir el índice.
+     */
+    public SearchIndex.Result buscarMapas(int usuarioId, String consulta, int limite, int maxNodos) throws SQLException {
+        Map<String, Object> estado = obtenerEstadoColeccion(usuarioId);
+        SearchIndex.State actual = new SearchIndex.State((Long) estado.get("total"),
+            (Long) estado.get("suma_ids"), (Long) estado.get("suma_versiones"), (Long) estado.get("huella"));
+        Metrics.Timer timer = Metrics.db("buscarMapas");
+        try {
+            return busqueda.search(usuarioId, consulta, limite, maxNodos,
+                (id, handler) -> recorrerMapasPorUsuario(id, false, null, 0, 0, handler), actual);
+        } catch (SQLException e) {
+            Metrics.dbError("buscarMapas");
+            LOGGER.log(Level.SEVERE, "❌ Error al buscar mapas - Usuario: {0}, Error: {1}", 
+                new Object[]{usuarioId, e.getMessage()});
+            throw e;
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Obtiene una huella del listado de mapas de un usuario: cualquier alta, baja o
+     * modificación cambia al menos uno de los valores. Las sumas pueden coincidir
+     * entre dos estados distintos (un mapa sube de versión y otro baja lo mismo tras
+     * borrarse y recrearse), así que se añade el XOR de CRC32(id:version), que
+     * depende de qué versión tiene cada id. La consulta se resuelve con el índice
+     * idx_usuario_modificacion sin leer las filas.
+     * @param usuarioId ID del usuario.
+     * @return Mapa con total, suma_ids, suma_versiones, huella y max_modificacion (null si no hay mapas).
+     * @throws SQLException Si hay error en la consulta SQL.
+     */
+    public Map<String, Object> obtenerEstadoColeccion(int usuarioId) throws SQLException {
+        String sql = "SELECT COUNT(*), COALESCE(SUM(id), 0), COALESCE(SUM(version), 0), MAX(ultima_modificacion), " +
+                     "COALESCE(BIT_XOR(CRC32(CONCAT(id, ':', version))), 0) " +
+                     "FROM mapas_mentales WHERE usuario_id = ?";
+        
+        Metrics.Timer timer = Metrics.db("obtenerEstadoColeccion");
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            
+            stmt.setInt(1, usuarioId);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                Map<String, Object> estado = new HashMap<>();
+                estado.put("total", rs.getLong(1));
+                estado.put("suma_ids", rs.getLong(2));
+                estado.put("suma_versiones", rs.getLong(3));
+                estado.put("max_modificacion", rs.getTimestamp(4));
+                estado.put("huella", rs.getLong(5));
+                return estado;
+            }
+        } catch (SQLException e) {
+            Metrics.dbError("obtenerEstadoColeccion");
+            LOGGER.log(Level.SEVERE, "❌ Error al obtener estado de mapas - Usuario: {0}, Error: {1}", 
+                new Object[]{usuarioId, e.getMessage()});
+            throw e;
+        } finally {
+            timer.stop();
+        }
+    }
+
+    // ============ UTILIDADES ============
+
+    /**
+     * Lee las fechas que fijó MySQL y la versión resultante de una escritura. Se
+     * llama dentro de la transacción de la escritura, antes del commit, para que
+     * la versión corresponda al documento escrito y no a uno posterior de otra
+     * petición. Así la lectura posterior del servlet no vuelve a traer datos_json.
+     * @return Registro escrito, o null si la lectura falla.
+     */
+    private MindMapRecord leerEscritura(Connection conn, int mapaId, String titulo, String datosJson,
+            byte[] comprimidos) {
+        String sql = "SELECT fecha_creacion, ultima_modificacion, version FROM mapas_mentales WHERE id = ?";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, mapaId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return new MindMapRecord(mapaId, titulo, datosJson, comprimidos,
+                        millis(rs.getTimestamp(1)), millis(rs.getTimestamp(2)), rs.getInt(3));
+                }
+            }
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "⚠️ No se pudo cachear el mapa {0}: {1}", new Object[]{mapaId, e.getMessage()});
+        }
+        return null;
+    }
+
+    /**
+     * Actualiza la caché y los índices tras el commit de una escritura. Si no se
+     * pudo leer la versión escrita, la entrada de caché se invalida; el índice de
+     * búsqueda se actualiza en ambos casos, ya que la escritura sí se hizo.
+     */
+    private void cachearEscritura(int mapaId, int usuarioId, MindMapRecord escrito, String titulo, String datosJson) {
+        if (escrito != null) {
+            cache.put(usuarioId, escrito);
+            // Solo se reconstruye el índice de los mapas que ya se consultan por ventana
+            if (indices.containsKey(mapaId)) {
+                indexar(mapaId, datosJson, escrito.getVersion());
+            }
+            busqueda.update(usuarioId, mapaId, escrito.getVersion(), titulo, datosJson);
+            return;
+        }
+        cache.invalidate(mapaId);
+        indices.remove(mapaId);
+        busqueda.update(usuarioId, mapaId, 0, titulo, datosJson);
+    }
+
+    /**
+     * Comprime un documento si el almacenamiento comprimido está activo.
+     * @return Bytes para datos_comprimidos, o null si se guarda en claro en datos_json.
+     */
+    private byte[] comprimir(String datosJson) {
+        return comprimido ? MapCompression.compress(datosJson) : null;
+    }
+
+    private SpatialIndex indexar(int mapaId, String datosJson, int version) {
+        try {
+            SpatialIndex indice = SpatialIndex.build(datosJson, version);
+            indices.put(mapaId, indice);
+            return indice;
+        } catch (JSONException e) {
+            LOGGER.log(Level.WARNING, "⚠️ No se pudo indexar el mapa {0}: {1}", new Object[]{mapaId, e.getMessage()});
+            indices.remove(mapaId);
+            return null;
+        }
+    }
+
+    /**
+     * Cuenta los nodos y aristas de un documento React Flow.
+     * @param datosJson Documento con arrays "nodes" y "edges".
+     * @return Conteo de nodos y aristas; 0 si falta alguno o el JSON no es válido.
+     */
+    private static JsonScanner.Summary contarElementos(String datosJson) {
+        try {
+            return JsonScanner.scan(datosJson);
+        } catch (JSONException e) {
+            return new JsonScanner.Summary(0, 0);
+        }
+    }
+
+    /**
+     * Pide a Connector/J las filas una a una (fetch size Integer.MIN_VALUE). Con otros
+     * drivers, como H2 en benchmarks y pruebas de carga, ese valor no es válido y se deja el suyo.
+     */
+    private void activarStreaming(PreparedStatement stmt) throws SQLException {
+        if (url.startsWith("jdbc:mysql:")) {
+            stmt.setFetchSize(Integer.MIN_VALUE);
+        }
+    }
+
+    /**
+     * Longitud en bytes de un datos_json que se va a escribir; queda registrada en las métricas.
+     */
+    private static long tamanoEscrito(String datosJson) {
+        long bytes = utf8Length(datosJson);
+        Metrics.recordPayload("write", bytes);
+        return bytes;
+    }
+
+    /**
+     * Calcula la longitud en bytes UTF-8 de un texto sin codificarlo.
+     */
+    static long utf8Length(String s) {
+        long bytes = 0;
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+}
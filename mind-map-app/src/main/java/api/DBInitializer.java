@@ -4,6 +4,7 @@ import javax.servlet.ServletContext;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 import javax.servlet.annotation.WebListener;
+import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -14,6 +15,8 @@ public class DBInitializer implements ServletContextListener {
 
     @Override
     public void contextInitialized(ServletContextEvent sce) {
+        // Antes que nada: a partir de aquí los logs del paquete api no bloquean
+        AsyncLogHandler.install();
         LOGGER.info("[DBInit] Iniciando configuración de base de datos");
         
         DB db = null;
@@ -47,6 +50,7 @@ public class DBInitializer implements ServletContextListener {
         } catch (Exception ex) {
             LOGGER.log(Level.WARNING, "[DBInit] Error al liberar recursos", ex);
         }
+        AsyncLogHandler.uninstall();
     }
 
     // ==================== MÉTODOS PRIVADOS ====================
@@ -63,10 +67,16 @@ public class DBInitializer implements ServletContextListener {
     }
     
     private void validateDatabaseConnection(DB db) throws SQLException {
-        if (db == null || db.getConnection() == null || db.getConnection().isClosed()) {
+        if (db == null) {
             LOGGER.severe("[DBInit] Conexión no válida");
             throw new SQLException("Conexión a BD no disponible");
         }
+        try (Connection conn = db.getConnection()) {
+            if (conn.isClosed()) {
+                LOGGER.severe("[DBInit] Conexión no válida");
+                throw new SQLException("Conexión a BD no disponible");
+            }
+        }
         LOGGER.info("[DBInit] Conexión validada exitosamente");
     }
     
@@ -89,7 +99,7 @@ public class DBInitializer implements ServletContextListener {
         if (db != null) {
             try {
                 db.closeConnection();
-                LOGGER.info("[DBInit] Conexión cerrada correctamente");
+                LOGGER.info("[DBInit] Pool de conexiones drenado");
             } catch (Exception ex) {
                 LOGGER.log(Level.WARNING, "[DBInit] Error al cerrar conexión", ex);
             }
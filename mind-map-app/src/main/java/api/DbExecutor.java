@@ -0,0 +1,117 @@
+package api;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Ejecutor dedicado para el trabajo JDBC de los servlets asíncronos.
+ *
+ * En Java 21+ usa un hilo virtual por tarea (la concurrencia real contra MySQL
+ * la sigue limitando el pool de conexiones); en versiones anteriores, un pool
+ * fijo con cola acotada que rechaza cuando se llena.
+ */
+public class DbExecutor {
+    private static final Logger LOGGER = Logger.getLogger(DbExecutor.class.getName());
+
+    private final ExecutorService executor;
+    private final boolean virtual;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+    private final int maxInFlight;
+
+    /**
+     * @param threads Hilos del pool cuando no hay hilos virtuales.
+     * @param queueSize Tareas en espera admitidas; con hilos virtuales, límite de tareas en curso más en espera.
+     * @param useVirtualThreads Usar hilos virtuales si la JVM los ofrece.
+     */
+    public DbExecutor(int threads, int queueSize, boolean useVirtualThreads) {
+        ExecutorService virtualExecutor = useVirtualThreads ? newVirtualThreadExecutor() : null;
+        this.virtual = virtualExecutor != null;
+        if (virtual) {
+            this.executor = virtualExecutor;
+            this.maxInFlight = queueSize;
+        } else {
+            AtomicInteger counter = new AtomicInteger();
+            this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), r -> {
+                    Thread t = new Thread(r, "db-executor-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+            this.maxInFlight = threads + queueSize;
+        }
+        LOGGER.log(Level.INFO, "✅ Ejecutor de BD creado ({0})", virtual ? "hilos virtuales" : threads + " hilos");
+    }
+
+    /**
+     * Encola una tarea.
+     * @param task Tarea a ejecutar.
+     * @throws RejectedExecutionException Si se alcanzó el límite de tareas o el ejecutor está cerrado.
+     */
+    public void execute(Runnable task) {
+        if (inFlight.incrementAndGet() > maxInFlight) {
+            inFlight.decrementAndGet();
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException("DB executor saturated");
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.decrementAndGet();
+            rejected.incrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Detiene el ejecutor esperando brevemente a las tareas en curso.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() solo existe desde Java 21; se busca por reflexión
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    // ============ MÉTRICAS ============
+
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    public int getInFlightCount() {
+        return inFlight.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+}
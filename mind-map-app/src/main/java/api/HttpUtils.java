@@ -2,6 +2,10 @@ package api;
 
 import javax.servlet.http.*;
 import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
 import org.json.JSONObject;
 import org.json.JSONException;
 
@@ -10,27 +14,182 @@ public class HttpUtils {
     private static final String CONTENT_TYPE_JSON = "application/json";
     private static final String ENCODING_UTF8 = "UTF-8";
     
+    // Límite del cuerpo de las peticiones y pool de buffers de lectura (-Dhttp.*)
+    private static final long MAX_BODY_BYTES = Long.getLong("http.maxBodyBytes", 16L * 1024 * 1024);
+    private static final int BODY_BUFFER_BYTES = Integer.getInteger("http.bodyBufferBytes", 256 * 1024);
+    private static final ArrayBlockingQueue<byte[]> BODY_BUFFERS =
+        new ArrayBlockingQueue<>(Math.max(1, Integer.getInteger("http.bodyBufferPool", 32)));
+    
     /**
      * Parsea el cuerpo de una solicitud HTTP a un objeto JSON
      * @param request Objeto HttpServletRequest
      * @return JSONObject con los datos parseados
      * @throws IOException Si hay error al leer el cuerpo de la solicitud
+     * @throws PayloadTooLargeException Si el cuerpo supera http.maxBodyBytes
      * @throws JSONException Si el cuerpo no es un JSON válido
      */
     public static JSONObject parseJsonRequest(HttpServletRequest request) throws IOException, JSONException {
-        StringBuilder sb = new StringBuilder();
-        try (BufferedReader reader = request.getReader()) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                sb.append(line);
+        return new JSONObject(readRequestBody(request));
+    }
+    
+    /**
+     * Lee el cuerpo de POST/PUT /api/mindmaps sin construir un JSONObject:
+     * id y titulo se extraen y datos_json se copia una sola vez desde los bytes.
+     * @param request Objeto HttpServletRequest
+     * @return Campos del mapa
+     * @throws IOException Si hay error al leer el cuerpo de la solicitud
+     * @throws PayloadTooLargeException Si el cuerpo supera http.maxBodyBytes
+     * @throws JSONException Si el cuerpo está vacío o no es un objeto JSON válido
+     */
+    public static MapRequest parseMapRequest(HttpServletRequest request) throws IOException, JSONException {
+        Body body = readBody(request);
+        try {
+            byte[] bytes = body.bytes;
+            int length = body.length;
+            Charset charset = requestCharset(request);
+            if (!StandardCharsets.UTF_8.equals(charset)) {
+                // El tokenizador trabaja en UTF-8; otras codificaciones (raras) se convierten antes
+                bytes = new String(bytes, 0, length, charset).getBytes(StandardCharsets.UTF_8);
+                length = bytes.length;
             }
+            return MapRequest.parse(bytes, 0, length);
+        } finally {
+            body.release();
+        }
+    }
+    
+    /**
+     * Lee el cuerpo completo de una solicitud HTTP como texto
+     * @param request Objeto HttpServletRequest
+     * @return Cuerpo de la solicitud
+     * @throws IOException Si hay error al leer el cuerpo de la solicitud
+     * @throws PayloadTooLargeException Si el cuerpo supera http.maxBodyBytes
+     * @throws JSONException Si el cuerpo está vacío
+     */
+    public static String readRequestBody(HttpServletRequest request) throws IOException, JSONException {
+        Body body = readBody(request);
+        try {
+            return new String(body.bytes, 0, body.length, requestCharset(request));
+        } finally {
+            body.release();
         }
+    }
+    
+    /**
+     * Cuerpo que supera el máximo permitido (se responde 413).
+     */
+    public static class PayloadTooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
         
-        if (sb.length() == 0) {
-            throw new JSONException("Empty request body");
+        public PayloadTooLargeException(long maxBytes) {
+            super("Request body exceeds " + maxBytes + " bytes");
         }
+    }
+    
+    /**
+     * Error tras enviar parte del cuerpo: el estado ya no puede cambiarse y la
+     * respuesta no debe terminarse como si estuviera completa.
+     */
+    public static class ResponseCommittedException extends IOException {
+        private static final long serialVersionUID = 1L;
         
-        return new JSONObject(sb.toString());
+        public ResponseCommittedException(String message) {
+            super("Response already committed: " + message);
+        }
+    }
+    
+    /**
+     * Bytes del cuerpo en un buffer que puede venir del pool; hay que liberarlo al terminar.
+     */
+    private static final class Body {
+        private final byte[] bytes;
+        private final int length;
+        private final byte[] pooled;
+        
+        Body(byte[] bytes, int length, byte[] pooled) {
+            this.bytes = bytes;
+            this.length = length;
+            this.pooled = pooled;
+        }
+        
+        void release() {
+            if (pooled != null) {
+                BODY_BUFFERS.offer(pooled);
+            }
+        }
+    }
+    
+    /**
+     * Lee el cuerpo como bytes. Con Content-Length se comprueba el límite antes de
+     * leer nada y se lee de una vez en un buffer del tamaño exacto (o en uno del
+     * pool si cabe); sin él (chunked) se crece por duplicación hasta el límite.
+     */
+    private static Body readBody(HttpServletRequest request) throws IOException {
+        long declared = request.getContentLengthLong();
+        if (declared > MAX_BODY_BYTES) {
+            throw new PayloadTooLargeException(MAX_BODY_BYTES);
+        }
+        byte[] pooled = null;
+        byte[] buf;
+        if (declared > BODY_BUFFER_BYTES) {
+            buf = new byte[(int) declared];
+        } else {
+            pooled = BODY_BUFFERS.poll();
+            buf = pooled != null ? pooled : new byte[BODY_BUFFER_BYTES];
+            // Un buffer recién creado también entra al pool al liberarse
+            pooled = buf;
+        }
+        
+        int length = 0;
+        boolean ok = false;
+        try (InputStream in = request.getInputStream()) {
+            while (true) {
+                if (length == buf.length) {
+                    if (declared >= 0 || length >= MAX_BODY_BYTES) {
+                        // Más bytes de los declarados, o el límite sin Content-Length
+                        if (in.read() < 0) {
+                            break;
+                        }
+                        throw new PayloadTooLargeException(MAX_BODY_BYTES);
+                    }
+                    buf = Arrays.copyOf(buf, (int) Math.min(MAX_BODY_BYTES, (long) buf.length * 2));
+                }
+                int n = in.read(buf, length, buf.length - length);
+                if (n < 0) {
+                    break;
+                }
+                length += n;
+            }
+            if (length > MAX_BODY_BYTES) {
+                throw new PayloadTooLargeException(MAX_BODY_BYTES);
+            }
+            ok = true;
+        } finally {
+            if (!ok && pooled != null) {
+                BODY_BUFFERS.offer(pooled);
+            }
+        }
+        
+        if (length == 0) {
+            if (pooled != null) {
+                BODY_BUFFERS.offer(pooled);
+            }
+            throw new JSONException("Empty request body");
+        }
+        return new Body(buf, length, pooled);
+    }
+    
+    private static Charset requestCharset(HttpServletRequest request) {
+        String encoding = request.getCharacterEncoding();
+        if (encoding == null) {
+            // JSON se intercambia en UTF-8 (RFC 8259 §8.1)
+            return StandardCharsets.UTF_8;
+        }
+        try {
+            return Charset.forName(encoding);
+        } catch (IllegalArgumentException e) {
+            return StandardCharsets.UTF_8;
+        }
     }
     
     /**
@@ -49,14 +208,111 @@ public class HttpUtils {
         }
     }
     
+    /**
+     * Abre una respuesta JSON en streaming: los tokens se escriben en el Writer
+     * de la respuesta a medida que se generan, sin construir el documento.
+     * @param response Objeto HttpServletResponse
+     * @param status Código de estado HTTP
+     * @return JsonStreamWriter sobre la respuesta; cerrarlo finaliza el cuerpo
+     * @throws IOException Si hay error al obtener el Writer
+     */
+    public static JsonStreamWriter openJsonStream(HttpServletResponse response, int status) throws IOException {
+        setBaseHeaders(response);
+        response.setStatus(status);
+        return new JsonStreamWriter(response.getWriter());
+    }
+    
+    /**
+     * Envía un cuerpo JSON ya serializado en bytes, opcionalmente ya codificado.
+     * @param response Objeto HttpServletResponse
+     * @param body Bytes del cuerpo
+     * @param offset Posición del primer byte a enviar
+     * @param length Número de bytes a enviar
+     * @param contentEncoding Valor de Content-Encoding, o null si el cuerpo va sin codificar
+     * @param status Código de estado HTTP
+     * @throws IOException Si hay error al escribir la respuesta
+     */
+    public static void sendJsonBytes(HttpServletResponse response, byte[] body, int offset, int length,
+                                     String contentEncoding, int status) throws IOException {
+        setBaseHeaders(response);
+        response.setStatus(status);
+        if (contentEncoding != null) {
+            response.setHeader("Content-Encoding", contentEncoding);
+        }
+        response.setContentLength(length);
+        
+        try (OutputStream out = response.getOutputStream()) {
+            out.write(body, offset, length);
+        }
+    }
+    
+    /**
+     * Indica si el cliente acepta una codificación según Accept-Encoding (q=0 la rechaza).
+     * @param request Objeto HttpServletRequest
+     * @param encoding Codificación, p. ej. "gzip" o "deflate"
+     * @return true si está aceptada explícitamente o mediante "*"
+     */
+    public static boolean acceptsEncoding(HttpServletRequest request, String encoding) {
+        String header = request.getHeader("Accept-Encoding");
+        if (header == null) {
+            return false;
+        }
+        boolean wildcard = false;
+        for (String part : header.split(",")) {
+            String[] fields = part.trim().split(";");
+            String name = fields[0].trim();
+            boolean rejected = false;
+            for (int i = 1; i < fields.length; i++) {
+                String param = fields[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        rejected = Double.parseDouble(param.substring(2).trim()) <= 0;
+                    } catch (NumberFormatException e) {
+                        rejected = true;
+                    }
+                }
+            }
+            if (name.equalsIgnoreCase(encoding)) {
+                return !rejected;
+            }
+            if (name.equals("*")) {
+                wildcard = !rejected;
+            }
+        }
+        return wildcard;
+    }
+    
+    /**
+     * Cierra el cuerpo de la respuesta, use Writer u OutputStream. Los servlets
+     * asíncronos lo llaman antes de AsyncContext.complete() para que los filtros
+     * que envuelven la respuesta (compresión) terminen de escribirla.
+     * @param response Objeto HttpServletResponse
+     * @throws IOException Si hay error al cerrar la respuesta
+     */
+    public static void closeResponse(HttpServletResponse response) throws IOException {
+        try {
+            response.getWriter().close();
+        } catch (IllegalStateException e) {
+            response.getOutputStream().close();
+        }
+    }
+    
     /**
      * Envía una respuesta de error en formato JSON
      * @param response Objeto HttpServletResponse
      * @param message Mensaje de error
      * @param status Código de estado HTTP
      * @throws IOException Si hay error al escribir la respuesta
+     * @throws ResponseCommittedException Si ya se envió parte del cuerpo
      */
     public static void sendErrorResponse(HttpServletResponse response, String message, int status) throws IOException {
+        // Si un stream ya envió parte del cuerpo no se puede cambiar el estado: se
+        // propaga el error para que la conexión se corte (ver AsyncResponse.fail)
+        if (response.isCommitted()) {
+            throw new ResponseCommittedException(message);
+        }
+        response.resetBuffer();
+        
         JSONObject error = new JSONObject();
         error.put("error", message);
         error.put("status", status);
@@ -78,6 +334,66 @@ public class HttpUtils {
         sendJsonResponse(response, success, HttpServletResponse.SC_OK);
     }
     
+    /**
+     * Fija ETag y Last-Modified y evalúa If-None-Match / If-Modified-Since.
+     * Si el cliente ya tiene la representación actual responde 304 sin cuerpo.
+     * @param request Objeto HttpServletRequest
+     * @param response Objeto HttpServletResponse
+     * @param etag ETag fuerte, con comillas
+     * @param lastModified Fecha de modificación en milisegundos, o -1 si no se conoce
+     * @return true si se respondió 304 y no hay que enviar el cuerpo
+     */
+    public static boolean checkNotModified(HttpServletRequest request, HttpServletResponse response,
+                                           String etag, long lastModified) {
+        response.setHeader("ETag", etag);
+        // El cliente puede guardar la respuesta pero debe revalidarla siempre
+        response.setHeader("Cache-Control", "private, no-cache");
+        if (lastModified >= 0) {
+            response.setDateHeader("Last-Modified", lastModified);
+        }
+        
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        boolean notModified;
+        if (ifNoneMatch != null) {
+            // If-None-Match tiene prioridad sobre If-Modified-Since (RFC 7232 §6)
+            notModified = etagMatches(ifNoneMatch, etag);
+        } else {
+            long ifModifiedSince = -1;
+            try {
+                ifModifiedSince = request.getDateHeader("If-Modified-Since");
+            } catch (IllegalArgumentException e) {
+                // Fecha mal formada: se ignora la condición
+            }
+            // Las fechas HTTP tienen resolución de segundos
+            notModified = lastModified >= 0 && ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+        }
+        
+        if (notModified) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        }
+        return notModified;
+    }
+    
+    /**
+     * Comparación débil de ETags para If-None-Match: ignora el prefijo W/.
+     */
+    private static boolean etagMatches(String header, String etag) {
+        String target = etag.startsWith("W/") ? etag.substring(2) : etag;
+        for (String candidate : header.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*")) {
+                return true;
+            }
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals(target)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
     /**
      * Configura los headers base para respuestas JSON
      * @param response Objeto HttpServletResponse
@@ -95,11 +411,11 @@ public class HttpUtils {
      */
     public static void setCorsHeaders(HttpServletRequest request, HttpServletResponse response) {
         String origin = request.getHeader("Origin");
-        if (origin != null && origin.matches("https?://localhost(:\\d+)?") || origin.contains("yourdomain.com")) {
+        if (origin != null && (origin.matches("https?://localhost(:\\d+)?") || origin.contains("yourdomain.com"))) {
             response.setHeader("Access-Control-Allow-Origin", origin);
         }
-        response.setHeader("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS");
-        response.setHeader("Access-Control-Allow-Headers", "Content-Type, Authorization");
+        response.setHeader("Access-Control-Allow-Methods", "GET, POST, PUT, PATCH, DELETE, OPTIONS");
+        response.setHeader("Access-Control-Allow-Headers", "Content-Type, Authorization, If-Match");
         response.setHeader("Access-Control-Allow-Credentials", "true");
         response.setHeader("Access-Control-Max-Age", "3600");
     }
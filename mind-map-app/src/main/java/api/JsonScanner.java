@@ -0,0 +1,291 @@
+package api;
+
+import org.json.JSONException;
+
+/**
+ * Validador JSON de una sola pasada que no construye ningún árbol.
+ *
+ * Comprueba que el texto sea un objeto JSON estricto (RFC 8259, como exige la
+ * columna JSON de MySQL) y, de paso, cuenta los elementos de los arrays
+ * "nodes" y "edges" del nivel superior de un documento React Flow.
+ */
+public final class JsonScanner {
+    private static final int MAX_DEPTH = 512;
+
+    private final String s;
+    private final int n;
+    private int pos;
+    private int nodesCount;
+    private int edgesCount;
+
+    private JsonScanner(String s) {
+        this.s = s;
+        this.n = s.length();
+    }
+
+    /**
+     * Resultado del escaneo de un documento.
+     */
+    public static final class Summary {
+        private final int nodesCount;
+        private final int edgesCount;
+
+        public Summary(int nodesCount, int edgesCount) {
+            this.nodesCount = nodesCount;
+            this.edgesCount = edgesCount;
+        }
+
+        public int getNodesCount() {
+            return nodesCount;
+        }
+
+        public int getEdgesCount() {
+            return edgesCount;
+        }
+    }
+
+    /**
+     * Valida un objeto JSON y cuenta sus nodos y aristas de primer nivel.
+     * @param json Texto a validar.
+     * @return Conteo de nodos y aristas (0 si faltan los arrays).
+     * @throws JSONException Si el texto no es un objeto JSON bien formado.
+     */
+    public static Summary scan(String json) throws JSONException {
+        if (json == null) {
+            throw new JSONException("Null JSON document");
+        }
+        JsonScanner scanner = new JsonScanner(json);
+        scanner.skipWhitespace();
+        if (scanner.pos >= scanner.n || json.charAt(scanner.pos) != '{') {
+            throw scanner.error("Expected '{'");
+        }
+        scanner.object(1);
+        scanner.skipWhitespace();
+        if (scanner.pos != scanner.n) {
+            throw scanner.error("Unexpected trailing content");
+        }
+        return new Summary(scanner.nodesCount, scanner.edgesCount);
+    }
+
+    /**
+     * Indica si el texto es un objeto JSON bien formado.
+     * @param json Texto a validar.
+     * @return true si es válido.
+     */
+    public static boolean isValidObject(String json) {
+        try {
+            scan(json);
+            return true;
+        } catch (JSONException e) {
+            return false;
+        }
+    }
+
+    // ==================== GRAMÁTICA ====================
+
+    private void value(int depth, int counter) {
+        skipWhitespace();
+        if (pos >= n) {
+            throw error("Unexpected end of input");
+        }
+        char c = s.charAt(pos);
+        switch (c) {
+            case '{':
+                object(depth + 1);
+                break;
+            case '[':
+                int elements = array(depth + 1);
+                if (counter == 1) {
+                    nodesCount = elements;
+                } else if (counter == 2) {
+                    edgesCount = elements;
+                }
+                break;
+            case '"':
+                string();
+                break;
+            case 't':
+                literal("true");
+                break;
+            case 'f':
+                literal("false");
+                break;
+            case 'n':
+                literal("null");
+                break;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    number();
+                } else {
+                    throw error("Unexpected character '" + c + "'");
+                }
+        }
+    }
+
+    private void object(int depth) {
+        if (depth > MAX_DEPTH) {
+            throw error("Nesting too deep");
+        }
+        pos++; // '{'
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            return;
+        }
+        while (true) {
+            skipWhitespace();
+            if (peek() != '"') {
+                throw error("Expected property name");
+            }
+            int keyStart = pos;
+            string();
+            int counter = depth == 1 ? counterFor(keyStart, pos) : 0;
+            skipWhitespace();
+            if (peek() != ':') {
+                throw error("Expected ':'");
+            }
+            pos++;
+            value(depth, counter);
+            skipWhitespace();
+            char c = peek();
+            pos++;
+            if (c == '}') {
+                return;
+            }
+            if (c != ',') {
+                throw error("Expected ',' or '}'");
+            }
+        }
+    }
+
+    private int array(int depth) {
+        if (depth > MAX_DEPTH) {
+            throw error("Nesting too deep");
+        }
+        pos++; // '['
+        skipWhitespace();
+        if (peek() == ']') {
+            pos++;
+            return 0;
+        }
+        int elements = 0;
+        while (true) {
+            value(depth, 0);
+            elements++;
+            skipWhitespace();
+            char c = peek();
+            pos++;
+            if (c == ']') {
+                return elements;
+            }
+            if (c != ',') {
+                throw error("Expected ',' or ']'");
+            }
+        }
+    }
+
+    private void string() {
+        pos++; // '"'
+        while (pos < n) {
+            char c = s.charAt(pos++);
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\') {
+                if (pos >= n) {
+                    break;
+                }
+                char e = s.charAt(pos++);
+                if (e == 'u') {
+                    for (int i = 0; i < 4; i++) {
+                        if (pos >= n || Character.digit(s.charAt(pos++), 16) < 0) {
+                            throw error("Invalid unicode escape");
+                        }
+                    }
+                } else if ("\"\\/bfnrt".indexOf(e) < 0) {
+                    throw error("Invalid escape '\\" + e + "'");
+                }
+            } else if (c < 0x20) {
+                throw error("Control character in string");
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    private void number() {
+        if (peek() == '-') {
+            pos++;
+        }
+        if (peek() == '0') {
+            pos++;
+        } else if (!digits()) {
+            throw error("Invalid number");
+        }
+        if (peek() == '.') {
+            pos++;
+            if (!digits()) {
+                throw error("Invalid number");
+            }
+        }
+        char c = peek();
+        if (c == 'e' || c == 'E') {
+            pos++;
+            c = peek();
+            if (c == '+' || c == '-') {
+                pos++;
+            }
+            if (!digits()) {
+                throw error("Invalid number");
+            }
+        }
+    }
+
+    private boolean digits() {
+        int start = pos;
+        while (pos < n && s.charAt(pos) >= '0' && s.charAt(pos) <= '9') {
+            pos++;
+        }
+        return pos > start;
+    }
+
+    private void literal(String word) {
+        if (!s.startsWith(word, pos)) {
+            throw error("Invalid literal");
+        }
+        pos += word.length();
+    }
+
+    /**
+     * Devuelve 1 si la clave (entre comillas, sin escapes) es "nodes", 2 si es "edges".
+     */
+    private int counterFor(int start, int end) {
+        if (end - start != 7) {
+            return 0;
+        }
+        if (s.regionMatches(start + 1, "nodes", 0, 5)) {
+            return 1;
+        }
+        if (s.regionMatches(start + 1, "edges", 0, 5)) {
+            return 2;
+        }
+        return 0;
+    }
+
+    private void skipWhitespace() {
+        while (pos < n) {
+            char c = s.charAt(pos);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return;
+            }
+            pos++;
+        }
+    }
+
+    private char peek() {
+        return pos < n ? s.charAt(pos) : '\0';
+    }
+
+    private JSONException error(String message) {
+        return new JSONException(message + " at position " + pos);
+    }
+}
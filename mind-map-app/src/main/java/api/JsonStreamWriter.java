@@ -0,0 +1,185 @@
+package api;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Escritor JSON incremental: emite tokens directamente al Writer de la
+ * respuesta sin construir el documento en memoria.
+ */
+public class JsonStreamWriter implements Closeable {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Writer out;
+    // Por cada contenedor abierto: true si aún no tiene elementos
+    private final Deque<Boolean> first = new ArrayDeque<>();
+    private boolean afterName;
+
+    public JsonStreamWriter(Writer out) {
+        this.out = out;
+    }
+
+    public JsonStreamWriter beginObject() throws IOException {
+        beforeValue();
+        out.write('{');
+        first.push(Boolean.TRUE);
+        return this;
+    }
+
+    public JsonStreamWriter endObject() throws IOException {
+        first.pop();
+        out.write('}');
+        return this;
+    }
+
+    public JsonStreamWriter beginArray() throws IOException {
+        beforeValue();
+        out.write('[');
+        first.push(Boolean.TRUE);
+        return this;
+    }
+
+    public JsonStreamWriter endArray() throws IOException {
+        first.pop();
+        out.write(']');
+        return this;
+    }
+
+    /**
+     * Escribe el nombre de la siguiente propiedad del objeto actual.
+     * @param name Nombre de la propiedad.
+     * @return Este escritor.
+     * @throws IOException Si falla la escritura.
+     */
+    public JsonStreamWriter name(String name) throws IOException {
+        separator();
+        writeString(name);
+        out.write(':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonStreamWriter value(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        writeString(value);
+        return this;
+    }
+
+    public JsonStreamWriter value(long value) throws IOException {
+        beforeValue();
+        out.write(Long.toString(value));
+        return this;
+    }
+
+    /**
+     * Escribe un número decimal; NaN e infinitos, que JSON no admite, se escriben como null.
+     */
+    public JsonStreamWriter value(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return nullValue();
+        }
+        beforeValue();
+        out.write(Double.toString(value));
+        return this;
+    }
+
+    public JsonStreamWriter value(boolean value) throws IOException {
+        beforeValue();
+        out.write(value ? "true" : "false");
+        return this;
+    }
+
+    public JsonStreamWriter nullValue() throws IOException {
+        beforeValue();
+        out.write("null");
+        return this;
+    }
+
+    /**
+     * Escribe un valor JSON ya serializado tal cual, sin validarlo ni escaparlo.
+     * @param json Texto JSON válido.
+     * @return Este escritor.
+     * @throws IOException Si falla la escritura.
+     */
+    public JsonStreamWriter rawValue(CharSequence json) throws IOException {
+        beforeValue();
+        out.append(json);
+        return this;
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void beforeValue() throws IOException {
+        if (afterName) {
+            afterName = false;
+        } else {
+            separator();
+        }
+    }
+
+    private void separator() throws IOException {
+        if (first.isEmpty()) {
+            return;
+        }
+        if (first.peek()) {
+            first.pop();
+            first.push(Boolean.FALSE);
+        } else {
+            out.write(',');
+        }
+    }
+
+    /**
+     * Escribe una cadena JSON escapando comillas, barras y caracteres de control.
+     */
+    private void writeString(String s) throws IOException {
+        out.write('"');
+        int start = 0;
+        int n = s.length();
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            String escape;
+            if (c == '"') {
+                escape = "\\\"";
+            } else if (c == '\\') {
+                escape = "\\\\";
+            } else if (c == '\n') {
+                escape = "\\n";
+            } else if (c == '\r') {
+                escape = "\\r";
+            } else if (c == '\t') {
+                escape = "\\t";
+            } else if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                escape = null;
+            } else {
+                continue;
+            }
+            out.write(s, start, i - start);
+            if (escape != null) {
+                out.write(escape);
+            } else {
+                out.write("\\u");
+                out.write(HEX[(c >> 12) & 0xF]);
+                out.write(HEX[(c >> 8) & 0xF]);
+                out.write(HEX[(c >> 4) & 0xF]);
+                out.write(HEX[c & 0xF]);
+            }
+            start = i + 1;
+        }
+        out.write(s, start, n - start);
+        out.write('"');
+    }
+}
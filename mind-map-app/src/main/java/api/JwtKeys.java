@@ -0,0 +1,159 @@
+package api;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.SigningKeyResolverAdapter;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.security.Keys;
+import io.jsonwebtoken.security.SignatureException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.crypto.SecretKey;
+
+/**
+ * Claves HMAC para firmar y verificar los JWT, identificadas por "kid".
+ *
+ * Se cargan de una de estas fuentes, en orden:
+ * <ul>
+ *   <li>-Djwt.keystore=ruta (con -Djwt.keystore.password y -Djwt.keystore.type, por defecto PKCS12):
+ *       cada entrada de clave secreta es una clave de verificación y su alias es el kid.</li>
+ *   <li>-Djwt.keyFile=ruta: fichero de propiedades con líneas key.&lt;kid&gt;=&lt;secreto en Base64&gt;.</li>
+ * </ul>
+ * La clave de firma es la indicada por -Djwt.activeKid (o la propiedad active del fichero).
+ * Para rotar: se añade la clave nueva a todos los nodos, se cambia la activa y, cuando
+ * los tokens firmados con la antigua han expirado, se retira. Sin configuración se usa
+ * una clave aleatoria por JVM, como antes, válida solo para desarrollo.
+ */
+public final class JwtKeys {
+    private static final Logger LOGGER = Logger.getLogger(JwtKeys.class.getName());
+    private static final String EPHEMERAL_KID = "local";
+
+    private final Map<String, Key> verificationKeys;
+    private final String activeKid;
+
+    private JwtKeys(Map<String, Key> verificationKeys, String activeKid) {
+        if (!verificationKeys.containsKey(activeKid)) {
+            throw new IllegalStateException("Active JWT key '" + activeKid + "' is not among the configured keys");
+        }
+        this.verificationKeys = Collections.unmodifiableMap(verificationKeys);
+        this.activeKid = activeKid;
+    }
+
+    /**
+     * Carga las claves según las propiedades del sistema.
+     * @return Conjunto de claves.
+     * @throws IllegalStateException Si la configuración indicada no se puede leer.
+     */
+    public static JwtKeys load() {
+        String keystore = System.getProperty("jwt.keystore");
+        String keyFile = System.getProperty("jwt.keyFile");
+        try {
+            if (keystore != null) {
+                return fromKeyStore(keystore, System.getProperty("jwt.keystore.type", "PKCS12"),
+                    System.getProperty("jwt.keystore.password", ""), System.getProperty("jwt.activeKid"));
+            }
+            if (keyFile != null) {
+                return fromFile(keyFile, System.getProperty("jwt.activeKid"));
+            }
+        } catch (IOException | GeneralSecurityException | IllegalArgumentException e) {
+            throw new IllegalStateException("Cannot load JWT keys: " + e.getMessage(), e);
+        }
+        LOGGER.log(Level.WARNING, "⚠️ Sin jwt.keystore ni jwt.keyFile: clave JWT aleatoria, los tokens no sobreviven a un reinicio");
+        Map<String, Key> keys = new LinkedHashMap<>();
+        keys.put(EPHEMERAL_KID, Keys.secretKeyFor(SignatureAlgorithm.HS256));
+        return new JwtKeys(keys, EPHEMERAL_KID);
+    }
+
+    private static JwtKeys fromKeyStore(String path, String type, String password, String activeKid)
+            throws IOException, GeneralSecurityException {
+        KeyStore store = KeyStore.getInstance(type);
+        char[] pass = password.toCharArray();
+        try (InputStream in = new FileInputStream(path)) {
+            store.load(in, pass);
+        }
+        Map<String, Key> keys = new LinkedHashMap<>();
+        Enumeration<String> aliases = store.aliases();
+        while (aliases.hasMoreElements()) {
+            String alias = aliases.nextElement();
+            if (store.isKeyEntry(alias)) {
+                Key key = store.getKey(alias, pass);
+                if (key instanceof SecretKey) {
+                    keys.put(alias, Keys.hmacShaKeyFor(key.getEncoded()));
+                }
+            }
+        }
+        if (keys.isEmpty()) {
+            throw new GeneralSecurityException("No secret keys in " + path);
+        }
+        String active = activeKid != null ? activeKid : keys.keySet().iterator().next();
+        LOGGER.log(Level.INFO, "🔑 {0} claves JWT cargadas del keystore, activa: {1}", new Object[]{keys.size(), active});
+        return new JwtKeys(keys, active);
+    }
+
+    private static JwtKeys fromFile(String path, String activeKid) throws IOException {
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(path)) {
+            props.load(in);
+        }
+        Map<String, Key> keys = new LinkedHashMap<>();
+        for (String name : props.stringPropertyNames()) {
+            if (name.startsWith("key.")) {
+                byte[] secret = Base64.getDecoder().decode(props.getProperty(name).trim());
+                // hmacShaKeyFor rechaza secretos de menos de 256 bits
+                keys.put(name.substring(4), Keys.hmacShaKeyFor(secret));
+            }
+        }
+        if (keys.isEmpty()) {
+            throw new IOException("No key.<kid> entries in " + path);
+        }
+        String active = activeKid != null ? activeKid : props.getProperty("active");
+        if (active == null) {
+            throw new IOException("No active key configured in " + path);
+        }
+        LOGGER.log(Level.INFO, "🔑 {0} claves JWT cargadas de fichero, activa: {1}", new Object[]{keys.size(), active});
+        return new JwtKeys(keys, active);
+    }
+
+    /** @return kid de la clave con la que se firman los tokens nuevos. */
+    public String getActiveKid() {
+        return activeKid;
+    }
+
+    /** @return Clave con la que se firman los tokens nuevos. */
+    public Key getSigningKey() {
+        return verificationKeys.get(activeKid);
+    }
+
+    /**
+     * Resolutor para el parser: elige la clave por el kid de la cabecera. Los tokens
+     * sin kid (emitidos antes de configurar claves) se comprueban con la activa.
+     */
+    public SigningKeyResolverAdapter resolver() {
+        return new SigningKeyResolverAdapter() {
+            // jjwt 0.11 declara este método con JwsHeader sin parametrizar, y un
+            // JwsHeader<?> no lo sobrescribiría (misma erasure): se suprime el aviso
+            @Override
+            @SuppressWarnings("rawtypes")
+            public Key resolveSigningKey(JwsHeader header, Claims claims) {
+                String kid = header.getKeyId();
+                Key key = verificationKeys.get(kid != null ? kid : activeKid);
+                if (key == null) {
+                    throw new SignatureException("Unknown JWT key id: " + kid);
+                }
+                return key;
+            }
+        };
+    }
+}
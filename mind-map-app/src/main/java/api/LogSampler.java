@@ -0,0 +1,46 @@
+package api;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Muestreo de eventos de éxito frecuentes (mapa obtenido, mapa actualizado...).
+ *
+ * A nivel INFO se registra uno de cada N eventos de cada tipo (-Dlog.sample.every,
+ * por defecto 100; 1 los registra todos). Con el logger en FINE o más detallado
+ * se registran todos. La comprobación de nivel va primero, así que con INFO
+ * desactivado no se cuenta nada ni se construyen los parámetros.
+ */
+public final class LogSampler {
+    private static final int EVERY = Math.max(1, Integer.getInteger("log.sample.every", 100));
+
+    private final Logger logger;
+    private final ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+
+    public LogSampler(Logger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * @param event Tipo de evento (cada uno se muestrea por separado).
+     * @return true si este evento debe registrarse.
+     */
+    public boolean sample(String event) {
+        if (logger.isLoggable(Level.FINE)) {
+            return true;
+        }
+        if (!logger.isLoggable(Level.INFO)) {
+            return false;
+        }
+        if (EVERY == 1) {
+            return true;
+        }
+        AtomicLong counter = counters.get(event);
+        if (counter == null) {
+            counter = counters.computeIfAbsent(event, k -> new AtomicLong());
+        }
+        return counter.getAndIncrement() % EVERY == 0;
+    }
+}
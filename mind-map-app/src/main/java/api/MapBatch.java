@@ -0,0 +1,233 @@
+package api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Lote de operaciones sobre mapas (create/update/delete) recibido en
+ * POST /api/mindmaps/batch.
+ *
+ * Cada operación se valida por separado: las inválidas quedan marcadas con su
+ * error y no se envían a la base de datos, el resto se ejecuta en una sola
+ * transacción. Cada operación guarda su propio resultado, en el orden de la petición.
+ *
+ * La base de datos ejecuta las operaciones agrupadas por tipo, no en el orden de
+ * la petición, así que solo se admite una modificación o baja por mapa: las
+ * siguientes sobre el mismo id se rechazan con 400.
+ */
+public class MapBatch {
+    public static final int MAX_OPERATIONS = Integer.getInteger("mindmaps.batch.maxOps", 1000);
+
+    public enum Type { CREATE, UPDATE, DELETE }
+
+    /**
+     * Una operación del lote y su resultado.
+     */
+    public static final class Operation {
+        private final int index;
+        private final Type type;
+        private int mapaId;
+        private String titulo;
+        private String datosJson;
+        private JsonScanner.Summary resumen;
+        private int status;
+        private String error;
+
+        Operation(int index, Type type) {
+            this.index = index;
+            this.type = type;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public int getMapaId() {
+            return mapaId;
+        }
+
+        public String getTitulo() {
+            return titulo;
+        }
+
+        public String getDatosJson() {
+            return datosJson;
+        }
+
+        public JsonScanner.Summary getResumen() {
+            return resumen;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        /** @return true si pasó la validación y debe ejecutarse. */
+        public boolean isPending() {
+            return status == 0;
+        }
+
+        void succeed(int mapaId, int status) {
+            this.mapaId = mapaId;
+            this.status = status;
+        }
+
+        void fail(String error, int status) {
+            this.error = error;
+            this.status = status;
+        }
+
+        JSONObject toJson() {
+            JSONObject json = new JSONObject()
+                .put("index", index)
+                .put("op", type.name().toLowerCase())
+                .put("status", status);
+            if (mapaId > 0) {
+                json.put("id", mapaId);
+            }
+            if (error != null) {
+                json.put("error", error);
+            }
+            return json;
+        }
+    }
+
+    private final List<Operation> operations;
+
+    private MapBatch(List<Operation> operations) {
+        this.operations = operations;
+    }
+
+    /**
+     * Construye un lote a partir de {"operations": [...]}.
+     * @param json Cuerpo de la petición.
+     * @return Lote con las operaciones validadas.
+     * @throws IllegalArgumentException Si el lote en sí es inválido (vacío, demasiado grande).
+     */
+    public static MapBatch parse(JSONObject json) {
+        JSONArray items = json.optJSONArray("operations");
+        if (items == null || items.length() == 0) {
+            throw new IllegalArgumentException("operations must be a non-empty array");
+        }
+        if (items.length() > MAX_OPERATIONS) {
+            throw new IllegalArgumentException("Too many operations (max " + MAX_OPERATIONS + ")");
+        }
+        List<Operation> operations = new ArrayList<>(items.length());
+        Set<Integer> ids = new HashSet<>();
+        for (int i = 0; i < items.length(); i++) {
+            Operation op = parseOperation(i, items.opt(i));
+            if (op.isPending() && op.type != Type.CREATE && !ids.add(op.mapaId)) {
+                op.fail("Map " + op.mapaId + " already has an operation in this batch", 400);
+            }
+            operations.add(op);
+        }
+        return new MapBatch(operations);
+    }
+
+    private static Operation parseOperation(int index, Object item) {
+        if (!(item instanceof JSONObject)) {
+            Operation op = new Operation(index, Type.CREATE);
+            op.fail("Operation must be an object", 400);
+            return op;
+        }
+        JSONObject json = (JSONObject) item;
+        Type type;
+        try {
+            type = Type.valueOf(json.optString("op").toUpperCase());
+        } catch (IllegalArgumentException e) {
+            Operation op = new Operation(index, Type.CREATE);
+            op.fail("Unknown op '" + json.optString("op") + "'", 400);
+            return op;
+        }
+
+        Operation op = new Operation(index, type);
+        if (type != Type.CREATE) {
+            op.mapaId = json.optInt("id", 0);
+            if (op.mapaId <= 0) {
+                op.fail("Map ID is required", 400);
+                return op;
+            }
+        }
+        if (type == Type.DELETE) {
+            return op;
+        }
+
+        String titulo = json.optString("titulo", null);
+        if (titulo == null || titulo.trim().isEmpty() || titulo.length() > 255) {
+            op.fail("Title must be between 1 and 255 characters", 400);
+            return op;
+        }
+        Object datos = json.opt("datos_json");
+        String datosJson = datos instanceof JSONObject ? datos.toString() : datos instanceof String ? (String) datos : null;
+        try {
+            op.resumen = JsonScanner.scan(datosJson);
+        } catch (JSONException e) {
+            op.fail("Invalid JSON data", 400);
+            return op;
+        }
+        op.titulo = titulo;
+        op.datosJson = datosJson;
+        return op;
+    }
+
+    /**
+     * @return Operaciones en el orden de la petición.
+     */
+    public List<Operation> getOperations() {
+        return Collections.unmodifiableList(operations);
+    }
+
+    /**
+     * Operaciones válidas de un tipo, pendientes de ejecutar.
+     */
+    List<Operation> pending(Type type) {
+        List<Operation> result = new ArrayList<>();
+        for (Operation op : operations) {
+            if (op.type == type && op.isPending()) {
+                result.add(op);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Serializa los resultados por operación y los totales.
+     * @return {"results": [...], "created": n, "updated": n, "deleted": n, "failed": n}
+     */
+    public JSONObject toJson() {
+        JSONArray results = new JSONArray();
+        int created = 0, updated = 0, deleted = 0, failed = 0;
+        for (Operation op : operations) {
+            results.put(op.toJson());
+            if (op.error != null) {
+                failed++;
+            } else if (op.type == Type.CREATE) {
+                created++;
+            } else if (op.type == Type.UPDATE) {
+                updated++;
+            } else {
+                deleted++;
+            }
+        }
+        return new JSONObject()
+            .put("results", results)
+            .put("created", created)
+            .put("updated", updated)
+            .put("deleted", deleted)
+            .put("failed", failed);
+    }
+}
@@ -0,0 +1,171 @@
+package api;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caché LRU en memoria de mapas individuales, acotada por el tamaño total de
+ * datos_json y con expiración por TTL.
+ *
+ * Las entradas se guardan por ID de mapa junto con el ID del dueño; una
+ * lectura con otro usuario se trata como fallo para no saltarse el control
+ * de propiedad que hace la consulta SQL. Los registros son inmutables, así que
+ * se devuelven sin copiarlos.
+ */
+public class MapCache {
+    private final long maxBytes;
+    private final long ttlMillis;
+
+    // accessOrder=true: el primer elemento es siempre el menos usado recientemente
+    private final LinkedHashMap<Integer, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long currentBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxBytes Tamaño máximo aproximado en bytes de los datos_json cacheados.
+     * @param ttlMillis Tiempo de vida de cada entrada.
+     */
+    public MapCache(long maxBytes, long ttlMillis) {
+        this.maxBytes = maxBytes;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Busca un mapa en la caché.
+     * @param mapaId ID del mapa.
+     * @param usuarioId ID del usuario que lo pide.
+     * @return Registro con datos_json en texto, o null si no está.
+     */
+    public MindMapRecord get(int mapaId, int usuarioId) {
+        Entry entry = lookup(mapaId, usuarioId);
+        return entry != null ? entry.record.descomprimir() : null;
+    }
+
+    /**
+     * Busca un mapa en la caché tal como está guardado: con datos_comprimidos si
+     * se guardó comprimido (sin descomprimirlo) o con datos_json si no. Sirve
+     * también para leer solo los metadatos (version, fechas) sin descomprimir.
+     * @param mapaId ID del mapa.
+     * @param usuarioId ID del usuario que lo pide.
+     * @return Registro o null si no está.
+     */
+    public MindMapRecord getStored(int mapaId, int usuarioId) {
+        Entry entry = lookup(mapaId, usuarioId);
+        return entry != null ? entry.record : null;
+    }
+
+    private Entry lookup(int mapaId, int usuarioId) {
+        synchronized (this) {
+            Entry entry = entries.get(mapaId);
+            if (entry != null && entry.expiresAt < System.currentTimeMillis()) {
+                remove(mapaId);
+                entry = null;
+            }
+            if (entry == null || entry.usuarioId != usuarioId) {
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return entry;
+        }
+    }
+
+    /**
+     * Guarda o reemplaza un mapa en la caché, desalojando los menos usados si hace falta.
+     * Una entrada vigente con la misma versión o una más nueva no se reemplaza: con
+     * escrituras o lecturas concurrentes, la que llega tarde puede traer un documento anterior.
+     * @param usuarioId ID del dueño.
+     * @param mapa Registro con el documento en texto o comprimido.
+     */
+    public void put(int usuarioId, MindMapRecord mapa) {
+        long now = System.currentTimeMillis();
+        Entry entry = new Entry(usuarioId, mapa, now + ttlMillis);
+        synchronized (this) {
+            Entry current = entries.get(mapa.getId());
+            if (current != null && current.expiresAt >= now && current.record.getVersion() >= mapa.getVersion()) {
+                return;
+            }
+            remove(mapa.getId());
+            if (entry.bytes > maxBytes) {
+                return;
+            }
+            entries.put(mapa.getId(), entry);
+            currentBytes += entry.bytes;
+            Iterator<Entry> it = entries.values().iterator();
+            while (currentBytes > maxBytes && it.hasNext()) {
+                Entry eldest = it.next();
+                it.remove();
+                currentBytes -= eldest.bytes;
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Elimina un mapa de la caché.
+     * @param mapaId ID del mapa.
+     */
+    public synchronized void invalidate(int mapaId) {
+        remove(mapaId);
+    }
+
+    private void remove(int mapaId) {
+        Entry old = entries.remove(mapaId);
+        if (old != null) {
+            currentBytes -= old.bytes;
+        }
+    }
+
+    // ============ MÉTRICAS ============
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public synchronized long getBytes() {
+        return currentBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Registro cacheado con su dueño. Los mapas guardados comprimidos se
+     * cachean comprimidos y se descomprimen al leerlos.
+     */
+    private static final class Entry {
+        final int usuarioId;
+        final MindMapRecord record;
+        final long bytes;
+        final long expiresAt;
+
+        Entry(int usuarioId, MindMapRecord record, long expiresAt) {
+            this.usuarioId = usuarioId;
+            this.record = record;
+            String titulo = record.getTitulo();
+            String datosJson = record.getDatosJson();
+            byte[] datosComprimidos = record.getDatosComprimidos();
+            // Aproximación del heap ocupado: 2 bytes por char más el título
+            this.bytes = 2L * ((datosJson != null ? datosJson.length() : 0) + (titulo != null ? titulo.length() : 0))
+                + (datosComprimidos != null ? datosComprimidos.length : 0);
+            this.expiresAt = expiresAt;
+        }
+    }
+}
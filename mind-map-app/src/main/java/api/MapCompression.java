@@ -0,0 +1,100 @@
+package api;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Formato comprimido de datos_json para la columna datos_comprimidos.
+ *
+ * Es el mismo formato que COMPRESS() de MySQL: 4 bytes con la longitud sin
+ * comprimir (little-endian) seguidos de un stream zlib. Así MySQL puede leerlo
+ * con UNCOMPRESS() en migraciones y consultas, y el stream zlib, sin la
+ * cabecera de longitud, es un cuerpo válido para Content-Encoding: deflate.
+ */
+public final class MapCompression {
+    /** Bytes de la cabecera de longitud que precede al stream zlib. */
+    public static final int HEADER_LENGTH = 4;
+
+    private static final int LEVEL = Integer.getInteger("mapas.compresion.nivel", Deflater.DEFAULT_COMPRESSION);
+
+    private MapCompression() {
+    }
+
+    /**
+     * Comprime un documento.
+     * @param json Texto JSON.
+     * @return Bytes en formato COMPRESS() de MySQL.
+     */
+    public static byte[] compress(String json) {
+        byte[] input = json.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = new Deflater(LEVEL);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, input.length / 4));
+            out.write(input.length & 0xFF);
+            out.write((input.length >>> 8) & 0xFF);
+            out.write((input.length >>> 16) & 0xFF);
+            out.write((input.length >>> 24) & 0x3F);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Descomprime un documento.
+     * @param data Bytes en formato COMPRESS() de MySQL.
+     * @return Texto JSON.
+     * @throws IllegalArgumentException Si los datos están corruptos.
+     */
+    public static String decompress(byte[] data) {
+        if (data.length < HEADER_LENGTH) {
+            return "";
+        }
+        int length = (data[0] & 0xFF) | (data[1] & 0xFF) << 8 | (data[2] & 0xFF) << 16 | (data[3] & 0x3F) << 24;
+        byte[] output = new byte[length];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, HEADER_LENGTH, data.length - HEADER_LENGTH);
+            int read = 0;
+            while (read < length) {
+                int n = inflater.inflate(output, read, length - read);
+                if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                read += n;
+            }
+            if (read != length) {
+                throw new IllegalArgumentException("Truncated compressed document");
+            }
+            return new String(output, StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupt compressed document", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Lee datos_json de una fila que incluye las columnas datos_json y datos_comprimidos,
+     * descomprimiendo si la fila está guardada comprimida.
+     * @param rs Fila actual.
+     * @return Texto JSON.
+     * @throws SQLException Si hay error al leer la fila.
+     */
+    public static String read(ResultSet rs) throws SQLException {
+        byte[] comprimidos = rs.getBytes("datos_comprimidos");
+        return comprimidos != null ? decompress(comprimidos) : rs.getString("datos_json");
+    }
+}
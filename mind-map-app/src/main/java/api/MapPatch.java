@@ -0,0 +1,525 @@
+package api;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Aplica un parche a un documento React Flow y, en paralelo, construye la
+ * expresión SQL equivalente (JSON_SET / JSON_REPLACE / JSON_REMOVE /
+ * JSON_ARRAY_INSERT / JSON_ARRAY_APPEND) sobre datos_json.
+ *
+ * MySQL solo actualiza la columna en el sitio (partial update) cuando la
+ * expresión usa JSON_SET, JSON_REPLACE o JSON_REMOVE sobre la propia columna;
+ * JSON_ARRAY_APPEND y JSON_ARRAY_INSERT (add_node, add_edge) reescriben el
+ * documento completo.
+ *
+ * Acepta JSON Patch (RFC 6902) o una lista de operaciones por nodo/arista:
+ * add_node, move_node, update_node, delete_node, add_edge, update_edge y
+ * delete_edge. Los índices de la expresión se calculan sobre el documento
+ * recibido en el constructor, que debe ser el leído con FOR UPDATE en la misma
+ * transacción que ejecuta la expresión (ver DB.aplicarParcheMapa).
+ */
+public class MapPatch {
+    public static final int MAX_OPERATIONS = 500;
+
+    private final JSONObject doc;
+    private final StringBuilder expression = new StringBuilder("datos_json");
+    private final List<String> params = new ArrayList<>();
+    private int operations;
+
+    // Ids tocados, para sincronizar solo esas filas del modelo normalizado
+    private final Set<String> touchedNodes = new HashSet<>();
+    private final Set<String> touchedEdges = new HashSet<>();
+    private boolean touchedByPath;
+
+    /**
+     * @param datosJson Documento actual del mapa.
+     * @throws JSONException Si el documento almacenado no es un objeto JSON.
+     */
+    public MapPatch(String datosJson) throws JSONException {
+        this.doc = new JSONObject(datosJson);
+    }
+
+    // ============ FORMATOS DE ENTRADA ============
+
+    /**
+     * Aplica operaciones JSON Patch (RFC 6902): add, remove, replace, move, copy y test.
+     * @param ops Array de operaciones.
+     * @throws IllegalArgumentException Si alguna operación no es válida o no puede aplicarse.
+     */
+    public void applyJsonPatch(JSONArray ops) {
+        checkSize(ops);
+        // Las rutas por índice no identifican nodos: obliga a resincronizar todo
+        touchedByPath = true;
+        for (int i = 0; i < ops.length(); i++) {
+            JSONObject op = ops.optJSONObject(i);
+            if (op == null) {
+                throw new IllegalArgumentException("Patch operation " + i + " must be an object");
+            }
+            String name = op.optString("op");
+            List<String> path = parsePointer(op.optString("path", null));
+            switch (name) {
+                case "add":
+                    add(path, requireValue(op));
+                    break;
+                case "remove":
+                    remove(path);
+                    break;
+                case "replace":
+                    replace(path, requireValue(op));
+                    break;
+                case "move": {
+                    List<String> from = parsePointer(op.optString("from", null));
+                    Object value = get(from);
+                    remove(from);
+                    add(path, value);
+                    break;
+                }
+                case "copy":
+                    add(path, copy(get(parsePointer(op.optString("from", null)))));
+                    break;
+                case "test":
+                    if (!sameValue(get(path), requireValue(op))) {
+                        throw new IllegalArgumentException("Test failed at " + op.optString("path"));
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported patch operation: " + name);
+            }
+        }
+    }
+
+    /**
+     * Aplica operaciones a nivel de nodo/arista identificadas por su id.
+     * @param ops Array de operaciones {"op": "move_node", "id": ..., ...}.
+     * @throws IllegalArgumentException Si alguna operación no es válida o no puede aplicarse.
+     */
+    public void applyOperations(JSONArray ops) {
+        checkSize(ops);
+        for (int i = 0; i < ops.length(); i++) {
+            JSONObject op = ops.optJSONObject(i);
+            if (op == null) {
+                throw new IllegalArgumentException("Operation " + i + " must be an object");
+            }
+            String name = op.optString("op");
+            switch (name) {
+                case "add_node":
+                    addElement("nodes", requireObject(op, "node"));
+                    break;
+                case "move_node":
+                    touch("nodes", requireId(op));
+                    add(path("nodes", indexOf("nodes", requireId(op)), "position"), requireObject(op, "position"));
+                    break;
+                case "update_node":
+                    updateElement("nodes", requireId(op), requireObject(op, "changes"));
+                    break;
+                case "delete_node":
+                    deleteNode(requireId(op));
+                    break;
+                case "add_edge":
+                    addElement("edges", requireObject(op, "edge"));
+                    break;
+                case "update_edge":
+                    updateElement("edges", requireId(op), requireObject(op, "changes"));
+                    break;
+                case "delete_edge":
+                    removeElement("edges", requireId(op));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported operation: " + name);
+            }
+        }
+    }
+
+    /**
+     * Inserta un nodo o arista, o lo reemplaza entero si ya existe uno con el mismo id.
+     * @param collection "nodes" o "edges".
+     * @param element Elemento con id.
+     * @throws IllegalArgumentException Si el elemento no tiene id.
+     */
+    public void putElement(String collection, JSONObject element) {
+        String id = element.optString("id", null);
+        JSONArray array = doc.optJSONArray(collection);
+        int index = id != null && array != null ? findIndex(array, id) : -1;
+        if (index >= 0) {
+            touch(collection, id);
+            replace(path(collection, index), element);
+        } else {
+            addElement(collection, element);
+        }
+    }
+
+    /**
+     * Elimina un nodo (con sus aristas) o una arista por id.
+     * @param collection "nodes" o "edges".
+     * @param id ID del elemento.
+     * @throws IllegalArgumentException Si no existe.
+     */
+    public void removeElement(String collection, String id) {
+        if (collection.equals("nodes")) {
+            deleteNode(id);
+        } else {
+            touch(collection, id);
+            remove(path(collection, indexOf(collection, id)));
+        }
+    }
+
+    // ============ RESULTADO ============
+
+    /**
+     * @return Expresión SQL que produce el nuevo datos_json a partir del actual.
+     */
+    public String getSqlExpression() {
+        return expression.toString();
+    }
+
+    /**
+     * @param base Expresión SQL del documento actual, en lugar de la columna datos_json.
+     * @return Expresión SQL que produce el nuevo datos_json a partir de base.
+     */
+    public String getSqlExpression(String base) {
+        int at = expression.indexOf("datos_json");
+        return new StringBuilder(expression).replace(at, at + "datos_json".length(), base).toString();
+    }
+
+    /**
+     * @return Parámetros de la expresión, en orden de aparición.
+     */
+    public List<String> getSqlParams() {
+        return Collections.unmodifiableList(params);
+    }
+
+    /**
+     * @return Documento resultante serializado.
+     */
+    public String getDocument() {
+        return doc.toString();
+    }
+
+    public int getNodesCount() {
+        JSONArray nodes = doc.optJSONArray("nodes");
+        return nodes != null ? nodes.length() : 0;
+    }
+
+    public int getEdgesCount() {
+        JSONArray edges = doc.optJSONArray("edges");
+        return edges != null ? edges.length() : 0;
+    }
+
+    public boolean isEmpty() {
+        return operations == 0;
+    }
+
+    /**
+     * @return Documento resultante sin serializar, para sincronizar el modelo normalizado.
+     */
+    JSONObject getDocumentObject() {
+        return doc;
+    }
+
+    /**
+     * @return true si el parche usó rutas JSON Patch y no se conocen los ids tocados.
+     */
+    public boolean isTouchedByPath() {
+        return touchedByPath;
+    }
+
+    public Set<String> getTouchedNodes() {
+        return Collections.unmodifiableSet(touchedNodes);
+    }
+
+    public Set<String> getTouchedEdges() {
+        return Collections.unmodifiableSet(touchedEdges);
+    }
+
+    // ============ OPERACIONES DE NODOS Y ARISTAS ============
+
+    private void addElement(String collection, JSONObject element) {
+        String id = element.optString("id", null);
+        if (id == null || id.isEmpty()) {
+            throw new IllegalArgumentException("Element in " + collection + " requires an id");
+        }
+        JSONArray array = doc.optJSONArray(collection);
+        if (array == null) {
+            touch(collection, id);
+            add(path(collection), new JSONArray().put(element));
+            return;
+        }
+        if (findIndex(array, id) >= 0) {
+            throw new IllegalArgumentException("Duplicate id in " + collection + ": " + id);
+        }
+        touch(collection, id);
+        add(path(collection, "-"), element);
+    }
+
+    private void updateElement(String collection, String id, JSONObject changes) {
+        int index = indexOf(collection, id);
+        touch(collection, id);
+        for (String key : changes.keySet()) {
+            if (key.equals("id")) {
+                throw new IllegalArgumentException("The id of an element cannot be changed");
+            }
+            add(path(collection, index, key), changes.get(key));
+        }
+    }
+
+    private void deleteNode(String id) {
+        int index = indexOf("nodes", id);
+        JSONArray edges = doc.optJSONArray("edges");
+        if (edges != null) {
+            // De atrás hacia delante para que los índices pendientes no cambien
+            for (int i = edges.length() - 1; i >= 0; i--) {
+                JSONObject edge = edges.optJSONObject(i);
+                if (edge != null && (id.equals(edge.optString("source")) || id.equals(edge.optString("target")))) {
+                    touch("edges", edge.optString("id"));
+                    remove(path("edges", i));
+                }
+            }
+        }
+        touch("nodes", id);
+        remove(path("nodes", index));
+    }
+
+    private void touch(String collection, String id) {
+        (collection.equals("nodes") ? touchedNodes : touchedEdges).add(id);
+    }
+
+    private int indexOf(String collection, String id) {
+        JSONArray array = doc.optJSONArray(collection);
+        int index = array != null ? findIndex(array, id) : -1;
+        if (index < 0) {
+            throw new IllegalArgumentException("No element with id " + id + " in " + collection);
+        }
+        return index;
+    }
+
+    private static int findIndex(JSONArray array, String id) {
+        for (int i = 0; i < array.length(); i++) {
+            JSONObject element = array.optJSONObject(i);
+            if (element != null && id.equals(element.optString("id", null))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // ============ PRIMITIVAS (documento + SQL) ============
+
+    private void add(List<String> path, Object value) {
+        if (path.isEmpty()) {
+            throw new IllegalArgumentException("Cannot replace the whole document");
+        }
+        Object parent = get(path.subList(0, path.size() - 1));
+        String last = path.get(path.size() - 1);
+        if (parent instanceof JSONObject) {
+            ((JSONObject) parent).put(last, value);
+            wrap("JSON_SET", sqlPath(path), value);
+        } else if (parent instanceof JSONArray) {
+            JSONArray array = (JSONArray) parent;
+            if (last.equals("-")) {
+                array.put(value);
+                wrap("JSON_ARRAY_APPEND", sqlPath(path.subList(0, path.size() - 1)), value);
+            } else {
+                int index = arrayIndex(last, array.length() + 1);
+                for (int i = array.length(); i > index; i--) {
+                    array.put(i, array.get(i - 1));
+                }
+                array.put(index, value);
+                wrap("JSON_ARRAY_INSERT", sqlPath(path), value);
+            }
+        } else {
+            throw new IllegalArgumentException("Parent of " + pointer(path) + " is not a container");
+        }
+    }
+
+    private void remove(List<String> path) {
+        if (path.isEmpty()) {
+            throw new IllegalArgumentException("Cannot remove the whole document");
+        }
+        Object parent = get(path.subList(0, path.size() - 1));
+        String last = path.get(path.size() - 1);
+        if (parent instanceof JSONObject && ((JSONObject) parent).has(last)) {
+            ((JSONObject) parent).remove(last);
+        } else if (parent instanceof JSONArray) {
+            JSONArray array = (JSONArray) parent;
+            array.remove(arrayIndex(last, array.length()));
+        } else {
+            throw new IllegalArgumentException("Nothing to remove at " + pointer(path));
+        }
+        operations++;
+        expression.insert(0, "JSON_REMOVE(").append(", ?)");
+        params.add(sqlPath(path));
+    }
+
+    private void replace(List<String> path, Object value) {
+        if (path.isEmpty()) {
+            throw new IllegalArgumentException("Cannot replace the whole document");
+        }
+        Object parent = get(path.subList(0, path.size() - 1));
+        String last = path.get(path.size() - 1);
+        if (parent instanceof JSONObject && ((JSONObject) parent).has(last)) {
+            ((JSONObject) parent).put(last, value);
+        } else if (parent instanceof JSONArray) {
+            JSONArray array = (JSONArray) parent;
+            array.put(arrayIndex(last, array.length()), value);
+        } else {
+            throw new IllegalArgumentException("Nothing to replace at " + pointer(path));
+        }
+        wrap("JSON_REPLACE", sqlPath(path), value);
+    }
+
+    private void wrap(String function, String sqlPath, Object value) {
+        operations++;
+        expression.insert(0, function + "(").append(", ?, CAST(? AS JSON))");
+        params.add(sqlPath);
+        params.add(JSONObject.valueToString(value));
+    }
+
+    private Object get(List<String> path) {
+        Object current = doc;
+        for (String token : path) {
+            if (current instanceof JSONObject && ((JSONObject) current).has(token)) {
+                current = ((JSONObject) current).get(token);
+            } else if (current instanceof JSONArray) {
+                JSONArray array = (JSONArray) current;
+                current = array.get(arrayIndex(token, array.length()));
+            } else {
+                throw new IllegalArgumentException("Path not found: " + pointer(path));
+            }
+        }
+        return current;
+    }
+
+    // ============ UTILIDADES ============
+
+    private void checkSize(JSONArray ops) {
+        if (ops.length() == 0) {
+            throw new IllegalArgumentException("Patch contains no operations");
+        }
+        if (ops.length() > MAX_OPERATIONS) {
+            throw new IllegalArgumentException("Patch exceeds " + MAX_OPERATIONS + " operations");
+        }
+    }
+
+    private static int arrayIndex(String token, int limit) {
+        int index;
+        try {
+            index = Integer.parseInt(token);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid array index: " + token);
+        }
+        if (index < 0 || index >= limit || (token.length() > 1 && token.startsWith("0"))) {
+            throw new IllegalArgumentException("Array index out of range: " + token);
+        }
+        return index;
+    }
+
+    /**
+     * Convierte un JSON Pointer (RFC 6901) en su lista de tokens.
+     */
+    private static List<String> parsePointer(String pointer) {
+        if (pointer == null) {
+            throw new IllegalArgumentException("Patch operation requires a path");
+        }
+        List<String> tokens = new ArrayList<>();
+        if (pointer.isEmpty()) {
+            return tokens;
+        }
+        if (!pointer.startsWith("/")) {
+            throw new IllegalArgumentException("Invalid JSON pointer: " + pointer);
+        }
+        for (String token : pointer.substring(1).split("/", -1)) {
+            tokens.add(token.replace("~1", "/").replace("~0", "~"));
+        }
+        return tokens;
+    }
+
+    private static String pointer(List<String> path) {
+        StringBuilder sb = new StringBuilder();
+        for (String token : path) {
+            sb.append('/').append(token.replace("~", "~0").replace("/", "~1"));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Traduce tokens a una ruta JSON de MySQL, con todas las claves entre comillas.
+     */
+    private String sqlPath(List<String> path) {
+        StringBuilder sb = new StringBuilder("$");
+        Object current = doc;
+        for (String token : path) {
+            if (current instanceof JSONArray) {
+                sb.append('[').append(token).append(']');
+                int index = Integer.parseInt(token);
+                JSONArray array = (JSONArray) current;
+                current = index < array.length() ? array.opt(index) : null;
+            } else {
+                sb.append(".\"").append(token.replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+                current = current instanceof JSONObject ? ((JSONObject) current).opt(token) : null;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static List<String> path(Object... tokens) {
+        List<String> path = new ArrayList<>(tokens.length);
+        for (Object token : tokens) {
+            path.add(String.valueOf(token));
+        }
+        return path;
+    }
+
+    private static Object requireValue(JSONObject op) {
+        if (!op.has("value")) {
+            throw new IllegalArgumentException("Patch operation requires a value");
+        }
+        return op.get("value");
+    }
+
+    private static JSONObject requireObject(JSONObject op, String key) {
+        JSONObject value = op.optJSONObject(key);
+        if (value == null) {
+            throw new IllegalArgumentException("Operation " + op.optString("op") + " requires object " + key);
+        }
+        return value;
+    }
+
+    private static String requireId(JSONObject op) {
+        String id = op.optString("id", null);
+        if (id == null || id.isEmpty()) {
+            throw new IllegalArgumentException("Operation " + op.optString("op") + " requires an id");
+        }
+        return id;
+    }
+
+    private static Object copy(Object value) {
+        if (value instanceof JSONObject) {
+            return new JSONObject(value.toString());
+        }
+        if (value instanceof JSONArray) {
+            return new JSONArray(value.toString());
+        }
+        return value;
+    }
+
+    private static boolean sameValue(Object a, Object b) {
+        if (a instanceof JSONObject && b instanceof JSONObject) {
+            return ((JSONObject) a).similar(b);
+        }
+        if (a instanceof JSONArray && b instanceof JSONArray) {
+            return ((JSONArray) a).similar(b);
+        }
+        if (a instanceof Number && b instanceof Number) {
+            return new BigDecimal(a.toString()).compareTo(new BigDecimal(b.toString())) == 0;
+        }
+        return a.equals(b);
+    }
+}
@@ -0,0 +1,419 @@
+package api;
+
+import java.nio.charset.StandardCharsets;
+import org.json.JSONException;
+
+/**
+ * Cuerpo de POST/PUT /api/mindmaps leído directamente de los bytes UTF-8.
+ *
+ * Un tokenizador de una pasada extrae id y titulo y se queda con datos_json
+ * sin construir ningún árbol: si llega como cadena (lo que envía el frontend)
+ * se desescapa una sola vez de bytes a caracteres; si llega como objeto (la
+ * misma forma que devuelve ?json=raw) se copia el fragmento tal cual. El resto
+ * de campos se salta. La validación del documento sigue siendo de JsonScanner.
+ */
+public final class MapRequest {
+    private static final int MAX_DEPTH = 512;
+
+    private final boolean hasId;
+    private final int id;
+    private final String titulo;
+    private final String datosJson;
+
+    private MapRequest(boolean hasId, int id, String titulo, String datosJson) {
+        this.hasId = hasId;
+        this.id = id;
+        this.titulo = titulo;
+        this.datosJson = datosJson;
+    }
+
+    /** @return true si el cuerpo trae un id no nulo. */
+    public boolean hasId() {
+        return hasId;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /** @return Título, o null si no viene. */
+    public String getTitulo() {
+        return titulo;
+    }
+
+    /** @return Documento como texto JSON, o null si no viene. */
+    public String getDatosJson() {
+        return datosJson;
+    }
+
+    /**
+     * Tokeniza un cuerpo JSON en UTF-8. El resultado no referencia el buffer,
+     * que puede reutilizarse en cuanto vuelve este método.
+     * @param buf Buffer con el cuerpo.
+     * @param off Posición del primer byte.
+     * @param len Longitud del cuerpo.
+     * @return Campos del mapa.
+     * @throws JSONException Si el cuerpo no es un objeto JSON bien formado o un campo tiene un tipo inválido.
+     */
+    public static MapRequest parse(byte[] buf, int off, int len) throws JSONException {
+        return new Tokenizer(buf, off, off + len).body();
+    }
+
+    private static final class Tokenizer {
+        private final byte[] b;
+        private final int end;
+        private int pos;
+
+        Tokenizer(byte[] b, int off, int end) {
+            this.b = b;
+            this.pos = off;
+            this.end = end;
+        }
+
+        MapRequest body() {
+            boolean hasId = false;
+            int id = 0;
+            String titulo = null;
+            String datosJson = null;
+
+            skipWhitespace();
+            if (peek() == 0xEF && pos + 2 < end && (b[pos + 1] & 0xFF) == 0xBB && (b[pos + 2] & 0xFF) == 0xBF) {
+                pos += 3; // BOM UTF-8
+                skipWhitespace();
+            }
+            expect('{');
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+            } else {
+                while (true) {
+                    skipWhitespace();
+                    if (peek() != '"') {
+                        throw error("Expected property name");
+                    }
+                    int keyStart = pos + 1;
+                    skipString();
+                    int keyEnd = pos - 1;
+                    skipWhitespace();
+                    expect(':');
+                    skipWhitespace();
+                    if (keyIs(keyStart, keyEnd, "id")) {
+                        if (peekLiteral("null")) {
+                            pos += 4;
+                        } else {
+                            id = intValue("id");
+                            hasId = true;
+                        }
+                    } else if (keyIs(keyStart, keyEnd, "titulo")) {
+                        titulo = stringValue("titulo");
+                    } else if (keyIs(keyStart, keyEnd, "datos_json")) {
+                        if (peek() == '{') {
+                            int start = pos;
+                            skipValue();
+                            datosJson = new String(b, start, pos - start, StandardCharsets.UTF_8);
+                        } else {
+                            datosJson = stringValue("datos_json");
+                        }
+                    } else {
+                        skipValue();
+                    }
+                    skipWhitespace();
+                    int c = peek();
+                    pos++;
+                    if (c == '}') {
+                        break;
+                    }
+                    if (c != ',') {
+                        throw error("Expected ',' or '}'");
+                    }
+                }
+            }
+            skipWhitespace();
+            if (pos != end) {
+                throw error("Unexpected trailing content");
+            }
+            return new MapRequest(hasId, id, titulo, datosJson);
+        }
+
+        // ==================== VALORES ====================
+
+        private String stringValue(String field) {
+            if (peekLiteral("null")) {
+                pos += 4;
+                return null;
+            }
+            if (peek() != '"') {
+                throw new JSONException(field + " must be a string");
+            }
+            return decodeString();
+        }
+
+        /**
+         * Entero como número JSON o como cadena numérica (igual que JSONObject.getInt).
+         */
+        private int intValue(String field) {
+            String text;
+            if (peek() == '"') {
+                text = decodeString().trim();
+            } else {
+                int start = pos;
+                skipPrimitive();
+                text = new String(b, start, pos - start, StandardCharsets.US_ASCII);
+            }
+            try {
+                return Integer.parseInt(text);
+            } catch (NumberFormatException e) {
+                try {
+                    double value = Double.parseDouble(text);
+                    if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+                        return (int) value;
+                    }
+                } catch (NumberFormatException ignored) {
+                    // se informa abajo
+                }
+                throw new JSONException(field + " must be a number");
+            }
+        }
+
+        /**
+         * Decodifica una cadena JSON de UTF-8 a UTF-16 y resuelve los escapes en la misma pasada.
+         */
+        private String decodeString() {
+            pos++; // '"'
+            int start = pos;
+            // Camino rápido: ASCII sin escapes, una sola copia
+            while (pos < end) {
+                int c = b[pos];
+                if (c == '"') {
+                    String s = new String(b, start, pos - start, StandardCharsets.ISO_8859_1);
+                    pos++;
+                    return s;
+                }
+                if (c == '\\' || c < 0x20) {
+                    break;
+                }
+                pos++;
+            }
+            if (pos >= end) {
+                throw error("Unterminated string");
+            }
+            char[] out = new char[Math.max(16, closingQuoteBound() - start)];
+            int n = 0;
+            for (int i = start; i < pos; i++) {
+                out[n++] = (char) b[i];
+            }
+            while (pos < end) {
+                int c = b[pos++] & 0xFF;
+                if (c == '"') {
+                    return new String(out, 0, n);
+                }
+                if (c == '\\') {
+                    if (pos >= end) {
+                        break;
+                    }
+                    out[n++] = escape(b[pos++]);
+                } else if (c < 0x20) {
+                    throw error("Control character in string");
+                } else if (c < 0x80) {
+                    out[n++] = (char) c;
+                } else if (c >= 0xC2 && c < 0xE0 && continuation(0)) {
+                    out[n++] = (char) (((c & 0x1F) << 6) | (b[pos++] & 0x3F));
+                } else if (c >= 0xE0 && c < 0xF0 && continuation(0) && continuation(1)) {
+                    int cp = ((c & 0x0F) << 12) | ((b[pos] & 0x3F) << 6) | (b[pos + 1] & 0x3F);
+                    pos += 2;
+                    out[n++] = cp < 0x800 || Character.isSurrogate((char) cp) ? '\uFFFD' : (char) cp;
+                } else if (c >= 0xF0 && c < 0xF5 && continuation(0) && continuation(1) && continuation(2)) {
+                    int cp = ((c & 0x07) << 18) | ((b[pos] & 0x3F) << 12) | ((b[pos + 1] & 0x3F) << 6) | (b[pos + 2] & 0x3F);
+                    pos += 3;
+                    if (cp < 0x10000 || cp > Character.MAX_CODE_POINT) {
+                        out[n++] = '\uFFFD';
+                    } else {
+                        out[n++] = Character.highSurrogate(cp);
+                        out[n++] = Character.lowSurrogate(cp);
+                    }
+                } else {
+                    // UTF-8 mal formado: se sustituye como hace new String(bytes, UTF_8)
+                    out[n++] = '\uFFFD';
+                }
+            }
+            throw error("Unterminated string");
+        }
+
+        /**
+         * Cota superior de caracteres de la cadena: nunca hay más caracteres UTF-16 que bytes.
+         */
+        private int closingQuoteBound() {
+            int i = pos;
+            while (i < end) {
+                byte c = b[i++];
+                if (c == '\\') {
+                    i++;
+                } else if (c == '"') {
+                    return i;
+                }
+            }
+            throw error("Unterminated string");
+        }
+
+        private boolean continuation(int offset) {
+            return pos + offset < end && (b[pos + offset] & 0xC0) == 0x80;
+        }
+
+        private char escape(byte e) {
+            switch (e) {
+                case '"':
+                    return '"';
+                case '\\':
+                    return '\\';
+                case '/':
+                    return '/';
+                case 'b':
+                    return '\b';
+                case 'f':
+                    return '\f';
+                case 'n':
+                    return '\n';
+                case 'r':
+                    return '\r';
+                case 't':
+                    return '\t';
+                case 'u':
+                    int value = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int digit = pos < end ? Character.digit(b[pos++], 16) : -1;
+                        if (digit < 0) {
+                            throw error("Invalid unicode escape");
+                        }
+                        value = (value << 4) | digit;
+                    }
+                    return (char) value;
+                default:
+                    throw error("Invalid escape '\\" + (char) e + "'");
+            }
+        }
+
+        // ==================== SALTOS ====================
+
+        /**
+         * Salta un valor comprobando que llaves y corchetes casan; el contenido
+         * de datos_json lo valida después JsonScanner.
+         */
+        private void skipValue() {
+            byte[] stack = null;
+            int depth = 0;
+            do {
+                skipWhitespace();
+                int c = peek();
+                if (c == '{' || c == '[') {
+                    if (stack == null) {
+                        stack = new byte[MAX_DEPTH];
+                    } else if (depth == MAX_DEPTH) {
+                        throw error("Nesting too deep");
+                    }
+                    stack[depth++] = (byte) (c == '{' ? '}' : ']');
+                    pos++;
+                    continue;
+                }
+                if (c == '}' || c == ']') {
+                    if (depth == 0 || stack[depth - 1] != c) {
+                        throw error("Unexpected '" + (char) c + "'");
+                    }
+                    depth--;
+                    pos++;
+                } else if (c == '"') {
+                    skipString();
+                } else if (c == ',' || c == ':') {
+                    if (depth == 0) {
+                        throw error("Unexpected '" + (char) c + "'");
+                    }
+                    pos++;
+                    continue;
+                } else {
+                    skipPrimitive();
+                }
+            } while (depth > 0);
+        }
+
+        private void skipString() {
+            pos++; // '"'
+            while (pos < end) {
+                byte c = b[pos++];
+                if (c == '"') {
+                    return;
+                }
+                if (c == '\\') {
+                    pos++;
+                }
+            }
+            throw error("Unterminated string");
+        }
+
+        private void skipPrimitive() {
+            int start = pos;
+            while (pos < end) {
+                int c = b[pos];
+                if (c == ',' || c == '}' || c == ']' || c == ':' || c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+                    break;
+                }
+                if (c == '"' || c == '{' || c == '[') {
+                    throw error("Unexpected character '" + (char) c + "'");
+                }
+                pos++;
+            }
+            if (pos == start) {
+                throw error(pos >= end ? "Unexpected end of input" : "Unexpected character '" + (char) b[pos] + "'");
+            }
+        }
+
+        // ==================== LÉXICO ====================
+
+        private boolean keyIs(int start, int endExclusive, String name) {
+            if (endExclusive - start != name.length()) {
+                return false;
+            }
+            for (int i = 0; i < name.length(); i++) {
+                if (b[start + i] != name.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean peekLiteral(String word) {
+            if (end - pos < word.length()) {
+                return false;
+            }
+            for (int i = 0; i < word.length(); i++) {
+                if (b[pos + i] != word.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void expect(char c) {
+            if (peek() != c) {
+                throw error("Expected '" + c + "'");
+            }
+            pos++;
+        }
+
+        private void skipWhitespace() {
+            while (pos < end) {
+                byte c = b[pos];
+                if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                    return;
+                }
+                pos++;
+            }
+        }
+
+        private int peek() {
+            return pos < end ? b[pos] & 0xFF : -1;
+        }
+
+        private JSONException error(String message) {
+            return new JSONException(message + " at byte " + pos);
+        }
+    }
+}
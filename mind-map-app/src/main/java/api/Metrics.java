@@ -0,0 +1,338 @@
+package api;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Registro de métricas de la aplicación en formato de texto de Prometheus.
+ *
+ * Las latencias y tamaños se guardan en histogramas log-lineales al estilo de
+ * HdrHistogram: cuatro sub-buckets por cada potencia de dos (error relativo
+ * menor del 25 %) sobre contadores atómicos, sin locks ni asignaciones al
+ * registrar. Al exportar se agregan a límites de potencias de dos (buckets "le")
+ * y se calculan p50/p99/p999 con la resolución completa.
+ */
+public final class Metrics {
+    // Series distintas por familia; las que sobran se agrupan en route="other" (-Dmetrics.maxSeries)
+    private static final int MAX_SERIES = Integer.getInteger("metrics.maxSeries", 500);
+
+    private static final String HTTP_DURATION = "mindmap_http_request_duration_seconds";
+    private static final String HTTP_ERRORS = "mindmap_http_errors_total";
+    private static final String DB_DURATION = "mindmap_db_call_duration_seconds";
+    private static final String DB_ERRORS = "mindmap_db_errors_total";
+    private static final String PAYLOAD = "mindmap_datos_json_bytes";
+
+    private static final Map<String, String> HELP = new TreeMap<>();
+    static {
+        HELP.put(HTTP_DURATION, "Latencia de las peticiones HTTP por ruta y método");
+        HELP.put(HTTP_ERRORS, "Respuestas HTTP con estado >= 400 por ruta, método y estado");
+        HELP.put(DB_DURATION, "Duración de los métodos de DB, incluido el préstamo de conexión");
+        HELP.put(DB_ERRORS, "Métodos de DB que terminaron con SQLException");
+        HELP.put(PAYLOAD, "Bytes de datos_json escritos (op=write) y leídos de la BD tal como se guardan (op=read)");
+    }
+
+    // Familia -> etiquetas -> serie
+    private static final Map<String, ConcurrentHashMap<String, Histogram>> HISTOGRAMS = new ConcurrentHashMap<>();
+    private static final Map<String, ConcurrentHashMap<String, LongAdder>> COUNTERS = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    // ============ REGISTRO ============
+
+    /**
+     * Registra una petición HTTP terminada.
+     * @param route Ruta normalizada (ver {@link #route(String)}).
+     * @param method Método HTTP.
+     * @param status Estado de la respuesta.
+     * @param nanos Duración en nanosegundos.
+     */
+    public static void recordRequest(String route, String method, int status, long nanos) {
+        String labels = "route=\"" + escape(route) + "\",method=\"" + escape(method) + "\"";
+        histogram(HTTP_DURATION, labels, Histogram.NANOS).record(nanos);
+        if (status >= 400) {
+            counter(HTTP_ERRORS, labels + ",status=\"" + status + "\"").increment();
+        }
+    }
+
+    /**
+     * Empieza a medir un método de DB; la medida se registra con Timer.stop().
+     * @param method Nombre del método.
+     * @return Temporizador en marcha.
+     */
+    public static Timer db(String method) {
+        return new Timer(histogram(DB_DURATION, "method=\"" + method + "\"", Histogram.NANOS));
+    }
+
+    /**
+     * Cuenta un error de un método de DB.
+     * @param method Nombre del método.
+     */
+    public static void dbError(String method) {
+        counter(DB_ERRORS, "method=\"" + method + "\"").increment();
+    }
+
+    /**
+     * Registra el tamaño de un datos_json.
+     * @param op "write" o "read".
+     * @param bytes Tamaño en bytes.
+     */
+    public static void recordPayload(String op, long bytes) {
+        histogram(PAYLOAD, "op=\"" + op + "\"", Histogram.BYTES).record(bytes);
+    }
+
+    /**
+     * Normaliza una ruta para usarla como etiqueta: los segmentos numéricos (IDs) pasan a {id}.
+     * @param path URI sin el context path.
+     * @return Ruta normalizada, p. ej. /api/mindmaps/{id}/nodes.
+     */
+    public static String route(String path) {
+        StringBuilder sb = new StringBuilder(path.length());
+        int start = 0;
+        while (start < path.length()) {
+            int end = path.indexOf('/', start + 1);
+            if (end < 0) {
+                end = path.length();
+            }
+            String segment = path.substring(start, end);
+            sb.append(isNumericSegment(segment) ? "/{id}" : segment);
+            start = end;
+        }
+        return sb.toString();
+    }
+
+    private static boolean isNumericSegment(String segment) {
+        if (segment.length() < 2 || segment.charAt(0) != '/') {
+            return false;
+        }
+        for (int i = 1; i < segment.length(); i++) {
+            if (!Character.isDigit(segment.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Histogram histogram(String family, String labels, int unit) {
+        ConcurrentHashMap<String, Histogram> series = HISTOGRAMS.computeIfAbsent(family, k -> new ConcurrentHashMap<>());
+        Histogram histogram = series.get(labels);
+        if (histogram == null) {
+            histogram = series.computeIfAbsent(series.size() < MAX_SERIES ? labels : "route=\"other\"",
+                k -> new Histogram(unit));
+        }
+        return histogram;
+    }
+
+    private static LongAdder counter(String family, String labels) {
+        ConcurrentHashMap<String, LongAdder> series = COUNTERS.computeIfAbsent(family, k -> new ConcurrentHashMap<>());
+        LongAdder counter = series.get(labels);
+        if (counter == null) {
+            counter = series.computeIfAbsent(series.size() < MAX_SERIES ? labels : "route=\"other\"",
+                k -> new LongAdder());
+        }
+        return counter;
+    }
+
+    // ============ EXPORTACIÓN ============
+
+    /**
+     * Escribe todas las métricas registradas en formato de texto de Prometheus 0.0.4.
+     * @param out Destino.
+     * @throws IOException Si falla la escritura.
+     */
+    public static void write(Writer out) throws IOException {
+        for (Map.Entry<String, ConcurrentHashMap<String, Histogram>> family : new TreeMap<>(HISTOGRAMS).entrySet()) {
+            String name = family.getKey();
+            writeHeader(out, name, "histogram");
+            Map<String, Histogram> series = new TreeMap<>(family.getValue());
+            for (Map.Entry<String, Histogram> entry : series.entrySet()) {
+                entry.getValue().writeBuckets(out, name, entry.getKey());
+            }
+            writeHeader(out, name + "_quantile", "gauge");
+            for (Map.Entry<String, Histogram> entry : series.entrySet()) {
+                entry.getValue().writeQuantiles(out, name + "_quantile", entry.getKey());
+            }
+        }
+        for (Map.Entry<String, ConcurrentHashMap<String, LongAdder>> family : new TreeMap<>(COUNTERS).entrySet()) {
+            writeHeader(out, family.getKey(), "counter");
+            for (Map.Entry<String, LongAdder> entry : new TreeMap<>(family.getValue()).entrySet()) {
+                writeSample(out, family.getKey(), entry.getKey(), entry.getValue().sum());
+            }
+        }
+    }
+
+    /**
+     * Escribe la cabecera HELP/TYPE de una familia.
+     */
+    static void writeHeader(Writer out, String name, String type) throws IOException {
+        String help = HELP.get(name);
+        if (help != null) {
+            out.write("# HELP " + name + " " + help + "\n");
+        }
+        out.write("# TYPE " + name + " " + type + "\n");
+    }
+
+    /**
+     * Escribe una muestra; labels puede ser vacío.
+     */
+    static void writeSample(Writer out, String name, String labels, Object value) throws IOException {
+        out.write(name);
+        if (labels != null && !labels.isEmpty()) {
+            out.write("{" + labels + "}");
+        }
+        out.write(" " + value + "\n");
+    }
+
+    /**
+     * Escapa un valor de etiqueta (barra invertida, comillas y saltos de línea).
+     */
+    static String escape(String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Mide un bloque y lo registra en su histograma con stop(), que se llama en
+     * el finally del bloque medido.
+     */
+    public static final class Timer {
+        private final Histogram histogram;
+        private final long start = System.nanoTime();
+
+        Timer(Histogram histogram) {
+            this.histogram = histogram;
+        }
+
+        public void stop() {
+            histogram.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Histograma log-lineal de valores positivos sobre un AtomicLongArray.
+     */
+    static final class Histogram {
+        static final int NANOS = 0;
+        static final int BYTES = 1;
+
+        private static final int SUB_BITS = 2;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+        // Valores hasta 2^40: ~18 minutos en nanos, 1 TB en bytes
+        private static final int MAX_EXPONENT = 40;
+        private static final int BUCKETS = MAX_EXPONENT * SUB_BUCKETS;
+
+        // Límites "le" exportados: potencias de dos entre 2^LOW y 2^HIGH
+        private static final int[] LOW = {14, 6};   // 16 µs, 64 B
+        private static final int[] HIGH = {35, 28}; // 34 s, 256 MB
+        private static final double[] SCALE = {1e-9, 1};
+
+        private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+        private final int unit;
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+
+        Histogram(int unit) {
+            this.unit = unit;
+        }
+
+        void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            counts.incrementAndGet(index(value));
+            count.increment();
+            sum.add(value);
+        }
+
+        static int index(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            if (exponent >= MAX_EXPONENT) {
+                return BUCKETS - 1;
+            }
+            int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        /** Límite superior (exclusivo) de un bucket. */
+        static long upperBound(int index) {
+            if (index < SUB_BUCKETS) {
+                return index + 1;
+            }
+            int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+            int sub = index % SUB_BUCKETS;
+            return (long) (SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS);
+        }
+
+        void writeBuckets(Writer out, String name, String labels) throws IOException {
+            long[] snapshot = snapshot();
+            String prefix = labels.isEmpty() ? "" : labels + ",";
+            long cumulative = 0;
+            int index = 0;
+            for (int exponent = LOW[unit]; exponent <= HIGH[unit]; exponent++) {
+                long bound = 1L << exponent;
+                while (index < BUCKETS && upperBound(index) <= bound) {
+                    cumulative += snapshot[index++];
+                }
+                writeSample(out, name + "_bucket", prefix + "le=\"" + format(bound * SCALE[unit]) + "\"", cumulative);
+            }
+            long total = 0;
+            for (long c : snapshot) {
+                total += c;
+            }
+            writeSample(out, name + "_bucket", prefix + "le=\"+Inf\"", total);
+            writeSample(out, name + "_sum", labels, format(sum.sum() * SCALE[unit]));
+            writeSample(out, name + "_count", labels, total);
+        }
+
+        void writeQuantiles(Writer out, String name, String labels) throws IOException {
+            long[] snapshot = snapshot();
+            long total = 0;
+            for (long c : snapshot) {
+                total += c;
+            }
+            String prefix = labels.isEmpty() ? "" : labels + ",";
+            for (double q : QUANTILES) {
+                writeSample(out, name, prefix + "quantile=\"" + q + "\"", format(quantile(snapshot, total, q) * SCALE[unit]));
+            }
+        }
+
+        private long[] snapshot() {
+            long[] snapshot = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = counts.get(i);
+            }
+            return snapshot;
+        }
+
+        private static long quantile(long[] snapshot, long total, double q) {
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(q * total);
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                cumulative += snapshot[i];
+                if (cumulative >= rank) {
+                    return upperBound(i);
+                }
+            }
+            return upperBound(BUCKETS - 1);
+        }
+
+        private static String format(double value) {
+            return value == Math.rint(value) && Math.abs(value) < 1e15 ? String.valueOf((long) value) : String.valueOf(value);
+        }
+    }
+}
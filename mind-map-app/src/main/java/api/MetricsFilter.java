@@ -0,0 +1,81 @@
+package api;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+import java.io.IOException;
+
+/**
+ * Mide la latencia de cada petición a la API por ruta y método.
+ *
+ * En los servlets asíncronos la petición termina cuando se completa el
+ * AsyncContext, no al volver de la cadena, así que se mide con un AsyncListener.
+ */
+public class MetricsFilter implements Filter {
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {}
+
+    @Override
+    public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain)
+            throws IOException, ServletException {
+
+        HttpServletRequest request = (HttpServletRequest) servletRequest;
+        HttpServletResponse response = (HttpServletResponse) servletResponse;
+
+        long start = System.nanoTime();
+        String route = Metrics.route(request.getRequestURI().substring(request.getContextPath().length()));
+        boolean failed = true;
+        try {
+            chain.doFilter(servletRequest, servletResponse);
+            failed = false;
+        } finally {
+            if (!failed && request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new CompletionListener(route, request.getMethod(), response, start));
+            } else {
+                // Una excepción que escapa de la cadena acaba en un 500 del contenedor
+                int status = failed ? HttpServletResponse.SC_INTERNAL_SERVER_ERROR : response.getStatus();
+                Metrics.recordRequest(route, request.getMethod(), status, System.nanoTime() - start);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {}
+
+    /**
+     * Registra la petición asíncrona al completarse. Tras un timeout o error el
+     * contenedor también completa la petición, así que solo se registra una vez.
+     */
+    private static final class CompletionListener implements AsyncListener {
+        private final String route;
+        private final String method;
+        private final HttpServletResponse response;
+        private final long start;
+        private volatile int status;
+
+        CompletionListener(String route, String method, HttpServletResponse response, long start) {
+            this.route = route;
+            this.method = method;
+            this.response = response;
+            this.start = start;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            Metrics.recordRequest(route, method, status != 0 ? status : response.getStatus(), System.nanoTime() - start);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            status = HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {}
+    }
+}
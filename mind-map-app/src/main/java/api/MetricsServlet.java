@@ -0,0 +1,142 @@
+package api;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+import javax.servlet.annotation.*;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * Expone las métricas en formato de texto de Prometheus.
+ *
+ * Además de los histogramas y contadores de {@link Metrics}, publica como
+ * gauges el estado del pool de conexiones, las cachés, los pools de bcrypt y
+ * de DB y el limitador de peticiones. Si se define -Dmetrics.token, se exige
+ * "Authorization: Bearer &lt;token&gt;".
+ */
+@WebServlet("/api/metrics")
+public class MetricsServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+    private static final String TOKEN = System.getProperty("metrics.token");
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        if (TOKEN != null && !("Bearer " + TOKEN).equals(request.getHeader("Authorization"))) {
+            HttpUtils.sendErrorResponse(response, "Unauthorized", HttpServletResponse.SC_UNAUTHORIZED);
+            return;
+        }
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType("text/plain; version=0.0.4");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-store");
+
+        Writer out = response.getWriter();
+        Metrics.write(out);
+
+        ServletContext context = getServletContext();
+        DB db = (DB) context.getAttribute("db");
+        if (db != null) {
+            Map<String, Object> pool = db.getPoolStats();
+            Metrics.writeHeader(out, "mindmap_db_pool_connections", "gauge");
+            for (String state : new String[]{"active", "idle", "waiting"}) {
+                writeStat(out, "mindmap_db_pool_connections", "state=\"" + state + "\"", pool, state);
+            }
+            gauge(out, "mindmap_db_pool_max_connections", pool, "max");
+
+            Map<String, Object> cache = db.getCacheStats();
+            counter(out, "mindmap_map_cache_hits_total", cache, "hits");
+            counter(out, "mindmap_map_cache_misses_total", cache, "misses");
+            counter(out, "mindmap_map_cache_evictions_total", cache, "evictions");
+            gauge(out, "mindmap_map_cache_entries", cache, "size");
+            gauge(out, "mindmap_map_cache_bytes", cache, "bytes");
+            gauge(out, "mindmap_map_cache_max_bytes", cache, "max_bytes");
+
+            Map<String, Object> search = db.getSearchStats();
+            counter(out, "mindmap_search_queries_total", search, "queries");
+            counter(out, "mindmap_search_index_builds_total", search, "builds");
+            counter(out, "mindmap_search_index_evictions_total", search, "evictions");
+            counter(out, "mindmap_search_index_stale_total", search, "stale");
+            gauge(out, "mindmap_search_indexed_users", search, "users");
+        }
+
+        Map<String, Object> auth = AuthServlet.getAuthStats();
+        counter(out, "mindmap_auth_verifications_total", auth, "requests");
+        gauge(out, "mindmap_auth_verify_max_nanos", auth, "max_nanos");
+        counter(out, "mindmap_token_cache_hits_total", auth, "cache_hits");
+        counter(out, "mindmap_token_cache_misses_total", auth, "cache_misses");
+        counter(out, "mindmap_token_cache_evictions_total", auth, "cache_evictions");
+        gauge(out, "mindmap_token_cache_entries", auth, "cache_size");
+
+        PasswordHasher hasher = (PasswordHasher) context.getAttribute("passwordHasher");
+        if (hasher != null) {
+            gauge(out, "mindmap_password_hasher_active", hasher.getActiveCount());
+            gauge(out, "mindmap_password_hasher_queue_depth", hasher.getQueueDepth());
+            counter(out, "mindmap_password_hasher_rejected_total", hasher.getRejectedCount());
+        }
+
+        DbExecutor executor = (DbExecutor) context.getAttribute("dbExecutor");
+        if (executor != null) {
+            gauge(out, "mindmap_db_executor_in_flight", executor.getInFlightCount());
+            counter(out, "mindmap_db_executor_rejected_total", executor.getRejectedCount());
+        }
+
+        RateLimitFilter limiter = (RateLimitFilter) context.getAttribute("rateLimiter");
+        if (limiter != null) {
+            Map<String, Object> limits = limiter.getStats();
+            gauge(out, "mindmap_ratelimit_active_keys", limits, "active_keys");
+            counter(out, "mindmap_ratelimit_expired_keys_total", limits, "expired_keys");
+            counter(out, "mindmap_ratelimit_overflow_global_only_total", limits, "overflow_global_only");
+            Metrics.writeHeader(out, "mindmap_ratelimit_allowed_total", "counter");
+            for (RateLimitFilter.Category category : RateLimitFilter.Category.values()) {
+                String name = category.name().toLowerCase();
+                writeStat(out, "mindmap_ratelimit_allowed_total", "category=\"" + name + "\"", limits, name + "_allowed");
+            }
+            Metrics.writeHeader(out, "mindmap_ratelimit_rejected_total", "counter");
+            for (RateLimitFilter.Category category : RateLimitFilter.Category.values()) {
+                String name = category.name().toLowerCase();
+                writeStat(out, "mindmap_ratelimit_rejected_total", "category=\"" + name + "\",scope=\"key\"",
+                    limits, name + "_key_rejected");
+                writeStat(out, "mindmap_ratelimit_rejected_total", "category=\"" + name + "\",scope=\"global\"",
+                    limits, name + "_global_rejected");
+            }
+        }
+        AsyncLogHandler log = AsyncLogHandler.getInstalled();
+        if (log != null) {
+            gauge(out, "mindmap_log_queue_depth", log.getQueueDepth());
+            counter(out, "mindmap_log_dropped_total", log.getDroppedTotal());
+        }
+        out.flush();
+    }
+
+    private static void gauge(Writer out, String name, Map<String, Object> stats, String key) throws IOException {
+        if (stats.containsKey(key)) {
+            gauge(out, name, stats.get(key));
+        }
+    }
+
+    private static void counter(Writer out, String name, Map<String, Object> stats, String key) throws IOException {
+        if (stats.containsKey(key)) {
+            counter(out, name, stats.get(key));
+        }
+    }
+
+    private static void gauge(Writer out, String name, Object value) throws IOException {
+        Metrics.writeHeader(out, name, "gauge");
+        Metrics.writeSample(out, name, null, value);
+    }
+
+    private static void counter(Writer out, String name, Object value) throws IOException {
+        Metrics.writeHeader(out, name, "counter");
+        Metrics.writeSample(out, name, null, value);
+    }
+
+    private static void writeStat(Writer out, String name, String labels, Map<String, Object> stats, String key)
+            throws IOException {
+        Object value = stats.get(key);
+        if (value != null) {
+            Metrics.writeSample(out, name, labels, value);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package api;
+
+/**
+ * Herramienta de línea de comandos que rellena map_nodes y map_edges a partir
+ * de los datos_json existentes. Se puede ejecutar varias veces: cada mapa se
+ * reescribe completo en su propia transacción.
+ *
+ * Uso: mvn exec:java -Dexec.mainClass=api.MigracionNormalizada
+ */
+public class MigracionNormalizada {
+    public static void main(String[] args) {
+        DB db = null;
+        boolean fallo = false;
+        try {
+            db = new DB();
+            int migrados = db.migrarANormalizado();
+            System.out.println("✅ Mapas migrados al modelo normalizado: " + migrados);
+        } catch (Exception e) {
+            System.out.println("❌ Fallo en la migración:");
+            e.printStackTrace();
+            fallo = true;
+        } finally {
+            if (db != null) {
+                db.closeConnection();
+            }
+        }
+        // Código distinto de 0 para que un script o un job de despliegue detecte el fallo
+        if (fallo) {
+            System.exit(1);
+        }
+    }
+}
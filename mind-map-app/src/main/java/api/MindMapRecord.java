@@ -0,0 +1,108 @@
+package api;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+
+/**
+ * Fila inmutable de mapas_mentales con el documento.
+ *
+ * Las fechas se guardan en milisegundos desde epoch y solo se formatean al
+ * escribir la respuesta. El documento está en datosJson o, si la fila se leyó
+ * tal como está guardada, en datosComprimidos (formato {@link MapCompression});
+ * {@link #descomprimir()} devuelve la variante con el texto.
+ */
+public final class MindMapRecord implements MindMapRow {
+    private final int id;
+    private final String titulo;
+    private final String datosJson;
+    private final byte[] datosComprimidos;
+    private final long fechaCreacion;
+    private final long ultimaModificacion;
+    private final int version;
+
+    public MindMapRecord(int id, String titulo, String datosJson, byte[] datosComprimidos, long fechaCreacion,
+                         long ultimaModificacion, int version) {
+        this.id = id;
+        this.titulo = titulo;
+        this.datosJson = datosComprimidos == null ? datosJson : null;
+        this.datosComprimidos = datosComprimidos;
+        this.fechaCreacion = fechaCreacion;
+        this.ultimaModificacion = ultimaModificacion;
+        this.version = version;
+    }
+
+    @Override
+    public int getId() {
+        return id;
+    }
+
+    public String getTitulo() {
+        return titulo;
+    }
+
+    /** @return Documento en texto, o null si no se leyó o está comprimido. */
+    public String getDatosJson() {
+        return datosJson;
+    }
+
+    /** @return Documento comprimido tal como está guardado, o null. No debe modificarse. */
+    public byte[] getDatosComprimidos() {
+        return datosComprimidos;
+    }
+
+    public long getFechaCreacion() {
+        return fechaCreacion;
+    }
+
+    @Override
+    public long getUltimaModificacion() {
+        return ultimaModificacion;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return Este registro si el documento ya está en texto; si no, una copia con datos_json descomprimido.
+     */
+    public MindMapRecord descomprimir() {
+        if (datosComprimidos == null) {
+            return this;
+        }
+        return new MindMapRecord(id, titulo, MapCompression.decompress(datosComprimidos), null, fechaCreacion,
+            ultimaModificacion, version);
+    }
+
+    /**
+     * Escribe id, titulo, fechas, version y datos_json (descomprimiéndolo si hace falta).
+     */
+    @Override
+    public void writeTo(JsonStreamWriter out, boolean rawJson) throws IOException {
+        out.beginObject()
+            .name("id").value(id)
+            .name("titulo").value(titulo)
+            .name("fecha_creacion").value(formatFecha(fechaCreacion))
+            .name("ultima_modificacion").value(formatFecha(ultimaModificacion))
+            .name("version").value(version)
+            .name("datos_json");
+        String texto = datosComprimidos != null ? MapCompression.decompress(datosComprimidos) : datosJson;
+        if (texto == null) {
+            out.nullValue();
+        } else if (rawJson) {
+            out.rawValue(texto);
+        } else {
+            out.value(texto);
+        }
+        out.endObject();
+    }
+
+    /**
+     * Formatea una fecha como en las respuestas anteriores (Timestamp.toString(), zona del servidor).
+     * @param millis Milisegundos desde epoch.
+     * @return Fecha "yyyy-mm-dd hh:mm:ss.f".
+     */
+    static String formatFecha(long millis) {
+        return new Timestamp(millis).toString();
+    }
+}
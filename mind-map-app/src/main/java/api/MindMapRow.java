@@ -0,0 +1,23 @@
+package api;
+
+import java.io.IOException;
+
+/**
+ * Fila de un listado de mapas ({@link MindMapRecord} o {@link MindMapSummary})
+ * que se serializa directamente en la respuesta.
+ */
+public interface MindMapRow {
+
+    int getId();
+
+    /** @return ultima_modificacion en milisegundos desde epoch. */
+    long getUltimaModificacion();
+
+    /**
+     * Escribe la fila como objeto JSON.
+     * @param out Destino.
+     * @param rawJson true para incrustar datos_json como objeto en lugar de como cadena.
+     * @throws IOException Si falla la escritura.
+     */
+    void writeTo(JsonStreamWriter out, boolean rawJson) throws IOException;
+}
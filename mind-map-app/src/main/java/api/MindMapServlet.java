@@ -4,20 +4,58 @@ import javax.servlet.*;
 import javax.servlet.http.*;
 import javax.servlet.annotation.*;
 import java.io.IOException;
+import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 import java.util.List;
 import java.util.Map;
 import java.sql.Timestamp;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.*;
 import io.jsonwebtoken.Claims;
 
-@WebServlet("/api/mindmaps/*")
+@WebServlet(urlPatterns = "/api/mindmaps/*", asyncSupported = true)
 public class MindMapServlet extends HttpServlet {
+    private static final Logger LOGGER = Logger.getLogger(MindMapServlet.class.getName());
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 200;
+    private static final int DEFAULT_SEARCH_LIMIT = 20;
+    private static final int MAX_SEARCH_LIMIT = 100;
+    private static final int MAX_SEARCH_QUERY_LENGTH = 200;
+    private static final int MAX_SEARCH_NODE_IDS = 50;
+    // Área máxima de una ventana ?bbox= (un millón de píxeles por lado)
+    private static final double MAX_BBOX_AREA = 1e12;
+    
+    // Ejecutor de BD (sobrescribible con -Dmindmaps.executor.* y -Dmindmaps.async.timeoutMillis)
+    private static final int EXECUTOR_THREADS = Integer.getInteger("mindmaps.executor.threads", 32);
+    private static final int EXECUTOR_QUEUE = Integer.getInteger("mindmaps.executor.queue", 1000);
+    private static final boolean EXECUTOR_VIRTUAL = !"false".equals(System.getProperty("mindmaps.executor.virtual"));
+    private static final long ASYNC_TIMEOUT_MILLIS = Long.getLong("mindmaps.async.timeoutMillis", 60000L);
+    // Timeout del listado en streaming (-Dmindmaps.async.streamTimeoutMillis); 0 = sin límite
+    private static final long STREAM_TIMEOUT_MILLIS = Long.getLong("mindmaps.async.streamTimeoutMillis", 300000L);
+    private static final int RETRY_AFTER_SECONDS = 1;
+    
+    private transient DbExecutor executor;
+    
+    @Override
+    public void init() throws ServletException {
+        executor = new DbExecutor(EXECUTOR_THREADS, EXECUTOR_QUEUE, EXECUTOR_VIRTUAL);
+        getServletContext().setAttribute("dbExecutor", executor);
+    }
+    
+    @Override
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
     
     @Override
     protected void doOptions(HttpServletRequest request, HttpServletResponse response) {
         response.setHeader("Access-Control-Allow-Origin", "http://localhost:3000");
-        response.setHeader("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS");
-        response.setHeader("Access-Control-Allow-Headers", "Content-Type, Authorization");
+        response.setHeader("Access-Control-Allow-Methods", "GET, POST, PUT, PATCH, DELETE, OPTIONS");
+        response.setHeader("Access-Control-Allow-Headers", "Content-Type, Authorization, If-Match");
         response.setHeader("Access-Control-Allow-Credentials", "true");
         response.setStatus(HttpServletResponse.SC_OK);
     }
@@ -46,49 +84,310 @@ public class MindMapServlet extends HttpServlet {
             DB db = (DB) getServletContext().getAttribute("db");
             String pathInfo = request.getPathInfo();
             
-            if (pathInfo == null || pathInfo.equals("/")) {
-                List<Map<String, Object>> mapas = db.obtenerMapasPorUsuario(userId);
+            if (pathInfo == null || pathInfo.equals("/") || pathInfo.equals("/all")) {
+                sendMapList(request, response, db, userId);
+            } else if (pathInfo.equals("/search")) {
+                sendSearch(request, response, db, userId);
+            } else if (pathInfo.endsWith("/data")) {
+                int mapaId = Integer.parseInt(pathInfo.substring(1, pathInfo.length() - "/data".length()));
+                sendMapData(request, response, db, userId, mapaId);
+            } else if (pathInfo.endsWith("/nodes")) {
+                int mapaId = Integer.parseInt(pathInfo.substring(1, pathInfo.length() - "/nodes".length()));
+                sendNodeWindow(request, response, db, userId, mapaId);
+            } else {
+                int mapaId = Integer.parseInt(pathInfo.substring(1));
+                boolean rawJson = wantsRawJson(request);
                 
-                JSONObject responseJson = new JSONObject();
-                for (Map<String, Object> mapa : mapas) {
-                    mapa.put("fecha_creacion", ((Timestamp)mapa.get("fecha_creacion")).toString());
-                    mapa.put("ultima_modificacion", ((Timestamp)mapa.get("ultima_modificacion")).toString());
+                // Primero se comprueba la versión sin leer datos_json
+                MindMapRecord version = db.obtenerVersionMapa(mapaId, userId);
+                if (version == null) {
+                    HttpUtils.sendErrorResponse(response, "Map not found", HttpServletResponse.SC_NOT_FOUND);
+                    return;
                 }
-                responseJson.put("mapas", mapas);
-                
-                HttpUtils.sendJsonResponse(response, responseJson, HttpServletResponse.SC_OK);
-            } else if (pathInfo.equals("/all")) {
-                // Endpoint modificado para incluir userId
-                List<Map<String, Object>> todosMapas = db.obtenerMapasPorUsuario(userId);
-                
-                JSONObject responseJson = new JSONObject();
-                for (Map<String, Object> mapa : todosMapas) {
-                    mapa.put("fecha_creacion", ((Timestamp)mapa.get("fecha_creacion")).toString());
-                    mapa.put("ultima_modificacion", ((Timestamp)mapa.get("ultima_modificacion")).toString());
+                if (HttpUtils.checkNotModified(request, response, mapETag(version, rawJson),
+                        version.getUltimaModificacion())) {
+                    return;
                 }
-                responseJson.put("mapas", todosMapas);
                 
-                HttpUtils.sendJsonResponse(response, responseJson, HttpServletResponse.SC_OK);
-            } else {
-                int mapaId = Integer.parseInt(pathInfo.substring(1));
-                Map<String, Object> mapa = db.obtenerMapa(mapaId, userId);
+                MindMapRecord mapa = db.obtenerMapa(mapaId, userId);
                 
                 if (mapa != null) {
-                    mapa.put("fecha_creacion", ((Timestamp)mapa.get("fecha_creacion")).toString());
-                    mapa.put("ultima_modificacion", ((Timestamp)mapa.get("ultima_modificacion")).toString());
+                    // El mapa pudo cambiar entre ambas lecturas: las cabeceras siguen al cuerpo enviado
+                    response.setHeader("ETag", mapETag(mapa, rawJson));
+                    response.setDateHeader("Last-Modified", mapa.getUltimaModificacion());
                     
-                    HttpUtils.sendJsonResponse(response, new JSONObject(mapa), HttpServletResponse.SC_OK);
+                    try (JsonStreamWriter out = HttpUtils.openJsonStream(response, HttpServletResponse.SC_OK)) {
+                        mapa.writeTo(out, rawJson);
+                    }
                 } else {
                     HttpUtils.sendErrorResponse(response, "Map not found", HttpServletResponse.SC_NOT_FOUND);
                 }
             }
         } catch (NumberFormatException e) {
             HttpUtils.sendErrorResponse(response, "Invalid map ID", HttpServletResponse.SC_BAD_REQUEST);
+        } catch (IllegalArgumentException e) {
+            HttpUtils.sendErrorResponse(response, e.getMessage(), HttpServletResponse.SC_BAD_REQUEST);
         } catch (Exception e) {
             HttpUtils.sendErrorResponse(response, "Error retrieving maps", HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
         }
     }
     
+    /**
+     * Lista los mapas del usuario. Con ?limit= o ?cursor= se pagina por
+     * (ultima_modificacion, id) y la respuesta incluye next_cursor; sin ellos
+     * se devuelve la lista completa. ?fields=summary omite datos_json.
+     */
+    private void sendMapList(HttpServletRequest request, HttpServletResponse response, DB db, int userId)
+            throws Exception {
+        boolean summary = "summary".equals(request.getParameter("fields"));
+        boolean rawJson = wantsRawJson(request);
+        String limitParam = request.getParameter("limit");
+        String cursorParam = request.getParameter("cursor");
+        boolean paged = limitParam != null || cursorParam != null;
+        
+        PageCursor cursor = cursorParam != null && !cursorParam.isEmpty() ? PageCursor.decode(cursorParam) : null;
+        int limit = 0;
+        if (paged) {
+            try {
+                limit = limitParam != null ? Integer.parseInt(limitParam) : DEFAULT_PAGE_SIZE;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid limit");
+            }
+            if (limit < 1 || limit > MAX_PAGE_SIZE) {
+                throw new IllegalArgumentException("Limit must be between 1 and " + MAX_PAGE_SIZE);
+            }
+        }
+        
+        // ETag de la colección: una consulta sobre el índice, sin cuerpo si no cambió nada
+        Map<String, Object> estado = db.obtenerEstadoColeccion(userId);
+        Timestamp maxModificacion = (Timestamp) estado.get("max_modificacion");
+        String etag = "\"c" + userId + "-" + estado.get("total") + "-" + estado.get("suma_ids") + "-"
+            + estado.get("suma_versiones") + "-" + Long.toHexString((Long) estado.get("huella")) + "-"
+            + (maxModificacion != null ? maxModificacion.getTime() : 0) + "-"
+            + Integer.toHexString(String.valueOf(request.getQueryString()).hashCode()) + "\"";
+        // Solo ETag: MAX(ultima_modificacion) no cambia al borrar un mapa, así que
+        // Last-Modified / If-Modified-Since darían por vigente una lista obsoleta
+        if (HttpUtils.checkNotModified(request, response, etag, -1)) {
+            return;
+        }
+        
+        Timestamp cursorFecha = cursor != null ? cursor.getUltimaModificacion() : null;
+        int cursorId = cursor != null ? cursor.getId() : 0;
+        final int pageSize = limit;
+        // Se pide una fila de más para saber si hay otra página
+        int fetch = paged ? limit + 1 : 0;
+        
+        // Las filas se escriben en la respuesta por tandas, sin tener una conexión
+        // prestada mientras se escribe; en memoria solo queda la tanda actual.
+        // Si la lectura falla a mitad, el writer no se cierra: la excepción llega
+        // a service(), que corta la conexión en vez de terminar el 200 truncado.
+        JsonStreamWriter out = HttpUtils.openJsonStream(response, HttpServletResponse.SC_OK);
+        out.beginObject().name("mapas").beginArray();
+        final int[] written = {0};
+        final long[] lastFecha = {0L};
+        final int[] lastId = {0};
+        final boolean[] hasMore = {false};
+        
+        db.recorrerMapasPorUsuario(userId, summary, cursorFecha, cursorId, fetch, fila -> {
+            if (paged && written[0] == pageSize) {
+                hasMore[0] = true;
+                return;
+            }
+            fila.writeTo(out, rawJson);
+            written[0]++;
+            lastFecha[0] = fila.getUltimaModificacion();
+            lastId[0] = fila.getId();
+        });
+        
+        out.endArray();
+        if (paged) {
+            out.name("next_cursor");
+            if (hasMore[0]) {
+                out.value(new PageCursor(new Timestamp(lastFecha[0]), lastId[0]).encode());
+            } else {
+                out.nullValue();
+            }
+        }
+        out.endObject();
+        out.close();
+    }
+    
+    /**
+     * Busca ?q= en los títulos y etiquetas de nodo de los mapas del usuario y
+     * devuelve los mapas por relevancia con los IDs de los nodos que encajan.
+     * Se resuelve con el índice de búsqueda, sin leer datos_json.
+     */
+    private void sendSearch(HttpServletRequest request, HttpServletResponse response, DB db, int userId)
+            throws Exception {
+        String query = request.getParameter("q");
+        if (query == null || query.trim().isEmpty()) {
+            throw new IllegalArgumentException("q parameter is required");
+        }
+        if (query.length() > MAX_SEARCH_QUERY_LENGTH) {
+            throw new IllegalArgumentException("q must be at most " + MAX_SEARCH_QUERY_LENGTH + " characters");
+        }
+        String limitParam = request.getParameter("limit");
+        int limit;
+        try {
+            limit = limitParam != null ? Integer.parseInt(limitParam) : DEFAULT_SEARCH_LIMIT;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid limit");
+        }
+        if (limit < 1 || limit > MAX_SEARCH_LIMIT) {
+            throw new IllegalArgumentException("Limit must be between 1 and " + MAX_SEARCH_LIMIT);
+        }
+        
+        SearchIndex.Result result = db.buscarMapas(userId, query, limit, MAX_SEARCH_NODE_IDS);
+        
+        try (JsonStreamWriter out = HttpUtils.openJsonStream(response, HttpServletResponse.SC_OK)) {
+            out.beginObject()
+                .name("query").value(query)
+                .name("total").value(result.getTotal())
+                .name("results").beginArray();
+            for (SearchIndex.Hit hit : result.getHits()) {
+                out.beginObject()
+                    .name("id").value(hit.getMapaId())
+                    .name("titulo").value(hit.getTitulo())
+                    .name("score").value(hit.getScore())
+                    .name("node_ids").beginArray();
+                for (String nodeId : hit.getNodeIds()) {
+                    out.value(nodeId);
+                }
+                out.endArray().endObject();
+            }
+            out.endArray().endObject();
+        }
+    }
+    
+    /**
+     * Devuelve solo datos_json como cuerpo. Si el mapa está guardado comprimido y
+     * el cliente acepta deflate, se envían los bytes almacenados sin descomprimir.
+     */
+    private void sendMapData(HttpServletRequest request, HttpServletResponse response, DB db, int userId,
+            int mapaId) throws Exception {
+        MindMapRecord version = db.obtenerVersionMapa(mapaId, userId);
+        if (version == null) {
+            HttpUtils.sendErrorResponse(response, "Map not found", HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        response.setHeader("Vary", "Accept-Encoding");
+        // Con deflate el cuerpo puede salir tal como está guardado, no idéntico byte a
+        // byte al JSON: el ETag es débil (If-None-Match y If-Match lo siguen aceptando)
+        boolean deflate = HttpUtils.acceptsEncoding(request, "deflate");
+        String prefijo = deflate ? "W/\"m" : "\"m";
+        if (HttpUtils.checkNotModified(request, response, prefijo + mapaId + "-" + version.getVersion() + "-d\"",
+                version.getUltimaModificacion())) {
+            return;
+        }
+        
+        MindMapRecord mapa = db.obtenerMapaGuardado(mapaId, userId);
+        if (mapa == null) {
+            HttpUtils.sendErrorResponse(response, "Map not found", HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        response.setHeader("ETag", prefijo + mapaId + "-" + mapa.getVersion() + "-d\"");
+        response.setDateHeader("Last-Modified", mapa.getUltimaModificacion());
+        
+        byte[] comprimidos = mapa.getDatosComprimidos();
+        if (comprimidos != null && deflate) {
+            // El formato guardado es longitud + stream zlib, que es exactamente Content-Encoding: deflate
+            HttpUtils.sendJsonBytes(response, comprimidos, MapCompression.HEADER_LENGTH,
+                comprimidos.length - MapCompression.HEADER_LENGTH, "deflate", HttpServletResponse.SC_OK);
+        } else {
+            String datosJson = comprimidos != null
+                ? MapCompression.decompress(comprimidos) : mapa.getDatosJson();
+            byte[] body = datosJson.getBytes(StandardCharsets.UTF_8);
+            HttpUtils.sendJsonBytes(response, body, 0, body.length, null, HttpServletResponse.SC_OK);
+        }
+    }
+    
+    /**
+     * Devuelve solo los nodos de un mapa que caen en la ventana ?bbox=x1,y1,x2,y2
+     * y las aristas que los tocan, usando el índice espacial del mapa. Pensado
+     * para que el cliente cargue mapas grandes por partes según el viewport.
+     */
+    private void sendNodeWindow(HttpServletRequest request, HttpServletResponse response, DB db, int userId,
+            int mapaId) throws Exception {
+        double[] bbox = parseBbox(request.getParameter("bbox"));
+        
+        MindMapRecord version = db.obtenerVersionMapa(mapaId, userId);
+        if (version == null) {
+            HttpUtils.sendErrorResponse(response, "Map not found", HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        String etag = "\"m" + mapaId + "-" + version.getVersion() + "-b"
+            + Integer.toHexString(request.getParameter("bbox").hashCode()) + "\"";
+        if (HttpUtils.checkNotModified(request, response, etag, version.getUltimaModificacion())) {
+            return;
+        }
+        
+        SpatialIndex indice = db.obtenerIndiceEspacial(mapaId, userId);
+        if (indice == null) {
+            HttpUtils.sendErrorResponse(response, "Map not found", HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        SpatialIndex.Window ventana = indice.query(bbox[0], bbox[1], bbox[2], bbox[3]);
+        
+        try (JsonStreamWriter out = HttpUtils.openJsonStream(response, HttpServletResponse.SC_OK)) {
+            out.beginObject()
+                .name("id").value(mapaId)
+                .name("version").value(indice.getVersion())
+                .name("total_nodes").value(indice.getNodeCount())
+                .name("total_edges").value(indice.getEdgeCount())
+                .name("nodes").beginArray();
+            for (String nodo : ventana.getNodes()) {
+                out.rawValue(nodo);
+            }
+            out.endArray().name("edges").beginArray();
+            for (String arista : ventana.getEdges()) {
+                out.rawValue(arista);
+            }
+            out.endArray().endObject();
+        }
+    }
+    
+    private static double[] parseBbox(String param) {
+        if (param == null) {
+            throw new IllegalArgumentException("bbox parameter is required (x1,y1,x2,y2)");
+        }
+        String[] parts = param.split(",");
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("bbox must be x1,y1,x2,y2");
+        }
+        double[] bbox = new double[4];
+        for (int i = 0; i < 4; i++) {
+            try {
+                bbox[i] = Double.parseDouble(parts[i].trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("bbox must be x1,y1,x2,y2");
+            }
+            if (Double.isNaN(bbox[i]) || Double.isInfinite(bbox[i])) {
+                throw new IllegalArgumentException("bbox must be x1,y1,x2,y2");
+            }
+        }
+        double area = Math.abs(bbox[2] - bbox[0]) * Math.abs(bbox[3] - bbox[1]);
+        if (!(area <= MAX_BBOX_AREA)) {
+            throw new IllegalArgumentException("bbox area must be at most " + (long) MAX_BBOX_AREA);
+        }
+        return bbox;
+    }
+    
+    /**
+     * ETag fuerte de un mapa: cambia con cada actualización (columna version)
+     * y distingue la representación con datos_json incrustado.
+     */
+    private static String mapETag(MindMapRecord mapa, boolean rawJson) {
+        return "\"m" + mapa.getId() + "-" + mapa.getVersion() + (rawJson ? "-r" : "") + "\"";
+    }
+    
+    /**
+     * Con ?json=raw datos_json se incrusta como objeto JSON en lugar de como
+     * cadena escapada, evitando re-escaparlo en el servidor y parsearlo dos veces en el cliente.
+     */
+    private static boolean wantsRawJson(HttpServletRequest request) {
+        return "raw".equals(request.getParameter("json"));
+    }
+    
     @Override
     protected void doPost(HttpServletRequest request, HttpServletResponse response) 
             throws ServletException, IOException {
@@ -97,9 +396,15 @@ public class MindMapServlet extends HttpServlet {
             if (!handleAuthorization(request, response)) return;
             
             int userId = (int) request.getAttribute("userId");
-            JSONObject json = HttpUtils.parseJsonRequest(request);
-            String titulo = json.getString("titulo");
-            String datosJson = json.getString("datos_json");
+            
+            if ("/batch".equals(request.getPathInfo())) {
+                handleBatch(response, userId, HttpUtils.parseJsonRequest(request));
+                return;
+            }
+            
+            MapRequest body = HttpUtils.parseMapRequest(request);
+            String titulo = body.getTitulo();
+            String datosJson = body.getDatosJson();
             
             if (titulo == null || titulo.trim().isEmpty() || titulo.length() > 255) {
                 HttpUtils.sendErrorResponse(response, "Title must be between 1 and 255 characters", 
@@ -107,32 +412,53 @@ public class MindMapServlet extends HttpServlet {
                 return;
             }
             
+            JsonScanner.Summary resumen;
             try {
-                new JSONObject(datosJson);
+                resumen = JsonScanner.scan(datosJson);
             } catch (Exception e) {
                 HttpUtils.sendErrorResponse(response, "Invalid JSON data", HttpServletResponse.SC_BAD_REQUEST);
                 return;
             }
             
             DB db = (DB) getServletContext().getAttribute("db");
-            int mapaId = db.guardarMapaMental(userId, titulo, datosJson);
-            Map<String, Object> nuevoMapa = db.obtenerMapa(mapaId, userId);
+            int mapaId = db.guardarMapaMental(userId, titulo, datosJson, resumen);
+            MindMapRecord nuevoMapa = db.obtenerMapa(mapaId, userId);
             
             JSONObject responseJson = new JSONObject()
                 .put("id", mapaId)
                 .put("usuario_id", userId)
                 .put("titulo", titulo)
-                .put("fecha_creacion", ((Timestamp)nuevoMapa.get("fecha_creacion")).toString())
-                .put("ultima_modificacion", ((Timestamp)nuevoMapa.get("ultima_modificacion")).toString())
+                .put("fecha_creacion", MindMapRecord.formatFecha(nuevoMapa.getFechaCreacion()))
+                .put("ultima_modificacion", MindMapRecord.formatFecha(nuevoMapa.getUltimaModificacion()))
                 .put("message", "Map created successfully");
                 
             HttpUtils.sendJsonResponse(response, responseJson, HttpServletResponse.SC_CREATED);
+        } catch (HttpUtils.PayloadTooLargeException e) {
+            HttpUtils.sendErrorResponse(response, e.getMessage(), HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
         } catch (Exception e) {
             HttpUtils.sendErrorResponse(response, "Error creating map: " + e.getMessage(), 
                                       HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
         }
     }
     
+    /**
+     * Ejecuta un lote de operaciones create/update/delete en una sola transacción
+     * y devuelve el resultado de cada una en el orden recibido.
+     */
+    private void handleBatch(HttpServletResponse response, int userId, JSONObject json) throws Exception {
+        MapBatch lote;
+        try {
+            lote = MapBatch.parse(json);
+        } catch (IllegalArgumentException e) {
+            HttpUtils.sendErrorResponse(response, e.getMessage(), HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+        
+        DB db = (DB) getServletContext().getAttribute("db");
+        db.ejecutarLoteMapas(userId, lote);
+        HttpUtils.sendJsonResponse(response, lote.toJson(), HttpServletResponse.SC_OK);
+    }
+    
     @Override
     protected void doPut(HttpServletRequest request, HttpServletResponse response) 
             throws ServletException, IOException {
@@ -141,18 +467,18 @@ public class MindMapServlet extends HttpServlet {
             if (!handleAuthorization(request, response)) return;
 
             int userId = (int) request.getAttribute("userId");
-            JSONObject json = HttpUtils.parseJsonRequest(request);
+            MapRequest body = HttpUtils.parseMapRequest(request);
 
             // Validar que el ID esté presente
-            if (!json.has("id")) {
+            if (!body.hasId()) {
                 HttpUtils.sendErrorResponse(response, "Map ID is required for update", 
                                           HttpServletResponse.SC_BAD_REQUEST);
                 return;
             }
 
-            int mapaId = json.getInt("id");
-            String titulo = json.getString("titulo");
-            String datosJson = json.getString("datos_json");
+            int mapaId = body.getId();
+            String titulo = body.getTitulo();
+            String datosJson = body.getDatosJson();
 
             // Validaciones adicionales
             if (titulo == null || titulo.trim().isEmpty() || titulo.length() > 255) {
@@ -161,25 +487,26 @@ public class MindMapServlet extends HttpServlet {
                 return;
             }
 
+            JsonScanner.Summary resumen;
             try {
-                // Validar que datos_json sea JSON válido
-                new JSONObject(datosJson);
+                // Validar que datos_json sea JSON válido sin construir el árbol
+                resumen = JsonScanner.scan(datosJson);
             } catch (Exception e) {
                 HttpUtils.sendErrorResponse(response, "Invalid JSON data", HttpServletResponse.SC_BAD_REQUEST);
                 return;
             }
 
             DB db = (DB) getServletContext().getAttribute("db");
-            boolean actualizado = db.actualizarMapaMental(mapaId, userId, titulo, datosJson);
+            boolean actualizado = db.actualizarMapaMental(mapaId, userId, titulo, datosJson, resumen);
 
             if (actualizado) {
-                Map<String, Object> mapaActualizado = db.obtenerMapa(mapaId, userId);
+                MindMapRecord mapaActualizado = db.obtenerMapa(mapaId, userId);
 
                 JSONObject responseJson = new JSONObject()
                     .put("id", mapaId)
                     .put("usuario_id", userId)
                     .put("titulo", titulo)
-                    .put("ultima_modificacion", ((Timestamp)mapaActualizado.get("ultima_modificacion")).toString())
+                    .put("ultima_modificacion", MindMapRecord.formatFecha(mapaActualizado.getUltimaModificacion()))
                     .put("message", "Map updated successfully");
 
                 HttpUtils.sendJsonResponse(response, responseJson, HttpServletResponse.SC_OK);
@@ -187,6 +514,8 @@ public class MindMapServlet extends HttpServlet {
                 HttpUtils.sendErrorResponse(response, "Map not found or not owned by user", 
                                           HttpServletResponse.SC_NOT_FOUND);
             }
+        } catch (HttpUtils.PayloadTooLargeException e) {
+            HttpUtils.sendErrorResponse(response, e.getMessage(), HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
         } catch (Exception e) {
             // Mejor logging del error
             HttpUtils.sendErrorResponse(response, "Error updating map: " + e.getMessage(), 
@@ -194,6 +523,197 @@ public class MindMapServlet extends HttpServlet {
         }
     }
     
+    /**
+     * Atiende la petición en el ejecutor de BD y la completa por AsyncContext, de
+     * modo que una consulta lenta no retiene un hilo del conector de Tomcat.
+     */
+    @Override
+    protected void service(HttpServletRequest request, HttpServletResponse response) 
+            throws ServletException, IOException {
+        AsyncResponse.rethrowAbort(request);
+        if ("OPTIONS".equals(request.getMethod())) {
+            super.service(request, response);
+            return;
+        }
+        
+        // El listado se emite en streaming y dura lo que tarde el cliente en leerlo: tiene un límite propio
+        long timeout = isMapList(request) ? STREAM_TIMEOUT_MILLIS : ASYNC_TIMEOUT_MILLIS;
+        AsyncResponse async = AsyncResponse.start(request, response, timeout,
+            "Server busy, try again later", RETRY_AFTER_SECONDS);
+        try {
+            executor.execute(() -> {
+                if (!async.claim()) {
+                    // Venció el timeout en la cola y ya se respondió 503
+                    return;
+                }
+                Exception error = null;
+                try {
+                    dispatch(async.request(), async.response());
+                } catch (Exception e) {
+                    LOGGER.log(Level.SEVERE, "Error in MindMapServlet", e);
+                    error = e;
+                } finally {
+                    if (error != null) {
+                        async.fail(error);
+                    } else {
+                        async.finish();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            async.rejectBusy();
+        }
+    }
+    
+    private static boolean isMapList(HttpServletRequest request) {
+        String pathInfo = request.getPathInfo();
+        return "GET".equals(request.getMethod())
+            && (pathInfo == null || pathInfo.equals("/") || pathInfo.equals("/all"));
+    }
+    
+    private void dispatch(HttpServletRequest request, HttpServletResponse response) 
+            throws ServletException, IOException {
+        // HttpServlet no despacha PATCH
+        if ("PATCH".equals(request.getMethod())) {
+            doPatch(request, response);
+        } else {
+            super.service(request, response);
+        }
+    }
+    
+    /**
+     * Aplica un parche parcial a un mapa. Acepta JSON Patch (RFC 6902) con
+     * Content-Type application/json-patch+json, o {"version": n, "ops": [...]}
+     * con operaciones de nodo/arista. La versión esperada llega en If-Match o
+     * en el cuerpo; si el mapa cambió entretanto responde 409/412.
+     */
+    protected void doPatch(HttpServletRequest request, HttpServletResponse response) 
+            throws ServletException, IOException {
+        HttpUtils.setCorsHeaders(request, response);
+        try {
+            if (!handleAuthorization(request, response)) return;
+            
+            int userId = (int) request.getAttribute("userId");
+            String pathInfo = request.getPathInfo();
+            
+            if (pathInfo == null || pathInfo.equals("/")) {
+                HttpUtils.sendErrorResponse(response, "Map ID required", HttpServletResponse.SC_BAD_REQUEST);
+                return;
+            }
+            int mapaId = Integer.parseInt(pathInfo.substring(1));
+            
+            String body = HttpUtils.readRequestBody(request);
+            String contentType = request.getContentType();
+            boolean jsonPatch = contentType != null && contentType.startsWith("application/json-patch+json");
+            JSONArray ops;
+            int expectedVersion = -1;
+            if (jsonPatch) {
+                ops = new JSONArray(body);
+            } else {
+                JSONObject json = new JSONObject(body);
+                ops = json.getJSONArray("ops");
+                expectedVersion = json.optInt("version", -1);
+            }
+            
+            String ifMatch = request.getHeader("If-Match");
+            if (ifMatch != null) {
+                expectedVersion = versionFromETag(ifMatch, mapaId);
+                if (expectedVersion < 0) {
+                    HttpUtils.sendErrorResponse(response, "If-Match does not match this map", 
+                                              HttpServletResponse.SC_PRECONDITION_FAILED);
+                    return;
+                }
+            }
+            if (expectedVersion < 0) {
+                // 428 Precondition Required (RFC 6585): sin versión no hay control de concurrencia
+                HttpUtils.sendErrorResponse(response, "Map version required (If-Match header or version field)", 428);
+                return;
+            }
+            
+            // Comprobación previa solo con la versión: el documento se lee una vez, bloqueado, en DB
+            DB db = (DB) getServletContext().getAttribute("db");
+            MindMapRecord actual = db.obtenerVersionMapa(mapaId, userId);
+            if (actual == null) {
+                HttpUtils.sendErrorResponse(response, "Map not found or not owned by user", 
+                                          HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+            int currentVersion = actual.getVersion();
+            int conflictStatus = ifMatch != null 
+                ? HttpServletResponse.SC_PRECONDITION_FAILED : HttpServletResponse.SC_CONFLICT;
+            if (currentVersion != expectedVersion) {
+                HttpUtils.sendErrorResponse(response, "Map was modified (current version " + currentVersion + ")", 
+                                          conflictStatus);
+                return;
+            }
+            
+            // Las rutas del parche se calculan en DB sobre el documento bloqueado, no sobre esta lectura
+            final MapPatch[] patch = new MapPatch[1];
+            MindMapRecord escrito;
+            try {
+                escrito = db.aplicarParcheMapa(mapaId, userId, currentVersion, p -> {
+                    if (jsonPatch) {
+                        p.applyJsonPatch(ops);
+                    } else {
+                        p.applyOperations(ops);
+                    }
+                    patch[0] = p;
+                });
+            } catch (IllegalArgumentException | JSONException e) {
+                HttpUtils.sendErrorResponse(response, "Invalid patch: " + e.getMessage(), 
+                                          HttpServletResponse.SC_BAD_REQUEST);
+                return;
+            }
+            if (escrito == null) {
+                HttpUtils.sendErrorResponse(response, "Map was modified concurrently", conflictStatus);
+                return;
+            }
+            
+            // Versión y fecha leídas dentro de la transacción del parche, no después del commit
+            response.setHeader("ETag", mapETag(escrito, false));
+            JSONObject responseJson = new JSONObject()
+                .put("id", mapaId)
+                .put("version", escrito.getVersion())
+                .put("nodes_count", patch[0].getNodesCount())
+                .put("edges_count", patch[0].getEdgesCount())
+                .put("ultima_modificacion", MindMapRecord.formatFecha(escrito.getUltimaModificacion()))
+                .put("message", "Map patched successfully");
+            HttpUtils.sendJsonResponse(response, responseJson, HttpServletResponse.SC_OK);
+        } catch (NumberFormatException e) {
+            HttpUtils.sendErrorResponse(response, "Invalid map ID", HttpServletResponse.SC_BAD_REQUEST);
+        } catch (HttpUtils.PayloadTooLargeException e) {
+            HttpUtils.sendErrorResponse(response, e.getMessage(), HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+        } catch (JSONException e) {
+            HttpUtils.sendErrorResponse(response, "Invalid patch document", HttpServletResponse.SC_BAD_REQUEST);
+        } catch (Exception e) {
+            HttpUtils.sendErrorResponse(response, "Error patching map: " + e.getMessage(), 
+                                      HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+    }
+    
+    /**
+     * Extrae la versión de un ETag de mapa ("m{id}-{version}[-r]"); -1 si no corresponde al mapa.
+     */
+    private static int versionFromETag(String etag, int mapaId) {
+        String value = etag.trim();
+        if (value.startsWith("W/")) {
+            value = value.substring(2);
+        }
+        String prefix = "\"m" + mapaId + "-";
+        if (!value.startsWith(prefix) || !value.endsWith("\"")) {
+            return -1;
+        }
+        String rest = value.substring(prefix.length(), value.length() - 1);
+        if (rest.endsWith("-r")) {
+            rest = rest.substring(0, rest.length() - 2);
+        }
+        try {
+            return Integer.parseInt(rest);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+    
     @Override
     protected void doDelete(HttpServletRequest request, HttpServletResponse response) 
             throws ServletException, IOException {
@@ -0,0 +1,74 @@
+package api;
+
+import java.io.IOException;
+
+/**
+ * Resumen inmutable de un mapa para los listados con ?fields=summary: sin
+ * datos_json, con los contadores que mantiene DB al guardar.
+ */
+public final class MindMapSummary implements MindMapRow {
+    private final int id;
+    private final String titulo;
+    private final long fechaCreacion;
+    private final long ultimaModificacion;
+    private final int nodesCount;
+    private final int edgesCount;
+    private final long sizeBytes;
+
+    public MindMapSummary(int id, String titulo, long fechaCreacion, long ultimaModificacion, int nodesCount,
+                          int edgesCount, long sizeBytes) {
+        this.id = id;
+        this.titulo = titulo;
+        this.fechaCreacion = fechaCreacion;
+        this.ultimaModificacion = ultimaModificacion;
+        this.nodesCount = nodesCount;
+        this.edgesCount = edgesCount;
+        this.sizeBytes = sizeBytes;
+    }
+
+    @Override
+    public int getId() {
+        return id;
+    }
+
+    public String getTitulo() {
+        return titulo;
+    }
+
+    public long getFechaCreacion() {
+        return fechaCreacion;
+    }
+
+    @Override
+    public long getUltimaModificacion() {
+        return ultimaModificacion;
+    }
+
+    public int getNodesCount() {
+        return nodesCount;
+    }
+
+    public int getEdgesCount() {
+        return edgesCount;
+    }
+
+    public long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    /**
+     * Escribe id, titulo, fechas y contadores; rawJson no aplica porque no hay documento.
+     */
+    @Override
+    public void writeTo(JsonStreamWriter out, boolean rawJson) throws IOException {
+        out.beginObject()
+            .name("id").value(id)
+            .name("titulo").value(titulo)
+            .name("fecha_creacion").value(MindMapRecord.formatFecha(fechaCreacion))
+            .name("ultima_modificacion").value(MindMapRecord.formatFecha(ultimaModificacion))
+            .name("nodes_count").value(nodesCount)
+            .name("edges_count").value(edgesCount)
+            .name("size_bytes").value(sizeBytes)
+            .endObject();
+    }
+}
@@ -0,0 +1,339 @@
+package api;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Set;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Acceso a las tablas normalizadas map_nodes y map_edges, que guardan cada
+ * nodo y arista de un mapa como una fila junto al blob datos_json.
+ *
+ * Las columnas type, posición, label y source/target se extraen para poder
+ * consultarlas sin parsear el documento; data y el resto de campos del
+ * elemento (extra) se guardan como JSON. Un campo cuyo valor no se puede
+ * reconstruir desde su columna (un id numérico, una posición con otros campos,
+ * un data que no es un objeto...) se guarda también tal cual en extra, y al
+ * leer el valor de extra tiene prioridad sobre la columna. Los elementos sin
+ * id no tienen clave y no se normalizan, y un nodo sin position se lee con
+ * {x: 0, y: 0} (ver DB.reensamblarMapa).
+ *
+ * Todos los métodos reciben la conexión del llamador para participar en su
+ * transacción; la comprobación de propiedad del mapa la hace DB.
+ */
+final class NormalizedMapStore {
+    private static final String UPSERT_NODE =
+        "INSERT INTO map_nodes (mapa_id, node_id, orden, type, pos_x, pos_y, label, data, extra) " +
+        "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?) ON DUPLICATE KEY UPDATE " +
+        "type = VALUES(type), pos_x = VALUES(pos_x), pos_y = VALUES(pos_y), label = VALUES(label), " +
+        "data = VALUES(data), extra = VALUES(extra)";
+    private static final String UPSERT_EDGE =
+        "INSERT INTO map_edges (mapa_id, edge_id, orden, source, target, type, label, data, extra) " +
+        "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?) ON DUPLICATE KEY UPDATE " +
+        "source = VALUES(source), target = VALUES(target), type = VALUES(type), label = VALUES(label), " +
+        "data = VALUES(data), extra = VALUES(extra)";
+
+    private NormalizedMapStore() {
+    }
+
+    // ============ SINCRONIZACIÓN ============
+
+    /**
+     * Reemplaza todas las filas de un mapa por las del documento.
+     * @param conn Conexión (idealmente dentro de una transacción).
+     * @param mapaId ID del mapa.
+     * @param doc Documento React Flow.
+     * @throws SQLException Si hay error en la consulta SQL.
+     */
+    static void sincronizarCompleto(Connection conn, int mapaId, JSONObject doc) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM map_nodes WHERE mapa_id = ?")) {
+            stmt.setInt(1, mapaId);
+            stmt.executeUpdate();
+        }
+        try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM map_edges WHERE mapa_id = ?")) {
+            stmt.setInt(1, mapaId);
+            stmt.executeUpdate();
+        }
+
+        JSONArray nodes = doc.optJSONArray("nodes");
+        if (nodes != null && nodes.length() > 0) {
+            try (PreparedStatement stmt = conn.prepareStatement(UPSERT_NODE)) {
+                for (int i = 0; i < nodes.length(); i++) {
+                    JSONObject node = nodes.optJSONObject(i);
+                    if (node != null && node.has("id")) {
+                        bindNode(stmt, mapaId, i, node);
+                        stmt.addBatch();
+                    }
+                }
+                stmt.executeBatch();
+            }
+        }
+        JSONArray edges = doc.optJSONArray("edges");
+        if (edges != null && edges.length() > 0) {
+            try (PreparedStatement stmt = conn.prepareStatement(UPSERT_EDGE)) {
+                for (int i = 0; i < edges.length(); i++) {
+                    JSONObject edge = edges.optJSONObject(i);
+                    if (edge != null && edge.has("id")) {
+                        bindEdge(stmt, mapaId, i, edge);
+                        stmt.addBatch();
+                    }
+                }
+                stmt.executeBatch();
+            }
+        }
+    }
+
+    /**
+     * Sincroniza solo los nodos y aristas indicados: los que siguen en el
+     * documento se insertan o actualizan y los que ya no están se borran.
+     * Los nuevos se colocan al final del orden existente.
+     * @param conn Conexión (idealmente dentro de una transacción).
+     * @param mapaId ID del mapa.
+     * @param doc Documento resultante.
+     * @param nodos IDs de nodos tocados.
+     * @param aristas IDs de aristas tocadas.
+     * @throws SQLException Si hay error en la consulta SQL.
+     */
+    static void sincronizarParcial(Connection conn, int mapaId, JSONObject doc, Set<String> nodos, Set<String> aristas)
+            throws SQLException {
+        sincronizarColeccion(conn, mapaId, doc.optJSONArray("nodes"), nodos, "map_nodes", "node_id", UPSERT_NODE, true);
+        sincronizarColeccion(conn, mapaId, doc.optJSONArray("edges"), aristas, "map_edges", "edge_id", UPSERT_EDGE, false);
+    }
+
+    private static void sincronizarColeccion(Connection conn, int mapaId, JSONArray array, Set<String> ids,
+                                             String tabla, String columnaId, String upsert, boolean nodos)
+            throws SQLException {
+        if (ids.isEmpty()) {
+            return;
+        }
+        int siguienteOrden = 0;
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT COALESCE(MAX(orden), -1) + 1 FROM " + tabla + " WHERE mapa_id = ?")) {
+            stmt.setInt(1, mapaId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                siguienteOrden = rs.getInt(1);
+            }
+        }
+
+        try (PreparedStatement upsertStmt = conn.prepareStatement(upsert);
+             PreparedStatement deleteStmt = conn.prepareStatement(
+                 "DELETE FROM " + tabla + " WHERE mapa_id = ? AND " + columnaId + " = ?")) {
+            for (String id : ids) {
+                JSONObject element = find(array, id);
+                if (element != null) {
+                    if (nodos) {
+                        bindNode(upsertStmt, mapaId, siguienteOrden++, element);
+                    } else {
+                        bindEdge(upsertStmt, mapaId, siguienteOrden++, element);
+                    }
+                    upsertStmt.addBatch();
+                } else {
+                    deleteStmt.setInt(1, mapaId);
+                    deleteStmt.setString(2, id);
+                    deleteStmt.addBatch();
+                }
+            }
+            upsertStmt.executeBatch();
+            deleteStmt.executeBatch();
+        }
+    }
+
+    // ============ LECTURA ============
+
+    /**
+     * Lee un nodo por id.
+     * @return Nodo reconstruido o null si no existe.
+     * @throws SQLException Si hay error en la consulta SQL.
+     */
+    static JSONObject leerNodo(Connection conn, int mapaId, String nodeId) throws SQLException {
+        String sql = "SELECT node_id, type, pos_x, pos_y, data, extra FROM map_nodes WHERE mapa_id = ? AND node_id = ?";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, mapaId);
+            stmt.setString(2, nodeId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? nodeFromRow(rs) : null;
+            }
+        }
+    }
+
+    /**
+     * Lee una arista por id.
+     * @return Arista reconstruida o null si no existe.
+     * @throws SQLException Si hay error en la consulta SQL.
+     */
+    static JSONObject leerArista(Connection conn, int mapaId, String edgeId) throws SQLException {
+        String sql = "SELECT edge_id, source, target, type, data, extra FROM map_edges WHERE mapa_id = ? AND edge_id = ?";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, mapaId);
+            stmt.setString(2, edgeId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? edgeFromRow(rs) : null;
+            }
+        }
+    }
+
+    /**
+     * Reconstruye el documento {"nodes": [...], "edges": [...]} a partir de las
+     * filas, escribiéndolo elemento a elemento sin materializarlo.
+     * @throws SQLException Si hay error en la consulta SQL.
+     * @throws IOException Si falla la escritura.
+     */
+    static void escribirDocumento(Connection conn, int mapaId, JsonStreamWriter out) throws SQLException, IOException {
+        out.beginObject().name("nodes").beginArray();
+        String sqlNodos = "SELECT node_id, type, pos_x, pos_y, data, extra FROM map_nodes WHERE mapa_id = ? ORDER BY orden";
+        try (PreparedStatement stmt = conn.prepareStatement(sqlNodos)) {
+            stmt.setInt(1, mapaId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    out.rawValue(nodeFromRow(rs).toString());
+                }
+            }
+        }
+        out.endArray().name("edges").beginArray();
+        String sqlAristas = "SELECT edge_id, source, target, type, data, extra FROM map_edges WHERE mapa_id = ? ORDER BY orden";
+        try (PreparedStatement stmt = conn.prepareStatement(sqlAristas)) {
+            stmt.setInt(1, mapaId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    out.rawValue(edgeFromRow(rs).toString());
+                }
+            }
+        }
+        out.endArray().endObject();
+    }
+
+    // ============ CONVERSIÓN FILA <-> JSON ============
+
+    private static void bindNode(PreparedStatement stmt, int mapaId, int orden, JSONObject node) throws SQLException {
+        JSONObject position = node.optJSONObject("position");
+        JSONObject data = node.optJSONObject("data");
+        stmt.setInt(1, mapaId);
+        stmt.setString(2, String.valueOf(node.get("id")));
+        stmt.setInt(3, orden);
+        stmt.setString(4, node.optString("type", null));
+        stmt.setDouble(5, position != null ? position.optDouble("x", 0) : 0);
+        stmt.setDouble(6, position != null ? position.optDouble("y", 0) : 0);
+        stmt.setString(7, data != null ? truncate(data.optString("label", null)) : null);
+        stmt.setString(8, data != null ? data.toString() : null);
+        stmt.setString(9, extra(node, "id", "type", "position", "data"));
+    }
+
+    private static void bindEdge(PreparedStatement stmt, int mapaId, int orden, JSONObject edge) throws SQLException {
+        JSONObject data = edge.optJSONObject("data");
+        stmt.setInt(1, mapaId);
+        stmt.setString(2, String.valueOf(edge.get("id")));
+        stmt.setInt(3, orden);
+        stmt.setString(4, edge.optString("source", null));
+        stmt.setString(5, edge.optString("target", null));
+        stmt.setString(6, edge.optString("type", null));
+        String label = edge.optString("label", null);
+        stmt.setString(7, truncate(label != null ? label : data != null ? data.optString("label", null) : null));
+        stmt.setString(8, data != null ? data.toString() : null);
+        stmt.setString(9, extra(edge, "id", "source", "target", "type", "data"));
+    }
+
+    private static JSONObject nodeFromRow(ResultSet rs) throws SQLException {
+        JSONObject node = parseExtra(rs.getString("extra"));
+        // Lo que está en extra es el valor original y no se pisa con la columna
+        if (!node.has("id")) {
+            node.put("id", rs.getString("node_id"));
+        }
+        if (!node.has("type")) {
+            node.put("type", rs.getString("type"));
+        }
+        if (!node.has("position")) {
+            node.put("position", new JSONObject().put("x", rs.getDouble("pos_x")).put("y", rs.getDouble("pos_y")));
+        }
+        String data = rs.getString("data");
+        if (data != null && !node.has("data")) {
+            node.put("data", new RawJson(data));
+        }
+        return node;
+    }
+
+    private static JSONObject edgeFromRow(ResultSet rs) throws SQLException {
+        JSONObject edge = parseExtra(rs.getString("extra"));
+        if (!edge.has("id")) {
+            edge.put("id", rs.getString("edge_id"));
+        }
+        if (!edge.has("source")) {
+            edge.put("source", rs.getString("source"));
+        }
+        if (!edge.has("target")) {
+            edge.put("target", rs.getString("target"));
+        }
+        if (!edge.has("type")) {
+            edge.put("type", rs.getString("type"));
+        }
+        String data = rs.getString("data");
+        if (data != null && !edge.has("data")) {
+            edge.put("data", new RawJson(data));
+        }
+        return edge;
+    }
+
+    /**
+     * Serializa los campos del elemento que no se pueden reconstruir desde su
+     * columna: los que no tienen columna y los que la tienen pero con un valor
+     * que la columna no representa tal cual.
+     */
+    private static String extra(JSONObject element, String... columnas) {
+        JSONObject extra = new JSONObject();
+        outer:
+        for (String key : element.keySet()) {
+            Object value = element.get(key);
+            for (String columna : columnas) {
+                if (columna.equals(key) && cabeEnColumna(key, value)) {
+                    continue outer;
+                }
+            }
+            extra.put(key, value);
+        }
+        return extra.isEmpty() ? null : extra.toString();
+    }
+
+    /**
+     * Indica si nodeFromRow/edgeFromRow devuelven el mismo valor a partir de la columna.
+     */
+    private static boolean cabeEnColumna(String key, Object value) {
+        switch (key) {
+            case "position":
+                if (!(value instanceof JSONObject)) {
+                    return false;
+                }
+                JSONObject position = (JSONObject) value;
+                return position.length() == 2 && position.opt("x") instanceof Number
+                    && position.opt("y") instanceof Number;
+            case "data":
+                return value instanceof JSONObject;
+            default:
+                return value instanceof String;
+        }
+    }
+
+    private static JSONObject parseExtra(String extra) {
+        return extra != null ? new JSONObject(extra) : new JSONObject();
+    }
+
+    private static JSONObject find(JSONArray array, String id) {
+        if (array == null) {
+            return null;
+        }
+        for (int i = 0; i < array.length(); i++) {
+            JSONObject element = array.optJSONObject(i);
+            if (element != null && id.equals(element.optString("id", null))) {
+                return element;
+            }
+        }
+        return null;
+    }
+
+    private static String truncate(String label) {
+        return label != null && label.length() > 255 ? label.substring(0, 255) : label;
+    }
+}
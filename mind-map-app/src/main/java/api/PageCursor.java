@@ -0,0 +1,57 @@
+package api;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Base64;
+
+/**
+ * Cursor opaco de paginación keyset sobre (ultima_modificacion, id).
+ * Se serializa como base64url de "millis:id" para que el cliente lo devuelva tal cual.
+ */
+public final class PageCursor {
+    private final Timestamp ultimaModificacion;
+    private final int id;
+
+    public PageCursor(Timestamp ultimaModificacion, int id) {
+        this.ultimaModificacion = ultimaModificacion;
+        this.id = id;
+    }
+
+    public Timestamp getUltimaModificacion() {
+        return ultimaModificacion;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Codifica el cursor para enviarlo al cliente.
+     * @return Cadena base64url sin relleno.
+     */
+    public String encode() {
+        String raw = ultimaModificacion.getTime() + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Decodifica un cursor recibido del cliente.
+     * @param token Cadena producida por {@link #encode()}.
+     * @return Cursor decodificado.
+     * @throws IllegalArgumentException Si el cursor no es válido.
+     */
+    public static PageCursor decode(String token) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.US_ASCII);
+            int sep = raw.indexOf(':');
+            if (sep <= 0) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            long millis = Long.parseLong(raw.substring(0, sep));
+            int id = Integer.parseInt(raw.substring(sep + 1));
+            return new PageCursor(new Timestamp(millis), id);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor", e);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package api;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.mindrot.jbcrypt.BCrypt;
+
+/**
+ * Hash y verificación de contraseñas con bcrypt en un pool dedicado y acotado.
+ *
+ * bcrypt cuesta decenas de milisegundos de CPU por llamada; ejecutarlo en los
+ * hilos de Tomcat dejaría sin hilos al resto de la API durante un pico de
+ * logins. Cuando la cola se llena las tareas se rechazan para que el servlet
+ * responda 503 en lugar de acumular latencia.
+ */
+public class PasswordHasher {
+    private final int cost;
+    private final ThreadPoolExecutor executor;
+    private final String dummyHash;
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param threads Hilos del pool.
+     * @param queueSize Tareas que pueden esperar antes de rechazar.
+     * @param cost Factor de coste de bcrypt (log2 de las iteraciones).
+     */
+    public PasswordHasher(int threads, int queueSize, int cost) {
+        this.cost = cost;
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueSize), r -> {
+                Thread t = new Thread(r, "password-hasher-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        // Hash de referencia para que un email inexistente cueste lo mismo que uno válido
+        this.dummyHash = BCrypt.hashpw("dummy", BCrypt.gensalt(cost));
+    }
+
+    /**
+     * Encola una tarea de autenticación.
+     * @param task Tarea a ejecutar en el pool.
+     * @throws RejectedExecutionException Si la cola está llena o el pool cerrado.
+     */
+    public void execute(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Calcula el hash bcrypt de una contraseña.
+     * @param password Contraseña en claro.
+     * @return Hash con sal y coste incluidos.
+     */
+    public String hash(String password) {
+        return BCrypt.hashpw(password, BCrypt.gensalt(cost));
+    }
+
+    /**
+     * Comprueba una contraseña contra el valor guardado. Los valores que no son
+     * hashes bcrypt se tratan como contraseñas antiguas guardadas en claro.
+     * @param password Contraseña en claro.
+     * @param stored Valor de password_hash, o null si el usuario no existe.
+     * @return true si coincide.
+     */
+    public boolean verify(String password, String stored) {
+        if (stored == null) {
+            BCrypt.checkpw(password, dummyHash);
+            return false;
+        }
+        if (!isBcrypt(stored)) {
+            return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8),
+                stored.getBytes(StandardCharsets.UTF_8));
+        }
+        try {
+            return BCrypt.checkpw(password, stored);
+        } catch (IllegalArgumentException e) {
+            // Hash corrupto
+            return false;
+        }
+    }
+
+    /**
+     * Indica si un valor guardado debe re-hashearse: contraseña en claro o coste distinto del actual.
+     * @param stored Valor de password_hash.
+     * @return true si conviene actualizarlo tras un login correcto.
+     */
+    public boolean needsRehash(String stored) {
+        if (!isBcrypt(stored)) {
+            return true;
+        }
+        // Formato $2a$NN$...
+        return stored.length() < 7 || Integer.parseInt(stored.substring(4, 6)) != cost;
+    }
+
+    private static boolean isBcrypt(String stored) {
+        return stored.startsWith("$2a$") || stored.startsWith("$2b$") || stored.startsWith("$2y$");
+    }
+
+    /**
+     * Detiene el pool; las tareas encoladas se descartan.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    // ============ MÉTRICAS ============
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public int getCost() {
+        return cost;
+    }
+}
@@ -0,0 +1,239 @@
+package api;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Limita las peticiones a la API con token buckets por clave y globales.
+ *
+ * Hay tres presupuestos independientes: auth (/api/auth/*, siempre por IP para
+ * frenar ataques de credenciales), lecturas (GET/HEAD) y escrituras (POST, PUT,
+ * PATCH, DELETE). El resto de categorías se cuenta por usuario si la petición
+ * trae un JWT válido y por IP si no. Cada categoría tiene además un cubo global
+ * que protege el pool de conexiones aunque el tráfico venga de muchas claves.
+ *
+ * Los cubos que llevan tiempo llenos se eliminan periódicamente, así que la
+ * memoria depende de los clientes activos y no de todos los que han pasado.
+ * Si aun así se llega a ratelimit.maxKeys, las claves nuevas solo cuentan
+ * contra el cubo global hasta el siguiente barrido.
+ */
+public class RateLimitFilter implements Filter {
+    private static final Logger LOGGER = Logger.getLogger(RateLimitFilter.class.getName());
+
+    // Configuración (sobrescribible con -Dratelimit.*)
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("ratelimit.enabled", "true"));
+    private static final boolean TRUST_FORWARDED_FOR = Boolean.getBoolean("ratelimit.trustForwardedFor");
+    private static final int MAX_KEYS = Integer.getInteger("ratelimit.maxKeys", 100000);
+    private static final long IDLE_MILLIS = Long.getLong("ratelimit.idleMillis", 5 * 60 * 1000L);
+    private static final long SWEEP_MILLIS = Long.getLong("ratelimit.sweepMillis", 60 * 1000L);
+
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+
+    /**
+     * Presupuesto de cada tipo de petición: por clave y global.
+     */
+    public enum Category {
+        AUTH(10, 0.5, 200, 100),
+        READ(200, 50, 5000, 2000),
+        WRITE(60, 10, 1000, 500);
+
+        final int capacity;
+        final double refillPerSecond;
+        final int globalCapacity;
+        final double globalRefillPerSecond;
+
+        Category(int capacity, double refillPerSecond, int globalCapacity, double globalRefillPerSecond) {
+            String prefix = "ratelimit." + name().toLowerCase();
+            this.capacity = Integer.getInteger(prefix + ".capacity", capacity);
+            this.refillPerSecond = doubleProperty(prefix + ".refillPerSecond", refillPerSecond);
+            this.globalCapacity = Integer.getInteger("ratelimit.global." + name().toLowerCase() + ".capacity", globalCapacity);
+            this.globalRefillPerSecond = doubleProperty("ratelimit.global." + name().toLowerCase() + ".refillPerSecond",
+                globalRefillPerSecond);
+        }
+    }
+
+    private final Map<Category, TokenBucket> global = new HashMap<>();
+    private final Map<Category, LongAdder> keyRejected = new HashMap<>();
+    private final ConcurrentHashMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong overflowGlobalOnly = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private ScheduledExecutorService sweeper;
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+        for (Category category : Category.values()) {
+            global.put(category, new TokenBucket(category.globalCapacity, category.globalRefillPerSecond));
+            keyRejected.put(category, new LongAdder());
+        }
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "rate-limit-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(this::expireIdle, SWEEP_MILLIS, SWEEP_MILLIS, TimeUnit.MILLISECONDS);
+        filterConfig.getServletContext().setAttribute("rateLimiter", this);
+        LOGGER.log(Level.INFO, "Rate limiter {0} (max {1} keys)", new Object[]{ENABLED ? "enabled" : "disabled", MAX_KEYS});
+    }
+
+    @Override
+    public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain)
+            throws IOException, ServletException {
+
+        HttpServletRequest request = (HttpServletRequest) servletRequest;
+        HttpServletResponse response = (HttpServletResponse) servletResponse;
+
+        Category category = categorize(request);
+        if (!ENABLED || category == null) {
+            chain.doFilter(servletRequest, servletResponse);
+            return;
+        }
+
+        long now = System.nanoTime();
+        // Primero el cubo de la clave: un cliente que ya se pasó no consume presupuesto global
+        long wait = bucketFor(category, key(request, category), now);
+        if (wait > 0) {
+            keyRejected.get(category).increment();
+        } else {
+            wait = global.get(category).tryAcquire(now);
+        }
+        if (wait > 0) {
+            long seconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(wait + 999_999_999L));
+            response.setHeader("Retry-After", String.valueOf(seconds));
+            HttpUtils.sendErrorResponse(response, "Too many requests", SC_TOO_MANY_REQUESTS);
+            return;
+        }
+        chain.doFilter(servletRequest, servletResponse);
+    }
+
+    @Override
+    public void destroy() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+    }
+
+    private static Category categorize(HttpServletRequest request) {
+        String method = request.getMethod();
+        if ("OPTIONS".equals(method)) {
+            return null;
+        }
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        if (path.startsWith("/api/auth/")) {
+            return Category.AUTH;
+        }
+        return "GET".equals(method) || "HEAD".equals(method) ? Category.READ : Category.WRITE;
+    }
+
+    private static String key(HttpServletRequest request, Category category) {
+        if (category != Category.AUTH) {
+            Integer userId = AuthServlet.peekUserId(request);
+            if (userId != null) {
+                return category.name() + "|user:" + userId;
+            }
+        }
+        return category.name() + "|ip:" + clientIp(request);
+    }
+
+    private static String clientIp(HttpServletRequest request) {
+        if (TRUST_FORWARDED_FOR) {
+            String forwarded = request.getHeader("X-Forwarded-For");
+            if (forwarded != null && !forwarded.isEmpty()) {
+                int comma = forwarded.indexOf(',');
+                return (comma >= 0 ? forwarded.substring(0, comma) : forwarded).trim();
+            }
+        }
+        return request.getRemoteAddr();
+    }
+
+    private long bucketFor(Category category, String key, long now) {
+        TokenBucket bucket = buckets.get(key);
+        if (bucket == null) {
+            if (buckets.size() >= MAX_KEYS) {
+                // Sin sitio para más claves: la petición solo pasa por el cubo global hasta
+                // que el barrido libere sitio. Rechazarla dejaría fuera a todo cliente nuevo
+                // en cuanto alguien rote IPs, y barrer aquí recorrería todos los cubos en
+                // el hilo de la petición.
+                overflowGlobalOnly.incrementAndGet();
+                return 0;
+            }
+            bucket = buckets.computeIfAbsent(key, k -> new TokenBucket(category.capacity, category.refillPerSecond));
+        }
+        return bucket.tryAcquire(now);
+    }
+
+    /**
+     * Elimina los cubos que llevan IDLE_MILLIS llenos: recrearlos da el mismo estado.
+     */
+    void expireIdle() {
+        long now = System.nanoTime();
+        long idleNanos = TimeUnit.MILLISECONDS.toNanos(IDLE_MILLIS);
+        Iterator<Map.Entry<String, TokenBucket>> it = buckets.entrySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().getValue().isIdle(now, idleNanos)) {
+                it.remove();
+                expired.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Contadores de cada clave activa (p. ej. "WRITE|user:42").
+     * @return Mapa clave -> {allowed, rejected}.
+     */
+    public Map<String, Map<String, Long>> getKeyStats() {
+        Map<String, Map<String, Long>> stats = new LinkedHashMap<>();
+        for (Map.Entry<String, TokenBucket> entry : buckets.entrySet()) {
+            Map<String, Long> counters = new LinkedHashMap<>();
+            counters.put("allowed", entry.getValue().getAllowed());
+            counters.put("rejected", entry.getValue().getRejected());
+            stats.put(entry.getKey(), counters);
+        }
+        return stats;
+    }
+
+    /**
+     * Estadísticas globales del limitador.
+     * @return Mapa con claves activas, expiradas, peticiones limitadas solo por el cubo global
+     *         por falta de sitio y, por categoría,
+     *         peticiones permitidas y rechazadas por clave y por el cubo global.
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("active_keys", buckets.size());
+        stats.put("expired_keys", expired.get());
+        stats.put("overflow_global_only", overflowGlobalOnly.get());
+        for (Category category : Category.values()) {
+            TokenBucket bucket = global.get(category);
+            String prefix = category.name().toLowerCase();
+            stats.put(prefix + "_allowed", bucket.getAllowed());
+            stats.put(prefix + "_key_rejected", keyRejected.get(category).sum());
+            stats.put(prefix + "_global_rejected", bucket.getRejected());
+        }
+        return stats;
+    }
+
+    private static double doubleProperty(String name, double defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
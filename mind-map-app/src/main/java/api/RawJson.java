@@ -0,0 +1,31 @@
+package api;
+
+import org.json.JSONString;
+
+/**
+ * Valor JSON ya serializado que se incrusta tal cual en la respuesta.
+ *
+ * Al implementar {@link JSONString}, {@code JSONObject.toString()} lo escribe
+ * sin escaparlo ni volver a parsearlo. Solo debe envolver texto validado
+ * (por ejemplo con {@link JsonScanner}) o leído de la columna JSON de MySQL.
+ */
+public final class RawJson implements JSONString {
+    private final String json;
+
+    public RawJson(String json) {
+        if (json == null) {
+            throw new IllegalArgumentException("Raw JSON cannot be null");
+        }
+        this.json = json;
+    }
+
+    @Override
+    public String toJSONString() {
+        return json;
+    }
+
+    @Override
+    public String toString() {
+        return json;
+    }
+}
@@ -0,0 +1,594 @@
+package api;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Índice invertido en memoria sobre los títulos y las etiquetas de nodo
+ * (nodes[].data.label) de los mapas de cada usuario.
+ *
+ * El índice de un usuario se construye la primera vez que busca, recorriendo
+ * sus mapas una sola vez, y desde entonces se mantiene con cada escritura: una
+ * búsqueda solo consulta el diccionario de términos y sus listas de
+ * apariciones, así que su coste depende de los términos y no del tamaño de los
+ * datos_json guardados. MySQL sigue siendo la fuente de verdad; los índices se
+ * guardan en un LRU por número de usuarios y uno expulsado o invalidado se
+ * reconstruye en la siguiente búsqueda.
+ *
+ * Las escrituras hechas por otro nodo no pasan por este índice, así que cada
+ * búsqueda puede recibir el estado de la colección en la base de datos (el
+ * mismo de DB.obtenerEstadoColeccion): si no coincide con el de los mapas
+ * indexados, el índice se descarta y se reconstruye antes de responder.
+ */
+public class SearchIndex {
+    private static final int MAX_TERM_LENGTH = 64;
+    // Los términos más cortos se buscan exactos; a partir de aquí, también como prefijo
+    private static final int MIN_PREFIX_LENGTH = 2;
+    private static final int MAX_QUERY_TERMS = 8;
+    private static final int TITLE_WEIGHT = 3;
+
+    private final int maxUsers;
+
+    // accessOrder=true: el primer elemento es el usuario que lleva más tiempo sin buscar ni escribir
+    private final LinkedHashMap<Integer, UserIndex> users;
+
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong builds = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong stale = new AtomicLong();
+
+    /**
+     * Fuente de los mapas de un usuario para construir su índice.
+     */
+    public interface Loader {
+        void load(int usuarioId, DB.RowHandler handler) throws SQLException, IOException;
+    }
+
+    /**
+     * Estado de los mapas de un usuario: total, suma de IDs, suma de versiones y
+     * XOR de CRC32("id:version"), calculados igual que en DB.obtenerEstadoColeccion.
+     */
+    public static final class State {
+        final long total;
+        final long idSum;
+        final long versionSum;
+        final long digest;
+
+        public State(long total, long idSum, long versionSum, long digest) {
+            this.total = total;
+            this.idSum = idSum;
+            this.versionSum = versionSum;
+            this.digest = digest;
+        }
+    }
+
+    /**
+     * @param maxUsers Número máximo de usuarios con índice en memoria.
+     */
+    public SearchIndex(int maxUsers) {
+        this.maxUsers = maxUsers;
+        this.users = new LinkedHashMap<Integer, UserIndex>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, UserIndex> eldest) {
+                if (size() > SearchIndex.this.maxUsers) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Busca mapas que contengan todos los términos de la consulta, en el título o
+     * en alguna etiqueta de nodo. Cada término encaja también como prefijo. Los
+     * resultados se ordenan por puntuación (apariciones ponderadas por la rareza
+     * del término, con más peso en el título).
+     * @param usuarioId ID del usuario.
+     * @param query Texto de la búsqueda.
+     * @param limit Máximo de mapas a devolver.
+     * @param maxNodeIds Máximo de IDs de nodo por mapa.
+     * @param loader Fuente de los mapas si el índice del usuario no está cargado.
+     * @return Resultados y total de mapas que encajan.
+     * @throws SQLException Si falla la construcción del índice.
+     */
+    public Result search(int usuarioId, String query, int limit, int maxNodeIds, Loader loader) throws SQLException {
+        return search(usuarioId, query, limit, maxNodeIds, loader, null);
+    }
+
+    /**
+     * Igual que {@link #search(int, String, int, int, Loader)}, pero antes de
+     * responder comprueba que el índice cargado corresponde al estado actual de
+     * la base de datos y, si no, lo reconstruye.
+     * @param current Estado de la colección en la base de datos, o null para no comprobarlo.
+     */
+    public Result search(int usuarioId, String query, int limit, int maxNodeIds, Loader loader, State current)
+            throws SQLException {
+        queries.incrementAndGet();
+        List<String> terms = new ArrayList<>(new LinkedHashSet<>(tokenize(query)));
+        if (terms.size() > MAX_QUERY_TERMS) {
+            terms = terms.subList(0, MAX_QUERY_TERMS);
+        }
+        if (terms.isEmpty()) {
+            return new Result(Collections.<Hit>emptyList(), 0);
+        }
+        return acquire(usuarioId, loader, current).search(terms, limit, maxNodeIds);
+    }
+
+    /**
+     * Indexa la versión escrita de un mapa si el índice de su dueño está cargado.
+     * @param usuarioId ID del dueño.
+     * @param mapaId ID del mapa.
+     * @param version Versión escrita, o 0 si no se conoce (se aplica siempre).
+     * @param titulo Título del mapa.
+     * @param datosJson Documento del mapa.
+     */
+    public void update(int usuarioId, int mapaId, int version, String titulo, String datosJson) {
+        UserIndex index;
+        synchronized (this) {
+            index = users.get(usuarioId);
+        }
+        if (index != null) {
+            index.put(mapaId, version, titulo, analyze(titulo, datosJson), false);
+        }
+    }
+
+    /**
+     * Quita un mapa eliminado del índice de su dueño.
+     * @param usuarioId ID del dueño.
+     * @param mapaId ID del mapa.
+     */
+    public void remove(int usuarioId, int mapaId) {
+        UserIndex index;
+        synchronized (this) {
+            index = users.get(usuarioId);
+        }
+        if (index != null) {
+            index.remove(mapaId);
+        }
+    }
+
+    /**
+     * Descarta el índice de un usuario; se reconstruirá en su próxima búsqueda.
+     * @param usuarioId ID del usuario.
+     */
+    public synchronized void invalidate(int usuarioId) {
+        users.remove(usuarioId);
+    }
+
+    public long getQueryCount() {
+        return queries.get();
+    }
+
+    public long getBuildCount() {
+        return builds.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /** @return Índices descartados porque no coincidían con la base de datos. */
+    public long getStaleCount() {
+        return stale.get();
+    }
+
+    public synchronized int getUserCount() {
+        return users.size();
+    }
+
+    /**
+     * Devuelve el índice del usuario, construyéndolo si no está. Si otra petición
+     * lo está construyendo se espera a que termine en lugar de recorrer los mapas dos veces.
+     * Un índice ya construido que no coincide con current se descarta una vez; el
+     * que se construye después se usa sin volver a comprobarlo, porque puede
+     * incluir escrituras posteriores a la lectura de current.
+     */
+    private UserIndex acquire(int usuarioId, Loader loader, State current) throws SQLException {
+        while (true) {
+            UserIndex index;
+            boolean builder = false;
+            synchronized (this) {
+                index = users.get(usuarioId);
+                if (index == null) {
+                    index = new UserIndex();
+                    users.put(usuarioId, index);
+                    builder = true;
+                }
+            }
+            if (builder) {
+                build(usuarioId, index, loader);
+                return index;
+            }
+            try {
+                index.ready.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("❌ Búsqueda interrumpida esperando el índice del usuario " + usuarioId, e);
+            }
+            if (!index.failed) {
+                if (current == null || index.matches(current)) {
+                    return index;
+                }
+                stale.incrementAndGet();
+                current = null;
+                synchronized (this) {
+                    users.remove(usuarioId, index);
+                }
+                continue;
+            }
+            // La construcción falló y el índice ya se quitó: se vuelve a intentar
+        }
+    }
+
+    private void build(int usuarioId, UserIndex index, Loader loader) throws SQLException {
+        try {
+            loader.load(usuarioId, fila -> {
+                MindMapRecord mapa = ((MindMapRecord) fila).descomprimir();
+                index.put(mapa.getId(), mapa.getVersion(), mapa.getTitulo(),
+                    analyze(mapa.getTitulo(), mapa.getDatosJson()), true);
+            });
+            index.finishBuild();
+            builds.incrementAndGet();
+        } catch (SQLException | IOException | RuntimeException e) {
+            index.failed = true;
+            synchronized (this) {
+                users.remove(usuarioId, index);
+            }
+            if (e instanceof SQLException) {
+                throw (SQLException) e;
+            }
+            throw new SQLException("❌ Error al construir el índice de búsqueda del usuario " + usuarioId, e);
+        } finally {
+            index.ready.countDown();
+        }
+    }
+
+    /**
+     * CRC32 de "id:version", como CRC32(CONCAT(id, ':', version)) en MySQL.
+     */
+    static long digest(int mapaId, int version) {
+        CRC32 crc = new CRC32();
+        crc.update((mapaId + ":" + version).getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+
+    // ==================== ANÁLISIS ====================
+
+    /**
+     * Separa un texto en términos: minúsculas, sin acentos y cortado en todo lo
+     * que no sea letra o dígito.
+     * @param text Texto a analizar (puede ser null).
+     * @return Términos en orden de aparición, con repeticiones.
+     */
+    static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return terms;
+        }
+        String folded = Normalizer.normalize(text, Normalizer.Form.NFD).toLowerCase(Locale.ROOT);
+        StringBuilder term = new StringBuilder();
+        for (int i = 0, n = folded.length(); i <= n; ) {
+            int cp = i < n ? folded.codePointAt(i) : ' ';
+            if (Character.getType(cp) == Character.NON_SPACING_MARK) {
+                // Acento separado por NFD
+            } else if (Character.isLetterOrDigit(cp)) {
+                term.appendCodePoint(cp);
+            } else if (term.length() > 0) {
+                if (term.length() <= MAX_TERM_LENGTH) {
+                    terms.add(term.toString());
+                }
+                term.setLength(0);
+            }
+            i += i < n ? Character.charCount(cp) : 1;
+        }
+        return terms;
+    }
+
+    /**
+     * Extrae los términos de un mapa con sus apariciones en el título y los nodos
+     * que los contienen. Si datos_json no es válido se indexa solo el título.
+     */
+    private static Map<String, Posting> analyze(String titulo, String datosJson) {
+        Map<String, Integer> titleHits = new HashMap<>();
+        for (String term : tokenize(titulo)) {
+            titleHits.merge(term, 1, Integer::sum);
+        }
+        Map<String, Set<String>> nodeIds = new HashMap<>();
+        if (datosJson != null) {
+            try {
+                JSONArray nodes = new JSONObject(datosJson).optJSONArray("nodes");
+                for (int i = 0; nodes != null && i < nodes.length(); i++) {
+                    JSONObject node = nodes.optJSONObject(i);
+                    String id = node != null ? node.optString("id", null) : null;
+                    JSONObject data = node != null ? node.optJSONObject("data") : null;
+                    if (id == null || data == null) {
+                        continue;
+                    }
+                    for (String term : tokenize(data.optString("label", null))) {
+                        nodeIds.computeIfAbsent(term, k -> new LinkedHashSet<>()).add(id);
+                    }
+                }
+            } catch (JSONException e) {
+                // Documento inválido: solo cuenta el título
+            }
+        }
+        Map<String, Posting> postings = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : titleHits.entrySet()) {
+            Set<String> ids = nodeIds.remove(entry.getKey());
+            postings.put(entry.getKey(), new Posting(entry.getValue(), ids));
+        }
+        for (Map.Entry<String, Set<String>> entry : nodeIds.entrySet()) {
+            postings.put(entry.getKey(), new Posting(0, entry.getValue()));
+        }
+        return postings;
+    }
+
+    // ==================== ÍNDICE POR USUARIO ====================
+
+    /**
+     * Apariciones de un término en un mapa.
+     */
+    private static final class Posting {
+        final int titleHits;
+        final String[] nodeIds;
+
+        Posting(int titleHits, Set<String> nodeIds) {
+            this.titleHits = titleHits;
+            this.nodeIds = nodeIds != null ? nodeIds.toArray(new String[0]) : new String[0];
+        }
+    }
+
+    /**
+     * Mapa indexado: versión, título y términos (para poder desindexarlo).
+     */
+    private static final class Doc {
+        final int version;
+        final String titulo;
+        final String[] terms;
+
+        Doc(int version, String titulo, String[] terms) {
+            this.version = version;
+            this.titulo = titulo;
+            this.terms = terms;
+        }
+    }
+
+    /**
+     * Índice de un usuario. Las escrituras que llegan mientras se construye se
+     * aplican directamente; las filas del recorrido no pisan una versión igual o
+     * más nueva ni resucitan un mapa borrado entretanto. Lleva al día el mismo
+     * estado que DB.obtenerEstadoColeccion para poder compararlo con la base de datos.
+     */
+    private static final class UserIndex {
+        final CountDownLatch ready = new CountDownLatch(1);
+        volatile boolean failed;
+
+        // Términos ordenados para poder buscar por prefijo
+        private final TreeMap<String, Map<Integer, Posting>> terms = new TreeMap<>();
+        private final Map<Integer, Doc> docs = new HashMap<>();
+        private Set<Integer> removedWhileBuilding = new HashSet<>();
+        private long idSum;
+        private long versionSum;
+        private long digest;
+
+        synchronized void put(int mapaId, int version, String titulo, Map<String, Posting> postings,
+                              boolean fromBuild) {
+            Doc actual = docs.get(mapaId);
+            if (fromBuild) {
+                if (removedWhileBuilding.contains(mapaId)
+                        || (actual != null && (actual.version == 0 || actual.version >= version))) {
+                    return;
+                }
+            } else if (actual != null && version > 0 && actual.version > version) {
+                return;
+            }
+            unindex(mapaId, actual);
+            for (Map.Entry<String, Posting> entry : postings.entrySet()) {
+                terms.computeIfAbsent(entry.getKey(), k -> new HashMap<>()).put(mapaId, entry.getValue());
+            }
+            docs.put(mapaId, new Doc(version, titulo, postings.keySet().toArray(new String[0])));
+            idSum += mapaId;
+            versionSum += version;
+            digest ^= digest(mapaId, version);
+        }
+
+        synchronized void remove(int mapaId) {
+            unindex(mapaId, docs.remove(mapaId));
+            if (removedWhileBuilding != null) {
+                removedWhileBuilding.add(mapaId);
+            }
+        }
+
+        synchronized void finishBuild() {
+            removedWhileBuilding = null;
+        }
+
+        /**
+         * Un mapa con versión 0 (desconocida) nunca coincide, así que fuerza la reconstrucción.
+         */
+        synchronized boolean matches(State state) {
+            return docs.size() == state.total && idSum == state.idSum
+                && versionSum == state.versionSum && digest == state.digest;
+        }
+
+        private void unindex(int mapaId, Doc doc) {
+            if (doc == null) {
+                return;
+            }
+            idSum -= mapaId;
+            versionSum -= doc.version;
+            digest ^= digest(mapaId, doc.version);
+            for (String term : doc.terms) {
+                Map<Integer, Posting> postings = terms.get(term);
+                if (postings != null) {
+                    postings.remove(mapaId);
+                    if (postings.isEmpty()) {
+                        terms.remove(term);
+                    }
+                }
+            }
+        }
+
+        synchronized Result search(List<String> queryTerms, int limit, int maxNodeIds) {
+            int docCount = docs.size();
+            Map<Integer, Match> matches = null;
+            for (int t = 0; t < queryTerms.size(); t++) {
+                String term = queryTerms.get(t);
+                SortedMap<String, Map<Integer, Posting>> range = term.length() >= MIN_PREFIX_LENGTH
+                    ? terms.subMap(term, term + Character.MAX_VALUE)
+                    : terms.subMap(term, true, term, true);
+                Map<Integer, Match> current = new HashMap<>();
+                for (Map<Integer, Posting> postings : range.values()) {
+                    double idf = Math.log(1 + (double) docCount / postings.size());
+                    for (Map.Entry<Integer, Posting> entry : postings.entrySet()) {
+                        int mapaId = entry.getKey();
+                        Match match = current.get(mapaId);
+                        if (match == null) {
+                            // Todos los términos deben aparecer: solo siguen los mapas que ya encajaban
+                            match = matches == null ? new Match(mapaId) : matches.get(mapaId);
+                            if (match == null) {
+                                continue;
+                            }
+                            current.put(mapaId, match);
+                        }
+                        Posting posting = entry.getValue();
+                        match.score += idf * (TITLE_WEIGHT * posting.titleHits + posting.nodeIds.length);
+                        match.add(t, posting);
+                    }
+                }
+                matches = current;
+                if (matches.isEmpty()) {
+                    break;
+                }
+            }
+
+            List<Match> ranked = new ArrayList<>(matches.values());
+            ranked.sort((a, b) -> a.score != b.score ? Double.compare(b.score, a.score) : Integer.compare(b.mapaId, a.mapaId));
+            List<Hit> hits = new ArrayList<>(Math.min(limit, ranked.size()));
+            for (Match match : ranked.subList(0, Math.min(limit, ranked.size()))) {
+                hits.add(new Hit(match.mapaId, docs.get(match.mapaId).titulo,
+                    Math.round(match.score * 10000) / 10000.0, match.topNodes(maxNodeIds)));
+            }
+            return new Result(hits, ranked.size());
+        }
+    }
+
+    /**
+     * Mapa candidato durante una búsqueda. Guarda las apariciones que encajaron
+     * y solo recorre sus nodos si el mapa entra en la página de resultados.
+     */
+    private static final class Match {
+        final int mapaId;
+        double score;
+        private final List<Posting> postings = new ArrayList<>(2);
+        private final List<Integer> queryTerms = new ArrayList<>(2);
+
+        Match(int mapaId) {
+            this.mapaId = mapaId;
+        }
+
+        void add(int queryTerm, Posting posting) {
+            queryTerms.add(queryTerm);
+            postings.add(posting);
+        }
+
+        /**
+         * Nodos que contienen más términos de la consulta primero; a igualdad, en orden del documento.
+         */
+        List<String> topNodes(int max) {
+            // Nodo -> máscara de los términos de la consulta que contiene
+            Map<String, Integer> nodeTerms = new LinkedHashMap<>();
+            for (int i = 0; i < postings.size(); i++) {
+                int mask = 1 << queryTerms.get(i);
+                for (String nodeId : postings.get(i).nodeIds) {
+                    nodeTerms.merge(nodeId, mask, (a, b) -> a | b);
+                }
+            }
+            List<Map.Entry<String, Integer>> nodes = new ArrayList<>(nodeTerms.entrySet());
+            nodes.sort((a, b) -> Integer.bitCount(b.getValue()) - Integer.bitCount(a.getValue()));
+            List<String> ids = new ArrayList<>(Math.min(max, nodes.size()));
+            for (int i = 0; i < nodes.size() && i < max; i++) {
+                ids.add(nodes.get(i).getKey());
+            }
+            return ids;
+        }
+    }
+
+    // ==================== RESULTADOS ====================
+
+    /**
+     * Mapa encontrado, con los IDs de los nodos cuyas etiquetas encajan.
+     */
+    public static final class Hit {
+        private final int mapaId;
+        private final String titulo;
+        private final double score;
+        private final List<String> nodeIds;
+
+        Hit(int mapaId, String titulo, double score, List<String> nodeIds) {
+            this.mapaId = mapaId;
+            this.titulo = titulo;
+            this.score = score;
+            this.nodeIds = nodeIds;
+        }
+
+        public int getMapaId() {
+            return mapaId;
+        }
+
+        public String getTitulo() {
+            return titulo;
+        }
+
+        public double getScore() {
+            return score;
+        }
+
+        public List<String> getNodeIds() {
+            return nodeIds;
+        }
+    }
+
+    /**
+     * Página de resultados de una búsqueda.
+     */
+    public static final class Result {
+        private final List<Hit> hits;
+        private final int total;
+
+        Result(List<Hit> hits, int total) {
+            this.hits = hits;
+            this.total = total;
+        }
+
+        public List<Hit> getHits() {
+            return hits;
+        }
+
+        /** @return Número de mapas que encajan, aunque no todos quepan en la página. */
+        public int getTotal() {
+            return total;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Índice espacial de rejilla uniforme sobre los nodos de un mapa.
+ *
+ * Se construye una vez por versión del mapa a partir de datos_json y guarda
+ * cada nodo y arista ya serializados, de modo que una consulta por ventana
+ * (bbox) solo recorre las celdas que la cubren y escribe los elementos tal
+ * cual, sin volver a parsear el documento.
+ *
+ * La rejilla se dimensiona por el número de nodos y la extensión de cada eje,
+ * así que su tamaño no depende de las coordenadas ni de las medidas que traiga
+ * el documento; los nodos que cubrirían demasiadas celdas van a una lista
+ * aparte que se revisa en cada consulta.
+ */
+public final class SpatialIndex {
+    private static final int TARGET_NODES_PER_CELL = 8;
+    // Un nodo que cubra más celdas se comprueba en todas las consultas en lugar de repartirlo
+    private static final int MAX_CELLS_PER_NODE = 64;
+    private static final int MAX_GRID_DIMENSION = 4096;
+
+    private final int version;
+    private final int nodeCount;
+    private final String[] nodeJson;
+    private final String[] nodeIds;
+    private final double[] minX, minY, maxX, maxY;
+    private final String[] edgeJson;
+    private final Map<String, int[]> edgesByNode;
+    // Celda (cx, cy) en cy * cols + cx; null si está vacía
+    private final int[][] cells;
+    private final int[] oversized;
+    private final int cols, rows;
+    private final double originX, originY, cellWidth, cellHeight;
+
+    private SpatialIndex(int version, List<JSONObject> nodes, List<JSONObject> edges) {
+        this.version = version;
+        this.nodeCount = nodes.size();
+        this.nodeJson = new String[nodeCount];
+        this.nodeIds = new String[nodeCount];
+        this.minX = new double[nodeCount];
+        this.minY = new double[nodeCount];
+        this.maxX = new double[nodeCount];
+        this.maxY = new double[nodeCount];
+
+        double loX = Double.POSITIVE_INFINITY, loY = Double.POSITIVE_INFINITY;
+        double hiX = Double.NEGATIVE_INFINITY, hiY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < nodeCount; i++) {
+            JSONObject node = nodes.get(i);
+            JSONObject position = node.optJSONObject("positionAbsolute");
+            if (position == null) {
+                position = node.optJSONObject("position");
+            }
+            double x = finite(position != null ? position.optDouble("x", 0) : 0);
+            double y = finite(position != null ? position.optDouble("y", 0) : 0);
+            JSONObject measured = node.optJSONObject("measured");
+            double w = node.optDouble("width", measured != null ? measured.optDouble("width", 0) : 0);
+            double h = node.optDouble("height", measured != null ? measured.optDouble("height", 0) : 0);
+            nodeJson[i] = node.toString();
+            nodeIds[i] = node.optString("id", null);
+            minX[i] = x;
+            minY[i] = y;
+            maxX[i] = x + (w > 0 ? w : 0);
+            maxY[i] = y + (h > 0 ? h : 0);
+            // La rejilla cubre las esquinas de los nodos; lo que sobresale cae en las celdas del borde
+            loX = Math.min(loX, x);
+            loY = Math.min(loY, y);
+            hiX = Math.max(hiX, x);
+            hiY = Math.max(hiY, y);
+        }
+
+        // ~TARGET_NODES_PER_CELL nodos por celda, repartiendo filas y columnas según la forma del mapa
+        if (nodeCount == 0) {
+            originX = originY = 0;
+            cols = rows = 1;
+        } else {
+            originX = loX;
+            originY = loY;
+            double spanX = hiX - loX, spanY = hiY - loY;
+            int target = Math.max(1, nodeCount / TARGET_NODES_PER_CELL);
+            if (!(spanX > 0) && !(spanY > 0)) {
+                cols = rows = 1;
+            } else if (!(spanY > 0)) {
+                cols = Math.min(target, MAX_GRID_DIMENSION);
+                rows = 1;
+            } else if (!(spanX > 0)) {
+                cols = 1;
+                rows = Math.min(target, MAX_GRID_DIMENSION);
+            } else {
+                cols = Math.min(dimension(Math.sqrt(target * spanX / spanY)), target);
+                rows = dimension(Math.ceil((double) target / cols));
+            }
+        }
+        cellWidth = cols > 1 ? (hiX - loX) / cols : 1;
+        cellHeight = rows > 1 ? (hiY - loY) / rows : 1;
+
+        IntList[] grid = new IntList[cols * rows];
+        IntList overflow = new IntList();
+        for (int i = 0; i < nodeCount; i++) {
+            int fromX = column(minX[i]), toX = column(maxX[i]);
+            int fromY = row(minY[i]), toY = row(maxY[i]);
+            if ((long) (toX - fromX + 1) * (toY - fromY + 1) > MAX_CELLS_PER_NODE) {
+                overflow.add(i);
+                continue;
+            }
+            for (int cy = fromY; cy <= toY; cy++) {
+                for (int cx = fromX; cx <= toX; cx++) {
+                    int cell = cy * cols + cx;
+                    if (grid[cell] == null) {
+                        grid[cell] = new IntList();
+                    }
+                    grid[cell].add(i);
+                }
+            }
+        }
+        this.cells = new int[grid.length][];
+        for (int cell = 0; cell < grid.length; cell++) {
+            if (grid[cell] != null) {
+                cells[cell] = grid[cell].toArray();
+            }
+        }
+        this.oversized = overflow.toArray();
+
+        this.edgeJson = new String[edges.size()];
+        Map<String, IntList> adjacency = new HashMap<>();
+        for (int i = 0; i < edges.size(); i++) {
+            JSONObject edge = edges.get(i);
+            edgeJson[i] = edge.toString();
+            final int edgeIndex = i;
+            String source = edge.optString("source", null);
+            String target = edge.optString("target", null);
+            if (source != null) {
+                adjacency.computeIfAbsent(source, k -> new IntList()).add(edgeIndex);
+            }
+            if (target != null && !target.equals(source)) {
+                adjacency.computeIfAbsent(target, k -> new IntList()).add(edgeIndex);
+            }
+        }
+        this.edgesByNode = new HashMap<>(adjacency.size() * 2);
+        for (Map.Entry<String, IntList> entry : adjacency.entrySet()) {
+            edgesByNode.put(entry.getKey(), entry.getValue().toArray());
+        }
+    }
+
+    /**
+     * Construye el índice de un documento React Flow.
+     * @param datosJson Documento con arrays "nodes" y "edges".
+     * @param version Versión del mapa a la que corresponde.
+     * @return Índice construido.
+     * @throws JSONException Si el documento no es válido.
+     */
+    public static SpatialIndex build(String datosJson, int version) throws JSONException {
+        JSONObject doc = new JSONObject(datosJson);
+        return new SpatialIndex(version, objects(doc.optJSONArray("nodes")), objects(doc.optJSONArray("edges")));
+    }
+
+    /**
+     * Resultado de una consulta: nodos dentro de la ventana y aristas que los tocan.
+     */
+    public static final class Window {
+        private final List<String> nodes;
+        private final List<String> edges;
+
+        Window(List<String> nodes, List<String> edges) {
+            this.nodes = nodes;
+            this.edges = edges;
+        }
+
+        /** @return Nodos serializados. */
+        public List<String> getNodes() {
+            return nodes;
+        }
+
+        /** @return Aristas serializadas. */
+        public List<String> getEdges() {
+            return edges;
+        }
+    }
+
+    /**
+     * Devuelve los nodos cuya caja intersecta la ventana y las aristas con algún extremo en ellos.
+     * @return Elementos serializados, en el orden del documento.
+     */
+    public Window query(double x1, double y1, double x2, double y2) {
+        double qMinX = Math.min(x1, x2), qMaxX = Math.max(x1, x2);
+        double qMinY = Math.min(y1, y2), qMaxY = Math.max(y1, y2);
+
+        BitSet matched = new BitSet(nodeCount);
+        if (nodeCount > 0) {
+            // Las columnas y filas están acotadas a la rejilla: el bucle no pasa de cols * rows celdas
+            int fromX = column(qMinX), toX = column(qMaxX);
+            int fromY = row(qMinY), toY = row(qMaxY);
+            for (int cy = fromY; cy <= toY; cy++) {
+                for (int cx = fromX; cx <= toX; cx++) {
+                    int[] members = cells[cy * cols + cx];
+                    if (members != null) {
+                        collect(members, qMinX, qMinY, qMaxX, qMaxY, matched);
+                    }
+                }
+            }
+            collect(oversized, qMinX, qMinY, qMaxX, qMaxY, matched);
+        }
+
+        List<String> nodes = new ArrayList<>(matched.cardinality());
+        BitSet edges = new BitSet(edgeJson.length);
+        for (int i = matched.nextSetBit(0); i >= 0; i = matched.nextSetBit(i + 1)) {
+            nodes.add(nodeJson[i]);
+            int[] touching = nodeIds[i] != null ? edgesByNode.get(nodeIds[i]) : null;
+            if (touching != null) {
+                for (int e : touching) {
+                    edges.set(e);
+                }
+            }
+        }
+        List<String> edgeList = new ArrayList<>(edges.cardinality());
+        for (int e = edges.nextSetBit(0); e >= 0; e = edges.nextSetBit(e + 1)) {
+            edgeList.add(edgeJson[e]);
+        }
+        return new Window(nodes, edgeList);
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getEdgeCount() {
+        return edgeJson.length;
+    }
+
+    private void collect(int[] members, double qMinX, double qMinY, double qMaxX, double qMaxY, BitSet matched) {
+        for (int i : members) {
+            if (!matched.get(i) && maxX[i] >= qMinX && minX[i] <= qMaxX && maxY[i] >= qMinY && minY[i] <= qMaxY) {
+                matched.set(i);
+            }
+        }
+    }
+
+    private int column(double x) {
+        return slot((x - originX) / cellWidth, cols);
+    }
+
+    private int row(double y) {
+        return slot((y - originY) / cellHeight, rows);
+    }
+
+    /**
+     * Celda de un desplazamiento medido en celdas, acotada a la rejilla (NaN cae en la primera).
+     */
+    private static int slot(double offset, int size) {
+        if (!(offset > 0)) {
+            return 0;
+        }
+        return offset >= size ? size - 1 : (int) offset;
+    }
+
+    private static int dimension(double cells) {
+        if (!(cells >= 1)) {
+            return 1;
+        }
+        return (int) Math.min(Math.round(cells), MAX_GRID_DIMENSION);
+    }
+
+    private static double finite(double value) {
+        return Double.isNaN(value) || Double.isInfinite(value) ? 0 : value;
+    }
+
+    private static List<JSONObject> objects(JSONArray array) {
+        List<JSONObject> list = new ArrayList<>();
+        for (int i = 0; array != null && i < array.length(); i++) {
+            JSONObject element = array.optJSONObject(i);
+            if (element != null) {
+                list.add(element);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Lista de enteros sin boxing para construir las celdas.
+     */
+    private static final class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
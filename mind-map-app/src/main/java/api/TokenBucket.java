@@ -0,0 +1,75 @@
+package api;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Token bucket sin bloqueos implementado como GCRA (generic cell rate algorithm).
+ *
+ * En vez de guardar tokens y la hora del último relleno, guarda un único valor:
+ * el instante teórico (en nanos) en el que el cubo volvería a estar lleno. Una
+ * petición cabe si ese instante no está más lejos que la ráfaga permitida, y se
+ * consume avanzándolo un intervalo con compareAndSet. Así no hace falta ningún
+ * lock ni recalcular el relleno.
+ */
+public final class TokenBucket {
+    private final long intervalNanos;
+    private final long burstNanos;
+
+    // Instante teórico de llegada (TAT): el cubo está lleno cuando tat <= ahora
+    private final AtomicLong tat;
+
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param capacity Peticiones que se pueden hacer de golpe con el cubo lleno.
+     * @param refillPerSecond Peticiones por segundo que se recuperan.
+     */
+    public TokenBucket(int capacity, double refillPerSecond) {
+        if (capacity < 1 || refillPerSecond <= 0) {
+            throw new IllegalArgumentException("capacity must be >= 1 and refillPerSecond > 0");
+        }
+        this.intervalNanos = Math.max(1L, (long) (1_000_000_000L / refillPerSecond));
+        this.burstNanos = intervalNanos * (capacity - 1);
+        this.tat = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Intenta consumir un token.
+     * @param now Instante actual en nanos ({@link System#nanoTime()}).
+     * @return 0 si se permite la petición; si no, nanos hasta que haya un token libre.
+     */
+    public long tryAcquire(long now) {
+        while (true) {
+            long current = tat.get();
+            long base = current - now > 0 ? current : now;
+            long wait = base - now - burstNanos;
+            if (wait > 0) {
+                rejected.increment();
+                return wait;
+            }
+            if (tat.compareAndSet(current, base + intervalNanos)) {
+                allowed.increment();
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * @param now Instante actual en nanos.
+     * @param idleNanos Tiempo que debe llevar lleno.
+     * @return true si el cubo lleva lleno al menos idleNanos y se puede descartar sin perder estado.
+     */
+    public boolean isIdle(long now, long idleNanos) {
+        return now - tat.get() >= idleNanos;
+    }
+
+    public long getAllowed() {
+        return allowed.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+}
@@ -0,0 +1,149 @@
+package api;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caché acotada de tokens JWT ya verificados.
+ *
+ * La clave es el SHA-256 del token (el token en claro no se guarda) y el valor
+ * los claims que usan los servlets. Cada entrada caduca en el "exp" del token,
+ * así que un token nunca se acepta más allá de lo que aceptaría el parser.
+ */
+public class TokenCache {
+    private final int maxEntries;
+
+    // accessOrder=true: al llenarse se descarta primero el token usado hace más tiempo
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxEntries Número máximo de tokens cacheados.
+     */
+    public TokenCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Claims verificados de un token.
+     */
+    public static final class Entry {
+        private final Integer userId;
+        private final String email;
+        private final long expiresAt;
+
+        public Entry(Integer userId, String email, long expiresAt) {
+            this.userId = userId;
+            this.email = email;
+            this.expiresAt = expiresAt;
+        }
+
+        public Integer getUserId() {
+            return userId;
+        }
+
+        public String getEmail() {
+            return email;
+        }
+
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+    }
+
+    /**
+     * Busca un token verificado que no haya expirado.
+     * @param key Hash del token (ver {@link #key(String)}).
+     * @return Claims cacheados o null.
+     */
+    public Entry get(String key) {
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiresAt <= System.currentTimeMillis()) {
+                entries.remove(key);
+                entry = null;
+            }
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return entry;
+        }
+    }
+
+    /**
+     * Guarda un token recién verificado. Al llenarse se purgan primero los expirados
+     * y, si no basta, los menos usados.
+     * @param key Hash del token.
+     * @param entry Claims verificados.
+     */
+    public void put(String key, Entry entry) {
+        long now = System.currentTimeMillis();
+        if (entry.expiresAt <= now) {
+            return;
+        }
+        synchronized (this) {
+            entries.put(key, entry);
+            if (entries.size() > maxEntries) {
+                Iterator<Entry> it = entries.values().iterator();
+                while (it.hasNext()) {
+                    if (it.next().expiresAt <= now) {
+                        it.remove();
+                    }
+                }
+                it = entries.values().iterator();
+                while (entries.size() > maxEntries && it.hasNext()) {
+                    it.next();
+                    it.remove();
+                    evictions.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Calcula la clave de caché de un token.
+     * @param token JWT compacto.
+     * @return SHA-256 del token en Base64.
+     */
+    public static String key(String token) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(digest.digest(token.getBytes(StandardCharsets.US_ASCII)));
+        } catch (NoSuchAlgorithmException e) {
+            // Todas las JVM incluyen SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // ============ MÉTRICAS ============
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+}
@@ -65,6 +65,8 @@ public class UserServlet extends HttpServlet {
             JSONObject responseJson = new JSONObject()
                 .put("message", "User updated successfully");
             HttpUtils.sendJsonResponse(response, responseJson, HttpServletResponse.SC_OK);
+        } catch (HttpUtils.PayloadTooLargeException e) {
+            HttpUtils.sendErrorResponse(response, e.getMessage(), HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
         } catch (Exception e) {
             HttpUtils.sendErrorResponse(response, "Error updating user", HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
         }
@@ -0,0 +1,61 @@
+package api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import org.json.JSONException;
+import org.junit.jupiter.api.Test;
+
+class JsonScannerTest {
+
+    private static String nested(int depth) {
+        StringBuilder sb = new StringBuilder("{\"a\":");
+        for (int i = 0; i < depth; i++) {
+            sb.append('[');
+        }
+        for (int i = 0; i < depth; i++) {
+            sb.append(']');
+        }
+        return sb.append('}').toString();
+    }
+
+    @Test
+    void countsTopLevelNodesAndEdgesOnly() {
+        JsonScanner.Summary summary = JsonScanner.scan("{\"nodes\":[{\"id\":\"1\",\"nodes\":[1,2,3]},{\"id\":\"2\"}],"
+            + "\"meta\":{\"edges\":[1,2,3,4]},\"edges\":[{\"id\":\"e\",\"source\":\"1\",\"target\":\"2\"}]}");
+        assertEquals(2, summary.getNodesCount());
+        assertEquals(1, summary.getEdgesCount());
+    }
+
+    @Test
+    void acceptsStrictJsonValues() {
+        JsonScanner.Summary summary = JsonScanner.scan(" {\"nodes\":[],\"edges\":[],\"n\":-0.5e+10,\"z\":0,"
+            + "\"t\":true,\"f\":false,\"x\":null,\"s\":\"\\u00e1\\n\\\"\\/ ñ 😀\"} ");
+        assertEquals(0, summary.getNodesCount());
+        assertEquals(0, summary.getEdgesCount());
+        assertEquals(0, JsonScanner.scan("{}").getNodesCount());
+        assertTrue(JsonScanner.isValidObject(nested(500)));
+    }
+
+    @Test
+    void rejectsMalformedDocuments() {
+        for (String json : Arrays.asList(
+                "", "[]", "\"x\"", "{", "{\"a\"}", "{\"a\":1,}", "{\"a\":[1,]}", "{'a':1}",
+                "{\"a\":01}", "{\"a\":1.}", "{\"a\":.5}", "{\"a\":-}", "{\"a\":1e}", "{\"a\":+1}",
+                "{\"a\":tru}", "{\"a\":NaN}", "{\"a\":\"\\x\"}", "{\"a\":\"\\u12g4\"}",
+                "{\"a\":\"tab\there\"}", "{\"a\":\"unterminated}", "{} {}", "{\"a\":1}x")) {
+            assertThrows(JSONException.class, () -> JsonScanner.scan(json), json);
+            assertFalse(JsonScanner.isValidObject(json), json);
+        }
+        assertThrows(JSONException.class, () -> JsonScanner.scan(null));
+        assertFalse(JsonScanner.isValidObject(null));
+    }
+
+    @Test
+    void rejectsExcessiveNestingWithoutOverflowingTheStack() {
+        assertThrows(JSONException.class, () -> JsonScanner.scan(nested(100000)));
+    }
+}
@@ -0,0 +1,64 @@
+package api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+class MapBatchTest {
+
+    private static final String DATOS = "{\"nodes\":[{\"id\":\"1\"}],\"edges\":[]}";
+
+    @Test
+    void laterOperationsOnTheSameMapAreRejected() {
+        MapBatch lote = MapBatch.parse(new JSONObject("{\"operations\":["
+            + "{\"op\":\"update\",\"id\":7,\"titulo\":\"A\",\"datos_json\":" + DATOS + "},"
+            + "{\"op\":\"delete\",\"id\":7},"
+            + "{\"op\":\"create\",\"titulo\":\"B\",\"datos_json\":" + DATOS + "},"
+            + "{\"op\":\"create\",\"titulo\":\"C\",\"datos_json\":" + DATOS + "},"
+            + "{\"op\":\"delete\",\"id\":8},"
+            + "{\"op\":\"update\",\"id\":8,\"titulo\":\"D\",\"datos_json\":" + DATOS + "}"
+            + "]}"));
+        List<MapBatch.Operation> ops = lote.getOperations();
+        assertTrue(ops.get(0).isPending());
+        assertEquals(400, ops.get(1).getStatus());
+        assertTrue(ops.get(2).isPending() && ops.get(3).isPending() && ops.get(4).isPending());
+        assertEquals(400, ops.get(5).getStatus());
+        assertEquals(1, lote.pending(MapBatch.Type.UPDATE).size());
+        assertEquals(1, lote.pending(MapBatch.Type.DELETE).size());
+        assertEquals(2, lote.pending(MapBatch.Type.CREATE).size());
+    }
+
+    @Test
+    void invalidItemsFailIndividually() {
+        MapBatch lote = MapBatch.parse(new JSONObject("{\"operations\":["
+            + "42,"
+            + "{\"op\":\"rename\"},"
+            + "{\"op\":\"delete\"},"
+            + "{\"op\":\"update\",\"id\":3,\"titulo\":\"\",\"datos_json\":" + DATOS + "},"
+            + "{\"op\":\"create\",\"titulo\":\"X\",\"datos_json\":\"{not json\"},"
+            + "{\"op\":\"update\",\"id\":3,\"titulo\":\"Y\",\"datos_json\":" + DATOS + "}"
+            + "]}"));
+        List<MapBatch.Operation> ops = lote.getOperations();
+        for (int i = 0; i < 5; i++) {
+            assertEquals(400, ops.get(i).getStatus(), "operación " + i);
+        }
+        // Una operación inválida no reserva el id
+        assertTrue(ops.get(5).isPending());
+        assertEquals(5, lote.toJson().getInt("failed"));
+    }
+
+    @Test
+    void emptyOrOversizedBatchIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> MapBatch.parse(new JSONObject("{\"operations\":[]}")));
+        assertThrows(IllegalArgumentException.class, () -> MapBatch.parse(new JSONObject("{}")));
+        StringBuilder sb = new StringBuilder("{\"operations\":[");
+        for (int i = 0; i <= MapBatch.MAX_OPERATIONS; i++) {
+            sb.append(i > 0 ? "," : "").append("{\"op\":\"delete\",\"id\":").append(i + 1).append('}');
+        }
+        assertThrows(IllegalArgumentException.class, () -> MapBatch.parse(new JSONObject(sb.append("]}").toString())));
+    }
+}
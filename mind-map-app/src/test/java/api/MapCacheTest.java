@@ -0,0 +1,57 @@
+package api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+class MapCacheTest {
+
+    private static MindMapRecord record(int id, String datosJson, int version) {
+        return new MindMapRecord(id, "Mapa " + id, datosJson, null, 1000L, 2000L + version, version);
+    }
+
+    @Test
+    void lateWriterWithOlderVersionDoesNotReplaceNewerEntry() {
+        MapCache cache = new MapCache(1 << 20, 60000);
+        cache.put(7, record(1, "{\"v\":3}", 3));
+        cache.put(7, record(1, "{\"v\":2}", 2));
+        assertEquals("{\"v\":3}", cache.get(1, 7).getDatosJson());
+    }
+
+    @Test
+    void sameVersionKeepsTheCachedDocument() {
+        MapCache cache = new MapCache(1 << 20, 60000);
+        cache.put(7, record(1, "{\"a\":1}", 4));
+        cache.put(7, record(1, "{\"b\":2}", 4));
+        assertEquals("{\"a\":1}", cache.get(1, 7).getDatosJson());
+    }
+
+    @Test
+    void newerVersionReplaces() {
+        MapCache cache = new MapCache(1 << 20, 60000);
+        cache.put(7, record(1, "{\"v\":1}", 1));
+        cache.put(7, record(1, "{\"v\":2}", 2));
+        assertEquals(2, cache.get(1, 7).getVersion());
+        assertEquals(1, cache.getSize());
+    }
+
+    @Test
+    void expiredEntryIsReplacedByAnyVersion() throws InterruptedException {
+        MapCache cache = new MapCache(1 << 20, 1);
+        cache.put(7, record(1, "{\"v\":5}", 5));
+        Thread.sleep(5);
+        cache.put(7, record(1, "{\"v\":4}", 4));
+        assertEquals(1, cache.getSize());
+    }
+
+    @Test
+    void otherUserMissesAndOversizedEntriesAreDropped() {
+        MapCache cache = new MapCache(100, 60000);
+        cache.put(7, record(1, "{}", 1));
+        assertNull(cache.get(1, 8));
+        cache.put(7, record(1, "{\"big\":\"" + new String(new char[200]).replace('\0', 'x') + "\"}", 2));
+        assertNull(cache.get(1, 7));
+        assertEquals(0, cache.getBytes());
+    }
+}
@@ -0,0 +1,82 @@
+package api;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.InflaterInputStream;
+import org.junit.jupiter.api.Test;
+
+class MapCompressionTest {
+
+    private static String mapaGrande(int nodos) {
+        StringBuilder json = new StringBuilder("{\"nodes\":[");
+        for (int i = 0; i < nodos; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":\"").append(i).append("\",\"position\":{\"x\":").append(i * 10)
+                .append(",\"y\":").append(i * 7).append("},\"data\":{\"label\":\"Nodo ñ ").append(i).append("\"}}");
+        }
+        return json.append("],\"edges\":[]}").toString();
+    }
+
+    @Test
+    void roundTripsDocuments() {
+        for (String json : Arrays.asList("", "{}", "{\"nodes\":[],\"edges\":[]}",
+                "{\"titulo\":\"Año 🚀 ünïcode\"}", mapaGrande(5000))) {
+            assertEquals(json, MapCompression.decompress(MapCompression.compress(json)));
+        }
+    }
+
+    @Test
+    void headerHoldsTheUtf8LengthLittleEndian() {
+        String json = mapaGrande(2000);
+        int length = json.getBytes(StandardCharsets.UTF_8).length;
+        byte[] data = MapCompression.compress(json);
+
+        assertTrue(length > 0xFFFF);
+        assertEquals(length, (data[0] & 0xFF) | (data[1] & 0xFF) << 8 | (data[2] & 0xFF) << 16 | (data[3] & 0xFF) << 24);
+        assertTrue(data.length < length / 4);
+    }
+
+    @Test
+    void bodyAfterTheHeaderIsAZlibStream() throws IOException {
+        String json = mapaGrande(100);
+        byte[] data = MapCompression.compress(json);
+        InputStream body = new InflaterInputStream(new ByteArrayInputStream(
+            data, MapCompression.HEADER_LENGTH, data.length - MapCompression.HEADER_LENGTH));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        for (int n; (n = body.read(buffer)) > 0; ) {
+            out.write(buffer, 0, n);
+        }
+        assertArrayEquals(json.getBytes(StandardCharsets.UTF_8), out.toByteArray());
+    }
+
+    @Test
+    void readsMysqlCompressOutput() {
+        // SELECT COMPRESS('a')
+        byte[] mysql = {0x01, 0x00, 0x00, 0x00, 0x78, (byte) 0x9C, 0x4B, 0x04, 0x00, 0x00, 0x62, 0x00, 0x62};
+        assertEquals("a", MapCompression.decompress(mysql));
+        assertEquals("", MapCompression.decompress(new byte[0]));
+    }
+
+    @Test
+    void rejectsTruncatedAndCorruptData() {
+        byte[] data = MapCompression.compress(mapaGrande(100));
+        assertThrows(IllegalArgumentException.class,
+            () -> MapCompression.decompress(Arrays.copyOf(data, data.length / 2)));
+
+        byte[] corrupt = data.clone();
+        corrupt[MapCompression.HEADER_LENGTH] = 0x00;
+        assertThrows(IllegalArgumentException.class, () -> MapCompression.decompress(corrupt));
+    }
+}
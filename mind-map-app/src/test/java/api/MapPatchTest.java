@@ -0,0 +1,241 @@
+package api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+class MapPatchTest {
+
+    private static final String MAPA = "{\"nodes\":["
+        + "{\"id\":\"a\",\"position\":{\"x\":0,\"y\":0},\"data\":{\"label\":\"A\"}},"
+        + "{\"id\":\"b\",\"position\":{\"x\":100,\"y\":0},\"data\":{\"label\":\"B\"}},"
+        + "{\"id\":\"c\",\"position\":{\"x\":200,\"y\":0},\"data\":{\"label\":\"C\"}}"
+        + "],\"edges\":["
+        + "{\"id\":\"e1\",\"source\":\"a\",\"target\":\"b\"},"
+        + "{\"id\":\"e2\",\"source\":\"b\",\"target\":\"c\"},"
+        + "{\"id\":\"e3\",\"source\":\"a\",\"target\":\"c\"}"
+        + "]}";
+
+    private static final Pattern FUNCION = Pattern.compile("(JSON_[A-Z_]+)\\(");
+    private static final Pattern PASO = Pattern.compile("\\.\"((?:[^\"\\\\]|\\\\.)*)\"|\\[(\\d+)\\]");
+
+    /**
+     * Evalúa la expresión SQL del parche sobre el documento original con la
+     * semántica de las funciones JSON de MySQL, para comprobar que las rutas
+     * calculadas producen el mismo documento que el aplicado en memoria.
+     */
+    private static JSONObject evaluar(String original, MapPatch patch) {
+        List<String> funciones = new ArrayList<>();
+        Matcher m = FUNCION.matcher(patch.getSqlExpression());
+        while (m.find()) {
+            funciones.add(m.group(1));
+        }
+        // La función más interna se ejecuta primero y consume los primeros parámetros
+        Collections.reverse(funciones);
+        JSONObject doc = new JSONObject(original);
+        Iterator<String> params = patch.getSqlParams().iterator();
+        for (String funcion : funciones) {
+            List<Object> ruta = ruta(params.next());
+            Object valor = funcion.equals("JSON_REMOVE") ? null : new JSONArray("[" + params.next() + "]").get(0);
+            Object padre = navegar(doc, ruta.subList(0, ruta.size() - 1));
+            Object ultimo = ruta.get(ruta.size() - 1);
+            switch (funcion) {
+                case "JSON_REMOVE":
+                    if (padre instanceof JSONArray) {
+                        ((JSONArray) padre).remove((Integer) ultimo);
+                    } else {
+                        ((JSONObject) padre).remove((String) ultimo);
+                    }
+                    break;
+                case "JSON_SET":
+                case "JSON_REPLACE":
+                    if (padre instanceof JSONArray) {
+                        JSONArray array = (JSONArray) padre;
+                        int i = (Integer) ultimo;
+                        if (i < array.length()) {
+                            array.put(i, valor);
+                        } else if (funcion.equals("JSON_SET")) {
+                            array.put(valor);
+                        }
+                    } else if (funcion.equals("JSON_SET") || ((JSONObject) padre).has((String) ultimo)) {
+                        ((JSONObject) padre).put((String) ultimo, valor);
+                    }
+                    break;
+                case "JSON_ARRAY_APPEND":
+                    ((JSONArray) navegar(doc, ruta)).put(valor);
+                    break;
+                case "JSON_ARRAY_INSERT": {
+                    JSONArray array = (JSONArray) padre;
+                    int i = Math.min((Integer) ultimo, array.length());
+                    for (int j = array.length(); j > i; j--) {
+                        array.put(j, array.get(j - 1));
+                    }
+                    array.put(i, valor);
+                    break;
+                }
+                default:
+                    throw new AssertionError("Función inesperada: " + funcion);
+            }
+        }
+        assertTrue(!params.hasNext(), "Sobran parámetros en la expresión");
+        return doc;
+    }
+
+    private static List<Object> ruta(String sqlPath) {
+        assertTrue(sqlPath.startsWith("$"), sqlPath);
+        List<Object> pasos = new ArrayList<>();
+        Matcher m = PASO.matcher(sqlPath.substring(1));
+        int fin = 0;
+        while (m.find()) {
+            assertEquals(fin, m.start(), "Ruta mal formada: " + sqlPath);
+            pasos.add(m.group(1) != null
+                ? m.group(1).replace("\\\"", "\"").replace("\\\\", "\\")
+                : Integer.valueOf(m.group(2)));
+            fin = m.end();
+        }
+        assertEquals(sqlPath.length() - 1, fin, "Ruta mal formada: " + sqlPath);
+        return pasos;
+    }
+
+    private static Object navegar(Object actual, List<Object> pasos) {
+        for (Object paso : pasos) {
+            actual = paso instanceof Integer
+                ? ((JSONArray) actual).get((Integer) paso)
+                : ((JSONObject) actual).get((String) paso);
+        }
+        return actual;
+    }
+
+    private static void assertSqlMatchesDocument(String original, MapPatch patch) {
+        JSONObject esperado = new JSONObject(patch.getDocument());
+        JSONObject obtenido = evaluar(original, patch);
+        assertTrue(esperado.similar(obtenido), "SQL: " + obtenido + "\nmemoria: " + esperado);
+    }
+
+    private static List<String> ids(JSONArray array) {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < array.length(); i++) {
+            ids.add(array.getJSONObject(i).getString("id"));
+        }
+        return ids;
+    }
+
+    @Test
+    void moveNodeSetsOnlyThePosition() {
+        MapPatch patch = new MapPatch(MAPA);
+        patch.applyOperations(new JSONArray("[{\"op\":\"move_node\",\"id\":\"b\",\"position\":{\"x\":5,\"y\":6}}]"));
+        assertEquals("JSON_SET(datos_json, ?, CAST(? AS JSON))", patch.getSqlExpression());
+        assertEquals("$.\"nodes\"[1].\"position\"", patch.getSqlParams().get(0));
+        assertEquals(new HashSet<>(Arrays.asList("b")), patch.getTouchedNodes());
+        assertTrue(!patch.isTouchedByPath());
+        assertSqlMatchesDocument(MAPA, patch);
+    }
+
+    @Test
+    void deleteNodeRemovesItsEdgesBackToFront() {
+        MapPatch patch = new MapPatch(MAPA);
+        patch.applyOperations(new JSONArray("[{\"op\":\"delete_node\",\"id\":\"a\"}]"));
+        assertEquals(Arrays.asList("$.\"edges\"[2]", "$.\"edges\"[0]", "$.\"nodes\"[0]"), patch.getSqlParams());
+        JSONObject doc = new JSONObject(patch.getDocument());
+        assertEquals(Arrays.asList("b", "c"), ids(doc.getJSONArray("nodes")));
+        assertEquals(Arrays.asList("e2"), ids(doc.getJSONArray("edges")));
+        assertEquals(new HashSet<>(Arrays.asList("e1", "e3")), patch.getTouchedEdges());
+        assertSqlMatchesDocument(MAPA, patch);
+    }
+
+    @Test
+    void indicesShiftAfterRemoveNodeWithinTheSamePatch() {
+        MapPatch patch = new MapPatch(MAPA);
+        patch.applyOperations(new JSONArray("["
+            + "{\"op\":\"delete_node\",\"id\":\"a\"},"
+            + "{\"op\":\"move_node\",\"id\":\"c\",\"position\":{\"x\":9,\"y\":9}},"
+            + "{\"op\":\"update_edge\",\"id\":\"e2\",\"changes\":{\"label\":\"b-c\"}},"
+            + "{\"op\":\"delete_node\",\"id\":\"b\"}"
+            + "]"));
+        // Tras borrar "a", "c" pasa a la posición 1 y "e2" a la 0
+        assertEquals("$.\"nodes\"[1].\"position\"", patch.getSqlParams().get(3));
+        assertEquals("$.\"edges\"[0].\"label\"", patch.getSqlParams().get(5));
+        JSONObject doc = new JSONObject(patch.getDocument());
+        assertEquals(Arrays.asList("c"), ids(doc.getJSONArray("nodes")));
+        assertEquals(0, patch.getEdgesCount());
+        assertEquals(9, doc.getJSONArray("nodes").getJSONObject(0).getJSONObject("position").getInt("x"));
+        assertSqlMatchesDocument(MAPA, patch);
+    }
+
+    @Test
+    void addAndPutElementsAppendOrReplace() {
+        MapPatch patch = new MapPatch(MAPA);
+        patch.applyOperations(new JSONArray("[{\"op\":\"add_node\",\"node\":{\"id\":\"d\",\"position\":{\"x\":1,\"y\":1}}}]"));
+        patch.putElement("edges", new JSONObject("{\"id\":\"e4\",\"source\":\"c\",\"target\":\"d\"}"));
+        patch.putElement("nodes", new JSONObject("{\"id\":\"b\",\"position\":{\"x\":7,\"y\":7}}"));
+        patch.removeElement("edges", "e1");
+        assertEquals(4, patch.getNodesCount());
+        assertEquals(3, patch.getEdgesCount());
+        assertTrue(patch.getSqlExpression().contains("JSON_ARRAY_APPEND"));
+        assertSqlMatchesDocument(MAPA, patch);
+    }
+
+    @Test
+    void jsonPatchAddRemoveMoveAndTest() {
+        MapPatch patch = new MapPatch(MAPA);
+        patch.applyJsonPatch(new JSONArray("["
+            + "{\"op\":\"test\",\"path\":\"/nodes/0/id\",\"value\":\"a\"},"
+            + "{\"op\":\"remove\",\"path\":\"/nodes/0\"},"
+            + "{\"op\":\"add\",\"path\":\"/nodes/1\",\"value\":{\"id\":\"x\"}},"
+            + "{\"op\":\"replace\",\"path\":\"/nodes/0/data/label\",\"value\":\"B2\"},"
+            + "{\"op\":\"move\",\"from\":\"/edges/2\",\"path\":\"/edges/0\"},"
+            + "{\"op\":\"add\",\"path\":\"/meta~1info\",\"value\":{\"k\":\"v\\\"\"}}"
+            + "]"));
+        JSONObject doc = new JSONObject(patch.getDocument());
+        assertEquals(Arrays.asList("b", "x", "c"), ids(doc.getJSONArray("nodes")));
+        assertEquals(Arrays.asList("e3", "e1", "e2"), ids(doc.getJSONArray("edges")));
+        assertTrue(patch.isTouchedByPath());
+        assertTrue(patch.getSqlParams().contains("$.\"meta/info\""));
+        assertSqlMatchesDocument(MAPA, patch);
+    }
+
+    @Test
+    void sqlExpressionCanUseAnotherBase() {
+        MapPatch patch = new MapPatch(MAPA);
+        patch.removeElement("edges", "e2");
+        assertEquals("JSON_REMOVE(base_doc, ?)", patch.getSqlExpression("base_doc"));
+    }
+
+    @Test
+    void invalidOperationsAreRejected() {
+        assertThrows(IllegalArgumentException.class,
+            () -> new MapPatch(MAPA).applyOperations(new JSONArray("[]")));
+        assertThrows(IllegalArgumentException.class,
+            () -> new MapPatch(MAPA).applyOperations(new JSONArray("[{\"op\":\"move_node\",\"id\":\"zz\",\"position\":{}}]")));
+        assertThrows(IllegalArgumentException.class,
+            () -> new MapPatch(MAPA).applyOperations(new JSONArray("[{\"op\":\"add_node\",\"node\":{\"id\":\"a\"}}]")));
+        assertThrows(IllegalArgumentException.class,
+            () -> new MapPatch(MAPA).applyOperations(new JSONArray("[{\"op\":\"update_node\",\"id\":\"a\",\"changes\":{\"id\":\"z\"}}]")));
+        assertThrows(IllegalArgumentException.class,
+            () -> new MapPatch(MAPA).applyOperations(new JSONArray("[{\"op\":\"explode\"}]")));
+        assertThrows(IllegalArgumentException.class,
+            () -> new MapPatch(MAPA).applyJsonPatch(new JSONArray("[{\"op\":\"test\",\"path\":\"/nodes/0/id\",\"value\":\"b\"}]")));
+        assertThrows(IllegalArgumentException.class,
+            () -> new MapPatch(MAPA).applyJsonPatch(new JSONArray("[{\"op\":\"remove\",\"path\":\"/nodes/03\"}]")));
+        assertThrows(IllegalArgumentException.class,
+            () -> new MapPatch(MAPA).applyJsonPatch(new JSONArray("[{\"op\":\"remove\",\"path\":\"\"}]")));
+
+        JSONArray demasiadas = new JSONArray();
+        for (int i = 0; i <= MapPatch.MAX_OPERATIONS; i++) {
+            demasiadas.put(new JSONObject("{\"op\":\"move_node\",\"id\":\"a\",\"position\":{}}"));
+        }
+        assertThrows(IllegalArgumentException.class, () -> new MapPatch(MAPA).applyOperations(demasiadas));
+    }
+}
@@ -0,0 +1,179 @@
+package api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import org.json.JSONException;
+import org.junit.jupiter.api.Test;
+
+class MapRequestTest {
+
+    // Límite por defecto de http.maxBodyBytes
+    private static final int MAX_BODY_BYTES = 16 * 1024 * 1024;
+
+    private static MapRequest parse(String body) {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        // El cuerpo no empieza al principio del buffer, como con los buffers del pool
+        byte[] buf = new byte[bytes.length + 10];
+        System.arraycopy(bytes, 0, buf, 3, bytes.length);
+        return MapRequest.parse(buf, 3, bytes.length);
+    }
+
+    /**
+     * Petición mínima con el cuerpo dado; contentLength -1 simula chunked.
+     */
+    private static HttpServletRequest request(InputStream body, long contentLength, String encoding) {
+        ServletInputStream in = new ServletInputStream() {
+            @Override
+            public int read() throws IOException {
+                return body.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return body.read(b, off, len);
+            }
+
+            @Override
+            public boolean isFinished() {
+                return false;
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setReadListener(ReadListener listener) {
+                throw new UnsupportedOperationException();
+            }
+        };
+        return (HttpServletRequest) Proxy.newProxyInstance(MapRequestTest.class.getClassLoader(),
+            new Class<?>[]{HttpServletRequest.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getInputStream":
+                        return in;
+                    case "getContentLengthLong":
+                        return contentLength;
+                    case "getContentLength":
+                        return (int) contentLength;
+                    case "getCharacterEncoding":
+                        return encoding;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+    }
+
+    /** Flujo de n bytes de relleno sin reservarlos en memoria. */
+    private static InputStream filler(long n) {
+        return new InputStream() {
+            private long left = n;
+
+            @Override
+            public int read() {
+                return left-- > 0 ? ' ' : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (left <= 0) {
+                    return -1;
+                }
+                int count = (int) Math.min(len, left);
+                Arrays.fill(b, off, off + count, (byte) ' ');
+                left -= count;
+                return count;
+            }
+        };
+    }
+
+    @Test
+    void decodesStringDatosJsonOnce() {
+        MapRequest req = parse("{\"id\":12,\"titulo\":\"Ma\\u00f1ana \\\"ñ\\\" 😀\","
+            + "\"datos_json\":\"{\\\"nodes\\\":[{\\\"id\\\":\\\"a\\\",\\\"t\\\":\\\"\\\\n\\ud83d\\ude00\\\"}]}\"}");
+        assertTrue(req.hasId());
+        assertEquals(12, req.getId());
+        assertEquals("Mañana \"ñ\" 😀", req.getTitulo());
+        assertEquals("{\"nodes\":[{\"id\":\"a\",\"t\":\"\\n😀\"}]}", req.getDatosJson());
+    }
+
+    @Test
+    void copiesObjectDatosJsonVerbatimAndSkipsOtherFields() {
+        String datos = "{\"nodes\":[{\"id\":\"1\",\"label\":\"á \\\"}\\\" [\"}],\"edges\":[]}";
+        MapRequest req = parse("\uFEFF {\"extra\":{\"a\":[1,{\"b\":\"}\"}],\"c\":null},\"id\":null,"
+            + "\"datos_json\":" + datos + ",\"titulo\":\"T\",\"flag\":true,\"n\":-1.5e3}");
+        assertFalse(req.hasId());
+        assertEquals("T", req.getTitulo());
+        assertEquals(datos, req.getDatosJson());
+    }
+
+    @Test
+    void idAcceptsNumericStringsLikeJsonObject() {
+        assertEquals(7, parse("{\"id\":\" 7 \"}").getId());
+        assertEquals(1, parse("{\"id\":1.5}").getId());
+    }
+
+    @Test
+    void missingFieldsAreNull() {
+        MapRequest req = parse("{}");
+        assertFalse(req.hasId());
+        assertNull(req.getTitulo());
+        assertNull(req.getDatosJson());
+    }
+
+    @Test
+    void rejectsMalformedBodies() {
+        StringBuilder deep = new StringBuilder("{\"x\":");
+        for (int i = 0; i < 1000; i++) {
+            deep.append('[');
+        }
+        for (String body : Arrays.asList(
+                "", "[]", "{", "{\"titulo\"}", "{\"titulo\":\"a\",}", "{\"titulo\":\"a\"} x",
+                "{\"titulo\":\"sin cerrar}", "{\"titulo\":\"\\q\"}", "{\"titulo\":\"\\u12\"}",
+                "{\"titulo\":\"a\tb\"}", "{\"titulo\":5}", "{\"id\":\"siete\"}", "{\"id\":99999999999}",
+                "{\"datos_json\":[1]}", "{\"x\":[1,}",
+                deep.toString())) {
+            assertThrows(JSONException.class, () -> parse(body), body);
+        }
+    }
+
+    @Test
+    void readsBodiesWithAndWithoutContentLength() throws IOException {
+        String body = "{\"titulo\":\"Título\",\"datos_json\":{\"nodes\":[],\"edges\":[]}}";
+        byte[] utf8 = body.getBytes(StandardCharsets.UTF_8);
+        MapRequest req = HttpUtils.parseMapRequest(request(new ByteArrayInputStream(utf8), utf8.length, null));
+        assertEquals("Título", req.getTitulo());
+        req = HttpUtils.parseMapRequest(request(new ByteArrayInputStream(utf8), -1, null));
+        assertEquals("{\"nodes\":[],\"edges\":[]}", req.getDatosJson());
+
+        byte[] latin1 = body.getBytes(StandardCharsets.ISO_8859_1);
+        req = HttpUtils.parseMapRequest(request(new ByteArrayInputStream(latin1), latin1.length, "ISO-8859-1"));
+        assertEquals("Título", req.getTitulo());
+    }
+
+    @Test
+    void rejectsEmptyAndOversizedBodies() {
+        assertThrows(JSONException.class,
+            () -> HttpUtils.parseMapRequest(request(new ByteArrayInputStream(new byte[0]), 0, null)));
+        // Con Content-Length el límite se comprueba antes de leer
+        assertThrows(HttpUtils.PayloadTooLargeException.class,
+            () -> HttpUtils.parseMapRequest(request(filler(0), MAX_BODY_BYTES + 1L, null)));
+        // Sin Content-Length se corta al pasar el límite
+        assertThrows(HttpUtils.PayloadTooLargeException.class,
+            () -> HttpUtils.readRequestBody(request(filler(MAX_BODY_BYTES + 1L), -1, null)));
+    }
+}
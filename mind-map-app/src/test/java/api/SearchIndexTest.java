@@ -0,0 +1,201 @@
+package api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class SearchIndexTest {
+
+    private static final int USUARIO = 1;
+
+    private static String datos(String... labels) {
+        StringBuilder json = new StringBuilder("{\"nodes\":[");
+        for (int i = 0; i < labels.length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":\"n").append(i + 1).append("\",\"data\":{\"label\":\"")
+                .append(labels[i]).append("\"}}");
+        }
+        return json.append("],\"edges\":[]}").toString();
+    }
+
+    private static MindMapRecord mapa(int id, int version, String titulo, String datosJson) {
+        return new MindMapRecord(id, titulo, datosJson, null, 0, 0, version);
+    }
+
+    private static SearchIndex.Loader loader(MindMapRecord... mapas) {
+        return (usuarioId, handler) -> {
+            for (MindMapRecord mapa : mapas) {
+                handler.handle(mapa);
+            }
+        };
+    }
+
+    private static List<Integer> ids(SearchIndex.Result result) {
+        List<Integer> ids = new ArrayList<>();
+        for (SearchIndex.Hit hit : result.getHits()) {
+            ids.add(hit.getMapaId());
+        }
+        return ids;
+    }
+
+    @Test
+    void tokenizeFoldsCaseAndAccents() {
+        assertEquals(Arrays.asList("reunion", "del", "ano", "2024"),
+            SearchIndex.tokenize("¡Reunión DEL año-2024!"));
+        assertTrue(SearchIndex.tokenize(null).isEmpty());
+    }
+
+    @Test
+    void matchesPrefixesAndIgnoresAccents() throws SQLException {
+        SearchIndex index = new SearchIndex(10);
+        SearchIndex.Loader loader = loader(
+            mapa(1, 1, "Planificación del año", datos("Reunión de equipo", "Presupuesto")),
+            mapa(2, 1, "Lista de la compra", datos("Pan", "Leche")));
+
+        assertEquals(Arrays.asList(1), ids(index.search(USUARIO, "planif", 10, 5, loader)));
+        assertEquals(Arrays.asList(1), ids(index.search(USUARIO, "AÑO", 10, 5, loader)));
+        assertEquals(Arrays.asList(2), ids(index.search(USUARIO, "leche", 10, 5, loader)));
+
+        SearchIndex.Result result = index.search(USUARIO, "reunion equi", 10, 5, loader);
+        assertEquals(1, result.getTotal());
+        assertEquals(Arrays.asList("n1"), result.getHits().get(0).getNodeIds());
+
+        // Todos los términos deben aparecer en el mismo mapa
+        assertEquals(0, index.search(USUARIO, "reunion leche", 10, 5, loader).getTotal());
+        // Un término de una letra solo encaja exacto
+        assertEquals(0, index.search(USUARIO, "p", 10, 5, loader).getTotal());
+        assertEquals(1, index.getBuildCount());
+    }
+
+    @Test
+    void titleMatchesRankAboveNodeMatches() throws SQLException {
+        SearchIndex index = new SearchIndex(10);
+        SearchIndex.Result result = index.search(USUARIO, "viaje", 10, 5, loader(
+            mapa(1, 1, "Notas", datos("Viaje a Roma")),
+            mapa(2, 1, "Viaje", datos("Hoteles"))));
+        assertEquals(2, result.getTotal());
+        assertEquals(Arrays.asList(2, 1), ids(result));
+        assertEquals(1, index.search(USUARIO, "viaje", 1, 5, null).getHits().size());
+    }
+
+    @Test
+    void writesKeepTheLoadedIndexCurrent() throws SQLException {
+        SearchIndex index = new SearchIndex(10);
+        index.search(USUARIO, "x", 10, 5, loader(mapa(1, 2, "Antiguo", datos())));
+
+        index.update(USUARIO, 1, 3, "Nuevo", datos());
+        assertEquals(Arrays.asList(1), ids(index.search(USUARIO, "nuevo", 10, 5, null)));
+        assertEquals(0, index.search(USUARIO, "antiguo", 10, 5, null).getTotal());
+
+        // Una escritura con versión anterior llega tarde y no pisa la más nueva
+        index.update(USUARIO, 1, 2, "Antiguo", datos());
+        assertEquals(1, index.search(USUARIO, "nuevo", 10, 5, null).getTotal());
+
+        // Versión 0 (desconocida): se aplica siempre
+        index.update(USUARIO, 1, 0, "Otro", datos());
+        assertEquals(1, index.search(USUARIO, "otro", 10, 5, null).getTotal());
+
+        index.remove(USUARIO, 1);
+        assertEquals(0, index.search(USUARIO, "otro", 10, 5, null).getTotal());
+    }
+
+    @Test
+    void writesDuringTheBuildWinOverScannedRows() throws SQLException {
+        SearchIndex index = new SearchIndex(10);
+        SearchIndex.Result result = index.search(USUARIO, "mapa", 10, 5, (usuarioId, handler) -> {
+            // Llegan mientras se recorren las filas, que ya son viejas
+            index.update(usuarioId, 1, 5, "Mapa nuevo", datos());
+            index.update(usuarioId, 2, 0, "Mapa sin version", datos());
+            index.remove(usuarioId, 3);
+            handler.handle(mapa(1, 4, "Mapa viejo", datos()));
+            handler.handle(mapa(2, 9, "Mapa viejo", datos()));
+            handler.handle(mapa(3, 1, "Mapa borrado", datos()));
+            handler.handle(mapa(4, 1, "Mapa intacto", datos()));
+        });
+        assertEquals(Arrays.asList(4, 2, 1), ids(result));
+        assertEquals(0, index.search(USUARIO, "viejo", 10, 5, null).getTotal());
+        assertEquals(0, index.search(USUARIO, "borrado", 10, 5, null).getTotal());
+
+        // Terminada la construcción, las filas de un recorrido nuevo vuelven a aplicarse
+        index.invalidate(USUARIO);
+        index.search(USUARIO, "x", 10, 5, loader(mapa(3, 1, "Mapa borrado", datos())));
+        assertEquals(1, index.search(USUARIO, "borrado", 10, 5, null).getTotal());
+    }
+
+    private static SearchIndex.State state(MindMapRecord... mapas) {
+        long idSum = 0;
+        long versionSum = 0;
+        long digest = 0;
+        for (MindMapRecord mapa : mapas) {
+            idSum += mapa.getId();
+            versionSum += mapa.getVersion();
+            digest ^= SearchIndex.digest(mapa.getId(), mapa.getVersion());
+        }
+        return new SearchIndex.State(mapas.length, idSum, versionSum, digest);
+    }
+
+    @Test
+    void digestMatchesMysqlCrc32() {
+        // SELECT CRC32('1:1')
+        assertEquals(2929690870L, SearchIndex.digest(1, 1));
+    }
+
+    @Test
+    void staleIndexesAreRebuiltBeforeAnswering() throws SQLException {
+        SearchIndex index = new SearchIndex(10);
+        MindMapRecord v1 = mapa(1, 1, "Antiguo", datos());
+        MindMapRecord otro = mapa(2, 3, "Otro", datos());
+        index.search(USUARIO, "x", 10, 5, loader(v1, otro), state(v1, otro));
+
+        // Coincide con la base de datos: no se vuelve a recorrer
+        assertEquals(1, index.search(USUARIO, "antiguo", 10, 5, null, state(v1, otro)).getTotal());
+        assertEquals(1, index.getBuildCount());
+
+        // Otro nodo escribió: mismo total y mismas sumas, pero otra versión en cada mapa
+        MindMapRecord v2 = mapa(1, 2, "Nuevo", datos());
+        MindMapRecord otroV2 = mapa(2, 2, "Otro", datos());
+        SearchIndex.Loader db = loader(v2, otroV2);
+        assertEquals(1, index.search(USUARIO, "nuevo", 10, 5, db, state(v2, otroV2)).getTotal());
+        assertEquals(0, index.search(USUARIO, "antiguo", 10, 5, db, state(v2, otroV2)).getTotal());
+        assertEquals(2, index.getBuildCount());
+        assertEquals(1, index.getStaleCount());
+
+        // Un mapa creado en otro nodo también se detecta
+        MindMapRecord nuevo = mapa(3, 1, "Creado", datos());
+        db = loader(v2, otroV2, nuevo);
+        assertEquals(1, index.search(USUARIO, "creado", 10, 5, db, state(v2, otroV2, nuevo)).getTotal());
+        assertEquals(3, index.getBuildCount());
+    }
+
+    @Test
+    void writesForUnloadedUsersAreIgnored() throws SQLException {
+        SearchIndex index = new SearchIndex(10);
+        index.update(USUARIO, 1, 1, "Fantasma", datos());
+        assertEquals(0, index.getUserCount());
+        assertEquals(0, index.search(USUARIO, "fantasma", 10, 5, loader()).getTotal());
+    }
+
+    @Test
+    void failedBuildsAreRetriedAndEvictionsRebuild() throws SQLException {
+        SearchIndex index = new SearchIndex(1);
+        assertThrows(SQLException.class, () -> index.search(USUARIO, "x", 10, 5, (usuarioId, handler) -> {
+            throw new SQLException("caída");
+        }));
+        assertEquals(0, index.getUserCount());
+
+        SearchIndex.Loader loader = loader(mapa(1, 1, "Recuperado", datos()));
+        assertEquals(1, index.search(USUARIO, "recuperado", 10, 5, loader).getTotal());
+        index.search(2, "x", 10, 5, loader());
+        assertEquals(1, index.getEvictionCount());
+        assertEquals(1, index.search(USUARIO, "recuperado", 10, 5, loader).getTotal());
+        assertEquals(3, index.getBuildCount());
+    }
+}
@@ -0,0 +1,130 @@
+package api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+class SpatialIndexTest {
+
+    private static String node(String id, double x, double y, double w, double h) {
+        return "{\"id\":\"" + id + "\",\"position\":{\"x\":" + x + ",\"y\":" + y + "},\"width\":" + w
+            + ",\"height\":" + h + ",\"data\":{\"label\":\"" + id + "\"}}";
+    }
+
+    private static String doc(List<String> nodes, List<String> edges) {
+        return "{\"nodes\":[" + String.join(",", nodes) + "],\"edges\":[" + String.join(",", edges) + "]}";
+    }
+
+    private static List<String> ids(List<String> json) {
+        List<String> ids = new ArrayList<>();
+        for (String element : json) {
+            ids.add(new JSONObject(element).getString("id"));
+        }
+        return ids;
+    }
+
+    @Test
+    void emptyDocumentReturnsEmptyWindow() {
+        SpatialIndex index = SpatialIndex.build("{\"nodes\":[],\"edges\":[]}", 1);
+        SpatialIndex.Window window = index.query(-100, -100, 100, 100);
+        assertTrue(window.getNodes().isEmpty());
+        assertTrue(window.getEdges().isEmpty());
+        assertEquals(0, index.getNodeCount());
+    }
+
+    @Test
+    void returnsIntersectingNodesAndTouchingEdgesInDocumentOrder() {
+        List<String> nodes = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            nodes.add(node("n" + i, (i % 10) * 200, (i / 10) * 200, 150, 40));
+        }
+        List<String> edges = new ArrayList<>();
+        edges.add("{\"id\":\"e1\",\"source\":\"n0\",\"target\":\"n99\"}");
+        edges.add("{\"id\":\"e2\",\"source\":\"n98\",\"target\":\"n99\"}");
+        SpatialIndex index = SpatialIndex.build(doc(nodes, edges), 3);
+
+        SpatialIndex.Window window = index.query(0, 0, 360, 20);
+        assertEquals(Arrays.asList("n0", "n1"), ids(window.getNodes()));
+        assertEquals(Arrays.asList("e1"), ids(window.getEdges()));
+        assertEquals(3, index.getVersion());
+        assertEquals(2, index.getEdgeCount());
+    }
+
+    @Test
+    void matchesBruteForceForRandomWindows() {
+        java.util.Random random = new java.util.Random(42);
+        List<String> nodes = new ArrayList<>();
+        double[][] boxes = new double[500][];
+        for (int i = 0; i < boxes.length; i++) {
+            double x = random.nextInt(10000) - 5000, y = random.nextInt(4000) - 2000;
+            double w = random.nextInt(300), h = random.nextInt(100);
+            boxes[i] = new double[]{x, y, x + w, y + h};
+            nodes.add(node("n" + i, x, y, w, h));
+        }
+        SpatialIndex index = SpatialIndex.build(doc(nodes, new ArrayList<>()), 1);
+        for (int q = 0; q < 200; q++) {
+            double x1 = random.nextInt(12000) - 6000, y1 = random.nextInt(5000) - 2500;
+            double x2 = x1 + random.nextInt(3000), y2 = y1 + random.nextInt(1500);
+            List<String> expected = new ArrayList<>();
+            for (int i = 0; i < boxes.length; i++) {
+                if (boxes[i][2] >= x1 && boxes[i][0] <= x2 && boxes[i][3] >= y1 && boxes[i][1] <= y2) {
+                    expected.add("n" + i);
+                }
+            }
+            assertEquals(expected, ids(index.query(x1, y1, x2, y2).getNodes()));
+        }
+    }
+
+    @Test
+    void hugeWindowReturnsPromptly() {
+        List<String> nodes = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            nodes.add(node("n" + i, i * 10, i * 7, 5, 5));
+        }
+        SpatialIndex index = SpatialIndex.build(doc(nodes, new ArrayList<>()), 1);
+        SpatialIndex.Window window = assertTimeoutPreemptively(Duration.ofSeconds(2),
+            () -> index.query(-1e300, -1e300, 1e300, 1e300));
+        assertEquals(50, window.getNodes().size());
+    }
+
+    @Test
+    void windowOutsideTheMapIsEmpty() {
+        SpatialIndex index = SpatialIndex.build(doc(Arrays.asList(node("a", 0, 0, 10, 10), node("b", 100, 100, 10, 10)),
+            new ArrayList<>()), 1);
+        assertTrue(index.query(-500, -500, -400, -400).getNodes().isEmpty());
+        assertTrue(index.query(500, 500, 600, 600).getNodes().isEmpty());
+        assertEquals(Arrays.asList("b"), ids(index.query(105, 105, 1e9, 1e9).getNodes()));
+    }
+
+    @Test
+    void oversizedNodeOnFlatMapDoesNotBlowUpTheGrid() {
+        List<String> nodes = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            nodes.add(node("n" + i, i, 0, 1, 0));
+        }
+        nodes.add(node("wide", 0, 0, 1e9, 0));
+        SpatialIndex index = assertTimeoutPreemptively(Duration.ofSeconds(5),
+            () -> SpatialIndex.build(doc(nodes, new ArrayList<>()), 1));
+        // El nodo enorme aparece en cualquier ventana que toque su caja
+        assertEquals(Arrays.asList("wide"), ids(index.query(5e8, 0, 5e8 + 1, 0).getNodes()));
+        assertEquals(Arrays.asList("n499", "n500", "n501", "wide"), ids(index.query(500, 0, 501, 0).getNodes()));
+    }
+
+    @Test
+    void nonFiniteAndNegativeSizesAreTolerated() {
+        String document = "{\"nodes\":["
+            + "{\"id\":\"a\",\"position\":{\"x\":\"abc\",\"y\":1e400},\"width\":-5,\"height\":\"x\"},"
+            + "{\"id\":\"b\",\"position\":{\"x\":-1.7e308,\"y\":1.7e308},\"width\":1.7e308,\"height\":1}"
+            + "],\"edges\":[]}";
+        SpatialIndex index = SpatialIndex.build(document, 1);
+        assertEquals(Arrays.asList("a"), ids(index.query(-1, -1, 1, 1).getNodes()));
+        assertEquals(2, index.query(-1.7e308, -1.7e308, 1.7e308, 1.7e308).getNodes().size());
+    }
+}
@@ -0,0 +1,109 @@
+package api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class TokenBucketTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    void allowsTheBurstThenOneTokenPerInterval() {
+        TokenBucket bucket = new TokenBucket(3, 10);
+        long start = System.nanoTime();
+
+        assertEquals(0, bucket.tryAcquire(start));
+        assertEquals(0, bucket.tryAcquire(start));
+        assertEquals(0, bucket.tryAcquire(start));
+        assertEquals(100 * MS, bucket.tryAcquire(start));
+        assertEquals(40 * MS, bucket.tryAcquire(start + 60 * MS));
+
+        assertEquals(0, bucket.tryAcquire(start + 100 * MS));
+        assertEquals(100 * MS, bucket.tryAcquire(start + 100 * MS));
+        assertEquals(4, bucket.getAllowed());
+        assertEquals(3, bucket.getRejected());
+    }
+
+    @Test
+    void refillIsCappedAtCapacity() {
+        TokenBucket bucket = new TokenBucket(2, 10);
+        long later = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+
+        assertEquals(0, bucket.tryAcquire(later));
+        assertEquals(0, bucket.tryAcquire(later));
+        assertTrue(bucket.tryAcquire(later) > 0);
+    }
+
+    @Test
+    void rejectedRequestsDoNotConsumeTokens() {
+        TokenBucket bucket = new TokenBucket(1, 10);
+        long start = System.nanoTime();
+
+        assertEquals(0, bucket.tryAcquire(start));
+        for (int i = 0; i < 5; i++) {
+            assertTrue(bucket.tryAcquire(start + 50 * MS) > 0);
+        }
+        assertEquals(0, bucket.tryAcquire(start + 100 * MS));
+    }
+
+    @Test
+    void isIdleOnceFullForTheGivenTime() {
+        TokenBucket bucket = new TokenBucket(2, 10);
+        long start = System.nanoTime();
+        bucket.tryAcquire(start);
+        bucket.tryAcquire(start);
+
+        // Lleno de nuevo en start + 200ms
+        assertFalse(bucket.isIdle(start + 200 * MS, 1));
+        assertTrue(bucket.isIdle(start + 200 * MS, 0));
+        assertTrue(bucket.isIdle(start + 300 * MS, 100 * MS));
+    }
+
+    @Test
+    void concurrentCallersNeverExceedTheBurst() throws InterruptedException {
+        int capacity = 50;
+        TokenBucket bucket = new TokenBucket(capacity, 0.001);
+        long now = System.nanoTime();
+        AtomicInteger granted = new AtomicInteger();
+        CountDownLatch go = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 100; i++) {
+                    if (bucket.tryAcquire(now) == 0) {
+                        granted.incrementAndGet();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        go.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(capacity, granted.get());
+        assertEquals(capacity, bucket.getAllowed());
+        assertEquals(800 - capacity, bucket.getRejected());
+    }
+
+    @Test
+    void rejectsInvalidParameters() {
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket(0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket(1, 0));
+    }
+}